@@ -45,6 +45,7 @@ import javax.persistence.EntityManager;
 import fr.gouv.education.acrennes.alambic.exception.AlambicException;
 import fr.gouv.education.acrennes.alambic.utils.Config;
 import fr.gouv.education.acrennes.alambic.utils.PlaceholderResolver;
+import fr.gouv.education.acrennes.alambic.utils.UnicityRegistry;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
@@ -59,8 +60,13 @@ import fr.gouv.education.acrennes.alambic.generator.service.RandomGeneratorServi
 import fr.gouv.education.acrennes.alambic.jobs.CallableContext;
 import fr.gouv.education.acrennes.alambic.jobs.ExecutorFactory;
 import fr.gouv.education.acrennes.alambic.jobs.Jobs;
+import fr.gouv.education.acrennes.alambic.jobs.load.gar.builder.GARHelper;
+import fr.gouv.education.acrennes.alambic.ldap.EntrySnapshotsRegistry;
+import fr.gouv.education.acrennes.alambic.ldap.LdapConnectionPools;
+import fr.gouv.education.acrennes.alambic.ldap.LdapRelationBuffers;
 import fr.gouv.education.acrennes.alambic.monitoring.ActivityMBean;
 import fr.gouv.education.acrennes.alambic.persistence.EntityManagerHelper;
+import fr.gouv.education.acrennes.alambic.persistence.JdbcConnectionPools;
 import fr.gouv.education.acrennes.alambic.utils.Variables;
 
 public class APIAlambic implements IAPIAlambic {
@@ -180,6 +186,9 @@ public class APIAlambic implements IAPIAlambic {
 
         // Initialize the executor factory (multi-threading engine)
         ExecutorFactory.initialize(properties);
+
+        // Reuse the connections and reserve the values of the unicity function during the run
+        UnicityRegistry.open();
     }
 
     public static void close() throws AlambicException {
@@ -189,6 +198,24 @@ public class APIAlambic implements IAPIAlambic {
         // Close multi-threading factory
         ExecutorFactory.close();
 
+        // Write the deferred LDAP relations left by an interrupted job
+        LdapRelationBuffers.close();
+
+        // Close the LDAP connection pools
+        LdapConnectionPools.close();
+
+        // Close the connections and forget the reserved values of the unicity function
+        UnicityRegistry.close();
+
+        // Forget the GAR codes controlled during the run
+        GARHelper.getInstance().clearCodeValidityCache();
+
+        // Persist the pending snapshots of the incremental LDAP synchronizations
+        EntrySnapshotsRegistry.close();
+
+        // Close the JDBC connection pools
+        JdbcConnectionPools.close();
+
         // Close persistence unit
         EntityManagerHelper.close();
     }
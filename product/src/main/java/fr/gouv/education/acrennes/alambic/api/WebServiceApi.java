@@ -16,6 +16,7 @@
  ******************************************************************************/
 package fr.gouv.education.acrennes.alambic.api;
 
+import java.net.URI;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -38,6 +39,7 @@ import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
@@ -132,7 +134,8 @@ public class WebServiceApi {
 			request = new HttpPost(uri);
 			break;
 		case HttpMethod.DELETE:
-			request = new HttpDelete(uri);
+			// some APIs expect a payload along with the DELETE method (e.g. Elastic '_pit', '_search/scroll')
+			request = StringUtils.isNotBlank(payload) ? new HttpDeleteWithBody(uri) : new HttpDelete(uri);
 			break;
 		default:
 			throw new AlambicException("Méthode HTTP non supportée '" + method + "'");
@@ -205,4 +208,18 @@ public class WebServiceApi {
 		return String.format("{%s}", String.join(",", list));
 	}
 
+	private static class HttpDeleteWithBody extends HttpEntityEnclosingRequestBase {
+
+		public HttpDeleteWithBody(final String uri) {
+			super();
+			setURI(URI.create(uri));
+		}
+
+		@Override
+		public String getMethod() {
+			return HttpDelete.METHOD_NAME;
+		}
+
+	}
+
 }
@@ -30,8 +30,6 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.text.Normalizer;
-import java.text.Normalizer.Form;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -41,7 +39,6 @@ import java.util.Map;
 import java.util.Random;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -332,40 +329,8 @@ public class FMFunctions {
 	}
 	
 	public String normalize(final String rawStr, NormalizationPolicy policy, boolean discardAccents) {
-		String str = rawStr.trim();
-
-		// get rid of accentuated characters if required;
-		if (discardAccents) {
-			str = Normalizer.normalize(str, Form.NFD).replaceAll("[^\\p{ASCII}]", "");
-		}
-
-		// escape the special characters according to the policy passed-in parameter
-		policy = (null != policy) ? policy : NormalizationPolicy.DEFAULT;
-		for (String rules : policy.getRules()) {
-			String[] rule = rules.split("=");
-			Pattern pattern = Pattern.compile(rule[0]);
-			Matcher matcher = pattern.matcher(str);
-			while (matcher.find()) {
-				if (1 == rule.length) {
-					str = str.replaceAll(rule[0], "");
-				} else {
-					if (rule[1].contains("$")) {
-						String dst = rule[1];
-						Pattern capturePattern = Pattern.compile("\\$(\\d+)");
-						Matcher captureMatcher = capturePattern.matcher(rule[1]);
-						while (captureMatcher.find()) {
-							Integer index = Integer.valueOf(captureMatcher.group(1));
-							dst = dst.replaceAll("\\" + captureMatcher.group(0), matcher.group(index));
-						}
-						str = str.replaceAll(matcher.group(0), dst);
-					} else {
-						str = str.replaceAll(rule[0], rule[1]);
-					}
-				}
-			}
-		}
-
-		return str;
+		// the rules of the policy are compiled once (null policy stands for the default one)
+		return NormalizationPipeline.forPolicy(policy).normalize(rawStr, discardAccents);
 	}
 
 	public String capitalize(final String rawStr) {
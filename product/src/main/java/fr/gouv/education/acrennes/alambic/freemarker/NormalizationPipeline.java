@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.freemarker;
+
+import java.text.Normalizer;
+import java.text.Normalizer.Form;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Chaîne de normalisation précompilée d'une politique (cf. {@link NormalizationPolicy}) : les expressions régulières
+ * des règles sont compilées une seule fois et les résultats des chaînes déjà normalisées sont mémorisés. La mémoire est
+ * bornée : une fois pleine, les nouvelles chaînes sont normalisées sans y être ajoutées, les résultats mémorisés restant
+ * réutilisés.
+ * 
+ * Le comportement est celui de l'implémentation historique de {@link FMFunctions#normalize(String, NormalizationPolicy, boolean)},
+ * y compris lorsque le remplacement d'une règle n'est pas idempotent.
+ */
+final class NormalizationPipeline {
+
+	private static final char MAX_ASCII_CHARACTER = 0x7F;
+	private static final String REGEX_META_CHARACTERS = "\\^$.|?*+()[]{}";
+	private static final Pattern CAPTURE_PATTERN = Pattern.compile("\\$(\\d+)");
+	private static final int MAX_CACHE_SIZE = 10000;
+	private static final Map<String, String> CACHE = new ConcurrentHashMap<>();
+	private static final Map<NormalizationPolicy, NormalizationPipeline> PIPELINES = new EnumMap<>(NormalizationPolicy.class);
+
+	static {
+		for (NormalizationPolicy policy : NormalizationPolicy.values()) {
+			PIPELINES.put(policy, new NormalizationPipeline(policy));
+		}
+	}
+
+	private final String name;
+	private final List<Rule> rules;
+
+	private NormalizationPipeline(final NormalizationPolicy policy) {
+		final List<Rule> rules = new ArrayList<>();
+		for (String rule : policy.getRules()) {
+			rules.add(new Rule(rule));
+		}
+		this.name = policy.name();
+		this.rules = Collections.unmodifiableList(rules);
+	}
+
+	static NormalizationPipeline forPolicy(final NormalizationPolicy policy) {
+		return PIPELINES.get((null != policy) ? policy : NormalizationPolicy.DEFAULT);
+	}
+
+	String normalize(final String rawStr, final boolean discardAccents) {
+		final String str = rawStr.trim();
+		final String key = name + (discardAccents ? ":1:" : ":0:") + str;
+		String normalized = CACHE.get(key);
+		if (null == normalized) {
+			normalized = apply(discardAccents ? discardAccents(str) : str);
+			if (MAX_CACHE_SIZE > CACHE.size()) {
+				CACHE.putIfAbsent(key, normalized);
+			}
+		}
+		return normalized;
+	}
+
+	private String apply(final String str) {
+		String result = str;
+		for (Rule rule : rules) {
+			result = rule.apply(result);
+		}
+		return result;
+	}
+
+	/**
+	 * Supprime les caractères non ASCII après décomposition canonique (NFD) : équivalent à
+	 * <code>Normalizer.normalize(str, Form.NFD).replaceAll("[^\\p{ASCII}]", "")</code>, sans expression régulière.
+	 */
+	static String discardAccents(final String str) {
+		if (isAscii(str)) {
+			return str;
+		}
+
+		final String decomposed = Normalizer.normalize(str, Form.NFD);
+		final StringBuilder builder = new StringBuilder(decomposed.length());
+		for (int i = 0; i < decomposed.length(); i++) {
+			final char c = decomposed.charAt(i);
+			if (MAX_ASCII_CHARACTER >= c) {
+				builder.append(c);
+			}
+		}
+		return builder.toString();
+	}
+
+	private static boolean isAscii(final String str) {
+		for (int i = 0; i < str.length(); i++) {
+			if (MAX_ASCII_CHARACTER < str.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Règle "expression=remplacement" de la boîte à outils (cf. {@link NormalizationToolbox}).
+	 */
+	private static final class Rule {
+
+		private final Pattern pattern;
+		private final String replacement;
+		/* the "$n" references of the replacement, if any */
+		private final List<Pattern> placeholders = new ArrayList<>();
+		private final List<Integer> groups = new ArrayList<>();
+
+		Rule(final String rule) {
+			final String[] tokens = rule.split("=");
+			this.pattern = Pattern.compile(tokens[0]);
+			this.replacement = (1 == tokens.length) ? "" : tokens[1];
+			if (1 < tokens.length && tokens[1].contains("$")) {
+				final Matcher captureMatcher = CAPTURE_PATTERN.matcher(tokens[1]);
+				while (captureMatcher.find()) {
+					placeholders.add(Pattern.compile("\\" + captureMatcher.group(0)));
+					groups.add(Integer.valueOf(captureMatcher.group(1)));
+				}
+			}
+		}
+
+		String apply(final String str) {
+			String result = str;
+			// the matches are searched in the string as it was before the rule was applied
+			final Matcher matcher = pattern.matcher(str);
+			if (placeholders.isEmpty()) {
+				// each match triggers a whole replacement: once the string no longer changes, the next ones are useless
+				while (matcher.find()) {
+					final String replaced = pattern.matcher(result).replaceAll(replacement);
+					if (replaced.equals(result)) {
+						break;
+					}
+					result = replaced;
+				}
+			} else {
+				while (matcher.find()) {
+					String dst = replacement;
+					for (int i = 0; i < placeholders.size(); i++) {
+						dst = placeholders.get(i).matcher(dst).replaceAll(matcher.group(groups.get(i)));
+					}
+					result = replaceAll(result, matcher.group(0), dst);
+				}
+			}
+			return result;
+		}
+
+		/* the matched text is used as a regular expression: avoid compiling it when it is a plain text */
+		private static String replaceAll(final String str, final String regex, final String dst) {
+			if (isPlainText(regex) && -1 == dst.indexOf('$') && -1 == dst.indexOf('\\')) {
+				return str.replace(regex, dst);
+			}
+			return str.replaceAll(regex, dst);
+		}
+
+		private static boolean isPlainText(final String regex) {
+			for (int i = 0; i < regex.length(); i++) {
+				if (-1 != REGEX_META_CHARACTERS.indexOf(regex.charAt(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+}
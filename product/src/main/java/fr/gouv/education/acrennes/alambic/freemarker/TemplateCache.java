@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.freemarker;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import fr.gouv.education.acrennes.alambic.Constants;
+import freemarker.ext.dom.NodeModel;
+import freemarker.template.Configuration;
+
+/**
+ * Cache, partagé par tous les jobs du processus, des configurations FreeMarker et des fichiers XML (éléments
+ * &lt;xmlfile&gt;) mis à disposition des templates.
+ * 
+ * Une configuration est partagée par les destinations de même répertoire de templates et de mêmes paramètres : les
+ * templates n'y sont donc analysés qu'une fois (puis rechargés par FreeMarker s'ils sont modifiés). Un fichier XML
+ * n'est analysé à nouveau que si sa date de modification ou sa taille change ; chaque demande obtient une copie du
+ * document analysé, les arbres DOM ne pouvant être parcourus par plusieurs threads à la fois.
+ */
+public final class TemplateCache {
+
+	private static final Log log = LogFactory.getLog(TemplateCache.class);
+
+	private static final int MAX_CACHE_SIZE = 100;
+	private static final Map<String, Configuration> CONFIGURATIONS = new ConcurrentHashMap<>();
+	private static final Map<String, XmlFile> XML_FILES = new ConcurrentHashMap<>();
+
+	private TemplateCache() {
+	}
+
+	/**
+	 * Configuration FreeMarker partagée (utilisant l'{@link AlambicObjectWrapper}) pour le répertoire de templates et
+	 * les paramètres passés.
+	 * 
+	 * @param templateDirectory : le répertoire des templates
+	 * @param outputEncoding : l'encodage des fichiers produits
+	 * @param classicCompatible : le mode de compatibilité "classique" de FreeMarker
+	 * @return la configuration, à ne pas modifier.
+	 * @throws IOException si le répertoire des templates n'est pas accessible
+	 */
+	public static Configuration getConfiguration(final String templateDirectory, final String outputEncoding, final boolean classicCompatible) throws IOException {
+		final File directory = new File(templateDirectory).getCanonicalFile();
+		final String key = directory.getPath() + "|" + outputEncoding + "|" + classicCompatible;
+		Configuration cfg = CONFIGURATIONS.get(key);
+		if (null == cfg) {
+			synchronized (CONFIGURATIONS) {
+				cfg = CONFIGURATIONS.get(key);
+				if (null == cfg) {
+					cfg = new Configuration(Constants.FREEMARKER_VERSION);
+					cfg.setDirectoryForTemplateLoading(directory);
+					cfg.setObjectWrapper(new AlambicObjectWrapper());
+					cfg.setOutputEncoding(outputEncoding);
+					cfg.setClassicCompatible(classicCompatible);
+					if (MAX_CACHE_SIZE <= CONFIGURATIONS.size()) {
+						CONFIGURATIONS.clear();
+					}
+					CONFIGURATIONS.put(key, cfg);
+					log.debug("New FreeMarker configuration for the template directory '" + directory.getPath() + "'");
+				}
+			}
+		}
+		return cfg;
+	}
+
+	/**
+	 * Modèle FreeMarker d'un fichier XML, équivalent à {@link NodeModel#parse(File, boolean, boolean)}.
+	 * 
+	 * @param file : le fichier XML
+	 * @param removeComments : suppression des commentaires
+	 * @param removePIs : suppression des instructions de traitement
+	 * @return le modèle d'une copie du document analysé.
+	 * @throws SAXException si le fichier n'est pas un document XML valide
+	 * @throws IOException si le fichier n'est pas accessible
+	 * @throws ParserConfigurationException si l'analyseur XML ne peut être instancié
+	 */
+	public static NodeModel getXmlFileModel(final File file, final boolean removeComments, final boolean removePIs) throws SAXException, IOException, ParserConfigurationException {
+		final String key = file.getCanonicalPath() + "|" + removeComments + "|" + removePIs;
+		final long lastModified = file.lastModified();
+		final long length = file.length();
+		XmlFile xmlFile = XML_FILES.get(key);
+		if ((null == xmlFile) || !xmlFile.isUpToDate(lastModified, length)) {
+			@SuppressWarnings("deprecation")
+			final NodeModel model = NodeModel.parse(file, removeComments, removePIs);
+			xmlFile = new XmlFile(model.getNode(), lastModified, length);
+			if (MAX_CACHE_SIZE <= XML_FILES.size()) {
+				XML_FILES.clear();
+			}
+			XML_FILES.put(key, xmlFile);
+		}
+		return NodeModel.wrap(xmlFile.copy());
+	}
+
+	/**
+	 * Vide le cache (configurations et fichiers XML).
+	 */
+	public static void clear() {
+		CONFIGURATIONS.clear();
+		XML_FILES.clear();
+	}
+
+	private static final class XmlFile {
+
+		private final Node document;
+		private final long lastModified;
+		private final long length;
+
+		XmlFile(final Node document, final long lastModified, final long length) {
+			this.document = document;
+			this.lastModified = lastModified;
+			this.length = length;
+		}
+
+		boolean isUpToDate(final long lastModified, final long length) {
+			return (this.lastModified == lastModified) && (this.length == length);
+		}
+
+		/* the copy is much cheaper than a new parsing, but the DOM implementation is not thread-safe, even for reading */
+		synchronized Node copy() {
+			return document.cloneNode(true);
+		}
+	}
+
+}
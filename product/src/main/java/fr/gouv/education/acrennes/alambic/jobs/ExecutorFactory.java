@@ -17,8 +17,10 @@
 package fr.gouv.education.acrennes.alambic.jobs;
 
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 
 import fr.gouv.education.acrennes.alambic.exception.AlambicException;
@@ -32,12 +34,45 @@ public class ExecutorFactory {
 	private static final Log log = LogFactory.getLog(ExecutorFactory.class);
 
 	public static final String THREAD_POOL_SIZE = "multithreading.pool.size";
+	public static final String EXECUTOR_STRATEGY = "multithreading.executor";
 	private static final String DEFAULT_THREAD_POOL_SIZE = "20";
 	private static ExecutorFactory instance = null;
 	private final ExecutorService executor;
 
-	private ExecutorFactory(int poolSize) {
-		executor = Executors.newFixedThreadPool(poolSize);
+	public enum ExecutorStrategy {
+		/* Historical strategy : a fixed count of threads. Parent jobs waiting for their children do hold a thread. */
+		FIXED {
+			@Override
+			public ExecutorService newExecutor(final int poolSize) {
+				return Executors.newFixedThreadPool(poolSize);
+			}
+		},
+		/* Work-stealing pool : a parent job waiting for its children makes the pool create a compensation thread (managed blocking) */
+		FORK_JOIN {
+			@Override
+			public ExecutorService newExecutor(final int poolSize) {
+				return new ForkJoinPool(poolSize, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, false);
+			}
+		},
+		/* One virtual thread per job (JDK 21+), falls back to the work-stealing pool on former JDK */
+		VIRTUAL {
+			@Override
+			public ExecutorService newExecutor(final int poolSize) {
+				try {
+					return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+				} catch (ReflectiveOperationException e) {
+					log.warn("Virtual threads aren't supported by this JVM (" + System.getProperty("java.version") + "), the work-stealing executor is used instead");
+					return FORK_JOIN.newExecutor(poolSize);
+				}
+			}
+		};
+
+		public abstract ExecutorService newExecutor(final int poolSize);
+	}
+
+	private ExecutorFactory(final ExecutorStrategy strategy, final int poolSize) {
+		executor = strategy.newExecutor(poolSize);
+		log.info("Multi-threading engine initialized (strategy '" + strategy + "', pool size " + poolSize + ")");
 	}
 
 	private static ExecutorFactory getInstance() throws AlambicException {
@@ -58,8 +93,13 @@ public class ExecutorFactory {
 	
 	public static void initialize(Properties properties) throws AlambicException {
 		String size = properties.getProperty(THREAD_POOL_SIZE, DEFAULT_THREAD_POOL_SIZE);
+		String strategy = properties.getProperty(EXECUTOR_STRATEGY, ExecutorStrategy.FIXED.toString());
 		if (null == instance) {
-			instance = new ExecutorFactory(Integer.valueOf(size));
+			try {
+				instance = new ExecutorFactory(ExecutorStrategy.valueOf(strategy.trim().toUpperCase()), Integer.valueOf(size));
+			} catch (IllegalArgumentException e) {
+				throw new AlambicException("Unknown multi-threading executor strategy '" + strategy + "' (supported values are FIXED, FORK_JOIN and VIRTUAL)");
+			}
 		} else {
 			throw new AlambicException("ExecutorFactory is already instanciated!");
 		}
@@ -79,6 +119,41 @@ public class ExecutorFactory {
 		return future;
 	}
 
+	/**
+	 * Attente de la fin d'exécution d'un job soumis.
+	 * L'attente est signalée au pool (managed blocking) de sorte qu'un pool de type work-stealing compense le thread bloqué,
+	 * ce qui évite l'épuisement du pool lorsque des jobs parents attendent leurs jobs enfants.
+	 */
+	public static ActivityMBean await(final Future<ActivityMBean> future) throws InterruptedException, ExecutionException {
+		if (!future.isDone()) {
+			block(new ForkJoinPool.ManagedBlocker() {
+				@Override
+				public boolean block() throws InterruptedException {
+					try {
+						future.get();
+					} catch (ExecutionException e) {
+						// reported by the following call to get()
+					}
+					return true;
+				}
+
+				@Override
+				public boolean isReleasable() {
+					return future.isDone();
+				}
+			});
+		}
+
+		return future.get();
+	}
+
+	/**
+	 * Exécution d'une opération bloquante depuis un job (équivalent à une attente simple hors d'un pool work-stealing).
+	 */
+	public static void block(final ForkJoinPool.ManagedBlocker blocker) throws InterruptedException {
+		ForkJoinPool.managedBlock(blocker);
+	}
+
 	public static void close() throws AlambicException {
 		getInstance().shutdown();
 	}
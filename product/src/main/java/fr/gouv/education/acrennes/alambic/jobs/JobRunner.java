@@ -38,11 +38,14 @@ import fr.gouv.education.acrennes.alambic.jobs.load.AbstractDestination;
 import fr.gouv.education.acrennes.alambic.jobs.load.AbstractDestination.IsAnythingToDoStatus;
 import fr.gouv.education.acrennes.alambic.jobs.load.Destination;
 import fr.gouv.education.acrennes.alambic.jobs.load.DestinationFactory;
+import fr.gouv.education.acrennes.alambic.jobs.load.PagedDestinationScope;
 import fr.gouv.education.acrennes.alambic.monitoring.ActivityHelper;
 import fr.gouv.education.acrennes.alambic.monitoring.ActivityMBean;
 import fr.gouv.education.acrennes.alambic.monitoring.ActivityMBean.ACTIVITY_STATUS;
 import fr.gouv.education.acrennes.alambic.monitoring.ActivityMBean.ACTIVITY_TYPE;
 import fr.gouv.education.acrennes.alambic.monitoring.ActivityTrafficLight;
+import fr.gouv.education.acrennes.alambic.persistence.JdbcConnectionPools;
+import fr.gouv.education.acrennes.alambic.utils.Config;
 
 public class JobRunner implements CallableJob {
 
@@ -121,7 +124,7 @@ public class JobRunner implements CallableJob {
 
 				// Wait for all inner jobs to complete
 				for (final Future<ActivityMBean> future : futuresList) {
-					future.get(); // waiting for the job completion
+					ExecutorFactory.await(future); // waiting for the job completion
 				}
 			} else {
 				final Element pagedResource = getPagedResource(job);
@@ -129,19 +132,52 @@ public class JobRunner implements CallableJob {
 					pagedSource = SourceFactory.getSource(context, pagedResource);
 					jobActivity.setProcessing("Handle paged source '" + pagedResource.getName() + "'...");
 					final Iterator<List<Map<String, List<String>>>> pageItr = pagedSource.getPageIterator();
+					final PagedJobPipeline pipeline = new PagedJobPipeline(getMaxPagesInFlight(job));
 					int page = 1;
 					final List<Future<ActivityMBean>> futuresList = new ArrayList<>();
-					while (pageItr.hasNext() && doRunJob(job, jobActivity)) {
-						// Run a new job dealing with this page of results straight away (since multi-threaded) and go back to search for a new page of results
-						job.setAttribute(Constants.JOB_ASYNCH_ATTRIBUTE_NAME, "true");
-						final Future<ActivityMBean> future = ExecutorFactory.submitJob(new JobRunner(context, job, new FakeSource(pagedSource.getName(), page++, pageItr.next()), jobActivity, runId));
-						futuresList.add(future);
+					// The resources shared by all the pages (e.g. deferred LDAP relations) are released once they are all loaded
+					final List<PagedDestinationScope> scopes = new ArrayList<>();
+					for (final Element destinationNode : job.getChildren("destination")) {
+						final PagedDestinationScope scope = DestinationFactory.openPagedScope(destinationNode, jobActivity);
+						if (null != scope) {
+							scopes.add(scope);
+						}
 					}
+					try {
+						while (doRunJob(job, jobActivity)) {
+							// Wait for a free slot (bounded pipeline) before fetching the next page of results
+							pipeline.acquire();
+							boolean isSubmitted = false;
+							try {
+								final List<Map<String, List<String>>> entries = pipeline.nextPage(pageItr);
+								if (null == entries) {
+									break;
+								}
+
+								// Run a new job dealing with this page of results straight away (since multi-threaded) and go back to search for a new page of results
+								job.setAttribute(Constants.JOB_ASYNCH_ATTRIBUTE_NAME, "true");
+								final Future<ActivityMBean> future = ExecutorFactory.submitJob(pipeline.track(new JobRunner(context, job, new FakeSource(pagedSource.getName(), page++, entries), jobActivity, runId)));
+								isSubmitted = true;
+								futuresList.add(future);
+							} finally {
+								// The slot is released by the page job once submitted, otherwise (no more page, read or submission error) straight away
+								if (!isSubmitted) {
+									pipeline.release();
+								}
+							}
+						}
 
-					// Wait for all paged jobs to complete
-					for (final Future<ActivityMBean> future : futuresList) {
-						future.get(); // waiting for the job completion
+						// Wait for all paged jobs to complete
+						for (final Future<ActivityMBean> future : futuresList) {
+							ExecutorFactory.await(future); // waiting for the job completion
+						}
+					} finally {
+						for (final PagedDestinationScope scope : scopes) {
+							scope.close();
+						}
 					}
+					pipeline.report(jobActivity);
+					log.info("Job '" + getName(job) + "' : paged source pipeline statistics " + pipeline);
 				} else {
 					jobActivity.setProcessing("Initialize sources...");
 					// possible multiple resources
@@ -228,6 +264,8 @@ public class JobRunner implements CallableJob {
 			}
 
 			if (null != jobActivity) {
+				// gauges of the JDBC connection pools shared by the run
+				JdbcConnectionPools.report(jobActivity);
 				jobActivity.setStatus(ACTIVITY_STATUS.COMPLETED.toString());
 			}
 		}
@@ -279,6 +317,21 @@ public class JobRunner implements CallableJob {
 		return pagedResource;
 	}
 	
+	private int getMaxPagesInFlight(final Element job) throws AlambicException {
+		String maxPagesInFlight = job.getAttributeValue("max-pages-in-flight");
+		if (StringUtils.isNotBlank(maxPagesInFlight)) {
+			maxPagesInFlight = context.resolveString(maxPagesInFlight);
+		} else {
+			maxPagesInFlight = Config.getProperty(PagedJobPipeline.MAX_PAGES_IN_FLIGHT);
+		}
+
+		try {
+			return StringUtils.isNotBlank(maxPagesInFlight) ? Integer.parseInt(maxPagesInFlight.trim()) : 0;
+		} catch (final NumberFormatException e) {
+			throw new AlambicException("The maximum count of pages in flight must be an integer (current value is '" + maxPagesInFlight + "')");
+		}
+	}
+
 	private boolean doRunJob(final Element job, final ActivityMBean activityBean) {
 		boolean doRun = false;
 		
@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.jobs;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fr.gouv.education.acrennes.alambic.monitoring.ActivityMBean;
+
+/**
+ * Pipeline producteur/consommateur des pages d'une source paginée.
+ * <p>
+ * Le producteur (le job qui parcourt l'itérateur de pages) est bloqué dès que le nombre de pages soumises et non encore
+ * traitées atteint la limite configurée, de sorte que l'empreinte mémoire d'un job paginé reste bornée quelle que soit
+ * la vitesse de la source. Une limite nulle conserve le comportement historique (pas de limite).
+ * </p>
+ */
+public class PagedJobPipeline {
+
+	public static final String MAX_PAGES_IN_FLIGHT = "multithreading.paged.max.inflight";
+	public static final String METRIC_PAGES = "pipeline.pages";
+	public static final String METRIC_MAX_PAGES_IN_FLIGHT = "pipeline.pages.inflight.max";
+	public static final String METRIC_PRODUCER_WAIT = "pipeline.producer.wait.ms";
+	public static final String METRIC_CONSUMER_WAIT = "pipeline.consumer.wait.ms";
+
+	private final int maxPagesInFlight;
+	private final Semaphore slots;
+	private final AtomicInteger pagesInFlight;
+	private final AtomicInteger peakPagesInFlight;
+	private final AtomicInteger pages;
+	private final AtomicLong producerWaitTime;
+	private final AtomicLong consumerWaitTime;
+
+	public PagedJobPipeline(final int maxPagesInFlight) {
+		this.maxPagesInFlight = maxPagesInFlight;
+		this.slots = (0 < maxPagesInFlight) ? new Semaphore(maxPagesInFlight) : null;
+		this.pagesInFlight = new AtomicInteger();
+		this.peakPagesInFlight = new AtomicInteger();
+		this.pages = new AtomicInteger();
+		this.producerWaitTime = new AtomicLong();
+		this.consumerWaitTime = new AtomicLong();
+	}
+
+	public int getMaxPagesInFlight() {
+		return maxPagesInFlight;
+	}
+
+	public boolean isBounded() {
+		return null != slots;
+	}
+
+	/**
+	 * Attente (bloquante) d'une place libre dans le pipeline avant de produire la page suivante.
+	 */
+	public void acquire() throws InterruptedException {
+		if (isBounded()) {
+			if (!slots.tryAcquire()) {
+				long start = System.nanoTime();
+				ExecutorFactory.block(new ForkJoinPool.ManagedBlocker() {
+					private boolean acquired = false;
+
+					@Override
+					public boolean block() throws InterruptedException {
+						if (!acquired) {
+							slots.acquire();
+							acquired = true;
+						}
+						return true;
+					}
+
+					@Override
+					public boolean isReleasable() {
+						return acquired || (acquired = slots.tryAcquire());
+					}
+				});
+				producerWaitTime.addAndGet(System.nanoTime() - start);
+			}
+		}
+	}
+
+	/**
+	 * Libère une place du pipeline (page traitée, ou page non produite).
+	 */
+	public void release() {
+		if (isBounded()) {
+			slots.release();
+		}
+	}
+
+	/**
+	 * Lecture de la page suivante de la source.
+	 * Le temps de lecture est compté comme une attente des consommateurs lorsqu'aucune page n'est alors en cours de traitement.
+	 *
+	 * @return la page suivante ou null si la source est épuisée
+	 */
+	public List<Map<String, List<String>>> nextPage(final Iterator<List<Map<String, List<String>>>> pageItr) {
+		boolean isStarving = (0 == pagesInFlight.get());
+		long start = System.nanoTime();
+		try {
+			return pageItr.hasNext() ? pageItr.next() : null;
+		} finally {
+			if (isStarving) {
+				consumerWaitTime.addAndGet(System.nanoTime() - start);
+			}
+		}
+	}
+
+	/**
+	 * Associe le job de traitement d'une page au pipeline : sa place est libérée à la fin de son exécution.
+	 */
+	public CallableJob track(final CallableJob pageJob) {
+		pages.incrementAndGet();
+		peakPagesInFlight.accumulateAndGet(pagesInFlight.incrementAndGet(), Math::max);
+		return new TrackedPageJob(pageJob);
+	}
+
+	public long getProducerWaitTime() {
+		return TimeUnit.NANOSECONDS.toMillis(producerWaitTime.get());
+	}
+
+	public long getConsumerWaitTime() {
+		return TimeUnit.NANOSECONDS.toMillis(consumerWaitTime.get());
+	}
+
+	public void report(final ActivityMBean activity) {
+		activity.setMetric(METRIC_PAGES, pages.get());
+		activity.setMetric(METRIC_MAX_PAGES_IN_FLIGHT, peakPagesInFlight.get());
+		activity.setMetric(METRIC_PRODUCER_WAIT, getProducerWaitTime());
+		activity.setMetric(METRIC_CONSUMER_WAIT, getConsumerWaitTime());
+	}
+
+	@Override
+	public String toString() {
+		return String.format("{\"pages\":%d, \"max_pages_in_flight\":%d, \"peak_pages_in_flight\":%d, \"producer_wait_ms\":%d, \"consumer_wait_ms\":%d}",
+				pages.get(), maxPagesInFlight, peakPagesInFlight.get(), getProducerWaitTime(), getConsumerWaitTime());
+	}
+
+	private class TrackedPageJob implements CallableJob {
+
+		private final CallableJob job;
+
+		TrackedPageJob(final CallableJob job) {
+			this.job = job;
+		}
+
+		@Override
+		public ActivityMBean call() throws Exception {
+			try {
+				return job.call();
+			} finally {
+				pagesInFlight.decrementAndGet();
+				release();
+			}
+		}
+
+		@Override
+		public boolean isAsynchronous() {
+			return job.isAsynchronous();
+		}
+
+		@Override
+		public String getName() {
+			return job.getName();
+		}
+
+	}
+
+}
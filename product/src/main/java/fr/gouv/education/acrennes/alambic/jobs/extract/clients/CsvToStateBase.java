@@ -16,16 +16,18 @@
  ******************************************************************************/
 package fr.gouv.education.acrennes.alambic.jobs.extract.clients;
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -33,12 +35,16 @@ import org.apache.commons.logging.LogFactory;
 import au.com.bytecode.opencsv.CSVParser;
 import au.com.bytecode.opencsv.CSVReader;
 import fr.gouv.education.acrennes.alambic.exception.AlambicException;
+import fr.gouv.education.acrennes.alambic.jobs.extract.record.CompactRecord;
+import fr.gouv.education.acrennes.alambic.jobs.extract.record.RecordSchema;
+import fr.gouv.education.acrennes.alambic.utils.MappedFileReader;
 
 public class CsvToStateBase implements IToStateBase {
 
 	private static final Log log = LogFactory.getLog(CsvToStateBase.class);
 
 	public final static char DEFAULT_SEPARATOR = ';';
+	private final static int READER_BUFFER_SIZE = 64 * 1024;
 
 	private List<Map<String, List<String>>> stateBase = new ArrayList<>();
 	private CsvToStateBaseIterator pageIterator;
@@ -57,9 +63,24 @@ public class CsvToStateBase implements IToStateBase {
 	}
 
 	public CsvToStateBase(final String fichierCsv, final char defaultSeparator, final char defaultQuoteCharacter, final char defaultEscapeCharacter) {
+		this(fichierCsv, defaultSeparator, defaultQuoteCharacter, defaultEscapeCharacter, Charset.defaultCharset(), false);
+	}
+
+	/**
+	 * @param charset le jeu de caractères du fichier
+	 * @param memoryMapped lecture du fichier par projections mémoire successives plutôt que via un tampon
+	 */
+	public CsvToStateBase(final String fichierCsv, final char defaultSeparator, final char defaultQuoteCharacter, final char defaultEscapeCharacter, final Charset charset,
+			final boolean memoryMapped) {
 		try {
-			reader = new CSVReader(new FileReader(fichierCsv), defaultSeparator, defaultQuoteCharacter, defaultEscapeCharacter);
-		} catch (FileNotFoundException e) {
+			Reader fileReader;
+			if (memoryMapped) {
+				fileReader = new MappedFileReader(Paths.get(fichierCsv), charset);
+			} else {
+				fileReader = new BufferedReader(new InputStreamReader(new FileInputStream(fichierCsv), charset), READER_BUFFER_SIZE);
+			}
+			reader = new CSVReader(fileReader, defaultSeparator, defaultQuoteCharacter, defaultEscapeCharacter);
+		} catch (IOException e) {
 			log.error("Cannot open CSV file, error: " + e.getMessage());
 		}
 	}
@@ -85,14 +106,13 @@ public class CsvToStateBase implements IToStateBase {
 		try {
 			if (null != reader) {
 				String[] header = reader.readNext();
+				RecordSchema schema = new RecordSchema(header);
 
 				String[] nextLine;
 				while ((nextLine = reader.readNext()) != null) {
-					Map<String, List<String>> node = new HashMap<String, List<String>>();
+					CompactRecord node = schema.newRecord();
 					for (int j = 0; j < header.length; j++) {
-						String key = header[j];
-						String value = nextLine[j];
-						node.put(key, Arrays.asList(value));
+						node.putValue(header[j], nextLine[j]);
 					}
 					stateBase.add(node);
 				}
@@ -134,26 +154,30 @@ public class CsvToStateBase implements IToStateBase {
 		return pageIterator;
 	}
 
+	/**
+	 * Itérateur de pages lisant le fichier au fil de l'eau : seules les lignes de la page courante sont chargées en mémoire.
+	 */
 	public class CsvToStateBaseIterator implements Iterator<List<Map<String, List<String>>>> {
 
 		private final Log log = LogFactory.getLog(CsvToStateBaseIterator.class);
 
-		private List<Map<String, List<String>>> entries;
-		private int offset;
-		private int total;
 		private final int pageSize;
+		private String[] header;
+		private RecordSchema schema;
+		private String[] nextLine;
 
 		public CsvToStateBaseIterator(final int pageSize) {
-			this.offset = 0;
-			this.total = 0;
 			this.pageSize = pageSize;
-			this.entries = Collections.emptyList();
+			this.nextLine = null;
 
 			try {
-				/* Perform search */
-				executeQuery(null);
-				entries = getStateBase();
-				total = entries.size();
+				if (null != reader) {
+					header = reader.readNext();
+					if (null != header) {
+						schema = new RecordSchema(header);
+						nextLine = reader.readNext();
+					}
+				}
 			} catch (Exception e) {
 				log.error("Failed to instanciate the CSV source page iterator. error : " + e.getMessage());
 			}
@@ -161,14 +185,31 @@ public class CsvToStateBase implements IToStateBase {
 
 		@Override
 		public boolean hasNext() {
-			return (offset < total);
+			return (null != nextLine);
 		}
 
 		@Override
 		public List<Map<String, List<String>>> next() {
-			List<Map<String, List<String>>> subEntriesList = entries.subList(offset, (((offset + pageSize) < total) ? (offset + pageSize) : total));
-			offset += pageSize;
-			return subEntriesList;
+			if (null == nextLine) {
+				throw new NoSuchElementException();
+			}
+
+			List<Map<String, List<String>>> page = new ArrayList<>(pageSize);
+			try {
+				while (null != nextLine && page.size() < pageSize) {
+					CompactRecord node = schema.newRecord();
+					for (int j = 0; j < header.length; j++) {
+						node.putValue(header[j], nextLine[j]);
+					}
+					page.add(node);
+					nextLine = reader.readNext();
+				}
+			} catch (IOException e) {
+				log.error("Failed to extract CSV entries, error: " + e.getMessage());
+				nextLine = null;
+			}
+
+			return page;
 		}
 
 		@Override
@@ -177,9 +218,9 @@ public class CsvToStateBase implements IToStateBase {
 		}
 
 		public void close() {
-			entries.clear();
+			nextLine = null;
 		}
 
 	}
 
-}
\ No newline at end of file
+}
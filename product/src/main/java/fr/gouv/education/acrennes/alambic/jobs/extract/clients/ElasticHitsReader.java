@@ -0,0 +1,224 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.jobs.extract.clients;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+/**
+ * Lecture en flux d'une réponse des API Elastic '_search' et '_search/scroll'.
+ * Chaque résultat (hit) produit un enregistrement portant l'attribut '_id' et les champs de '_source' à plat : les champs
+ * des objets imbriqués sont nommés par leur chemin (ex : 'adresse.ville') et les tableaux donnent des attributs multi-valués.
+ * La mémoire consommée est ainsi proportionnelle aux résultats lus et non à la taille du corps de la réponse.
+ * Les curseurs permettant d'obtenir la page suivante (identifiants de scroll et de point-in-time, valeurs de tri du
+ * dernier résultat pour 'search_after') sont relevés au passage.
+ */
+public class ElasticHitsReader {
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private final List<Map<String, List<String>>> hits;
+	private final boolean keepHits;
+	private int hitsCount;
+	private String scrollId;
+	private String pitId;
+	private String lastSort;
+	private long total;
+
+	private ElasticHitsReader(final boolean keepHits) {
+		this.hits = new ArrayList<>();
+		this.keepHits = keepHits;
+		this.total = -1;
+	}
+
+	public static ElasticHitsReader read(final InputStream content) throws IOException {
+		return read(content, true);
+	}
+
+	/**
+	 * @param keepHits si faux, seuls les curseurs et le nombre de résultats sont relevés (aucun enregistrement produit)
+	 */
+	public static ElasticHitsReader read(final InputStream content, final boolean keepHits) throws IOException {
+		ElasticHitsReader reader = new ElasticHitsReader(keepHits);
+
+		try (JsonParser parser = JSON_FACTORY.createParser(content)) {
+			if (JsonToken.START_OBJECT != parser.nextToken()) {
+				throw new IOException("Unexpected Elastic response, a JSON object is expected");
+			}
+			while (JsonToken.FIELD_NAME == parser.nextToken()) {
+				String name = parser.getCurrentName();
+				JsonToken token = parser.nextToken();
+				if ("_scroll_id".equals(name)) {
+					reader.scrollId = parser.getValueAsString();
+				} else if ("pit_id".equals(name)) {
+					reader.pitId = parser.getValueAsString();
+				} else if ("hits".equals(name) && JsonToken.START_OBJECT == token) {
+					reader.readHits(parser);
+				} else {
+					parser.skipChildren();
+				}
+			}
+		}
+
+		return reader;
+	}
+
+	public List<Map<String, List<String>>> getHits() {
+		return hits;
+	}
+
+	/**
+	 * Nombre de résultats de la page lue (y compris lorsque les enregistrements ne sont pas conservés).
+	 */
+	public int getHitsCount() {
+		return hitsCount;
+	}
+
+	public String getScrollId() {
+		return scrollId;
+	}
+
+	public String getPitId() {
+		return pitId;
+	}
+
+	/**
+	 * Valeurs de tri du dernier résultat de la page (tableau JSON), à reprendre dans le 'search_after' de la requête
+	 * suivante (null si les résultats ne sont pas triés).
+	 */
+	public String getLastSort() {
+		return lastSort;
+	}
+
+	/**
+	 * Nombre total de résultats de la requête (-1 si la réponse ne le précise pas).
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	private void readHits(final JsonParser parser) throws IOException {
+		while (JsonToken.FIELD_NAME == parser.nextToken()) {
+			String name = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+			if ("total".equals(name)) {
+				readTotal(parser, token);
+			} else if ("hits".equals(name) && JsonToken.START_ARRAY == token) {
+				while (JsonToken.START_OBJECT == parser.nextToken()) {
+					Map<String, List<String>> record = readHit(parser);
+					if (this.keepHits) {
+						this.hits.add(record);
+					}
+					this.hitsCount++;
+				}
+			} else {
+				parser.skipChildren();
+			}
+		}
+	}
+
+	private void readTotal(final JsonParser parser, final JsonToken token) throws IOException {
+		if (JsonToken.START_OBJECT == token) {
+			// Elastic 7+ : {"value": ..., "relation": ...}
+			while (JsonToken.FIELD_NAME == parser.nextToken()) {
+				String name = parser.getCurrentName();
+				parser.nextToken();
+				if ("value".equals(name)) {
+					this.total = parser.getValueAsLong(-1);
+				} else {
+					parser.skipChildren();
+				}
+			}
+		} else {
+			this.total = parser.getValueAsLong(-1);
+		}
+	}
+
+	private Map<String, List<String>> readHit(final JsonParser parser) throws IOException {
+		Map<String, List<String>> record = new HashMap<>();
+
+		this.lastSort = null;
+		while (JsonToken.FIELD_NAME == parser.nextToken()) {
+			String name = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+			if ("_id".equals(name) && this.keepHits) {
+				readValue(parser, name, record);
+			} else if ("_source".equals(name) && JsonToken.START_OBJECT == token && this.keepHits) {
+				readObject(parser, "", record);
+			} else if ("sort".equals(name) && JsonToken.START_ARRAY == token) {
+				this.lastSort = readSort(parser);
+			} else {
+				parser.skipChildren();
+			}
+		}
+
+		return record;
+	}
+
+	private String readSort(final JsonParser parser) throws IOException {
+		StringBuilder sort = new StringBuilder("[");
+
+		while (JsonToken.END_ARRAY != parser.nextToken()) {
+			if (1 < sort.length()) {
+				sort.append(',');
+			}
+			if (JsonToken.VALUE_STRING == parser.getCurrentToken()) {
+				sort.append('"').append(JsonStringEncoder.getInstance().quoteAsString(parser.getText())).append('"');
+			} else {
+				sort.append(parser.getText());
+			}
+		}
+
+		return sort.append(']').toString();
+	}
+
+	private void readObject(final JsonParser parser, final String prefix, final Map<String, List<String>> record) throws IOException {
+		while (JsonToken.FIELD_NAME == parser.nextToken()) {
+			String name = prefix.concat(parser.getCurrentName());
+			parser.nextToken();
+			readValue(parser, name, record);
+		}
+	}
+
+	private void readValue(final JsonParser parser, final String name, final Map<String, List<String>> record) throws IOException {
+		switch (parser.getCurrentToken()) {
+		case START_OBJECT:
+			readObject(parser, name.concat("."), record);
+			break;
+		case START_ARRAY:
+			while (JsonToken.END_ARRAY != parser.nextToken()) {
+				readValue(parser, name, record);
+			}
+			break;
+		case VALUE_NULL:
+			break;
+		default:
+			record.computeIfAbsent(name, k -> new ArrayList<>()).add(parser.getText());
+			break;
+		}
+	}
+
+}
@@ -17,7 +17,9 @@
 package fr.gouv.education.acrennes.alambic.jobs.extract.clients;
 
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -27,6 +29,15 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.ws.rs.HttpMethod;
 
@@ -45,9 +56,11 @@ import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.util.EntityUtils;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 import fr.gouv.education.acrennes.alambic.api.WebServiceApi;
+import fr.gouv.education.acrennes.alambic.jobs.ExecutorFactory;
 
 public class ElasticToStateBase implements IToStateBase {
 	
@@ -56,6 +69,9 @@ public class ElasticToStateBase implements IToStateBase {
 	private static String ELASTIC_COUNT_API = "%s/%s/_count";
 	private static String ELASTIC_SCROLL_SEARCH_INITIAL_API = "%s/%s/_search?scroll=%s";
 	private static String ELASTIC_SCROLL_SEARCH_SUBSEQUENT_API = "%s/_search/scroll";
+	private static String ELASTIC_PIT_OPEN_API = "%s/%s/_pit?keep_alive=%s";
+	private static String ELASTIC_PIT_API = "%s/_pit";
+	private static String ELASTIC_PIT_SEARCH_API = "%s/_search";
 	private static int DEFAULT_TIME_OUT = 300_000; // 5 minutes (scroll search request might be slow due to large volume of data)
 	private static Map<String, String> headers;
 	static {
@@ -67,18 +83,43 @@ public class ElasticToStateBase implements IToStateBase {
 		BASIC_AUTH
 	}
 
+	public enum PaginationMethod {
+		/* Scroll API, possibly split into slices read in parallel */
+		SCROLL,
+		/* Point in time + search_after (Elastic 7.10+) */
+		PIT
+	}
+
+	public static final int MAX_SLICES = 32;
+	private static final long SLICES_CLOSE_TIMEOUT = 30; // seconds
+
+	/* Reads the whole response body */
+	private static final ResponseReader<String> BODY_READER = content -> IOUtils.toString(content, Charsets.UTF_8);
+
 	private List<Map<String, List<String>>> statebase = new ArrayList<>();
 	private CloseableHttpClient httpClient;
 	private String authHeader;
 	private String uri;
 	private String scroll;
 	private String index_alias;
-	private ElsaticResultsPageIterator pageIterator;
+	private boolean streamHits;
+	private PaginationMethod paginationMethod = PaginationMethod.SCROLL;
+	private int slices = 1;
+	private ElasticPageIterator pageIterator;
 
 	public ElasticToStateBase(final String uri, final String proxy_host, final String proxy_port, final String index_alias, final String scroll, final String connection_timeout, final String auth_login, final String auth_password) {
+		this(uri, proxy_host, proxy_port, index_alias, scroll, connection_timeout, auth_login, auth_password, false);
+	}
+
+	/**
+	 * @param streamHits si vrai, les réponses des recherches sont lues en flux et produisent un enregistrement par
+	 * résultat (cf. {@link ElasticHitsReader}) au lieu d'un unique attribut 'item' portant le corps JSON de la réponse.
+	 */
+	public ElasticToStateBase(final String uri, final String proxy_host, final String proxy_port, final String index_alias, final String scroll, final String connection_timeout, final String auth_login, final String auth_password, final boolean streamHits) {
 		this.uri = uri;
 		this.scroll = scroll;
 		this.index_alias = index_alias;
+		this.streamHits = streamHits;
 		
 		// Configure & instantiate the http connector
 		Builder requestConfig = RequestConfig.custom();
@@ -92,8 +133,11 @@ public class ElasticToStateBase implements IToStateBase {
 			log.debug("Pas de configuration de proxy");
 		}
 		
+		// the connections are pooled so that the slices of a scroll can be read in parallel
 		this.httpClient = HttpClientBuilder.create()
 				.setDefaultRequestConfig(requestConfig.build())
+				.setMaxConnPerRoute(MAX_SLICES)
+				.setMaxConnTotal(MAX_SLICES)
 				.build();
 
 		// Authentication (basic supported only)
@@ -106,6 +150,20 @@ public class ElasticToStateBase implements IToStateBase {
 		}
 	}
 
+	/**
+	 * Méthode de lecture des recherches paginées.
+	 */
+	public void setPaginationMethod(final PaginationMethod paginationMethod) {
+		this.paginationMethod = (null != paginationMethod) ? paginationMethod : PaginationMethod.SCROLL;
+	}
+
+	/**
+	 * Découpage des recherches paginées par scroll en 'slices' lues en parallèle (aucun découpage si 1).
+	 */
+	public void setSlices(final int slices) {
+		this.slices = Math.max(1, Math.min(slices, MAX_SLICES));
+	}
+
 	@Override
 	public List<Map<String, List<String>>> getStateBase() {
 		return statebase;
@@ -124,13 +182,14 @@ public class ElasticToStateBase implements IToStateBase {
 	@Override
 	public void close() {
 		try {
-			if (null != this.httpClient) {
-				this.httpClient.close();
-			}
-			
+			// the page iterator might release its search context on the cluster
 			if (null != this.pageIterator) {
 				this.pageIterator.close();
 			}
+			
+			if (null != this.httpClient) {
+				this.httpClient.close();
+			}
 		} catch (IOException e) {
 			log.error("Echec pour fermer le connecteur, erreur : " + e.getMessage());
 		} finally {
@@ -148,16 +207,40 @@ public class ElasticToStateBase implements IToStateBase {
 	public void executeQuery(final String query) {
 		if (StringUtils.isNotBlank(query)) {
 			String api = String.format(ELASTIC_SEARCH_API, this.uri, this.index_alias);
-			executeInnerQuery(api, query);
+			executeInnerQuery(api, query, this.streamHits);
 		} else {
 			log.error("The query must not be empty");
 		}
 	}
 		
-	private void executeInnerQuery(final String uri, final String query) {
+	private ElasticHitsReader executeInnerQuery(final String uri, final String query, final boolean streamed) {
+		ElasticHitsReader reader = null;
 		statebase = new ArrayList<>();
+		if (streamed) {
+			reader = request(HttpMethod.POST, uri, query, ElasticHitsReader::read);
+			if (null != reader) {
+				statebase = reader.getHits();
+			}
+		} else {
+			String body = request(HttpMethod.POST, uri, query, BODY_READER);
+			if (StringUtils.isNotBlank(body)) {
+				statebase.add(asItem(body));
+			}
+		}
+		
+		return reader;
+	}
+
+	/**
+	 * Exécution d'une requête sur le cluster, sans effet sur la base d'état (les slices d'un scroll sont lues en parallèle).
+	 * 
+	 * @return le résultat de la lecture de la réponse, null si la requête a échoué
+	 */
+	private <T> T request(final String method, final String uri, final String query, final ResponseReader<T> responseReader) {
+		T result = null;
+		
 		try {
-			WebServiceApi wsapi = new WebServiceApi(uri, HttpMethod.POST, ElasticToStateBase.headers, query, Arrays.asList(new Integer(200)));
+			WebServiceApi wsapi = new WebServiceApi(uri, method, ElasticToStateBase.headers, query, Arrays.asList(new Integer(200)));
 			HttpUriRequest request = wsapi.getRequest();
 			if (StringUtils.isNotBlank(this.authHeader)) {
 				request.setHeader(HttpHeaders.AUTHORIZATION, this.authHeader);
@@ -167,12 +250,7 @@ public class ElasticToStateBase implements IToStateBase {
 			
 			try (CloseableHttpResponse response = this.httpClient.execute(request)) {
 				if (wsapi.isSuccessful(response)) {
-					String body = IOUtils.toString(response.getEntity().getContent(), Charsets.UTF_8);
-					if (StringUtils.isNotBlank(body)) {
-						Map<String, List<String>> item = new HashMap<String, List<String>>();
-						item.put("item", Collections.singletonList(body));
-						statebase.add(item);
-					}
+					result = responseReader.read(response.getEntity().getContent());
 				} else {
             		log.error(String.format("Failed to execute the query '%s' (expected response codes : '%s'), received response : code=%d, phrase=%s",
             				wsapi,
@@ -185,16 +263,81 @@ public class ElasticToStateBase implements IToStateBase {
 		} catch (IOException | AlambicException e) {
 			log.error("Failed to execute the query '" + query + "', error : " + e.getMessage());
 		}
+		
+		return result;
+	}
+
+	/**
+	 * Lecture d'une page de résultats : les enregistrements (un par résultat ou un unique 'item' portant le corps de la
+	 * réponse) et les curseurs permettant d'obtenir la page suivante.
+	 * 
+	 * @return la page lue, null si la requête a échoué
+	 */
+	private ElasticPage fetchPage(final String uri, final String query) {
+		ElasticPage page = null;
+		
+		if (this.streamHits) {
+			ElasticHitsReader reader = request(HttpMethod.POST, uri, query, ElasticHitsReader::read);
+			if (null != reader) {
+				page = new ElasticPage(reader.getHits(), reader);
+			}
+		} else {
+			String body = request(HttpMethod.POST, uri, query, BODY_READER);
+			if (StringUtils.isNotBlank(body)) {
+				try {
+					ElasticHitsReader cursors = ElasticHitsReader.read(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), false);
+					List<Map<String, List<String>>> entries = new ArrayList<>();
+					entries.add(asItem(body));
+					page = new ElasticPage(entries, cursors);
+				} catch (IOException e) {
+					log.error("Failed to read the response of the query '" + query + "', error : " + e.getMessage());
+				}
+			}
+		}
+		
+		return page;
+	}
+
+	private Map<String, List<String>> asItem(final String body) {
+		Map<String, List<String>> item = new HashMap<String, List<String>>();
+		item.put("item", Collections.singletonList(body));
+		return item;
 	}
 
 	@Override
 	public Iterator<List<Map<String, List<String>>>> getPageIterator(final String query, final String scope, final int pageSize, final String sortBy, final String orderBy)
 			throws AlambicException {
-		this.pageIterator = new ElsaticResultsPageIterator(query, pageSize);
+		if (PaginationMethod.PIT.equals(this.paginationMethod)) {
+			this.pageIterator = new ElasticPitPageIterator(query, pageSize);
+		} else if (1 < this.slices) {
+			this.pageIterator = new ElasticSlicedPageIterator(query, pageSize, this.slices);
+		} else {
+			this.pageIterator = new ElsaticResultsPageIterator(query, pageSize);
+		}
 		return this.pageIterator;
 	}
 
-	public class ElsaticResultsPageIterator implements Iterator<List<Map<String, List<String>>>> {
+	/* Reads the content of a successful response */
+	private interface ResponseReader<T> {
+		T read(InputStream content) throws IOException;
+	}
+
+	/* A page of results and the cursors to get the next one */
+	private static class ElasticPage {
+		private final List<Map<String, List<String>>> entries;
+		private final ElasticHitsReader cursors;
+
+		private ElasticPage(final List<Map<String, List<String>>> entries, final ElasticHitsReader cursors) {
+			this.entries = entries;
+			this.cursors = cursors;
+		}
+	}
+
+	public interface ElasticPageIterator extends Iterator<List<Map<String, List<String>>>> {
+		void close();
+	}
+
+	public class ElsaticResultsPageIterator implements ElasticPageIterator {
 
 		private final Log log = LogFactory.getLog(ElsaticResultsPageIterator.class);
 		
@@ -218,7 +361,7 @@ public class ElasticToStateBase implements IToStateBase {
 				String updated_query = query_json_obj.toString();
 				
 				String api = String.format(ELASTIC_COUNT_API, uri, index_alias);
-				executeInnerQuery(api, updated_query);
+				executeInnerQuery(api, updated_query, false);
 				this.entries = getStateBase();
 				if (!this.entries.isEmpty()) {
 					String rset = this.entries.get(0).get("item").get(0);
@@ -245,7 +388,8 @@ public class ElasticToStateBase implements IToStateBase {
 			String api;
 			String updated_query;
 			
-			this.entries.clear();
+			// the previous page is not cleared since it might still be processed by a paged job
+			this.entries = Collections.emptyList();
 			
 			if (this.count == 0) {
 				// Initial scroll API call
@@ -260,27 +404,30 @@ public class ElasticToStateBase implements IToStateBase {
 			}
 			
 			try {
-				executeInnerQuery(api, updated_query);
-				this.entries = getStateBase();
-				if (!this.entries.isEmpty()) {
-					String rset = this.entries.get(0).get("item").get(0);
-					if (StringUtils.isNotBlank(rset)) {
-						JSONObject jsonRst = new JSONObject(rset);
-						int hits_count = jsonRst.getJSONObject("hits").getJSONArray("hits").length();
-						if (0 == hits_count) {
-							if (this.count < this.total) {
-								log.error("Abnormal scroll ending (count is only : " + this.count + "despite total is : " + this.total);
-							}
-							this.count = this.total;
+				if (streamHits) {
+					ElasticHitsReader reader = executeInnerQuery(api, updated_query, true);
+					if (null != reader) {
+						this.entries = reader.getHits();
+						this.scroll_id = reader.getScrollId();
+						updateCount(this.entries.size());
+					} else {
+						throw new AlambicException("Failed to execute the Elastic source page iterator. Empty result while executing the initial query : '" + query + "'");
+					}
+				} else {
+					executeInnerQuery(api, updated_query, false);
+					this.entries = getStateBase();
+					if (!this.entries.isEmpty()) {
+						String rset = this.entries.get(0).get("item").get(0);
+						if (StringUtils.isNotBlank(rset)) {
+							JSONObject jsonRst = new JSONObject(rset);
+							updateCount(jsonRst.getJSONObject("hits").getJSONArray("hits").length());
+							this.scroll_id = jsonRst.getString("_scroll_id");
 						} else {
-							this.count += hits_count;
+							throw new AlambicException("Failed to execute the Elastic source page iterator. Blank response while executing the initial query : '" + query + "'\"");
 						}
-						this.scroll_id = jsonRst.getString("_scroll_id");
 					} else {
-						throw new AlambicException("Failed to execute the Elastic source page iterator. Blank response while executing the initial query : '" + query + "'\"");
+						throw new AlambicException("Failed to execute the Elastic source page iterator. Empty result while executing the initial query : '" + query + "'");
 					}
-				} else {
-					throw new AlambicException("Failed to execute the Elastic source page iterator. Empty result while executing the initial query : '" + query + "'");
 				}
 			} catch (Exception e) {
 				log.error("Failed to execute the Elastic source page iterator. error : " + e.getMessage());
@@ -289,10 +436,285 @@ public class ElasticToStateBase implements IToStateBase {
 			return this.entries;
 		}
 		
+		private void updateCount(final int hits_count) {
+			if (0 == hits_count) {
+				if (this.count < this.total) {
+					log.error("Abnormal scroll ending (count is only : " + this.count + "despite total is : " + this.total);
+				}
+				this.count = this.total;
+			} else {
+				this.count += hits_count;
+			}
+		}
+		
+		@Override
 		public void close() {
-			this.entries.clear();
+			this.entries = Collections.emptyList();
 		}
 		
 	}
+
+	/**
+	 * Lecture parallèle d'un scroll découpé en 'slices' : chaque slice est lue par sa propre tâche (et sa propre
+	 * connexion au cluster). Les pages lues sont fusionnées en un flux unique, sans ordre global entre les slices.
+	 */
+	public class ElasticSlicedPageIterator implements ElasticPageIterator {
+
+		private final Log log = LogFactory.getLog(ElasticSlicedPageIterator.class);
+
+		/* Marker of a slice whose pages are all read */
+		private final List<Map<String, List<String>>> endOfSlice = Collections.unmodifiableList(new ArrayList<Map<String, List<String>>>());
+
+		private final BlockingQueue<List<Map<String, List<String>>>> pages;
+		private final ExecutorService executor;
+		private final int sliceCount;
+		private int readSlices;
+		private List<Map<String, List<String>>> entries;
+		private volatile boolean isClosed;
+		/* First failure of a slice reader, passed on to the consumer so that the job does not complete with partial data */
+		private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+		public ElasticSlicedPageIterator(final String query, final int pageSize, final int slices) throws AlambicException {
+			final AtomicInteger threadCount = new AtomicInteger();
+
+			sliceCount = slices;
+			readSlices = 0;
+			entries = Collections.emptyList();
+			isClosed = false;
+			// the read-ahead is bounded so that fast slices don't fill the memory while the pages are being processed
+			pages = new LinkedBlockingQueue<>(2 * slices);
+			executor = Executors.newFixedThreadPool(slices, runnable -> {
+				Thread thread = new Thread(runnable, "elastic-slice-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+
+			log.info("Elastic paged search '" + query + "' is split into " + slices + " slices read in parallel");
+			for (int id = 0; id < slices; id++) {
+				final String sliceQuery;
+				try {
+					JSONObject query_json_obj = new JSONObject(query);
+					query_json_obj.put("size", pageSize);
+					query_json_obj.put("slice", new JSONObject().put("id", id).put("max", slices));
+					sliceQuery = query_json_obj.toString();
+				} catch (Exception e) {
+					close();
+					throw new AlambicException("Failed to instanciate the Elastic source page iterator. error : " + e.getMessage());
+				}
+				final int sliceId = id;
+				executor.submit(() -> readSlice(sliceId, sliceQuery));
+			}
+			executor.shutdown();
+		}
+
+		private void readSlice(final int sliceId, final String sliceQuery) {
+			long start = System.currentTimeMillis();
+			int pageCount = 0;
+			String scrollId = null;
+			String api = String.format(ELASTIC_SCROLL_SEARCH_INITIAL_API, uri, index_alias, scroll);
+			String updated_query = sliceQuery;
+
+			try {
+				while (!isClosed) {
+					ElasticPage page = fetchPage(api, updated_query);
+					if (null == page) {
+						log.error("Failed to read the Elastic slice " + sliceId + " (" + pageCount + " pages read)");
+						failure.compareAndSet(null, new RuntimeException("Failed to read the Elastic slice " + sliceId + " (" + pageCount + " pages read)"));
+						break;
+					}
+					scrollId = page.cursors.getScrollId();
+					if (0 == page.cursors.getHitsCount()) {
+						break;
+					}
+					pages.put(page.entries);
+					pageCount++;
+					api = String.format(ELASTIC_SCROLL_SEARCH_SUBSEQUENT_API, uri);
+					updated_query = String.format("{\"scroll\": \"%s\", \"scroll_id\": \"%s\"}", scroll, scrollId);
+				}
+				log.debug("Elastic slice " + sliceId + " read (" + pageCount + " pages in " + (System.currentTimeMillis() - start) + " ms)");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (RuntimeException e) {
+				log.error("Failed to read the Elastic slice " + sliceId + ", error : " + e.getMessage(), e);
+				failure.compareAndSet(null, new RuntimeException("Failed to read the Elastic slice " + sliceId + ", error : " + e.getMessage(), e));
+			} finally {
+				// release the search context straight away rather than waiting for its expiry
+				if (null != scrollId) {
+					request(HttpMethod.DELETE, String.format(ELASTIC_SCROLL_SEARCH_SUBSEQUENT_API, uri), String.format("{\"scroll_id\": \"%s\"}", scrollId), BODY_READER);
+				}
+				if (!isClosed) {
+					try {
+						pages.put(endOfSlice);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			boolean doHaveNext = false;
+
+			try {
+				while (!doHaveNext && !isClosed && readSlices < sliceCount) {
+					PageTaker taker = new PageTaker();
+					ExecutorFactory.block(taker);
+					List<Map<String, List<String>>> page = taker.page;
+					if (endOfSlice == page) {
+						readSlices++;
+						if (null != failure.get()) {
+							throw failure.get();
+						}
+					} else {
+						entries = page;
+						doHaveNext = !entries.isEmpty();
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				log.error("Interrupted while waiting for the next page of the Elastic slices", e);
+			}
+
+			return doHaveNext;
+		}
+
+		@Override
+		public List<Map<String, List<String>>> next() {
+			return entries;
+		}
+
+		@Override
+		public void close() {
+			isClosed = true;
+			pages.clear();
+			executor.shutdownNow();
+			try {
+				// the slices release their search context with the http client, which must not be closed before
+				if (!executor.awaitTermination(SLICES_CLOSE_TIMEOUT, TimeUnit.SECONDS)) {
+					log.warn("The Elastic slices readers did not complete within " + SLICES_CLOSE_TIMEOUT + " seconds");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/* Waits for the next page of the slices, letting the job threads pool compensate for the blocked thread */
+		private class PageTaker implements ForkJoinPool.ManagedBlocker {
+
+			private List<Map<String, List<String>>> page;
+
+			@Override
+			public boolean block() throws InterruptedException {
+				if (null == page) {
+					page = pages.take();
+				}
+				return true;
+			}
+
+			@Override
+			public boolean isReleasable() {
+				return (null != page) || (null != (page = pages.poll()));
+			}
+
+		}
+
+	}
+
+	/**
+	 * Lecture paginée via un point-in-time et 'search_after' : chaque page reprend les valeurs de tri du dernier résultat
+	 * de la précédente. Sans critère de tri dans la requête, les résultats sont triés selon l'ordre interne '_shard_doc'.
+	 */
+	public class ElasticPitPageIterator implements ElasticPageIterator {
+
+		private final Log log = LogFactory.getLog(ElasticPitPageIterator.class);
+
+		private final JSONObject searchQuery;
+		private final int pageSize;
+		private List<Map<String, List<String>>> entries;
+		private String pitId;
+		private String lastSort;
+		private boolean isFetched;
+		private boolean isLast;
+
+		public ElasticPitPageIterator(final String query, final int pageSize) throws AlambicException {
+			this.pageSize = pageSize;
+			this.entries = Collections.emptyList();
+			this.isFetched = false;
+			this.isLast = false;
+
+			try {
+				this.searchQuery = new JSONObject(query);
+				this.searchQuery.put("size", pageSize);
+				if (!this.searchQuery.has("sort")) {
+					this.searchQuery.put("sort", new JSONArray().put(new JSONObject().put("_shard_doc", "asc")));
+				}
+				if (!this.searchQuery.has("track_total_hits")) {
+					this.searchQuery.put("track_total_hits", false);
+				}
+			} catch (Exception e) {
+				throw new AlambicException("Failed to instanciate the Elastic source page iterator. error : " + e.getMessage());
+			}
+
+			String body = request(HttpMethod.POST, String.format(ELASTIC_PIT_OPEN_API, uri, index_alias, scroll), null, BODY_READER);
+			if (StringUtils.isNotBlank(body)) {
+				try {
+					this.pitId = new JSONObject(body).getString("id");
+				} catch (Exception e) {
+					throw new AlambicException("Failed to instanciate the Elastic source page iterator. Unexpected response while opening a point in time : '" + body + "'");
+				}
+			} else {
+				throw new AlambicException("Failed to instanciate the Elastic source page iterator. Failed to open a point in time on '" + index_alias + "'");
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (!this.isFetched && !this.isLast) {
+				this.searchQuery.put("pit", new JSONObject().put("id", this.pitId).put("keep_alive", scroll));
+				if (null != this.lastSort) {
+					this.searchQuery.put("search_after", new JSONArray(this.lastSort));
+				}
+
+				ElasticPage page = fetchPage(String.format(ELASTIC_PIT_SEARCH_API, uri), this.searchQuery.toString());
+				if (null != page) {
+					int hits_count = page.cursors.getHitsCount();
+					this.entries = page.entries;
+					this.isFetched = (0 < hits_count);
+					this.isLast = (hits_count < this.pageSize) || (null == page.cursors.getLastSort());
+					this.lastSort = page.cursors.getLastSort();
+					if (null != page.cursors.getPitId()) {
+						this.pitId = page.cursors.getPitId();
+					}
+				} else {
+					// the job must not complete with part of the index only
+					log.error("Failed to execute the Elastic source page iterator (point in time '" + this.pitId + "')");
+					this.isLast = true;
+					throw new RuntimeException("Failed to read the page of the Elastic point in time '" + this.pitId + "' following the sort values " + this.lastSort);
+				}
+			}
+
+			return this.isFetched;
+		}
+
+		@Override
+		public List<Map<String, List<String>>> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			this.isFetched = false;
+			return this.entries;
+		}
+
+		@Override
+		public void close() {
+			this.entries = Collections.emptyList();
+			if (null != this.pitId) {
+				request(HttpMethod.DELETE, String.format(ELASTIC_PIT_API, uri), new JSONObject().put("id", this.pitId).toString(), BODY_READER);
+				this.pitId = null;
+			}
+		}
+
+	}
 	
 }
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.jobs.extract.clients;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import fr.gouv.education.acrennes.alambic.exception.AlambicException;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Partition (shard) d'une recherche LDAP : une base de recherche (relative à celle de l'URL de connexion) et un filtre
+ * restreignant la requête de la source.
+ * Les partitions d'un même découpage sont disjointes. Un découpage par plages de caractères couvre l'intégralité du jeu
+ * de résultats de la requête ; un découpage par bases de recherche restreint au contraire la recherche aux sous-arbres
+ * des bases listées (cf. {@link #byBaseNames(List)}).
+ */
+public class LdapShard {
+
+	private final String baseName;
+	private final String filter;
+
+	public LdapShard(final String baseName, final String filter) {
+		this.baseName = (null != baseName) ? baseName : "";
+		this.filter = filter;
+	}
+
+	public String getBaseName() {
+		return baseName;
+	}
+
+	public String getFilter() {
+		return filter;
+	}
+
+	/**
+	 * Restriction de la requête de la source à cette partition.
+	 */
+	public String getQuery(final String query) {
+		String restrictedQuery = query;
+
+		if (StringUtils.isNotBlank(filter)) {
+			restrictedQuery = StringUtils.isNotBlank(query) ? "(&" + asFilter(query) + filter + ")" : filter;
+		}
+
+		return restrictedQuery;
+	}
+
+	@Override
+	public String toString() {
+		return "{\"base\":\"" + baseName + "\",\"filter\":\"" + ((null != filter) ? filter : "") + "\"}";
+	}
+
+	/**
+	 * @return vrai si la partition est une base de recherche (découpage par bases de recherche)
+	 */
+	public boolean isBaseRestricted() {
+		return StringUtils.isNotBlank(baseName);
+	}
+
+	/**
+	 * Découpage par liste de bases de recherche (ex : une partition par 'ou').
+	 * Chaque partition est une recherche SUBTREE_SCOPE depuis sa base : seules les entrées des sous-arbres des bases listées
+	 * sont lues (les entrées situées hors de ces sous-arbres, dont la base de l'URL de connexion elle-même, sont ignorées).
+	 * Ce découpage n'est donc possible qu'avec une recherche SUBTREE_SCOPE, et les bases ne doivent pas être imbriquées.
+	 *
+	 * @param baseNames les bases de recherche, relatives à celle de l'URL de connexion
+	 */
+	public static List<LdapShard> byBaseNames(final List<String> baseNames) throws AlambicException {
+		List<LdapShard> shards = new ArrayList<>();
+		List<String> normalizedBaseNames = new ArrayList<>();
+
+		for (String baseName : baseNames) {
+			if (StringUtils.isBlank(baseName)) {
+				throw new AlambicException("Base de recherche de partition LDAP vide");
+			}
+			String normalizedBaseName = baseName.trim().replaceAll("\\s*,\\s*", ",").toLowerCase(Locale.ROOT);
+			for (String otherBaseName : normalizedBaseNames) {
+				if (otherBaseName.equals(normalizedBaseName) || otherBaseName.endsWith("," + normalizedBaseName) || normalizedBaseName.endsWith("," + otherBaseName)) {
+					throw new AlambicException("Les bases de recherche de partition LDAP '" + otherBaseName + "' et '" + normalizedBaseName + "' se recouvrent");
+				}
+			}
+			normalizedBaseNames.add(normalizedBaseName);
+			shards.add(new LdapShard(baseName.trim(), null));
+		}
+
+		return shards;
+	}
+
+	/**
+	 * Découpage par plages de premier caractère de la valeur d'un attribut (ex : 'a-f,g-m,n-z,0-9' pour l'attribut 'uid').
+	 * Une partition complémentaire regroupe les entrées dont la valeur ne débute par aucun des caractères des plages
+	 * (ou dont l'attribut est absent), de sorte qu'aucune entrée n'est perdue.
+	 *
+	 * @param attribute l'attribut de découpage
+	 * @param ranges    les plages de caractères, séparées par des virgules (un caractère seul ou une plage 'x-y')
+	 */
+	public static List<LdapShard> byLeadingCharacters(final String attribute, final String ranges) throws AlambicException {
+		List<LdapShard> shards = new ArrayList<>();
+
+		if (StringUtils.isBlank(attribute) || StringUtils.isBlank(ranges)) {
+			throw new AlambicException("Le découpage par plage de caractères requiert un attribut et des plages (ex : attribute=\"uid\" ranges=\"a-m,n-z\")");
+		}
+
+		StringBuilder all = new StringBuilder();
+		for (String range : ranges.split(",")) {
+			String filter = getRangeFilter(attribute.trim(), range.trim());
+			shards.add(new LdapShard(null, filter));
+			all.append(filter);
+		}
+		shards.add(new LdapShard(null, "(!(|" + all + "))"));
+
+		return shards;
+	}
+
+	private static String getRangeFilter(final String attribute, final String range) throws AlambicException {
+		char first;
+		char last;
+
+		if (1 == range.length()) {
+			first = last = range.charAt(0);
+		} else if (3 == range.length() && '-' == range.charAt(1)) {
+			first = range.charAt(0);
+			last = range.charAt(2);
+		} else {
+			throw new AlambicException("Plage de caractères de partition LDAP invalide '" + range + "' (format attendu : 'x' ou 'x-y')");
+		}
+
+		if (first > last || !isFilterSafe(first) || !isFilterSafe(last)) {
+			throw new AlambicException("Plage de caractères de partition LDAP invalide '" + range + "'");
+		}
+
+		StringBuilder filter = new StringBuilder();
+		for (char c = first; c <= last; c++) {
+			if (isFilterSafe(c)) {
+				filter.append("(").append(attribute).append("=").append(c).append("*)");
+			}
+		}
+
+		return (first == last) ? filter.toString() : "(|" + filter + ")";
+	}
+
+	private static boolean isFilterSafe(final char c) {
+		return Character.isLetterOrDigit(c);
+	}
+
+	private static String asFilter(final String query) {
+		String trimmed = query.trim();
+		return trimmed.startsWith("(") ? trimmed : "(" + trimmed + ")";
+	}
+
+}
@@ -19,13 +19,20 @@ package fr.gouv.education.acrennes.alambic.jobs.extract.clients;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.naming.Context;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
@@ -35,10 +42,16 @@ import javax.naming.directory.InitialDirContext;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
 import javax.naming.ldap.Control;
-import javax.naming.ldap.InitialLdapContext;
 import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
 
 import fr.gouv.education.acrennes.alambic.exception.AlambicException;
+import fr.gouv.education.acrennes.alambic.jobs.extract.record.CompactRecord;
+import fr.gouv.education.acrennes.alambic.jobs.extract.record.RecordSchema;
+import fr.gouv.education.acrennes.alambic.ldap.LdapConnectionPool;
+import fr.gouv.education.acrennes.alambic.ldap.LdapConnectionPools;
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -56,19 +69,34 @@ public class LdapToStateBase implements IToStateBase {
 	private NamingEnumeration<SearchResult> searchResultSet;
 	private final Properties confLdap;
 	private final SearchControls contraintes = new SearchControls();
-	private DirContext ctx = null;
-	private LDAPResultsPageIterator pageIterator;
+	private final LdapConnectionPool pool;
+	private LdapContext ctx = null;
+	private LDAPPageIterator pageIterator;
+	private PaginationMethod paginationMethod = PaginationMethod.AUTO;
+	private List<LdapShard> shards = Collections.emptyList();
+	private int shardingParallelism = DEFAULT_SHARDING_PARALLELISM;
+	private final RecordSchema schema = new RecordSchema();
+
+	public enum PaginationMethod {
+		/* VLV if a sort criteria is defined and the server supports it, simple paged results otherwise */
+		AUTO,
+		/* Server side sort + Virtual List View controls */
+		VLV,
+		/* Simple Paged Results control (RFC 2696) : no server side sort */
+		PAGED_RESULTS
+	}
+
+	private static final String VLV_CONTROL_OID = "2.16.840.1.113730.3.4.9";
+	private static final String PAGED_RESULTS_CONTROL_OID = "1.2.840.113556.1.4.319";
+	private static final int DEFAULT_SHARDING_PARALLELISM = 4;
 
 	public LdapToStateBase(
             final Properties confLdap,
             final String[] attributeList
     ) {
         this.confLdap = confLdap;
-		try {
-			ctx = new InitialDirContext(confLdap);
-		} catch (NamingException e) {
-			log.error("Failed to instantiate the LDAP client, error: " + e.getMessage(), e);
-		}
+		// the connection is borrowed from the pool shared by the run as the first query is executed
+		pool = LdapConnectionPools.getPool(confLdap);
 		contraintes.setSearchScope(SearchControls.ONELEVEL_SCOPE);
 		if (attributeList != null) {
 			contraintes.setReturningAttributes(attributeList);
@@ -84,11 +112,12 @@ public class LdapToStateBase implements IToStateBase {
 		// FIXME close searchResult outside ?
 		// NdKLH : pas fan de reconstruire une liste à chaque appel de cette méthode, même quand executeQuery n'est pas
 		//         appelé entre les appels... mais pour une correction rapide, cela devrait suffire.
-		results = new ArrayList<>();
+		// the list is local as the shards of a sharded search are read concurrently
+		List<Map<String, List<String>>> results = new ArrayList<>();
 		if (null != searchResult) {
 			try {
 				while (searchResult.hasMore()) {
-					Map<String, List<String>> entry = new HashMap<>();
+					CompactRecord entry = schema.newRecord();
 					SearchResult sR = searchResult.next();
 
 					Attributes attrs = sR.getAttributes();
@@ -98,16 +127,16 @@ public class LdapToStateBase implements IToStateBase {
 							Attribute curAttr = listAttrs.next();
 							String attrName = curAttr.getID();
 							NamingEnumeration<?> values = curAttr.getAll();
-							List<String> attrValues = new ArrayList<String>();
+							String[] attrValues = new String[curAttr.size()];
+							int count = 0;
 							try {
-								while (values.hasMore()) {
-									String value = Functions.getInstance().valueToString(values.next());
-									attrValues.add(value);
+								while (values.hasMore() && count < attrValues.length) {
+									attrValues[count++] = Functions.getInstance().valueToString(values.next());
 								}
 							} catch (UnsupportedEncodingException e) {
 								log.error("Conversion de caracteres" + e.getMessage(), e);
 							}
-							entry.put(attrName, attrValues);
+							entry.putValues(attrName, (count < attrValues.length) ? Arrays.copyOf(attrValues, count) : attrValues);
 						}
 					} finally {
 						listAttrs.close();
@@ -120,6 +149,7 @@ public class LdapToStateBase implements IToStateBase {
 			}
 		}
 
+		this.results = results;
 		return results;
 	}
 
@@ -137,22 +167,22 @@ public class LdapToStateBase implements IToStateBase {
 	public void executeQuery(final String query, final String scope) {
 		try {
 			contraintes.setSearchScope(getSearchScope(scope));
+			if (null == ctx) {
+				ctx = pool.borrow();
+			}
 			searchResultSet = ctx.search("", query, contraintes);
 		} catch (NamingException e) {
 			log.error("Connexion a l'annuaire : " + e.getMessage(), e);
+			pool.invalidate(ctx);
+			ctx = null;
 		}
 	}
 
 	@Override
 	public void close() {
 		if (null != ctx) {
-			try {
-				ctx.close();
-			} catch (NamingException e) {
-				log.error("Failed to close the LDAP client, error:" + e.getMessage(), e);
-			} finally {
-				ctx = null;
-			}
+			pool.release(ctx);
+			ctx = null;
 		}
 
 		if (null != pageIterator) {
@@ -183,14 +213,252 @@ public class LdapToStateBase implements IToStateBase {
 		results.clear();
 	}
 
+	public PaginationMethod getPaginationMethod() {
+		return paginationMethod;
+	}
+
+	public void setPaginationMethod(final PaginationMethod paginationMethod) {
+		this.paginationMethod = paginationMethod;
+	}
+
+	public List<LdapShard> getShards() {
+		return shards;
+	}
+
+	/**
+	 * Découpage des recherches paginées en partitions lues en parallèle.
+	 *
+	 * @param shards      les partitions de la recherche (aucun découpage si la liste est vide)
+	 * @param parallelism le nombre maximal de partitions lues simultanément (autant de connexions à l'annuaire)
+	 */
+	public void setShards(final List<LdapShard> shards, final int parallelism) {
+		this.shards = (null != shards) ? shards : Collections.<LdapShard> emptyList();
+		this.shardingParallelism = (0 < parallelism) ? parallelism : DEFAULT_SHARDING_PARALLELISM;
+	}
+
 	@Override
 	public Iterator<List<Map<String, List<String>>>> getPageIterator(final String query, final String scope, final int pageSize, final String sortBy, final String orderBy)
 			throws AlambicException {
-		pageIterator = new LDAPResultsPageIterator(confLdap, contraintes, query, scope, pageSize, sortBy);
+		contraintes.setSearchScope(getSearchScope(scope));
+		PaginationMethod method = resolvePaginationMethod(sortBy);
+		log.debug("LDAP paged search '" + query + "' is run with the pagination method " + method);
+		if (shards.isEmpty()) {
+			pageIterator = newPageIterator(method, "", query, pageSize, sortBy);
+		} else {
+			// the entries of a base name shard are searched in its whole subtree
+			if (SearchControls.SUBTREE_SCOPE != contraintes.getSearchScope() && shards.stream().anyMatch(LdapShard::isBaseRestricted)) {
+				throw new AlambicException("Le découpage par bases de recherche requiert une recherche SUBTREE_SCOPE (portée '" + scope + "')");
+			}
+			pageIterator = new LDAPShardedPageIterator(method, query, pageSize, sortBy);
+		}
 		return pageIterator;
 	}
 
-	public class LDAPResultsPageIterator implements Iterator<List<Map<String, List<String>>>> {
+	private LDAPPageIterator newPageIterator(final PaginationMethod method, final String baseName, final String query, final int pageSize, final String sortBy) {
+		LDAPPageIterator iterator;
+
+		if (PaginationMethod.PAGED_RESULTS.equals(method)) {
+			iterator = new LDAPPagedResultsIterator(confLdap, baseName, contraintes, query, pageSize);
+		} else {
+			iterator = new LDAPResultsPageIterator(confLdap, baseName, contraintes, query, pageSize, sortBy);
+		}
+
+		return iterator;
+	}
+
+	private PaginationMethod resolvePaginationMethod(final String sortBy) {
+		PaginationMethod method = paginationMethod;
+
+		if (PaginationMethod.AUTO.equals(method)) {
+			boolean isSorted = StringUtils.isNotBlank(sortBy);
+			List<String> supportedControls = getSupportedControls();
+			if (isSorted && (supportedControls.isEmpty() || supportedControls.contains(VLV_CONTROL_OID))) {
+				method = PaginationMethod.VLV;
+			} else if (!isSorted || supportedControls.contains(PAGED_RESULTS_CONTROL_OID)) {
+				method = PaginationMethod.PAGED_RESULTS;
+			} else {
+				method = PaginationMethod.VLV;
+			}
+		}
+
+		return method;
+	}
+
+	/**
+	 * Lecture des contrôles supportés par le serveur (attribut 'supportedControl' du Root DSE).
+	 *
+	 * @return la liste des OID des contrôles supportés, vide si elle n'a pu être lue
+	 */
+	private List<String> getSupportedControls() {
+		List<String> supportedControls = new ArrayList<>();
+
+		Properties rootEnvironment = new Properties();
+		rootEnvironment.putAll(confLdap);
+		String url = confLdap.getProperty(Context.PROVIDER_URL);
+		if (StringUtils.isNotBlank(url)) {
+			// the Root DSE is read from the server root (the base DN is discarded from each URL)
+			rootEnvironment.setProperty(Context.PROVIDER_URL, url.replaceAll("(ldaps?://[^/\\s]+)/?[^\\s]*", "$1"));
+		}
+
+		DirContext rootCtx = null;
+		try {
+			rootCtx = new InitialDirContext(rootEnvironment);
+			Attribute attribute = rootCtx.getAttributes("", new String[] { "supportedControl" }).get("supportedControl");
+			if (null != attribute) {
+				NamingEnumeration<?> values = attribute.getAll();
+				while (values.hasMore()) {
+					supportedControls.add(String.valueOf(values.next()));
+				}
+			}
+		} catch (NamingException e) {
+			log.warn("Failed to read the controls supported by the LDAP server, error: " + e.getMessage());
+		} finally {
+			if (null != rootCtx) {
+				try {
+					rootCtx.close();
+				} catch (NamingException e) {
+					log.error("Failed to close the LDAP client, error:" + e.getMessage(), e);
+				}
+			}
+		}
+
+		return supportedControls;
+	}
+
+	public interface LDAPPageIterator extends Iterator<List<Map<String, List<String>>>> {
+
+		void close() throws NamingException;
+
+		/**
+		 * @return l'erreur ayant interrompu la lecture des pages (null si la lecture n'a pas échoué)
+		 */
+		default Exception getError() {
+			return null;
+		}
+
+	}
+
+	/**
+	 * Pagination via le contrôle 'Simple Paged Results' (RFC 2696) : le serveur retourne les entrées par lots successifs
+	 * identifiés par un cookie, sans tri préalable du jeu de résultats.
+	 */
+	public class LDAPPagedResultsIterator implements LDAPPageIterator {
+
+		private final Log log = LogFactory.getLog(LDAPPagedResultsIterator.class);
+
+		private List<Map<String, List<String>>> entries;
+		private final int pageSize;
+		private final String baseName;
+		private final String query;
+		private final SearchControls controls;
+		private LdapConnectionPool itrPool;
+		private LdapContext itrCtx;
+		private boolean isInitialization;
+		private byte[] cookie;
+		private Exception error;
+
+		public LDAPPagedResultsIterator(final Properties environment, final SearchControls controls, final String query, final int pageSize) {
+			this(environment, "", controls, query, pageSize);
+		}
+
+		public LDAPPagedResultsIterator(final Properties environment, final String baseName, final SearchControls controls, final String query, final int pageSize) {
+			this.baseName = baseName;
+			this.pageSize = pageSize;
+			this.query = query;
+			this.controls = controls;
+			isInitialization = true;
+			entries = Collections.emptyList();
+			cookie = null;
+
+			try {
+				itrPool = LdapConnectionPools.getPool(environment);
+				itrCtx = itrPool.borrow();
+				fetchPage();
+			} catch (Exception e) {
+				log.error("Failed to instanciate the LDAP source page iterator. The LDAP server might not support simple page result requests, error: " + e.getMessage(), e);
+				error = e;
+			}
+		}
+
+		private void fetchPage() throws IOException, NamingException {
+			itrCtx.setRequestControls(new Control[] { new PagedResultsControl(pageSize, cookie, Control.CRITICAL) });
+			entries = getStateBase(itrCtx.search(baseName, query, controls));
+
+			cookie = null;
+			Control[] responseControls = itrCtx.getResponseControls();
+			if (null != responseControls) {
+				for (Control control : responseControls) {
+					if (control instanceof PagedResultsResponseControl) {
+						cookie = ((PagedResultsResponseControl) control).getCookie();
+					}
+				}
+			}
+		}
+
+		private boolean hasMorePages() {
+			return (null != cookie && 0 < cookie.length);
+		}
+
+		@Override
+		public boolean hasNext() {
+			boolean doHaveNext = false;
+
+			if (isInitialization) {
+				isInitialization = false;
+				doHaveNext = !entries.isEmpty();
+			}
+
+			// A page may be empty while the cookie announces further pages (e.g. entries filtered out by access controls)
+			try {
+				while (!doHaveNext && hasMorePages()) {
+					fetchPage();
+					doHaveNext = !entries.isEmpty();
+				}
+			} catch (IOException | NamingException e) {
+				log.error("Failed to evaluate has next page, error : " + e.getMessage(), e);
+				error = e;
+			}
+
+			return doHaveNext;
+		}
+
+		@Override
+		public List<Map<String, List<String>>> next() {
+			return entries;
+		}
+
+		@Override
+		public void remove() {
+			log.error("Not supported operation");
+		}
+
+		@Override
+		public Exception getError() {
+			return error;
+		}
+
+		@Override
+		public void close() throws NamingException {
+			if (null != itrCtx) {
+				try {
+					if (hasMorePages()) {
+						// a page size of 0 makes the server release the resources of the abandoned search
+						itrCtx.setRequestControls(new Control[] { new PagedResultsControl(0, cookie, Control.NONCRITICAL) });
+						itrCtx.search(baseName, query, controls).close();
+					}
+				} catch (IOException | NamingException e) {
+					log.warn("Failed to abandon the LDAP paged search, error : " + e.getMessage());
+				} finally {
+					cookie = null;
+					itrPool.release(itrCtx);
+					itrCtx = null;
+				}
+			}
+		}
+
+	}
+
+	public class LDAPResultsPageIterator implements LDAPPageIterator {
 
 		private final Log log = LogFactory.getLog(LDAPResultsPageIterator.class);
 
@@ -198,14 +466,23 @@ public class LdapToStateBase implements IToStateBase {
 		private int offset;
 		private int total;
 		private final int pageSize;
+		private final String baseName;
 		private final String query;
 		private final SearchControls controls;
+		private LdapConnectionPool itrPool;
 		private LdapContext itrCtx;
 		private boolean isInitialization;
 		private final String sortBy;
+		private Exception error;
 
 		public LDAPResultsPageIterator(final Properties environment, final SearchControls controls, final String query, final String scope, final int pageSize,
 				final String sortBy) {
+			this(environment, "", controls, query, pageSize, sortBy);
+		}
+
+		public LDAPResultsPageIterator(final Properties environment, final String baseName, final SearchControls controls, final String query, final int pageSize,
+				final String sortBy) {
+			this.baseName = baseName;
 			offset = 1;
 			total = 0;
 			this.pageSize = pageSize;
@@ -216,7 +493,8 @@ public class LdapToStateBase implements IToStateBase {
 			this.sortBy = sortBy;
 
 			try {
-				itrCtx = new InitialLdapContext(environment, null);
+				itrPool = LdapConnectionPools.getPool(environment);
+				itrCtx = itrPool.borrow();
 
 				/* Sort Control is required for VLV to work */
 				SortControl sctl = new SortControl(new String[] { this.sortBy }, Control.CRITICAL);
@@ -228,11 +506,12 @@ public class LdapToStateBase implements IToStateBase {
 				itrCtx.setRequestControls(new Control[] { sctl, vctl });
 
 				/* Perform search */
-				entries = getStateBase(itrCtx.search("", query, controls));
+				entries = getStateBase(itrCtx.search(baseName, query, controls));
 
 				updateControls(itrCtx.getResponseControls());
 			} catch (Exception e) {
 				log.error("Failed to instanciate the LDAP source page iterator. The LDAP server might not support simple page result requests, error: " + e.getMessage(), e);
+				error = e;
 			}
 		}
 
@@ -255,12 +534,13 @@ public class LdapToStateBase implements IToStateBase {
 					itrCtx.setRequestControls(new Control[] { sctl, vctl });
 
 					/* Perform search */
-					entries.clear();
-					entries = getStateBase(itrCtx.search("", query, controls));
+					// the previous page isn't cleared as it might still be read (e.g. merged by a sharded iterator)
+					entries = getStateBase(itrCtx.search(baseName, query, controls));
 					updateControls(itrCtx.getResponseControls());
 					doHaveNext = !entries.isEmpty();
 				} catch (IOException | NamingException e) {
 					log.error("Failed to evaluate has next page, error : " + e.getMessage(), e);
+					error = e;
 				}
 			}
 
@@ -277,8 +557,17 @@ public class LdapToStateBase implements IToStateBase {
 			log.error("Not supported operation");
 		}
 
+		@Override
+		public Exception getError() {
+			return error;
+		}
+
+		@Override
 		public void close() throws NamingException {
-			itrCtx.close();
+			if (null != itrCtx) {
+				itrPool.release(itrCtx);
+				itrCtx = null;
+			}
 		}
 
 		private void updateControls(final Control[] controls)
@@ -302,4 +591,131 @@ public class LdapToStateBase implements IToStateBase {
 
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Lecture parallèle des partitions d'une recherche paginée : chaque partition est lue par son propre itérateur (et sa
+	 * propre connexion à l'annuaire), au plus 'shardingParallelism' partitions simultanément.
+	 * Les pages lues sont fusionnées en un flux unique, sans ordre global entre les partitions.
+	 */
+	public class LDAPShardedPageIterator implements LDAPPageIterator {
+
+		private final Log log = LogFactory.getLog(LDAPShardedPageIterator.class);
+
+		/* Marker of a shard whose pages are all read */
+		private final List<Map<String, List<String>>> endOfShard = Collections.unmodifiableList(new ArrayList<Map<String, List<String>>>());
+
+		private final BlockingQueue<List<Map<String, List<String>>>> pages;
+		private final ExecutorService executor;
+		private final int shardCount;
+		private int readShards;
+		private List<Map<String, List<String>>> entries;
+		private volatile boolean isClosed;
+		/* First failure of a shard reader, passed on to the consumer so that the job does not complete with partial data */
+		private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+		public LDAPShardedPageIterator(final PaginationMethod method, final String query, final int pageSize, final String sortBy) {
+			final List<LdapShard> shardList = new ArrayList<>(shards);
+			final int parallelism = Math.min(shardingParallelism, shardList.size());
+			final AtomicInteger threadCount = new AtomicInteger();
+
+			shardCount = shardList.size();
+			readShards = 0;
+			entries = Collections.emptyList();
+			isClosed = false;
+			// the read-ahead is bounded so that fast shards don't fill the memory while the pages are being processed
+			pages = new LinkedBlockingQueue<>(2 * parallelism);
+			executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+				Thread thread = new Thread(runnable, "ldap-shard-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+
+			log.info("LDAP paged search '" + query + "' is split into " + shardCount + " shards read by " + parallelism + " parallel connections");
+			for (final LdapShard shard : shardList) {
+				executor.submit(() -> readShard(method, shard, query, pageSize, sortBy));
+			}
+			executor.shutdown();
+		}
+
+		private void readShard(final PaginationMethod method, final LdapShard shard, final String query, final int pageSize, final String sortBy) {
+			long start = System.currentTimeMillis();
+			int pageCount = 0;
+			LDAPPageIterator shardIterator = null;
+
+			try {
+				shardIterator = newPageIterator(method, shard.getBaseName(), shard.getQuery(query), pageSize, sortBy);
+				while (!isClosed && shardIterator.hasNext()) {
+					pages.put(shardIterator.next());
+					pageCount++;
+				}
+				if (null != shardIterator.getError()) {
+					throw new IllegalStateException("page read error, " + shardIterator.getError().getMessage(), shardIterator.getError());
+				}
+				log.debug("LDAP shard " + shard + " read (" + pageCount + " pages in " + (System.currentTimeMillis() - start) + " ms)");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (RuntimeException e) {
+				log.error("Failed to read the LDAP shard " + shard + ", error : " + e.getMessage(), e);
+				failure.compareAndSet(null, new RuntimeException("Failed to read the LDAP shard " + shard + ", error : " + e.getMessage(), e));
+			} finally {
+				if (null != shardIterator) {
+					try {
+						shardIterator.close();
+					} catch (NamingException e) {
+						log.error("Failed to close the LDAP shard page iterator, error : " + e.getMessage(), e);
+					}
+				}
+				if (!isClosed) {
+					try {
+						pages.put(endOfShard);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			boolean doHaveNext = false;
+
+			try {
+				while (!doHaveNext && !isClosed && readShards < shardCount) {
+					List<Map<String, List<String>>> page = pages.take();
+					if (endOfShard == page) {
+						readShards++;
+						if (null != failure.get()) {
+							throw failure.get();
+						}
+					} else {
+						entries = page;
+						doHaveNext = !entries.isEmpty();
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				log.error("Interrupted while waiting for the next page of the LDAP shards", e);
+			}
+
+			return doHaveNext;
+		}
+
+		@Override
+		public List<Map<String, List<String>>> next() {
+			return entries;
+		}
+
+		@Override
+		public void remove() {
+			log.error("Not supported operation");
+		}
+
+		@Override
+		public void close() throws NamingException {
+			isClosed = true;
+			executor.shutdownNow();
+			pages.clear();
+		}
+
+	}
+
+}
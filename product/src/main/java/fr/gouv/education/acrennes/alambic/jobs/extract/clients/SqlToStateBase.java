@@ -17,7 +17,6 @@
 package fr.gouv.education.acrennes.alambic.jobs.extract.clients;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
@@ -25,6 +24,9 @@ import java.sql.SQLException;
 import java.util.*;
 
 import fr.gouv.education.acrennes.alambic.exception.AlambicException;
+import fr.gouv.education.acrennes.alambic.jobs.extract.record.CompactRecord;
+import fr.gouv.education.acrennes.alambic.jobs.extract.record.RecordSchema;
+import fr.gouv.education.acrennes.alambic.persistence.JdbcConnectionPools;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -50,6 +52,18 @@ public class SqlToStateBase implements IToStateBase {
 				return String.format("SELECT * FROM (%s) LIMIT %d OFFSET %d", query, pageSize, offSet);
 			}
 		},
+		STREAM {
+			@Override
+			public String paginationQuery(String query, int offSet, int pageSize, int total) throws AlambicException {
+				throw new AlambicException("Not supported operation : the pages are read from a single forward-only result set");
+			}
+		},
+		KEYSET {
+			@Override
+			public String paginationQuery(String query, int offSet, int pageSize, int total) throws AlambicException {
+				throw new AlambicException("Not supported operation : the pages are selected by the last value of the sort column");
+			}
+		},
 		NONE {
 			@Override
 			public String paginationQuery(String query, int offSet, int pageSize, int total) throws AlambicException {
@@ -65,16 +79,18 @@ public class SqlToStateBase implements IToStateBase {
 	private Connection conn;
 	private ResultSet rs;
 	private PaginationMethod paginationMethod;
+	private int fetchSize = 0;
+	private final RecordSchema schema = new RecordSchema();
+	private SQLCursorPageIterator pageIterator;
 
 	public SqlToStateBase(final String driver, final String uri, final String paginationMethod) throws SQLException, ClassNotFoundException {
-		Class.forName(driver);
-		conn = DriverManager.getConnection(uri);
+		// the connection is borrowed from the pool shared by the run, closing it returns it to the pool
+		conn = JdbcConnectionPools.getConnection(driver, uri, null, null);
 		this.paginationMethod = PaginationMethod.valueOf(paginationMethod.toUpperCase());
 	}
 
 	public SqlToStateBase(final String driver, final String uri, final String paginationMethod, final String user, final String password) throws SQLException, ClassNotFoundException {
-		Class.forName(driver);
-		conn = DriverManager.getConnection(uri, user, password);
+		conn = JdbcConnectionPools.getConnection(driver, uri, user, password);
 		this.paginationMethod = PaginationMethod.valueOf(paginationMethod.toUpperCase());
 	}
 
@@ -89,22 +105,14 @@ public class SqlToStateBase implements IToStateBase {
 		try {
 			pstmt = conn.prepareStatement(query);
 			try {
+				if (0 < fetchSize) {
+					pstmt.setFetchSize(fetchSize);
+				}
 				rs = pstmt.executeQuery();
 				try {
 					ResultSetMetaData rsmd = rs.getMetaData();
-					int numberOfColumns = rsmd.getColumnCount();
 					while (rs.next()) {
-						HashMap<String, List<String>> h = new HashMap<>();
-						for (int i = 1; i <= numberOfColumns; i++) {
-							String s = rs.getString(i);
-							if (s == null) {
-								s = "";
-							}
-							List<String> l = new ArrayList<>();
-							l.add(s.trim());
-							h.put(rsmd.getColumnLabel(i), l);
-						}
-						stateBase.add(h);
+						stateBase.add(getEntry(rs, rsmd));
 					}
 				} finally {
 					rs.close();
@@ -117,13 +125,42 @@ public class SqlToStateBase implements IToStateBase {
 		}
 	}
 
+	private Map<String, List<String>> getEntry(final ResultSet resultSet, final ResultSetMetaData rsmd) throws SQLException {
+		CompactRecord h = schema.newRecord();
+		final int columnCount = rsmd.getColumnCount();
+		for (int i = 1; i <= columnCount; i++) {
+			String s = resultSet.getString(i);
+			if (s == null) {
+				s = "";
+			}
+			h.putValue(rsmd.getColumnLabel(i), s.trim());
+		}
+		return h;
+	}
+
 	@Override
 	public List<Map<String, List<String>>> getStateBase() {
 		return stateBase;
 	}
 
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	/**
+	 * Nombre de lignes rapatriées par aller-retour avec le serveur (0 : valeur par défaut du driver JDBC).
+	 */
+	public void setFetchSize(final int fetchSize) {
+		this.fetchSize = fetchSize;
+	}
+
 	@Override
 	public void close() {
+		if (null != pageIterator) {
+			pageIterator.close();
+			pageIterator = null;
+		}
+
 		if (null != conn) {
 			try {
 				conn.close();
@@ -148,7 +185,22 @@ public class SqlToStateBase implements IToStateBase {
 	@Override
 	public Iterator<List<Map<String, List<String>>>> getPageIterator(final String query, final String scope, final int pageSize, final String sortBy, final String orderBy)
 			throws AlambicException {
-		return new SQLResultsPageIterator(query, pageSize, paginationMethod);
+		Iterator<List<Map<String, List<String>>>> itr;
+
+		if (PaginationMethod.STREAM.equals(paginationMethod)) {
+			pageIterator = new SQLStreamPageIterator(query, pageSize);
+			itr = pageIterator;
+		} else if (PaginationMethod.KEYSET.equals(paginationMethod)) {
+			if (StringUtils.isBlank(sortBy)) {
+				throw new AlambicException("The sort column is mandatory for the keyset pagination method, ex : <sortBy>id</sortBy>");
+			}
+			pageIterator = new SQLKeysetPageIterator(query, pageSize, sortBy);
+			itr = pageIterator;
+		} else {
+			itr = new SQLResultsPageIterator(query, pageSize, paginationMethod);
+		}
+
+		return itr;
 	}
 
 	public class SQLResultsPageIterator implements Iterator<List<Map<String, List<String>>>> {
@@ -203,4 +255,213 @@ public class SqlToStateBase implements IToStateBase {
 		}
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Itérateur de pages dont le curseur (ResultSet) reste ouvert d'une page à l'autre, ce qui évite de ré-exécuter la requête.
+	 */
+	private abstract class SQLCursorPageIterator implements Iterator<List<Map<String, List<String>>>> {
+		protected final int pageSize;
+		protected PreparedStatement cursorStmt;
+		protected ResultSet cursor;
+		protected ResultSetMetaData cursorMetaData;
+		protected boolean hasPendingRow;
+
+		public SQLCursorPageIterator(final int pageSize) throws AlambicException {
+			if (0 >= pageSize) {
+				throw new AlambicException("Failed to instanciate the SQL source page iterator. The page size must be strictly positive (current value is '" + pageSize + "')");
+			}
+			this.pageSize = pageSize;
+			this.hasPendingRow = false;
+		}
+
+		protected void openCursor(final PreparedStatement statement) throws SQLException {
+			closeCursor();
+			cursorStmt = statement;
+			if (0 < fetchSize) {
+				cursorStmt.setFetchSize(fetchSize);
+			}
+			cursor = cursorStmt.executeQuery();
+			cursorMetaData = cursor.getMetaData();
+			hasPendingRow = cursor.next();
+		}
+
+		protected void closeCursor() {
+			try {
+				if (null != cursor) {
+					cursor.close();
+				}
+				if (null != cursorStmt) {
+					cursorStmt.close();
+				}
+			} catch (SQLException e) {
+				log.error("Failed to close the SQL cursor, error: " + e.getMessage(), e);
+			} finally {
+				cursor = null;
+				cursorStmt = null;
+				cursorMetaData = null;
+			}
+		}
+
+		/**
+		 * Lecture de la page suivante depuis le curseur courant. Le curseur est fermé dès qu'il est épuisé.
+		 */
+		protected List<Map<String, List<String>>> readPage() throws SQLException {
+			List<Map<String, List<String>>> page = new ArrayList<>(pageSize);
+			while (hasPendingRow && page.size() < pageSize) {
+				page.add(getEntry(cursor, cursorMetaData));
+				onRowRead();
+				hasPendingRow = cursor.next();
+			}
+
+			if (!hasPendingRow) {
+				closeCursor();
+			}
+
+			return page;
+		}
+
+		protected void onRowRead() throws SQLException {
+			// no-op
+		}
+
+		@Override
+		public boolean hasNext() {
+			return hasPendingRow;
+		}
+
+		@Override
+		public void remove() {
+			log.error("Not supported operation");
+		}
+
+		public void close() {
+			hasPendingRow = false;
+			closeCursor();
+		}
+	}
+
+	/**
+	 * Pagination par lecture en flux d'un unique ResultSet (TYPE_FORWARD_ONLY) : la requête n'est exécutée qu'une seule fois
+	 * et chaque page est constituée des lignes au fur et à mesure de leur réception.
+	 */
+	public class SQLStreamPageIterator extends SQLCursorPageIterator {
+		private final Log log = LogFactory.getLog(SQLStreamPageIterator.class);
+
+		private boolean autoCommit;
+
+		public SQLStreamPageIterator(final String query, final int pageSize) throws AlambicException {
+			super(pageSize);
+			try {
+				// certains drivers (ex : PostgreSQL) ne tiennent compte du fetch size qu'en dehors du mode auto-commit
+				autoCommit = conn.getAutoCommit();
+				if (autoCommit) {
+					conn.setAutoCommit(false);
+				}
+				openCursor(conn.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY));
+			} catch (SQLException e) {
+				close();
+				throw new AlambicException("Failed to instanciate the SQL source stream page iterator (query is '" + query + "'), error: " + e.getMessage());
+			}
+		}
+
+		@Override
+		public List<Map<String, List<String>>> next() {
+			if (!hasPendingRow) {
+				throw new NoSuchElementException();
+			}
+
+			try {
+				List<Map<String, List<String>>> page = readPage();
+				if (!hasPendingRow) {
+					restoreAutoCommit();
+				}
+				return page;
+			} catch (SQLException e) {
+				close();
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public void close() {
+			super.close();
+			restoreAutoCommit();
+		}
+
+		private void restoreAutoCommit() {
+			if (autoCommit && null != conn) {
+				try {
+					conn.commit();
+					conn.setAutoCommit(true);
+				} catch (SQLException e) {
+					log.error("Failed to restore the auto-commit mode of the SQL connection, error: " + e.getMessage(), e);
+				} finally {
+					autoCommit = false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Pagination par clé (seek method) : chaque page est obtenue par une requête triée sur une colonne à valeurs uniques,
+	 * filtrée sur la dernière valeur lue dans la page précédente. Le coût d'une page ne dépend donc pas de sa position.
+	 */
+	public class SQLKeysetPageIterator extends SQLCursorPageIterator {
+		private final String firstPageQuery;
+		private final String nextPageQuery;
+		private final String sortBy;
+		private Object lastKey;
+
+		public SQLKeysetPageIterator(final String query, final int pageSize, final String sortBy) throws AlambicException {
+			super(pageSize);
+			this.sortBy = sortBy;
+			this.firstPageQuery = String.format("SELECT * FROM (%s) k__ ORDER BY k__.%s", query, sortBy);
+			this.nextPageQuery = String.format("SELECT * FROM (%s) k__ WHERE k__.%s > ? ORDER BY k__.%s", query, sortBy, sortBy);
+			this.lastKey = null;
+
+			try {
+				openPage();
+			} catch (SQLException e) {
+				close();
+				throw new AlambicException("Failed to instanciate the SQL source keyset page iterator (query is '" + firstPageQuery + "'), error: " + e.getMessage());
+			}
+		}
+
+		private void openPage() throws SQLException {
+			PreparedStatement statement;
+			if (null == lastKey) {
+				statement = conn.prepareStatement(firstPageQuery, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			} else {
+				statement = conn.prepareStatement(nextPageQuery, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+				statement.setObject(1, lastKey);
+			}
+			// one more row than the page size tells whether a next page does exist
+			statement.setMaxRows(pageSize + 1);
+			openCursor(statement);
+		}
+
+		@Override
+		protected void onRowRead() throws SQLException {
+			lastKey = cursor.getObject(sortBy);
+		}
+
+		@Override
+		public List<Map<String, List<String>>> next() {
+			if (!hasPendingRow) {
+				throw new NoSuchElementException();
+			}
+
+			try {
+				List<Map<String, List<String>>> page = readPage();
+				if (hasPendingRow) {
+					// the extra row is read again as the first row of the next page
+					openPage();
+				}
+				return page;
+			} catch (SQLException e) {
+				close();
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+}
@@ -134,15 +134,17 @@ public class WSToStateBase implements IToStateBase {
             String query_api = null;
             String query_parameters = null;
             String query_payload = null;
+            String query_method = this.method;
 
             if (StringUtils.isNotBlank(jsonquery)) {
                 JSONObject query = new JSONObject(jsonquery);
                 query_api = (query.has("api")) ? query.getString("api") : null;
                 query_parameters = (query.has("parameters")) ? query.getString("parameters") : null;
                 query_payload = (query.has("payload")) ? query.get("payload").toString() : null;
+                query_method = (query.has("method")) ? query.getString("method") : this.method;
             }
 
-            WebServiceApi wsapi = new WebServiceApi(getFullAPIURL(this.url, query_api, query_parameters), this.method, this.headers, query_payload, this.successResponseCodes);
+            WebServiceApi wsapi = new WebServiceApi(getFullAPIURL(this.url, query_api, query_parameters), query_method, this.headers, query_payload, this.successResponseCodes);
             HttpUriRequest request = wsapi.getRequest();
             if (StringUtils.isNotBlank(this.authHeader)) {
                 request.setHeader(HttpHeaders.AUTHORIZATION, this.authHeader);
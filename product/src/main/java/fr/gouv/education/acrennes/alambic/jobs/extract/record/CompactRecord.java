@@ -0,0 +1,218 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.jobs.extract.record;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Représentation compacte d'une entrée extraite d'une source (ligne SQL, entrée LDAP, ligne CSV...).
+ * <p>
+ * Les valeurs sont rangées dans un tableau indexé par le {@link RecordSchema} partagé : une valeur unique est stockée
+ * telle quelle (sans liste), une valeur multiple sous forme de tableau. L'enregistrement expose la vue historique
+ * {@code Map<String, List<String>>} (templates Freemarker, destinations...), les listes retournées n'étant pas modifiables :
+ * toute modification passe par {@link #put(String, List)}.
+ * </p>
+ */
+public final class CompactRecord extends AbstractMap<String, List<String>> {
+
+	private static final Object NULL_VALUE = new Object();
+	private static final String[] NO_VALUES = new String[0];
+	private static final Object[] NO_SLOTS = new Object[0];
+
+	private final RecordSchema schema;
+	private Object[] slots;
+	private int size;
+	private transient Set<Map.Entry<String, List<String>>> entrySet;
+
+	public CompactRecord(final RecordSchema schema) {
+		this.schema = schema;
+		this.slots = NO_SLOTS;
+		this.size = 0;
+	}
+
+	public RecordSchema getSchema() {
+		return schema;
+	}
+
+	/**
+	 * Ajout d'une valeur unique (chemin rapide, sans allocation de liste).
+	 */
+	public void putValue(final String name, final String value) {
+		setSlot(schema.register(name), (null != value) ? value : NULL_VALUE);
+	}
+
+	/**
+	 * Ajout de valeurs multiples.
+	 */
+	public void putValues(final String name, final String[] values) {
+		setSlot(schema.register(name), (null != values) ? ((1 == values.length) ? values[0] : values) : NULL_VALUE);
+	}
+
+	/**
+	 * @return la première valeur de l'attribut (ou null)
+	 */
+	public String getFirstValue(final String name) {
+		Object slot = getSlot(schema.indexOf(name));
+		if (slot instanceof String) {
+			return (String) slot;
+		} else if (slot instanceof String[]) {
+			String[] values = (String[]) slot;
+			return (0 < values.length) ? values[0] : null;
+		}
+		return null;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean containsKey(final Object key) {
+		return null != getSlot(schema.indexOf(key));
+	}
+
+	@Override
+	public List<String> get(final Object key) {
+		return toList(getSlot(schema.indexOf(key)));
+	}
+
+	@Override
+	public List<String> put(final String key, final List<String> value) {
+		int index = schema.register(key);
+		List<String> previous = toList(getSlot(index));
+		setSlot(index, toSlot(value));
+		return previous;
+	}
+
+	@Override
+	public List<String> remove(final Object key) {
+		int index = schema.indexOf(key);
+		Object slot = getSlot(index);
+		if (null != slot) {
+			slots[index] = null;
+			size--;
+		}
+		return toList(slot);
+	}
+
+	@Override
+	public void clear() {
+		slots = NO_SLOTS;
+		size = 0;
+	}
+
+	@Override
+	public Set<Map.Entry<String, List<String>>> entrySet() {
+		if (null == entrySet) {
+			entrySet = new EntrySet();
+		}
+		return entrySet;
+	}
+
+	private Object getSlot(final int index) {
+		return (0 <= index && index < slots.length) ? slots[index] : null;
+	}
+
+	private void setSlot(final int index, final Object slot) {
+		if (index >= slots.length) {
+			slots = Arrays.copyOf(slots, Math.max(index + 1, schema.size()));
+		}
+		if (null == slots[index]) {
+			size++;
+		}
+		slots[index] = slot;
+	}
+
+	private static Object toSlot(final List<String> value) {
+		if (null == value) {
+			return NULL_VALUE;
+		} else if (1 == value.size()) {
+			return value.get(0);
+		} else if (value.isEmpty()) {
+			return NO_VALUES;
+		}
+		return value.toArray(new String[value.size()]);
+	}
+
+	private static List<String> toList(final Object slot) {
+		if (null == slot || NULL_VALUE == slot) {
+			return null;
+		} else if (slot instanceof String) {
+			return Collections.singletonList((String) slot);
+		}
+		return Collections.unmodifiableList(Arrays.asList((String[]) slot));
+	}
+
+	private final class EntrySet extends AbstractSet<Map.Entry<String, List<String>>> {
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public Iterator<Map.Entry<String, List<String>>> iterator() {
+			return new Iterator<Map.Entry<String, List<String>>>() {
+				private int next = seek(0);
+				private int current = -1;
+
+				private int seek(final int from) {
+					int index = from;
+					while (index < slots.length && null == slots[index]) {
+						index++;
+					}
+					return index;
+				}
+
+				@Override
+				public boolean hasNext() {
+					return next < slots.length;
+				}
+
+				@Override
+				public Map.Entry<String, List<String>> next() {
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					current = next;
+					next = seek(next + 1);
+					return new SimpleImmutableEntry<>(schema.nameAt(current), toList(slots[current]));
+				}
+
+				@Override
+				public void remove() {
+					if (0 > current || null == slots[current]) {
+						throw new IllegalStateException();
+					}
+					slots[current] = null;
+					size--;
+				}
+			};
+		}
+
+	}
+
+}
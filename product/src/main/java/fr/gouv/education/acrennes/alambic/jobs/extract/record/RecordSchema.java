@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.jobs.extract.record;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Table des noms d'attributs partagée par l'ensemble des enregistrements ({@link CompactRecord}) produits par un même client.
+ * <p>
+ * Chaque nom d'attribut n'est stocké (internalisé) qu'une seule fois et se voit attribuer un index stable, utilisé par
+ * les enregistrements pour ranger leurs valeurs dans un simple tableau. La table ne fait que grandir et peut être
+ * partagée entre threads.
+ * </p>
+ */
+public final class RecordSchema {
+
+	private final Map<String, Integer> indexes;
+	private volatile String[] names;
+
+	public RecordSchema() {
+		this.indexes = new ConcurrentHashMap<>();
+		this.names = new String[0];
+	}
+
+	public RecordSchema(final String... names) {
+		this();
+		for (String name : names) {
+			register(name);
+		}
+	}
+
+	/**
+	 * @return l'index de l'attribut ou -1 s'il n'est pas connu du schéma
+	 */
+	public int indexOf(final Object name) {
+		Integer index = (null != name) ? indexes.get(name) : null;
+		return (null != index) ? index : -1;
+	}
+
+	/**
+	 * Enregistre le nom d'attribut (s'il n'est pas déjà connu) et retourne son index.
+	 */
+	public int register(final String name) {
+		Integer index = indexes.get(name);
+		if (null == index) {
+			synchronized (this) {
+				index = indexes.get(name);
+				if (null == index) {
+					index = names.length;
+					String[] extendedNames = Arrays.copyOf(names, index + 1);
+					extendedNames[index] = name.intern();
+					names = extendedNames;
+					indexes.put(extendedNames[index], index);
+				}
+			}
+		}
+		return index;
+	}
+
+	public String nameAt(final int index) {
+		return names[index];
+	}
+
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * Création d'un enregistrement vide rattaché à ce schéma.
+	 */
+	public CompactRecord newRecord() {
+		return new CompactRecord(this);
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(names);
+	}
+
+}
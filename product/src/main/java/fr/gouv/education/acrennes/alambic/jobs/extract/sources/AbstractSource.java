@@ -45,6 +45,7 @@ public abstract class AbstractSource implements Source, Iterable<Map<String, Lis
 	protected int page;
 	protected CallableContext context;
 	protected String version;
+	private SourceIndex index;
 
 	public AbstractSource() {
 		// Tout est déjà correctement initialisé dans ce cas ?
@@ -136,23 +137,26 @@ public abstract class AbstractSource implements Source, Iterable<Map<String, Lis
 
 	@Override
 	public List<Map<String, List<String>>> getEntries(final boolean distinct, final String orderby, final SourceFilter filter) {
-		ArrayList<Map<String, List<String>>> filteredResource = new ArrayList<Map<String, List<String>>>();
-		for (Map<String, List<String>> item : entries) {
-			if ((null != filter && filter.accept(item)) || (null == filter)) {
-				ResourceEntryMap rem = new ResourceEntryMap(item, filter);
-				if (!distinct || !filteredResource.contains(rem)) {
-					filteredResource.add(rem);
-				}
-			}
-		}
+		List<Map<String, List<String>>> selection = (distinct || StringUtils.isNotBlank(orderby) || null != filter) ? getIndex().select(distinct, orderby, filter) : entries;
 
-		if (StringUtils.isNotBlank(orderby)) {
-			Collections.sort(filteredResource, new EntrySorter(orderby));
+		ArrayList<Map<String, List<String>>> filteredResource = new ArrayList<Map<String, List<String>>>(selection.size());
+		for (Map<String, List<String>> item : selection) {
+			filteredResource.add(new ResourceEntryMap(item, filter));
 		}
 
 		return filteredResource;
 	}
 
+	/**
+	 * Index des entrées courantes (reconstruit dès que la liste des entrées est remplacée).
+	 */
+	private synchronized SourceIndex getIndex() {
+		if (null == index || !index.isIndexing(entries)) {
+			index = new SourceIndex(entries);
+		}
+		return index;
+	}
+
 	@Override
 	public Iterator<Map<String, List<String>>> iterator() {
 		return entries.iterator();
@@ -178,23 +182,6 @@ public abstract class AbstractSource implements Source, Iterable<Map<String, Lis
 
 	abstract public void initialize(Element sourceNode) throws AlambicException;
 
-	private class EntrySorter implements Comparator<Map<String, List<String>>> {
-		String orderby;
-
-		public EntrySorter(final String orderby) {
-			this.orderby = orderby;
-		}
-
-		@Override
-		public int compare(final Map<String, List<String>> o1,
-				final Map<String, List<String>> o2) {
-			List<String> ov1 = o1.get(orderby);
-			List<String> ov2 = o2.get(orderby);
-			return new Integer(ov1.get(0)).compareTo(new Integer(ov2.get(0)));
-		}
-
-	}
-
 	private class ResourceEntryMap extends HashMap<String, List<String>> {
 		private static final long serialVersionUID = 1L;
 		private SourceFilter filter;
@@ -16,6 +16,7 @@
  ******************************************************************************/
 package fr.gouv.education.acrennes.alambic.jobs.extract.sources;
 
+import java.nio.charset.Charset;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -28,6 +29,8 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jdom2.Element;
 
+import au.com.bytecode.opencsv.CSVParser;
+
 public class CSVSource extends AbstractSource {
 
 	private static final Log log = LogFactory.getLog(CSVSource.class);
@@ -53,13 +56,25 @@ public class CSVSource extends AbstractSource {
 			separatorChar = context.resolveString(separator).charAt(0);
 		}
 
+		Charset charset = Charset.defaultCharset();
+		String charsetName = sourceNode.getChildText("charset");
+		if (StringUtils.isNotBlank(charsetName)) {
+			charset = Charset.forName(context.resolveString(charsetName));
+		}
+
+		boolean memoryMapped = false;
+		String memoryMappedValue = sourceNode.getChildText("memoryMapped");
+		if (StringUtils.isNotBlank(memoryMappedValue)) {
+			memoryMapped = Boolean.parseBoolean(context.resolveString(memoryMappedValue));
+		}
+
 		String page = sourceNode.getAttributeValue("page");
 		if (StringUtils.isNotBlank(page)) {
 			pageSize = Integer.parseInt(context.resolveString(page));
 		}
 
 		try {
-			setClient(new CsvToStateBase(inputFile, separatorChar));
+			setClient(new CsvToStateBase(inputFile, separatorChar, CSVParser.DEFAULT_QUOTE_CHARACTER, CSVParser.DEFAULT_ESCAPE_CHARACTER, charset, memoryMapped));
 		} catch (Exception e) {
 			log.error("Failed to instanciate the CSV client, error:" + e.getMessage());
 		}
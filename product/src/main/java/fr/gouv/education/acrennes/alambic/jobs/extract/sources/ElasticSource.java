@@ -93,9 +93,36 @@ public class ElasticSource extends AbstractSource {
 		String timeout = sourceNode.getAttributeValue("connectionTimeout");
 
 		this.scroll = "";
+		ElasticToStateBase.PaginationMethod paginationMethod = ElasticToStateBase.PaginationMethod.SCROLL;
+		int slices = 1;
 		String page = sourceNode.getAttributeValue("page");
 		if (StringUtils.isNotBlank(page)) {
 			this.pageSize = Integer.parseInt(context.resolveString(page));
+
+			String method = sourceNode.getAttributeValue("paginationMethod");
+			if (StringUtils.isNotBlank(method)) {
+				try {
+					paginationMethod = ElasticToStateBase.PaginationMethod.valueOf(context.resolveString(method).toUpperCase());
+				} catch (IllegalArgumentException e) {
+					throw new AlambicException("Méthode de pagination Elastic inconnue '" + method + "' (valeurs possibles : SCROLL, PIT)");
+				}
+			}
+
+			String slicesValue = sourceNode.getChildText("slices");
+			if (StringUtils.isNotBlank(slicesValue)) {
+				try {
+					slices = Integer.parseInt(context.resolveString(slicesValue));
+				} catch (NumberFormatException e) {
+					slices = 0;
+				}
+				if (1 > slices || ElasticToStateBase.MAX_SLICES < slices) {
+					throw new AlambicException("Le nombre de slices '" + slicesValue + "' doit être compris entre 1 et " + ElasticToStateBase.MAX_SLICES);
+				}
+				if (1 < slices && ElasticToStateBase.PaginationMethod.PIT.equals(paginationMethod)) {
+					log.warn("Le découpage en slices n'est appliqué qu'à la pagination par scroll, il est ignoré.");
+				}
+			}
+
 			this.scroll = sourceNode.getChildText("scroll");
 			if (StringUtils.isNotBlank(scroll)) {
 				this.scroll = context.resolveString(scroll).toLowerCase();
@@ -111,7 +138,17 @@ public class ElasticSource extends AbstractSource {
 			this.pageSize = 0;
 		}
 
-		setClient(new ElasticToStateBase(uri, proxy_host, proxy_port, index_alias, this.scroll, timeout, auth_login, auth_password));
+		// Get the response reading mode (one entry per hit rather than the whole response body)
+		boolean streamHits = false;
+		String streamHitsValue = sourceNode.getChildText("streamHits");
+		if (StringUtils.isNotBlank(streamHitsValue)) {
+			streamHits = Boolean.parseBoolean(context.resolveString(streamHitsValue));
+		}
+
+		ElasticToStateBase elasticClient = new ElasticToStateBase(uri, proxy_host, proxy_port, index_alias, this.scroll, timeout, auth_login, auth_password, streamHits);
+		elasticClient.setPaginationMethod(paginationMethod);
+		elasticClient.setSlices(slices);
+		setClient(elasticClient);
 	}
 
 	@Override
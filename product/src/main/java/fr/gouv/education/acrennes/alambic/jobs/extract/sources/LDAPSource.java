@@ -16,6 +16,7 @@
  ******************************************************************************/
 package fr.gouv.education.acrennes.alambic.jobs.extract.sources;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -23,6 +24,7 @@ import java.util.Properties;
 
 import fr.gouv.education.acrennes.alambic.exception.AlambicException;
 import fr.gouv.education.acrennes.alambic.jobs.CallableContext;
+import fr.gouv.education.acrennes.alambic.jobs.extract.clients.LdapShard;
 import fr.gouv.education.acrennes.alambic.jobs.extract.clients.LdapToStateBase;
 import fr.gouv.education.acrennes.alambic.utils.Functions;
 import fr.gouv.education.acrennes.alambic.utils.LdapUtils;
@@ -67,18 +69,78 @@ public class LDAPSource extends AbstractSource {
 			scope = context.resolveString(scope);
 		}
 
+		LdapToStateBase.PaginationMethod paginationMethod = LdapToStateBase.PaginationMethod.AUTO;
 		String page = sourceNode.getAttributeValue("page");
 		if (StringUtils.isNotBlank(page)) {
 			pageSize = Integer.parseInt(context.resolveString(page));
+
+			String method = sourceNode.getAttributeValue("paginationMethod");
+			if (StringUtils.isNotBlank(method)) {
+				try {
+					paginationMethod = LdapToStateBase.PaginationMethod.valueOf(context.resolveString(method).toUpperCase());
+				} catch (IllegalArgumentException e) {
+					throw new AlambicException("Méthode de pagination LDAP inconnue '" + method + "' (valeurs possibles : AUTO, VLV, PAGED_RESULTS)");
+				}
+			}
+
 			sortBy = sourceNode.getChildText("sortBy");
 			if (StringUtils.isNotBlank(sortBy)) {
 				sortBy = context.resolveString(sortBy);
+			} else if (LdapToStateBase.PaginationMethod.VLV.equals(paginationMethod)) {
+				log.error("Le critère de tri est obligatoire pour les recherches paginées via VLV, ex : <sortBy>sn</sortBy>");
+			}
+		}
+
+		LdapToStateBase ldapClient = new LdapToStateBase(confLdap, listeAttributs);
+		ldapClient.setPaginationMethod(paginationMethod);
+		Element shardingNode = sourceNode.getChild("sharding");
+		if (null != shardingNode) {
+			if (StringUtils.isBlank(page)) {
+				log.warn("Le découpage en partitions n'est appliqué qu'aux recherches paginées (attribut 'page'), il est ignoré.");
 			} else {
-				log.error("Le critère de tri est obligatoire pour les recherches paginées, ex : <sortBy>sn</sortBy>");
+				setSharding(ldapClient, shardingNode);
+			}
+		}
+		setClient(ldapClient);
+	}
+
+	/**
+	 * Découpage de la recherche en partitions lues en parallèle, ex :
+	 * <pre>
+	 * &lt;sharding parallelism="4"&gt;&lt;baseDN&gt;ou=eleves&lt;/baseDN&gt;&lt;baseDN&gt;ou=personnels&lt;/baseDN&gt;&lt;/sharding&gt;
+	 * &lt;sharding parallelism="4" attribute="uid" ranges="a-f,g-m,n-s,t-z,0-9"/&gt;
+	 * </pre>
+	 */
+	private void setSharding(final LdapToStateBase ldapClient, final Element shardingNode) throws AlambicException {
+		List<LdapShard> shards;
+
+		List<Element> baseNodes = shardingNode.getChildren("baseDN");
+		if (!baseNodes.isEmpty()) {
+			List<String> baseNames = new ArrayList<>();
+			for (Element baseNode : baseNodes) {
+				baseNames.add(context.resolveString(baseNode.getTextTrim()));
+			}
+			shards = LdapShard.byBaseNames(baseNames);
+		} else {
+			String attribute = shardingNode.getAttributeValue("attribute");
+			String ranges = shardingNode.getAttributeValue("ranges");
+			shards = LdapShard.byLeadingCharacters(
+					StringUtils.isNotBlank(attribute) ? context.resolveString(attribute) : attribute,
+					StringUtils.isNotBlank(ranges) ? context.resolveString(ranges) : ranges);
+		}
+
+		int parallelism = 0;
+		String parallelismValue = shardingNode.getAttributeValue("parallelism");
+		if (StringUtils.isNotBlank(parallelismValue)) {
+			try {
+				parallelism = Integer.parseInt(context.resolveString(parallelismValue));
+			} catch (NumberFormatException e) {
+				throw new AlambicException("Nombre de partitions lues en parallèle invalide '" + parallelismValue + "'");
 			}
 		}
 
-		setClient(new LdapToStateBase(confLdap, listeAttributs));
+		ldapClient.setShards(shards, parallelism);
+		log.info("  Recherche découpée en " + shards.size() + " partitions : " + shards);
 	}
 
 	@Override
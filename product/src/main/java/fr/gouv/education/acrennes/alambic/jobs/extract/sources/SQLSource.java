@@ -34,6 +34,7 @@ public class SQLSource extends AbstractSource {
 	private static final Log log = LogFactory.getLog(SQLSource.class);
 
 	private int pageSize;
+	private String sortBy;
 
 	public SQLSource(final CallableContext context, final Element sourceNode) throws AlambicException {
 		super(context, sourceNode);
@@ -87,12 +88,27 @@ public class SQLSource extends AbstractSource {
 			paginationMethod = "NONE";
 		}
 
+		sortBy = sourceNode.getChildText("sortBy");
+		if (StringUtils.isNotBlank(sortBy)) {
+			sortBy = context.resolveString(sortBy);
+		}
+
+		String fetchSize = sourceNode.getAttributeValue("fetchSize");
+		if (StringUtils.isNotBlank(fetchSize)) {
+			fetchSize = context.resolveString(fetchSize);
+		}
+
 		try {
+			SqlToStateBase sqlClient;
 			if (login != null && pwd != null) {
-				setClient(new SqlToStateBase(driver, uri, paginationMethod, login, pwd));
+				sqlClient = new SqlToStateBase(driver, uri, paginationMethod, login, pwd);
 			} else {
-				setClient(new SqlToStateBase(driver, uri, paginationMethod));
+				sqlClient = new SqlToStateBase(driver, uri, paginationMethod);
+			}
+			if (StringUtils.isNotBlank(fetchSize)) {
+				sqlClient.setFetchSize(Integer.parseInt(fetchSize));
 			}
+			setClient(sqlClient);
 		} catch (Exception e) {
 			log.error("Failed to instanciate the SQL client, error:" + e.getMessage());
 			e.printStackTrace();
@@ -101,7 +117,7 @@ public class SQLSource extends AbstractSource {
 
 	@Override
 	public Iterator<List<Map<String, List<String>>>> getPageIterator() throws AlambicException {
-		return getClient().getPageIterator(this.query, null, this.pageSize, null, null);
+		return getClient().getPageIterator(this.query, null, this.pageSize, this.sortBy, null);
 	}
 
 }
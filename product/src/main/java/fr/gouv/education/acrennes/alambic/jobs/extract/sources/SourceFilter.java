@@ -21,12 +21,18 @@ import java.text.Normalizer.Form;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
 
 public class SourceFilter {
 
+	private static final Pattern REGEX_METACHARACTERS = Pattern.compile("[\\\\^$.|?*+()\\[\\]{}]");
+
 	private Map<String, String> filters;
+	/* Compiled patterns (without accentuated characters) per filtered attribute */
+	private final Map<String, Pattern> patterns = new ConcurrentHashMap<>();
 
 	public Map<String, String> getFilters() {
 		return filters;
@@ -34,6 +40,7 @@ public class SourceFilter {
 
 	public void setFilters(Map<String, String> filters) {
 		this.filters = filters;
+		this.patterns.clear();
 	}
 
 	public SourceFilter(String... patterns) {
@@ -52,12 +59,11 @@ public class SourceFilter {
 		boolean status = true;
 
 		for (String key : getFilters().keySet()) {
-			String pattern = Normalizer.normalize(getFilters().get(key), Form.NFD).replaceAll("[^\\p{ASCII}]", ""); // get rid of accentuated characters
+			Pattern pattern = getPattern(key);
 			if (entry.containsKey(key)) {
 				List<String> entryValues = entry.get(key);
 				for (String entryValue : entryValues) {
-					String nEntryValue = Normalizer.normalize(entryValue, Form.NFD).replaceAll("[^\\p{ASCII}]", ""); // get rid of accentuated characters
-					status = nEntryValue.matches(pattern);
+					status = pattern.matcher(normalize(entryValue)).matches();
 					if (false == status) {
 						return false;
 					}
@@ -71,6 +77,32 @@ public class SourceFilter {
 		return status;
 	}
 
+	/**
+	 * Motif (sans caractères accentués) appliqué à l'attribut.
+	 */
+	public String getNormalizedPattern(final String key) {
+		return getPattern(key).pattern();
+	}
+
+	/**
+	 * Indique si le motif appliqué à l'attribut est une valeur littérale (sans méta-caractère d'expression régulière) : une
+	 * valeur lui correspond alors si et seulement si elle lui est égale.
+	 */
+	public boolean isLiteral(final String key) {
+		return !REGEX_METACHARACTERS.matcher(getNormalizedPattern(key)).find();
+	}
+
+	private Pattern getPattern(final String key) {
+		return patterns.computeIfAbsent(key, k -> Pattern.compile(normalize(getFilters().get(k))));
+	}
+
+	/**
+	 * Suppression des caractères accentués.
+	 */
+	public static String normalize(final String value) {
+		return Normalizer.normalize(value, Form.NFD).replaceAll("[^\\p{ASCII}]", "");
+	}
+
 	public String toString() {
 		return getFilters().toString();
 	}
@@ -0,0 +1,251 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.jobs.extract.sources;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Index secondaires des entrées d'une source, construits à la demande et conservés tant que la liste des entrées
+ * indexées n'est pas remplacée :
+ * <ul>
+ * <li>index de hachage par jeu d'attributs filtrés : la sélection des entrées selon des filtres littéraux (le cas des
+ * jointures réalisées par les templates) ne parcourt plus l'ensemble des entrées,</li>
+ * <li>clés de tri numériques, interprétées une seule fois par entrée,</li>
+ * <li>projections sans filtre (distinctes et/ou triées) mémorisées.</li>
+ * </ul>
+ * La sélection produite est identique à celle du parcours séquentiel (ordre des entrées, doublons, tri stable).
+ */
+class SourceIndex {
+
+	private static final String KEY_SEPARATOR = "\u0000";
+
+	private final List<Map<String, List<String>>> entries;
+	private final int size;
+	/* Per filtered attribute set : positions of the entries per joined values */
+	private final Map<String, Map<String, List<Integer>>> filterIndexes = new HashMap<>();
+	/* Per filtered attribute set : positions of the entries that can't be indexed (checked by the filter itself) */
+	private final Map<String, List<Integer>> unindexedPositions = new HashMap<>();
+	/* Per sort attribute : numeric sort keys per position */
+	private final Map<String, Integer[]> sortKeys = new HashMap<>();
+	/* Projections of all entries per distinct & sort criteria */
+	private final Map<String, List<Map<String, List<String>>>> projections = new HashMap<>();
+
+	SourceIndex(final List<Map<String, List<String>>> entries) {
+		this.entries = entries;
+		this.size = entries.size();
+	}
+
+	/**
+	 * Indique si l'index porte sur cette liste d'entrées (dans son état courant).
+	 */
+	boolean isIndexing(final List<Map<String, List<String>>> entries) {
+		return (this.entries == entries) && (size == entries.size());
+	}
+
+	/**
+	 * Sélection des entrées selon le filtre, éventuellement sans doublon et triées selon la valeur numérique d'un attribut.
+	 */
+	synchronized List<Map<String, List<String>>> select(final boolean distinct, final String orderby, final SourceFilter filter) {
+		List<Map<String, List<String>>> selection;
+
+		if (null == filter) {
+			String key = distinct + KEY_SEPARATOR + StringUtils.defaultString(orderby);
+			selection = projections.get(key);
+			if (null == selection) {
+				selection = Collections.unmodifiableList(select(allPositions(), distinct, orderby, null));
+				projections.put(key, selection);
+			}
+		} else {
+			selection = select(filter(filter), distinct, orderby, filter);
+		}
+
+		return selection;
+	}
+
+	private List<Map<String, List<String>>> select(final List<Integer> positions, final boolean distinct, final String orderby, final SourceFilter filter) {
+		List<Integer> selectedPositions = distinct ? distinct(positions, filter) : positions;
+
+		if (StringUtils.isNotBlank(orderby)) {
+			final Integer[] keys = getSortKeys(orderby);
+			// stable sort, as the sequential one
+			Collections.sort(selectedPositions, new Comparator<Integer>() {
+				@Override
+				public int compare(final Integer p1, final Integer p2) {
+					return getSortKey(keys, orderby, p1).compareTo(getSortKey(keys, orderby, p2));
+				}
+			});
+		}
+
+		List<Map<String, List<String>>> selection = new ArrayList<>(selectedPositions.size());
+		for (int position : selectedPositions) {
+			selection.add(entries.get(position));
+		}
+		return selection;
+	}
+
+	private List<Integer> allPositions() {
+		List<Integer> positions = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			positions.add(i);
+		}
+		return positions;
+	}
+
+	private List<Integer> filter(final SourceFilter filter) {
+		List<Integer> positions = new ArrayList<>();
+
+		boolean isLiteral = true;
+		for (String key : filter.getFilters().keySet()) {
+			isLiteral &= filter.isLiteral(key);
+		}
+
+		if (isLiteral) {
+			List<String> keys = new ArrayList<>(new TreeSet<>(filter.getFilters().keySet()));
+			String indexKey = StringUtils.join(keys, KEY_SEPARATOR);
+			Map<String, List<Integer>> index = getFilterIndex(indexKey, keys);
+
+			List<String> values = new ArrayList<>();
+			for (String key : keys) {
+				values.add(filter.getNormalizedPattern(key));
+			}
+			List<Integer> indexedPositions = index.get(StringUtils.join(values, KEY_SEPARATOR));
+			if (null != indexedPositions) {
+				positions.addAll(indexedPositions);
+			}
+
+			List<Integer> otherPositions = unindexedPositions.get(indexKey);
+			if (!otherPositions.isEmpty()) {
+				for (int position : otherPositions) {
+					if (filter.accept(entries.get(position))) {
+						positions.add(position);
+					}
+				}
+				// keep the order of the entries
+				Collections.sort(positions);
+			}
+		} else {
+			for (int i = 0; i < size; i++) {
+				if (filter.accept(entries.get(i))) {
+					positions.add(i);
+				}
+			}
+		}
+
+		return positions;
+	}
+
+	/**
+	 * Index des entrées selon les valeurs (sans caractères accentués) d'un jeu d'attributs.
+	 * Une entrée n'est indexée que si chacun des attributs a une valeur unique (éventuellement répétée) : une entrée à
+	 * valeurs distinctes ne peut correspondre à un filtre littéral et est ignorée, une entrée sans valeur (liste vide ou
+	 * valeur nulle) est vérifiée par le filtre lui-même.
+	 */
+	private Map<String, List<Integer>> getFilterIndex(final String indexKey, final List<String> keys) {
+		Map<String, List<Integer>> index = filterIndexes.get(indexKey);
+
+		if (null == index) {
+			index = new HashMap<>();
+			List<Integer> others = new ArrayList<>();
+			for (int i = 0; i < size; i++) {
+				Map<String, List<String>> entry = entries.get(i);
+				StringBuilder joinedValues = new StringBuilder();
+				boolean isIndexable = true;
+				boolean isMatchable = true;
+				for (int k = 0; k < keys.size() && isIndexable && isMatchable; k++) {
+					List<String> values = entry.get(keys.get(k));
+					if (!entry.containsKey(keys.get(k))) {
+						isMatchable = false;
+					} else if (null == values || values.isEmpty() || values.contains(null)) {
+						isIndexable = false;
+					} else {
+						String value = SourceFilter.normalize(values.get(0));
+						for (int v = 1; v < values.size() && isMatchable; v++) {
+							isMatchable = value.equals(SourceFilter.normalize(values.get(v)));
+						}
+						joinedValues.append((0 < k) ? KEY_SEPARATOR : "").append(value);
+					}
+				}
+
+				if (!isIndexable) {
+					others.add(i);
+				} else if (isMatchable) {
+					index.computeIfAbsent(joinedValues.toString(), key -> new ArrayList<>()).add(i);
+				}
+			}
+			filterIndexes.put(indexKey, index);
+			unindexedPositions.put(indexKey, others);
+		}
+
+		return index;
+	}
+
+	/**
+	 * Suppression des doublons (première occurrence conservée) : deux entrées sont identiques si elles ont autant
+	 * d'attributs et les mêmes valeurs pour les attributs filtrés, ou toutes les mêmes valeurs en l'absence de filtre.
+	 */
+	private List<Integer> distinct(final List<Integer> positions, final SourceFilter filter) {
+		List<Integer> distinctPositions = new ArrayList<>();
+		Set<Object> seen = new HashSet<>();
+
+		List<String> keys = (null != filter) ? new ArrayList<>(filter.getFilters().keySet()) : null;
+		for (int position : positions) {
+			Map<String, List<String>> entry = entries.get(position);
+			Object identity;
+			if (null != keys) {
+				Object[] values = new Object[keys.size() + 1];
+				values[0] = entry.size();
+				for (int k = 0; k < keys.size(); k++) {
+					values[k + 1] = entry.get(keys.get(k));
+				}
+				identity = Arrays.asList(values);
+			} else {
+				identity = entry;
+			}
+
+			if (seen.add(identity)) {
+				distinctPositions.add(position);
+			}
+		}
+
+		return distinctPositions;
+	}
+
+	private Integer[] getSortKeys(final String orderby) {
+		return sortKeys.computeIfAbsent(orderby, key -> new Integer[size]);
+	}
+
+	private Integer getSortKey(final Integer[] keys, final String orderby, final int position) {
+		Integer key = keys[position];
+		if (null == key) {
+			key = Integer.valueOf(entries.get(position).get(orderby).get(0));
+			keys[position] = key;
+		}
+		return key;
+	}
+
+}
@@ -19,6 +19,7 @@ package fr.gouv.education.acrennes.alambic.jobs.load;
 import java.util.Map;
 
 import fr.gouv.education.acrennes.alambic.exception.AlambicException;
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jdom2.Element;
@@ -113,6 +114,27 @@ public abstract class AbstractDestination implements Destination {
 		return IsAnythingToDoStatus.YES;
 	}
 
+	/**
+	 * Lit un attribut entier optionnel de l'élément (les variables du contexte sont résolues).
+	 * @return la valeur de l'attribut, ou la valeur par défaut s'il est absent
+	 * @throws AlambicException si la valeur n'est pas un entier supérieur ou égal à la valeur minimale
+	 */
+	protected int getIntAttribute(final Element node, final String name, final int defaultValue, final int minValue) throws AlambicException {
+		String value = context.resolveString(node.getAttributeValue(name));
+		if (StringUtils.isBlank(value)) {
+			return defaultValue;
+		}
+		try {
+			int intValue = Integer.parseInt(value.trim());
+			if (minValue <= intValue) {
+				return intValue;
+			}
+		} catch (NumberFormatException e) {
+			// reported below
+		}
+		throw new AlambicException("La valeur '" + value + "' de l'attribut '" + name + "' doit être un entier supérieur ou égal à " + minValue);
+	}
+
 	@Override
 	abstract public void execute() throws AlambicException;
 
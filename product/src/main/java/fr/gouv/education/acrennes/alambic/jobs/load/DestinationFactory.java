@@ -75,4 +75,19 @@ public class DestinationFactory {
 		return destination;
 	}
 
+	/**
+	 * Ouverture des ressources d'une destination partagées par toutes les pages d'un job paginé.
+	 * 
+	 * @return la portée des ressources partagées, ou null si la destination n'en partage aucune
+	 */
+	public static PagedDestinationScope openPagedScope(final Element destinationNode, final ActivityMBean jobActivity) {
+		PagedDestinationScope scope = null;
+
+		if ((null != destinationNode) && "ldap".equals(destinationNode.getAttributeValue("type"))) {
+			scope = StateBaseToLdap.openPagedScope(destinationNode, jobActivity);
+		}
+
+		return scope;
+	}
+
 }
@@ -17,7 +17,6 @@
 package fr.gouv.education.acrennes.alambic.jobs.load;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -25,8 +24,6 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jdom2.Element;
-import org.jdom2.JDOMException;
-import org.jdom2.input.SAXBuilder;
 import org.nuxeo.common.utils.IdUtils;
 import org.nuxeo.ecm.automation.client.OperationRequest;
 import org.nuxeo.ecm.automation.client.RemoteException;
@@ -38,11 +35,9 @@ import org.nuxeo.ecm.automation.client.model.FileBlob;
 import org.nuxeo.ecm.automation.client.model.PathRef;
 import org.nuxeo.ecm.automation.client.model.PropertyList;
 import org.nuxeo.ecm.automation.client.model.PropertyMap;
-import org.xml.sax.InputSource;
 
 import fr.gouv.education.acrennes.alambic.exception.AlambicException;
 import fr.gouv.education.acrennes.alambic.jobs.CallableContext;
-import fr.gouv.education.acrennes.alambic.jobs.JobHelper;
 import fr.gouv.education.acrennes.alambic.monitoring.ActivityMBean;
 import fr.gouv.education.acrennes.alambic.monitoring.ActivityTrafficLight;
 import fr.gouv.education.acrennes.alambic.nuxeo.ACE;
@@ -57,7 +52,6 @@ public class NxmlToNuxeo extends AbstractDestination {
 
 	private HttpAutomationClient client;
 	private Session session;
-	private Element pivot;
 	private DocumentService dc;
 	private String inputFile;
 	private String nuxeoPath;
@@ -114,21 +108,18 @@ public class NxmlToNuxeo extends AbstractDestination {
 	@Override
 	public void execute() {
 		try {
-			final InputSource fPivot = new InputSource(inputFile);
-			pivot = (new SAXBuilder()).build(fPivot).getRootElement();
-			try {
+			// Vérification de la syntaxe du pivot puis lecture en flux des documents, un à un
+			final int documentsCount = PivotReader.outline(inputFile, "documents").getCount();
+			try (PivotReader documents = new PivotReader(inputFile, "documents")) {
 				// Itération sur la liste des entrées du pivot
-				loadDocuments(pivot.getChild("documents").getChildren(), dc.getDocument(nuxeoPath));
+				loadDocuments(() -> documents, documentsCount, dc.getDocument(nuxeoPath));
 			} catch (final Exception e) {
 				jobActivity.setTrafficLight(ActivityTrafficLight.RED);
 				log.error("Document [" + nuxeoPath + "] not found : " + e.getMessage());
 			}
-		} catch (final JDOMException e) {
+		} catch (final AlambicException e) {
 			jobActivity.setTrafficLight(ActivityTrafficLight.RED);
 			log.error("Analyse du fichier XML : " + e.getMessage());
-		} catch (final IOException e) {
-			jobActivity.setTrafficLight(ActivityTrafficLight.RED);
-			log.error("Ouverture fichier XML : " + e.getMessage());
 		}
 	}
 
@@ -137,9 +128,8 @@ public class NxmlToNuxeo extends AbstractDestination {
 		if (this.isAnythingToDo.equals(IsAnythingToDoStatus.UNDEFINED)) {
 			this.isAnythingToDo = IsAnythingToDoStatus.NO;					
 			try {
-				org.jdom2.Document inputFileXMLDocument = JobHelper.parse(this.inputFile);
-				List<Element> rset = JobHelper.evaluateExpressionForElements(inputFileXMLDocument, "/*/documents/document");
-				if (rset.size() != 0) {
+				// Seul le premier document du pivot est lu
+				if (PivotReader.hasElements(this.inputFile, "documents")) {
 					this.isAnythingToDo = IsAnythingToDoStatus.YES;
 				}
 			} catch (AlambicException e) {
@@ -214,13 +204,13 @@ public class NxmlToNuxeo extends AbstractDestination {
 		return res;
 	}
 
-	private boolean loadDocuments(final List<Element> documents, final Document parent)
+	private boolean loadDocuments(final Iterable<Element> documents, final int documentsCount, final Document parent)
 			throws Exception {
 		int index = 1;
 		for (final Element doc : documents) {
 			// activity monitoring
-			jobActivity.setProgress((index  * 100) / documents.size());
-			jobActivity.setProcessing("processing entry " + index++  + "/" + documents.size());
+			jobActivity.setProgress((index  * 100) / documentsCount);
+			jobActivity.setProcessing("processing entry " + index++  + "/" + documentsCount);
 
 			String name = doc.getAttributeValue("name");
 			final String type = doc.getAttributeValue("type");
@@ -312,7 +302,8 @@ public class NxmlToNuxeo extends AbstractDestination {
 
 			// Traitement des sous-documents
 			if (doc.getChild("documents") != null) {
-				loadDocuments(doc.getChild("documents").getChildren(), nxDoc);
+				final List<Element> children = doc.getChild("documents").getChildren();
+				loadDocuments(children, children.size(), nxDoc);
 			}
 		}
 		return true;
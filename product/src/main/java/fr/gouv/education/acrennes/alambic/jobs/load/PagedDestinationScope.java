@@ -0,0 +1,29 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.jobs.load;
+
+import fr.gouv.education.acrennes.alambic.exception.AlambicException;
+
+/**
+ * Ressources d'une destination partagées par toutes les pages d'un job paginé : ouvertes avant le chargement de la
+ * première page (cf. {@link DestinationFactory#openPagedScope}), fermées une fois toutes les pages chargées.
+ */
+public interface PagedDestinationScope {
+
+	public void close() throws AlambicException;
+
+}
@@ -0,0 +1,265 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.jobs.load;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang.StringUtils;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.Namespace;
+import org.jdom2.input.StAXStreamBuilder;
+
+import fr.gouv.education.acrennes.alambic.exception.AlambicException;
+
+/**
+ * Lecture en flux (StAX) des éléments d'un fichier pivot regroupés sous un élément conteneur fils de la racine
+ * (ex. '&lt;entries&gt;', '&lt;documents&gt;', '&lt;messages&gt;') : seul l'élément courant est construit en mémoire (arbre JDOM),
+ * quelle que soit la taille du fichier.
+ */
+public class PivotReader implements Iterator<Element>, Closeable {
+
+	private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+	private final String file;
+	private final InputStream input;
+	private final XMLStreamReader reader;
+	private final StAXStreamBuilder builder = new StAXStreamBuilder();
+	private Element next;
+
+	/**
+	 * @param file le chemin du fichier pivot
+	 * @param container le nom de l'élément conteneur, fils de la racine (null pour parcourir les fils de la racine)
+	 */
+	public PivotReader(final String file, final String container) throws AlambicException {
+		this.file = file;
+		try {
+			this.input = new BufferedInputStream(new FileInputStream(file));
+		} catch (IOException e) {
+			throw new AlambicException("Echec d'ouverture du fichier pivot '" + file + "', erreur : " + e.getMessage());
+		}
+		try {
+			this.reader = FACTORY.createXMLStreamReader(file, input);
+			if (nextStartElement(reader) && (null == container || findContainer(reader, container))) {
+				this.next = fetch();
+			}
+		} catch (XMLStreamException | JDOMException | RuntimeException e) {
+			close();
+			throw new AlambicException("Erreur de parsing du fichier pivot '" + file + "', erreur : " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Indique si le conteneur du fichier pivot contient au moins un élément. Seul le début du fichier est lu.
+	 */
+	public static boolean hasElements(final String file, final String container) throws AlambicException {
+		try (PivotReader pivotReader = new PivotReader(file, container)) {
+			return pivotReader.hasNext();
+		}
+	}
+
+	/**
+	 * Parcourt l'intégralité du fichier pivot (et en vérifie ainsi la syntaxe) sans construire les éléments du conteneur.
+	 *
+	 * @return la racine du fichier pivot privée des éléments du conteneur (ex. variables et sources de données d'un
+	 * pivot LDAP) et le nombre de ces éléments
+	 */
+	public static Outline outline(final String file, final String container) throws AlambicException {
+		try (InputStream input = new BufferedInputStream(new FileInputStream(file))) {
+			XMLStreamReader reader = FACTORY.createXMLStreamReader(file, input);
+			try {
+				if (!nextStartElement(reader)) {
+					throw new AlambicException("Le fichier pivot '" + file + "' ne contient aucun élément");
+				}
+				StAXStreamBuilder builder = new StAXStreamBuilder();
+				Element root = newElement(reader);
+				int count = 0;
+				boolean isContainerFound = false;
+				while (reader.hasNext()) {
+					int event = reader.next();
+					if (XMLStreamConstants.START_ELEMENT == event) {
+						if (null == container) {
+							skipElement(reader);
+							count++;
+						} else if (!isContainerFound && container.equals(reader.getLocalName())) {
+							isContainerFound = true;
+							root.addContent(newElement(reader));
+							count = skipElement(reader);
+						} else {
+							root.addContent((Element) builder.fragment(reader));
+						}
+					} else if (XMLStreamConstants.END_ELEMENT == event) {
+						break;
+					}
+				}
+				// check the end of the document as well
+				while (reader.hasNext()) {
+					reader.next();
+				}
+				return new Outline(root, count);
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			throw new AlambicException("Echec de lecture du fichier pivot '" + file + "', erreur : " + e.getMessage());
+		} catch (XMLStreamException | JDOMException | RuntimeException e) {
+			throw new AlambicException("Erreur de parsing du fichier pivot '" + file + "', erreur : " + e.getMessage());
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		return null != next;
+	}
+
+	@Override
+	public Element next() {
+		if (null == next) {
+			throw new NoSuchElementException();
+		}
+		Element current = next;
+		try {
+			next = fetch();
+		} catch (XMLStreamException | JDOMException e) {
+			next = null;
+			throw new RuntimeException(new AlambicException("Erreur de parsing du fichier pivot '" + file + "', erreur : " + e.getMessage()));
+		}
+		return current;
+	}
+
+	@Override
+	public void close() {
+		next = null;
+		try {
+			if (null != reader) {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			// nothing to do, the stream is closed below
+		}
+		try {
+			input.close();
+		} catch (IOException e) {
+			// nothing to do
+		}
+	}
+
+	/* Builds the next element of the container, or returns null at the end of the container */
+	private Element fetch() throws XMLStreamException, JDOMException {
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (XMLStreamConstants.START_ELEMENT == event) {
+				// the reader is left on the end tag of the element
+				return (Element) builder.fragment(reader);
+			} else if (XMLStreamConstants.END_ELEMENT == event) {
+				return null;
+			}
+		}
+		return null;
+	}
+
+	/* Moves to the first start tag of the document */
+	private static boolean nextStartElement(final XMLStreamReader reader) throws XMLStreamException {
+		while (reader.hasNext()) {
+			if (XMLStreamConstants.START_ELEMENT == reader.next()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/* Moves to the start tag of the container among the children of the root element */
+	private static boolean findContainer(final XMLStreamReader reader, final String container) throws XMLStreamException {
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (XMLStreamConstants.START_ELEMENT == event) {
+				if (container.equals(reader.getLocalName())) {
+					return true;
+				}
+				skipElement(reader);
+			} else if (XMLStreamConstants.END_ELEMENT == event) {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	/* Moves to the end tag of the current element and returns the count of its child elements */
+	private static int skipElement(final XMLStreamReader reader) throws XMLStreamException {
+		int count = 0;
+		int depth = 1;
+		while (0 < depth) {
+			int event = reader.next();
+			if (XMLStreamConstants.START_ELEMENT == event) {
+				if (1 == depth) {
+					count++;
+				}
+				depth++;
+			} else if (XMLStreamConstants.END_ELEMENT == event) {
+				depth--;
+			}
+		}
+		return count;
+	}
+
+	/* Builds the current element without its content */
+	private static Element newElement(final XMLStreamReader reader) {
+		Element element = StringUtils.isEmpty(reader.getNamespaceURI())
+				? new Element(reader.getLocalName())
+				: new Element(reader.getLocalName(), Namespace.getNamespace(StringUtils.defaultString(reader.getPrefix()), reader.getNamespaceURI()));
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			if (StringUtils.isEmpty(reader.getAttributeNamespace(i))) {
+				element.setAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+			}
+		}
+		return element;
+	}
+
+	/**
+	 * Racine d'un fichier pivot privée des éléments de son conteneur, et nombre de ces éléments.
+	 */
+	public static class Outline {
+
+		private final Element root;
+		private final int count;
+
+		private Outline(final Element root, final int count) {
+			this.root = root;
+			this.count = count;
+		}
+
+		public Element getRoot() {
+			return root;
+		}
+
+		public int getCount() {
+			return count;
+		}
+	}
+
+}
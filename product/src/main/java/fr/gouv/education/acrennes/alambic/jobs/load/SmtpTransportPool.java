@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.jobs.load;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.NoSuchProviderException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import fr.gouv.education.acrennes.alambic.exception.AlambicException;
+
+/**
+ * Pool de connexions SMTP réutilisées d'un message à l'autre, partagé par les threads d'envoi.
+ * Chaque connexion est ouverte au premier envoi puis refermée après un nombre maximal de messages
+ * (0 pour ne pas limiter) ou après un échec d'envoi.
+ */
+public class SmtpTransportPool implements Closeable {
+
+	private static final Log log = LogFactory.getLog(SmtpTransportPool.class);
+
+	private final List<Transport> transports = new ArrayList<>();
+	private final BlockingQueue<PooledTransport> idle;
+	private final int messagesPerConnection;
+	private final AtomicInteger connectionsCount = new AtomicInteger();
+
+	/**
+	 * @param session la session de messagerie (serveur, port et options du protocole SMTP)
+	 * @param size le nombre de connexions du pool
+	 * @param messagesPerConnection le nombre maximal de messages envoyés par connexion (0 pour ne pas limiter)
+	 */
+	public SmtpTransportPool(final Session session, final int size, final int messagesPerConnection) throws AlambicException {
+		this.messagesPerConnection = messagesPerConnection;
+		this.idle = new ArrayBlockingQueue<>(size);
+		try {
+			for (int i = 0; i < size; i++) {
+				Transport transport = session.getTransport("smtp");
+				transports.add(transport);
+				idle.add(new PooledTransport(transport));
+			}
+		} catch (NoSuchProviderException e) {
+			throw new AlambicException("Protocole SMTP non supporté, erreur : " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Envoie le message par une connexion du pool, en attendant au besoin qu'une connexion se libère.
+	 * Un message dont l'envoi échoue sur une connexion déjà utilisée (éventuellement coupée par le serveur)
+	 * est renvoyé une fois sur une nouvelle connexion.
+	 */
+	public void send(final MimeMessage message) throws MessagingException, InterruptedException {
+		message.saveChanges();
+		Address[] recipients = message.getAllRecipients();
+		PooledTransport pooled = idle.take();
+		try {
+			try {
+				pooled.send(message, recipients);
+			} catch (SendFailedException e) {
+				pooled.disconnect();
+				throw e;
+			} catch (MessagingException e) {
+				boolean reused = (0 < pooled.sentCount);
+				pooled.disconnect();
+				if (!reused) {
+					throw e;
+				}
+				log.debug("Echec d'envoi sur une connexion SMTP réutilisée, nouvel essai sur une nouvelle connexion, erreur : " + e.getMessage());
+				try {
+					pooled.send(message, recipients);
+				} catch (MessagingException retryError) {
+					pooled.disconnect();
+					throw retryError;
+				}
+			}
+		} finally {
+			idle.add(pooled);
+		}
+	}
+
+	/**
+	 * @return le nombre de connexions ouvertes depuis la création du pool
+	 */
+	public int getConnectionsCount() {
+		return connectionsCount.get();
+	}
+
+	@Override
+	public void close() {
+		for (Transport transport : transports) {
+			try {
+				transport.close();
+			} catch (MessagingException e) {
+				log.warn("Echec de fermeture d'une connexion SMTP, erreur : " + e.getMessage());
+			}
+		}
+	}
+
+	private class PooledTransport {
+
+		private final Transport transport;
+		private int sentCount;
+
+		PooledTransport(final Transport transport) {
+			this.transport = transport;
+		}
+
+		void send(final MimeMessage message, final Address[] recipients) throws MessagingException {
+			if (!transport.isConnected()) {
+				transport.connect();
+				connectionsCount.incrementAndGet();
+				sentCount = 0;
+			}
+			transport.sendMessage(message, recipients);
+			sentCount++;
+			if (0 < messagesPerConnection && messagesPerConnection <= sentCount) {
+				disconnect();
+			}
+		}
+
+		void disconnect() {
+			sentCount = 0;
+			try {
+				transport.close();
+			} catch (MessagingException e) {
+				log.debug("Echec de fermeture d'une connexion SMTP, erreur : " + e.getMessage());
+			}
+		}
+	}
+
+}
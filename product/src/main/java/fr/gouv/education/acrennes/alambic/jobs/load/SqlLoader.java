@@ -20,7 +20,6 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.LineNumberReader;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 
@@ -33,11 +32,14 @@ import org.jdom2.Element;
 import fr.gouv.education.acrennes.alambic.jobs.CallableContext;
 import fr.gouv.education.acrennes.alambic.monitoring.ActivityMBean;
 import fr.gouv.education.acrennes.alambic.monitoring.ActivityTrafficLight;
+import fr.gouv.education.acrennes.alambic.persistence.JdbcConnectionPool;
+import fr.gouv.education.acrennes.alambic.persistence.JdbcConnectionPools;
 
 public class SqlLoader extends AbstractDestination {
 
 	private static final Log log = LogFactory.getLog(SqlLoader.class);
 
+	private JdbcConnectionPool pool = null;
 	private Connection conn = null;
 	private int requestCount;
 	private int processedCount;
@@ -82,8 +84,8 @@ public class SqlLoader extends AbstractDestination {
 		}
 
 		try {
-			Class.forName(driver);
-			conn = DriverManager.getConnection(uri, login, pwd);
+			pool = JdbcConnectionPools.getPool(driver, uri, login, pwd);
+			conn = pool.borrow();
 			pivot = new FileReader(filePivot);
 			processedCount = 0;
 
@@ -126,6 +128,7 @@ public class SqlLoader extends AbstractDestination {
 		super.close();
 		if (null != conn) {
 			try {
+				// returns the connection to the pool
 				conn.close();
 			} catch (SQLException e) {
 				throw new AlambicException("Failed to close the SQL loader, cause: " + e.getMessage());
@@ -133,6 +136,10 @@ public class SqlLoader extends AbstractDestination {
 				conn = null;
 			}
 		}
+
+		if (null != pool) {
+			pool.report(jobActivity);
+		}
 	}
 
 }
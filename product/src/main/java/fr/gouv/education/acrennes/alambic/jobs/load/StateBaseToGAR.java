@@ -85,7 +85,8 @@ public class StateBaseToGAR extends AbstractDestination {
 				context.resolvePath(job.getChildText("output")),
 				context.resolvePath(job.getChildText("xsd")),
 				em,
-				exportFiles);
+				exportFiles,
+				Boolean.parseBoolean(context.resolveString(job.getAttributeValue("GARPreloadCodes", "false"))));
 	}
 
 	@Override
@@ -16,14 +16,24 @@
  ******************************************************************************/
 package fr.gouv.education.acrennes.alambic.jobs.load;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.naming.NamingException;
 import javax.naming.directory.DirContext;
-import javax.naming.directory.InitialDirContext;
 import javax.naming.directory.SearchControls;
+import javax.naming.ldap.LdapContext;
 
 import fr.gouv.education.acrennes.alambic.exception.AlambicException;
 import fr.gouv.education.acrennes.alambic.utils.LdapUtils;
@@ -31,13 +41,18 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jdom2.Element;
-import org.jdom2.input.SAXBuilder;
-import org.xml.sax.InputSource;
 
 import fr.gouv.education.acrennes.alambic.jobs.CallableContext;
-import fr.gouv.education.acrennes.alambic.jobs.JobHelper;
 import fr.gouv.education.acrennes.alambic.ldap.Datasources;
 import fr.gouv.education.acrennes.alambic.ldap.Entry;
+import fr.gouv.education.acrennes.alambic.ldap.EntryBatch;
+import fr.gouv.education.acrennes.alambic.ldap.EntryModifications;
+import fr.gouv.education.acrennes.alambic.ldap.EntrySnapshots;
+import fr.gouv.education.acrennes.alambic.ldap.EntrySnapshotsRegistry;
+import fr.gouv.education.acrennes.alambic.ldap.LdapRelationBuffer;
+import fr.gouv.education.acrennes.alambic.ldap.LdapRelationBuffers;
+import fr.gouv.education.acrennes.alambic.ldap.LdapConnectionPool;
+import fr.gouv.education.acrennes.alambic.ldap.LdapConnectionPools;
 import fr.gouv.education.acrennes.alambic.monitoring.ActivityMBean;
 import fr.gouv.education.acrennes.alambic.monitoring.ActivityTrafficLight;
 import fr.gouv.education.acrennes.alambic.utils.Variables;
@@ -50,13 +65,24 @@ import fr.gouv.education.acrennes.alambic.utils.Variables;
 public class StateBaseToLdap extends AbstractDestination {
 
 	private static final Log log = LogFactory.getLog(StateBaseToLdap.class);
+	private static final int DEFAULT_PARALLELISM = 1;
+	private static final int DEFAULT_BATCH_SIZE = 1;
+	// Lots en attente de chaque connexion dédiée (les entrées du pivot lues en flux ne sont pas toutes chargées)
+	private static final int QUEUE_CAPACITY = 2;
+	private static final List<PivotItem> END_OF_BATCHES = new ArrayList<>();
 
 	private List<Map<String, List<String>>> extraction = null;
 	private Datasources datasources;
 	private Element pivot;
 	private SearchControls contraintes = new SearchControls();
 	private DirContext ctx;
+	private LdapConnectionPool pool;
 	private String fichierPivot;
+	private int pivotEntriesCount;
+	private int parallelism;
+	private int batchSize;
+	private EntrySnapshots snapshots;
+	private LdapRelationBuffer relations;
 
 	public Variables variables = new Variables();
 
@@ -70,25 +96,49 @@ public class StateBaseToLdap extends AbstractDestination {
 		} else {
 			throw new AlambicException("le pivot n'est pas precisé");
 		}
+		this.parallelism = getIntAttribute(destinationNode, "parallelism", DEFAULT_PARALLELISM, 1);
+		this.batchSize = getIntAttribute(destinationNode, "batchSize", DEFAULT_BATCH_SIZE, 1);
+		// Mises en relation différées et regroupées par entrée cible (immédiates par défaut)
+		final int relationBatchSize = getIntAttribute(destinationNode, "relationBatchSize", 0, 1);
 
 		// LDAP configuration & context initialization (uniquement si nécessaire)
 		try {
 			if (isAnythingToDo().equals(IsAnythingToDoStatus.YES)) {
-				ctx = new InitialDirContext(confLdap);
+				pool = LdapConnectionPools.getPool(confLdap);
+				ctx = pool.borrow();
 				contraintes.setSearchScope(SearchControls.ONELEVEL_SCOPE);
-				// Configuration du pivot
-				final InputSource fPivot = new InputSource(fichierPivot);
-				pivot = (new SAXBuilder()).build(fPivot).getRootElement();
+				// Configuration du pivot : ses entrées ne sont pas chargées, elles sont lues en flux lors du chargement
+				final PivotReader.Outline outline = PivotReader.outline(fichierPivot, "entries");
+				pivot = outline.getRoot();
+				pivotEntriesCount = outline.getCount();
 				// Chargement des variables de la liste de jobs
-				reloadVariablesList();
+				reloadVariablesList(variables);
 				// Lecture des sources de données du pivot
 				datasources = new Datasources(pivot, context.getVariables());
+				// Synchronisation incrémentale (empreintes des entrées écrites par les précédentes exécutions)
+				final String snapshot = destinationNode.getAttributeValue("snapshot");
+				if (StringUtils.isNotBlank(snapshot)) {
+					snapshots = EntrySnapshotsRegistry.getSnapshots(context.resolveString(snapshot));
+				}
+				// Mises en relation partagées par toutes les pages du job
+				if (0 < relationBatchSize) {
+					relations = LdapRelationBuffers.acquire(destinationNode, relationBatchSize, pool, snapshots);
+				}
 			}
 		} catch (final Exception e) {
 			throw new AlambicException(e);
 		}
 	}
 
+	/**
+	 * Portée des mises en relation différées d'un job paginé : partagées par toutes ses pages, elles sont écrites une
+	 * fois toutes les pages chargées.
+	 */
+	public static PagedDestinationScope openPagedScope(final Element destinationNode, final ActivityMBean jobActivity) {
+		LdapRelationBuffers.open(destinationNode);
+		return () -> LdapRelationBuffers.release(destinationNode, null, jobActivity);
+	}
+
 	/*
 	 * Methode pour nettoyer les datasources ouverts
 	 */
@@ -100,52 +150,408 @@ public class StateBaseToLdap extends AbstractDestination {
         	datasources.close();
         }
 
-		// Fermeture du contexte LDAP ouvert
+		// Ecriture des mises en relation restantes par la dernière page du job, avant l'enregistrement des empreintes
+		if (null != relations) {
+			LdapRelationBuffers.release(job, ctx, jobActivity);
+			relations = null;
+		}
+
+		// Persistance des empreintes des entrées écrites (les empreintes sont fermées à la fin de l'exécution)
+		if (null != snapshots) {
+			snapshots.flush();
+			snapshots = null;
+		}
+
+		// Restitution du contexte LDAP emprunté au pool
 		if (null != ctx) {
 			try {
-				ctx.close();
+				if (ctx instanceof LdapContext) {
+					pool.release((LdapContext) ctx);
+				} else {
+					ctx.close();
+				}
 				ctx = null;
 			} catch (final NamingException e) {
 				log.error("Erreur", e);
 			}
 		}
+
+		if (null != pool) {
+			pool.report(jobActivity);
+		}
 	}
 
 	/*
 	 * Chargement ds l'annuaire
+	 * Les entrées du pivot, pour chaque ligne de l'exportation générique, sont découpées en lots de 'batchSize'
+	 * entrées dont les entrées existantes sont pré-chargées par une seule recherche. Les lots sont répartis entre au
+	 * plus 'parallelism' connexions simultanées à l'annuaire selon le DN de leurs entrées (avant exécution des
+	 * fonctions), de sorte que les entrées de même DN soient chargées par la même connexion. Sans lots, parallélisme,
+	 * synchronisation incrémentale ni mises en relation différées, chaque entrée est mise à jour isolément (lecture
+	 * de l'entrée existante puis modification).
 	 */
 	@Override
 	public void execute() throws AlambicException {
 		extraction = source.getEntries();
-		final int pivotEntriesCount = pivot.getChild("entries").getChildren().size();
-		int currentPivotEntriesIndex = 1;
 
-		// Itération sur l'exportation générique
-		for (final Map<String, List<String>> currentResult : extraction) {
-			// MAJ de la liste de variables par rapport à l'extract courant
-			loadVariablesList(currentResult);
+		// Les entrées du pivot sont lues en flux lorsqu'elles ne sont parcourues qu'une fois (une seule ligne exportée),
+		// elles sont sinon chargées une fois pour toutes les lignes
+		try (PivotReader reader = new PivotReader(fichierPivot, "entries")) {
+			if (1 < extraction.size()) {
+				final List<Element> pivotEntries = new ArrayList<>(pivotEntriesCount);
+				reader.forEachRemaining(pivotEntries::add);
+				load(pivotEntries);
+			} else {
+				load(() -> reader);
+			}
+		}
+	}
 
-			// Itération sur la liste des entrées du pivot
-			for (final Element xmlNode : pivot.getChild("entries").getChildren()) {
-				// activity monitoring
-				jobActivity.setProgress((currentPivotEntriesIndex * 100) / (pivotEntriesCount * extraction.size()));
-				jobActivity.setProcessing("processing entry " + currentPivotEntriesIndex + "/" + (pivotEntriesCount * extraction.size()));
+	private void load(final Iterable<Element> pivotEntries) throws AlambicException {
+		final int entriesCount = pivotEntriesCount * extraction.size();
+		final AtomicInteger processedEntriesCount = new AtomicInteger();
+		// Entrées modifiées, partagées par les connexions simultanées pour invalider leurs entrées pré-chargées
+		final EntryModifications modifications = new EntryModifications();
 
-				// Création d'un objet Entrée de pivot
+		// the current thread is a worker too, it uses the context borrowed at the initialization
+		final BatchLoader loader = new BatchLoader(ctx, variables, datasources, modifications, entriesCount, processedEntriesCount);
+		try {
+			final List<LdapContext> workerContexts = borrowWorkerContexts(Math.min(parallelism, entriesCount) - 1);
+			if (workerContexts.isEmpty()) {
+				dispatch(pivotEntries, loader, Collections.emptyList());
+			} else {
+				log.info("Chargement de " + entriesCount + " entrées par lots de " + batchSize + " par " + (workerContexts.size() + 1) + " connexions simultanées");
+				final AtomicInteger threadCount = new AtomicInteger();
+				final ExecutorService executor = Executors.newFixedThreadPool(workerContexts.size(), runnable -> {
+					Thread thread = new Thread(runnable, "ldap-writer-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
 				try {
-					final Entry entry = new Entry(xmlNode, ctx, contraintes, variables, currentResult, datasources);
-					try {
-						entry.update();
-					} finally {
-						entry.close();
+					final List<BlockingQueue<List<PivotItem>>> queues = new ArrayList<>();
+					final List<Future<Void>> workers = new ArrayList<>();
+					for (final LdapContext workerCtx : workerContexts) {
+						final BlockingQueue<List<PivotItem>> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+						queues.add(queue);
+						workers.add(executor.submit(() -> {
+							loadPartition(queue, workerCtx, modifications, entriesCount, processedEntriesCount);
+							return null;
+						}));
 					}
-				} catch (final Exception e) {
-					jobActivity.setTrafficLight(ActivityTrafficLight.RED);
-					log.error("MAJ de l'entrée [" + currentResult.toString() + "] ERREUR LDAP sur l'élément " + xmlNode.getText() + " : " + e.getMessage(), e);
+					dispatch(pivotEntries, loader, queues);
+
+					AlambicException failure = null;
+					for (final Future<Void> worker : workers) {
+						try {
+							worker.get();
+						} catch (final ExecutionException e) {
+							jobActivity.setTrafficLight(ActivityTrafficLight.RED);
+							log.error("Echec du chargement parallèle dans l'annuaire : " + e.getCause().getMessage(), e.getCause());
+							failure = new AlambicException(e.getCause());
+						} catch (final InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new AlambicException(e);
+						}
+					}
+					if (null != failure) {
+						throw failure;
+					}
+				} finally {
+					executor.shutdownNow();
 				}
-				currentPivotEntriesIndex++;
 			}
+		} finally {
+			loader.close();
+		}
+	}
+
+	/*
+	 * Emprunt sans attente d'au plus 'count' connexions supplémentaires : les connexions du pool déjà empruntées (par
+	 * exemple par les autres destinations du job) ne sont pas attendues, le thread courant charge alors davantage de lots
+	 */
+	private List<LdapContext> borrowWorkerContexts(final int count) {
+		final List<LdapContext> workerContexts = new ArrayList<>();
+		try {
+			LdapContext workerCtx;
+			while ((workerContexts.size() < count) && (null != (workerCtx = pool.tryBorrow()))) {
+				workerContexts.add(workerCtx);
+			}
+		} catch (final NamingException e) {
+			log.warn("Failed to open an additional LDAP connection, error : " + e.getMessage());
+		}
+		if (workerContexts.size() < count) {
+			log.info("Seules " + (workerContexts.size() + 1) + " connexions sur " + (count + 1) + " sont disponibles pour le chargement dans l'annuaire");
+		}
+		return workerContexts;
+	}
+
+	/*
+	 * Découpage des entrées du pivot en lots par partition : les lots de la première partition sont chargés par le
+	 * thread courant, ceux des suivantes sont transmis à la connexion dédiée à leur partition
+	 */
+	private void dispatch(final Iterable<Element> pivotEntries, final BatchLoader loader, final List<BlockingQueue<List<PivotItem>>> queues) throws AlambicException {
+		final int partitionsCount = queues.size() + 1;
+		final List<List<PivotItem>> pendingBatches = new ArrayList<>();
+		for (int i = 0; i < partitionsCount; i++) {
+			pendingBatches.add(new ArrayList<>(batchSize));
 		}
+
+		// Variables du calcul des DN des entrées, sans exécution des fonctions
+		final Map<String, String> keyVariablesMap = (1 < partitionsCount) ? getKeyVariables() : null;
+		final Variables keyVariables = new Variables();
+		try {
+			for (final Map<String, List<String>> currentResult : extraction) {
+				if (null != keyVariablesMap) {
+					keyVariables.clearTable();
+					keyVariables.loadFromMap(keyVariablesMap);
+					keyVariables.loadFromExtraction(currentResult);
+				}
+				for (final Element xmlNode : pivotEntries) {
+					final int partition = (null != keyVariablesMap) ? getPartition(keyVariables, xmlNode, partitionsCount) : 0;
+					final List<PivotItem> batch = pendingBatches.get(partition);
+					batch.add(new PivotItem(xmlNode, currentResult));
+					if (batchSize == batch.size()) {
+						send(partition, batch, loader, queues);
+						pendingBatches.set(partition, new ArrayList<>(batchSize));
+					}
+				}
+			}
+			for (int i = 0; i < partitionsCount; i++) {
+				if (!pendingBatches.get(i).isEmpty()) {
+					send(i, pendingBatches.get(i), loader, queues);
+				}
+			}
+		} finally {
+			// no more batch for the dedicated connections
+			for (final BlockingQueue<List<PivotItem>> queue : queues) {
+				put(queue, END_OF_BATCHES);
+			}
+		}
+	}
+
+	private void send(final int partition, final List<PivotItem> batch, final BatchLoader loader, final List<BlockingQueue<List<PivotItem>>> queues) throws AlambicException {
+		if (0 == partition) {
+			loader.load(batch);
+		} else {
+			put(queues.get(partition - 1), batch);
+		}
+	}
+
+	private static void put(final BlockingQueue<List<PivotItem>> queue, final List<PivotItem> batch) throws AlambicException {
+		try {
+			queue.put(batch);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AlambicException(e);
+		}
+	}
+
+	/*
+	 * Variables de la liste de jobs et du pivot, non évaluées
+	 */
+	private Map<String, String> getKeyVariables() {
+		final Variables keyVariables = new Variables();
+		if (context.getVariables() != null) {
+			keyVariables.loadFromMap(context.getVariables().getHashMap());
+		}
+		if (pivot.getChild("variables") != null) {
+			keyVariables.loadFromXmlNode(pivot.getChild("variables").getChildren());
+		}
+		return new HashMap<>(keyVariables.getHashMap());
+	}
+
+	/*
+	 * Partition d'une entrée du pivot, déduite de son DN avant exécution des fonctions
+	 */
+	private static int getPartition(final Variables keyVariables, final Element xmlNode, final int partitionsCount) {
+		String key;
+		try {
+			key = keyVariables.resolvString(xmlNode.getChildText("dn")).toLowerCase();
+		} catch (final AlambicException e) {
+			// the entry will fail on its own
+			key = "";
+		}
+		return Math.floorMod(key.hashCode(), partitionsCount);
+	}
+
+	/*
+	 * Chargement des lots d'une partition par une connexion dédiée, avec ses propres variables et sources de données
+	 */
+	private void loadPartition(final BlockingQueue<List<PivotItem>> queue, final LdapContext workerCtx, final EntryModifications modifications,
+			final int entriesCount, final AtomicInteger processedEntriesCount) throws Exception {
+		Datasources workerDatasources = null;
+		BatchLoader workerLoader = null;
+		boolean isEnded = false;
+		try {
+			final Variables workerVariables = new Variables();
+			workerDatasources = new Datasources(pivot, context.getVariables());
+			reloadVariablesList(workerVariables);
+			workerLoader = new BatchLoader(workerCtx, workerVariables, workerDatasources, modifications, entriesCount, processedEntriesCount);
+			List<PivotItem> batch = queue.take();
+			while (END_OF_BATCHES != batch) {
+				workerLoader.load(batch);
+				batch = queue.take();
+			}
+			isEnded = true;
+		} catch (final InterruptedException e) {
+			// the load is aborted
+			Thread.currentThread().interrupt();
+			isEnded = true;
+		} finally {
+			if (!isEnded) {
+				skip(queue, entriesCount, processedEntriesCount);
+			}
+			if (null != workerLoader) {
+				workerLoader.close();
+			}
+			if (null != workerDatasources) {
+				workerDatasources.close();
+			}
+			pool.release(workerCtx);
+		}
+	}
+
+	/*
+	 * Lots restants d'une connexion en échec : ils sont consommés sans être chargés, pour ne pas bloquer le découpage
+	 */
+	private void skip(final BlockingQueue<List<PivotItem>> queue, final int entriesCount, final AtomicInteger processedEntriesCount) {
+		try {
+			List<PivotItem> batch = queue.take();
+			while (END_OF_BATCHES != batch) {
+				jobActivity.addMetric("ldap.entries.failed", batch.size());
+				reportProgress(processedEntriesCount.addAndGet(batch.size()), entriesCount);
+				batch = queue.take();
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/*
+	 * Entrée du pivot à charger pour une ligne de l'exportation générique
+	 */
+	private static class PivotItem {
+		private final Element xmlNode;
+		private final Map<String, List<String>> result;
+
+		PivotItem(final Element xmlNode, final Map<String, List<String>> result) {
+			this.xmlNode = xmlNode;
+			this.result = result;
+		}
+	}
+
+	/*
+	 * Chargement de lots d'entrées du pivot sur une connexion
+	 */
+	private class BatchLoader {
+		private final DirContext batchCtx;
+		private final Variables batchVariables;
+		private final Datasources batchDatasources;
+		private final EntryBatch entryBatch;
+		private final int entriesCount;
+		private final AtomicInteger processedEntriesCount;
+		private Map<String, List<String>> currentResult;
+
+		BatchLoader(final DirContext batchCtx, final Variables batchVariables, final Datasources batchDatasources,
+				final EntryModifications modifications, final int entriesCount, final AtomicInteger processedEntriesCount) {
+			this.batchCtx = batchCtx;
+			this.batchVariables = batchVariables;
+			this.batchDatasources = batchDatasources;
+			this.entriesCount = entriesCount;
+			this.processedEntriesCount = processedEntriesCount;
+			if (1 < batchSize || 1 < parallelism || null != snapshots || null != relations) {
+				entryBatch = new EntryBatch(batchCtx, contraintes, modifications);
+				entryBatch.setSnapshots(snapshots);
+				entryBatch.setRelations(relations);
+			} else {
+				// Mise à jour isolée de chaque entrée
+				entryBatch = null;
+			}
+		}
+
+		void load(final List<PivotItem> batch) throws AlambicException {
+			if (1 == batch.size()) {
+				// Lot d'une seule entrée : elle est mise à jour dès sa construction
+				final PivotItem item = batch.get(0);
+				final Entry entry = build(item);
+				if (null != entry) {
+					updateEntry(entry, item.xmlNode, item.result);
+				}
+				reportProgress(processedEntriesCount.incrementAndGet(), entriesCount);
+			} else {
+				// Construction de toutes les entrées du lot puis pré-chargement des entrées existantes
+				final List<Entry> entries = new ArrayList<>();
+				final List<PivotItem> items = new ArrayList<>();
+				for (final PivotItem item : batch) {
+					final Entry entry = build(item);
+					if (null != entry) {
+						entries.add(entry);
+						items.add(item);
+					} else {
+						reportProgress(processedEntriesCount.incrementAndGet(), entriesCount);
+					}
+				}
+				entryBatch.prefetch(entries);
+				for (int i = 0; i < entries.size(); i++) {
+					updateEntry(entries.get(i), items.get(i).xmlNode, items.get(i).result);
+					reportProgress(processedEntriesCount.incrementAndGet(), entriesCount);
+				}
+			}
+		}
+
+		private Entry build(final PivotItem item) throws AlambicException {
+			// the variables are loaded once for the consecutive entries of a same exported line
+			if (item.result != currentResult) {
+				loadVariablesList(batchVariables, item.result);
+				currentResult = item.result;
+			}
+			return newEntry(item.xmlNode, batchCtx, batchVariables, item.result, batchDatasources, entryBatch);
+		}
+
+		void close() {
+			if (null != entryBatch) {
+				entryBatch.close();
+				for (final Map.Entry<String, Long> metric : entryBatch.getMetrics().entrySet()) {
+					jobActivity.addMetric("ldap.prefetch." + metric.getKey(), metric.getValue());
+				}
+			}
+		}
+	}
+
+	/*
+	 * Création d'un objet Entrée de pivot (null en cas d'erreur)
+	 */
+	private Entry newEntry(final Element xmlNode, final DirContext batchCtx, final Variables batchVariables,
+			final Map<String, List<String>> currentResult, final Datasources batchDatasources, final EntryBatch entryBatch) {
+		try {
+			return new Entry(xmlNode, batchCtx, contraintes, batchVariables, currentResult, batchDatasources, entryBatch);
+		} catch (final Exception e) {
+			jobActivity.setTrafficLight(ActivityTrafficLight.RED);
+			jobActivity.addMetric("ldap.entries.failed", 1);
+			log.error("MAJ de l'entrée [" + currentResult.toString() + "] ERREUR LDAP sur l'élément " + xmlNode.getText() + " : " + e.getMessage(), e);
+			return null;
+		}
+	}
+
+	private void updateEntry(final Entry entry, final Element xmlNode, final Map<String, List<String>> currentResult) {
+		try {
+			try {
+				entry.update();
+				jobActivity.addMetric("ldap.entries." + entry.getStatus().name().toLowerCase(), 1);
+			} finally {
+				entry.close();
+			}
+		} catch (final Exception e) {
+			jobActivity.setTrafficLight(ActivityTrafficLight.RED);
+			jobActivity.addMetric("ldap.entries.failed", 1);
+			log.error("MAJ de l'entrée [" + currentResult.toString() + "] ERREUR LDAP sur l'élément " + xmlNode.getText() + " : " + e.getMessage(), e);
+		}
+	}
+
+	private void reportProgress(final int currentPivotEntriesIndex, final int entriesCount) {
+		// activity monitoring
+		jobActivity.setProgress((currentPivotEntriesIndex * 100) / entriesCount);
+		jobActivity.setProcessing("processing entry " + currentPivotEntriesIndex + "/" + entriesCount);
 	}
 
     @Override
@@ -153,9 +559,8 @@ public class StateBaseToLdap extends AbstractDestination {
     	if (this.isAnythingToDo.equals(IsAnythingToDoStatus.UNDEFINED)) {
     		this.isAnythingToDo = IsAnythingToDoStatus.NO;
     		try {
-    			org.jdom2.Document inputFileXMLDocument = JobHelper.parse(this.fichierPivot);
-    			List<Element> rset = JobHelper.evaluateExpressionForElements(inputFileXMLDocument, "/*/entries/entry");
-    			if (rset.size() != 0) {
+    			// Seule la première entrée du pivot est lue
+    			if (PivotReader.hasElements(this.fichierPivot, "entries")) {
     				this.isAnythingToDo = IsAnythingToDoStatus.YES;
     			}
     		} catch (AlambicException e) {
@@ -165,12 +570,12 @@ public class StateBaseToLdap extends AbstractDestination {
     	return this.isAnythingToDo;
     }
 
-	private void loadVariablesList(final Map<String, List<String>> map) throws AlambicException {
-		reloadVariablesList();
+	private void loadVariablesList(final Variables variables, final Map<String, List<String>> map) throws AlambicException {
+		reloadVariablesList(variables);
 		variables.loadFromExtraction(map);
 	}
 
-	private void reloadVariablesList() throws AlambicException {
+	private void reloadVariablesList(final Variables variables) throws AlambicException {
 		variables.clearTable();
 		if (context.getVariables() != null) {
 			variables.loadFromMap(context.getVariables().getHashMap());
@@ -20,8 +20,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import javax.naming.NamingException;
-import javax.naming.directory.DirContext;
-import javax.naming.directory.InitialDirContext;
+import javax.naming.ldap.LdapContext;
 
 import fr.gouv.education.acrennes.alambic.exception.AlambicException;
 import fr.gouv.education.acrennes.alambic.utils.LdapUtils;
@@ -30,6 +29,8 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jdom2.Element;
 import fr.gouv.education.acrennes.alambic.jobs.CallableContext;
+import fr.gouv.education.acrennes.alambic.ldap.LdapConnectionPool;
+import fr.gouv.education.acrennes.alambic.ldap.LdapConnectionPools;
 import fr.gouv.education.acrennes.alambic.monitoring.ActivityMBean;
 import fr.gouv.education.acrennes.alambic.monitoring.ActivityTrafficLight;
 
@@ -45,7 +46,8 @@ public class StateBaseToLdapDelete extends AbstractDestination {
 
 	private int count;
 	private String rdnAttributeName;
-	private DirContext ctx = null;
+	private LdapContext ctx = null;
+	private LdapConnectionPool pool;
 	private List<Map<String, List<String>>> stateBase = null;
 
 	public StateBaseToLdapDelete(final CallableContext context, final Element destinationNode, final ActivityMBean jobActivity) throws AlambicException {
@@ -63,7 +65,8 @@ public class StateBaseToLdapDelete extends AbstractDestination {
 
 		try {
 			// LDAP context initialization
-			ctx = new InitialDirContext(confLdap);
+			pool = LdapConnectionPools.getPool(confLdap);
+			ctx = pool.borrow();
 		} catch (final Exception e) {
 			throw new AlambicException(e.getMessage());
 		}
@@ -116,14 +119,14 @@ public class StateBaseToLdapDelete extends AbstractDestination {
 	public void close() throws AlambicException {
 		super.close();
 
-		// Fermeture du contexte LDAP ouvert
+		// Restitution du contexte LDAP emprunté au pool
 		if (null != ctx) {
-			try {
-				ctx.close();
-				ctx = null;
-			} catch (final NamingException e) {
-				log.error(e.getMessage(), e);
-			}
+			pool.release(ctx);
+			ctx = null;
+		}
+
+		if (null != pool) {
+			pool.report(jobActivity);
 		}
 	}
 
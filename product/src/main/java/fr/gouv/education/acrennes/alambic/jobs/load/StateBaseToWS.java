@@ -20,41 +20,59 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import fr.gouv.education.acrennes.alambic.exception.AlambicException;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.http.Header;
 import org.apache.http.HttpHeaders;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.config.RequestConfig.Builder;
-import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.util.EntityUtils;
 import org.jdom2.Element;
-import org.jdom2.JDOMException;
 import org.jdom2.filter.Filters;
-import org.jdom2.input.SAXBuilder;
 import org.jdom2.xpath.XPathExpression;
 import org.jdom2.xpath.XPathFactory;
-import org.xml.sax.InputSource;
 
 import fr.gouv.education.acrennes.alambic.api.WebServiceApi;
 import fr.gouv.education.acrennes.alambic.jobs.CallableContext;
 import fr.gouv.education.acrennes.alambic.monitoring.ActivityMBean;
 import fr.gouv.education.acrennes.alambic.monitoring.ActivityTrafficLight;
+import fr.gouv.education.acrennes.alambic.monitoring.LatencyHistogram;
 
 public class StateBaseToWS extends AbstractDestination {
 
 	private static final Log log = LogFactory.getLog(StateBaseToWS.class);
 	private static int DEFAULT_TIME_OUT = 5_000; // 5 seconds
+	private static final int DEFAULT_MAX_IN_FLIGHT = 1; // sequential dispatch
+	private static final int DEFAULT_MAX_RETRIES = 3;
+	private static final long DEFAULT_RETRY_DELAY = 500; // milliseconds
+	private static final long MAX_RETRY_DELAY = 30_000; // 30 seconds
+	public static final String METRIC_REQUESTS = "ws.requests";
+	public static final String METRIC_REQUESTS_FAILED = "ws.requests.failed";
+	public static final String METRIC_RETRIES = "ws.retries";
+	public static final String METRIC_LATENCY = "ws.latency";
 
-	private Element pivot = null;
+	private String pivotFile;
+	private int pivotEntriesCount;
 	private CloseableHttpClient httpClient;
 	private String authHeader;
+	private int maxInFlight;
+	private int maxRetries;
+	private long retryDelay;
+	private final LatencyHistogram latencies = new LatencyHistogram();
 
 	public StateBaseToWS(final CallableContext context, final Element destinationNode, final ActivityMBean jobActivity)
 			throws AlambicException {
@@ -63,12 +81,9 @@ public class StateBaseToWS extends AbstractDestination {
 		// Get & parse input file
 		String pivotElt = destinationNode.getChildText("pivot");
 		if (StringUtils.isNotBlank(pivotElt)) {
-			try {
-				pivotElt = context.resolvePath(pivotElt);
-				this.pivot = (new SAXBuilder()).build(new InputSource(pivotElt)).getRootElement();
-			} catch (JDOMException | IOException e) {
-				throw new AlambicException("Erreur de parsing du fichier pivot, erreur : " + e.getMessage());
-			}
+			// The requests are read one at a time from the pivot at execution, its syntax is checked beforehand
+			this.pivotFile = context.resolvePath(pivotElt);
+			this.pivotEntriesCount = PivotReader.outline(this.pivotFile, null).getCount();
 		} else {
 			throw new AlambicException("le pivot n'est pas precisé");
 		}
@@ -95,6 +110,12 @@ public class StateBaseToWS extends AbstractDestination {
 		String proxyHostAttrValue = context.resolveString(destinationNode.getAttributeValue("proxyHost"));
 		String proxyPortAttrValue = context.resolveString(destinationNode.getAttributeValue("proxyPort"));
 		
+		// Get the dispatch configuration: number of requests sent concurrently, connections per host and retries on 429/503 responses
+		this.maxInFlight = getIntAttribute(destinationNode, "maxInFlight", DEFAULT_MAX_IN_FLIGHT, 1);
+		int maxPerHost = getIntAttribute(destinationNode, "maxPerHost", this.maxInFlight, 1);
+		this.maxRetries = getIntAttribute(destinationNode, "maxRetries", DEFAULT_MAX_RETRIES, 0);
+		this.retryDelay = getIntAttribute(destinationNode, "retryDelay", (int) DEFAULT_RETRY_DELAY, 0);
+
 		// Configure & instantiate the http connector
 		Builder requestConfig = RequestConfig.custom();
 		requestConfig = requestConfig.setConnectionRequestTimeout(timeout).setConnectTimeout(timeout).setSocketTimeout(timeout);
@@ -108,42 +129,151 @@ public class StateBaseToWS extends AbstractDestination {
 		this.httpClient = HttpClientBuilder.create()
 				.useSystemProperties()
 				.setDefaultRequestConfig(requestConfig.build())
+				.setMaxConnTotal(this.maxInFlight)
+				.setMaxConnPerRoute(maxPerHost)
 				.build();
 	}
 
 	@Override
 	public void execute() {
-		int pivotEntriesCount = pivot.getChildren().size();
-		int currentPivotEntriesIndex = 1;
-
-		// Iterate over the list of API requests
-		for (final Element xmlNode : pivot.getChildren()) {
-			// activity monitoring
-			this.jobActivity.setProgress((currentPivotEntriesIndex * 100) / pivotEntriesCount);
-			this.jobActivity.setProcessing("processing entry " + currentPivotEntriesIndex + "/" + pivotEntriesCount);
-
-			WebServiceApi wsapi = null;
-			try {
-				wsapi = new WebServiceApi(this.context, xmlNode);
-				HttpUriRequest request = wsapi.getRequest();
-				if (StringUtils.isNotBlank(this.authHeader)) {
-					request.setHeader(HttpHeaders.AUTHORIZATION, this.authHeader);
-				}
-				HttpResponse response = this.httpClient.execute(request);
-				if (!wsapi.isSuccessful(response)) {
+		final int pivotEntriesCount = this.pivotEntriesCount;
+		final AtomicInteger processedEntriesCount = new AtomicInteger();
+		ExecutorService executor = null;
+		Semaphore inFlight = null;
+		if (1 < this.maxInFlight) {
+			final AtomicInteger threadCount = new AtomicInteger();
+			executor = Executors.newFixedThreadPool(this.maxInFlight, runnable -> {
+				Thread thread = new Thread(runnable, "ws-dispatch-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+			inFlight = new Semaphore(this.maxInFlight);
+		}
+
+		try (PivotReader pivotEntries = new PivotReader(this.pivotFile, null)) {
+			// Iterate over the list of API requests
+			int currentPivotEntriesIndex = 1;
+			while (pivotEntries.hasNext()) {
+				final Element xmlNode = pivotEntries.next();
+				// The requests are built by the current thread since the context is not meant to be shared
+				WebServiceApi wsapi = null;
+				try {
+					wsapi = new WebServiceApi(this.context, xmlNode);
+					if (StringUtils.isNotBlank(this.authHeader)) {
+						wsapi.getRequest().setHeader(HttpHeaders.AUTHORIZATION, this.authHeader);
+					}
+				} catch (final Exception e) {
+					this.jobActivity.addMetric(METRIC_REQUESTS_FAILED, 1);
 					this.jobActivity.setTrafficLight(ActivityTrafficLight.RED);
-					log.error(String.format("Réponse en erreur sur la requête '" + wsapi + "' (codes attendus : '%s'), réponse reçue : code=%s, phrase=%s",
-									wsapi.getSuccessResponseCodes(),
-									response.getStatusLine().getStatusCode(), 
-									response.getStatusLine().getReasonPhrase()));
+					log.error("Echec de traitement de la requête '" + wsapi + "', cause : " + e.getMessage());
+					updateProgress(processedEntriesCount.incrementAndGet(), pivotEntriesCount);
+					continue;
+				}
+
+				final WebServiceApi request = wsapi;
+				if (null == executor) {
+					// activity monitoring
+					this.jobActivity.setProgress((currentPivotEntriesIndex * 100) / pivotEntriesCount);
+					this.jobActivity.setProcessing("processing entry " + currentPivotEntriesIndex + "/" + pivotEntriesCount);
+					send(request);
+				} else {
+					// Bound the number of requests in flight (sent or waiting for a connection)
+					inFlight.acquire();
+					final Semaphore permits = inFlight;
+					try {
+						executor.execute(() -> {
+							try {
+								send(request);
+							} finally {
+								updateProgress(processedEntriesCount.incrementAndGet(), pivotEntriesCount);
+								permits.release();
+							}
+						});
+					} catch (final RuntimeException e) {
+						permits.release();
+						throw e;
+					}
+				}
+				currentPivotEntriesIndex++;
+			}
+
+			if (null != executor) {
+				// Wait for the last requests
+				inFlight.acquire(this.maxInFlight);
+				inFlight.release(this.maxInFlight);
+				updateProgress(processedEntriesCount.get(), pivotEntriesCount);
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			this.jobActivity.setTrafficLight(ActivityTrafficLight.RED);
+			log.error("Interruption de l'envoi des requêtes, " + processedEntriesCount.get() + "/" + pivotEntriesCount + " requêtes traitées");
+		} catch (final AlambicException | RuntimeException e) {
+			this.jobActivity.setTrafficLight(ActivityTrafficLight.RED);
+			log.error("Echec de lecture du fichier pivot '" + this.pivotFile + "', cause : " + e.getMessage());
+		} finally {
+			if (null != executor) {
+				executor.shutdownNow();
+			}
+			this.latencies.report(this.jobActivity, METRIC_LATENCY);
+		}
+	}
+
+	private void updateProgress(final int processedEntriesCount, final int pivotEntriesCount) {
+		this.jobActivity.setProgress((0 < pivotEntriesCount) ? (processedEntriesCount * 100) / pivotEntriesCount : 100);
+		this.jobActivity.setProcessing("processed entry " + processedEntriesCount + "/" + pivotEntriesCount);
+	}
+
+	/* Sends the request, retrying with an exponential backoff as long as the API answers 429 (too many requests) or 503 (service unavailable) */
+	private void send(final WebServiceApi wsapi) {
+		this.jobActivity.addMetric(METRIC_REQUESTS, 1);
+		try {
+			for (int attempt = 0; ; attempt++) {
+				long start = System.nanoTime();
+				HttpResponse response = this.httpClient.execute(wsapi.getRequest());
+				this.latencies.record(System.nanoTime() - start);
+				long delay;
+				try {
+					if (wsapi.isSuccessful(response)) {
+						return;
+					}
+					int statusCode = response.getStatusLine().getStatusCode();
+					if (attempt >= this.maxRetries || (HttpStatus.SC_SERVICE_UNAVAILABLE != statusCode && 429 != statusCode)) {
+						this.jobActivity.addMetric(METRIC_REQUESTS_FAILED, 1);
+						this.jobActivity.setTrafficLight(ActivityTrafficLight.RED);
+						log.error(String.format("Réponse en erreur sur la requête '" + wsapi + "' (codes attendus : '%s'), réponse reçue : code=%s, phrase=%s",
+										wsapi.getSuccessResponseCodes(),
+										statusCode,
+										response.getStatusLine().getReasonPhrase()));
+						return;
+					}
+					delay = getRetryDelay(response, attempt);
+					log.debug(String.format("Réponse %d sur la requête '%s', nouvel essai (%d/%d) dans %d ms", statusCode, wsapi, attempt + 1, this.maxRetries, delay));
+				} finally {
+					EntityUtils.consume(response.getEntity()); // consume the response content to avoid connection leaks
 				}
-				EntityUtils.consume(response.getEntity()); // consume the response content to avoid connection leaks
-			} catch (final Exception e) {
-				this.jobActivity.setTrafficLight(ActivityTrafficLight.RED);
-				log.error("Echec de traitement de la requête '" + wsapi + "', cause : " + e.getMessage());
+				this.jobActivity.addMetric(METRIC_RETRIES, 1);
+				Thread.sleep(delay);
 			}
-			currentPivotEntriesIndex++;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			this.jobActivity.addMetric(METRIC_REQUESTS_FAILED, 1);
+			this.jobActivity.setTrafficLight(ActivityTrafficLight.RED);
+			log.error("Interruption de la requête '" + wsapi + "'");
+		} catch (final Exception e) {
+			this.jobActivity.addMetric(METRIC_REQUESTS_FAILED, 1);
+			this.jobActivity.setTrafficLight(ActivityTrafficLight.RED);
+			log.error("Echec de traitement de la requête '" + wsapi + "', cause : " + e.getMessage());
+		}
+	}
+
+	/* Honours the 'Retry-After' header (in seconds) when present, else doubles the delay at each attempt with some jitter */
+	private long getRetryDelay(final HttpResponse response, final int attempt) {
+		Header retryAfter = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+		if (null != retryAfter && StringUtils.isNumeric(retryAfter.getValue())) {
+			return Math.min(MAX_RETRY_DELAY, TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.getValue())));
 		}
+		long delay = Math.min(MAX_RETRY_DELAY, this.retryDelay << Math.min(attempt, 16));
+		return (delay / 2) + ThreadLocalRandom.current().nextLong((delay / 2) + 1);
 	}
 
 	@Override
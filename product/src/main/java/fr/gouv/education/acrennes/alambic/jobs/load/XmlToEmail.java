@@ -16,10 +16,13 @@
  ******************************************************************************/
 package fr.gouv.education.acrennes.alambic.jobs.load;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.activation.DataHandler;
 import javax.activation.DataSource;
@@ -30,7 +33,6 @@ import javax.mail.Message;
 import javax.mail.Message.RecipientType;
 import javax.mail.MessagingException;
 import javax.mail.Session;
-import javax.mail.Transport;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
@@ -43,14 +45,12 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jdom2.Element;
-import org.jdom2.JDOMException;
-import org.jdom2.input.SAXBuilder;
-import org.xml.sax.InputSource;
 
 import fr.gouv.education.acrennes.alambic.audit.persistence.AuditEntity;
 import fr.gouv.education.acrennes.alambic.jobs.CallableContext;
 import fr.gouv.education.acrennes.alambic.monitoring.ActivityMBean;
 import fr.gouv.education.acrennes.alambic.monitoring.ActivityTrafficLight;
+import fr.gouv.education.acrennes.alambic.monitoring.LatencyHistogram;
 import fr.gouv.education.acrennes.alambic.persistence.EntityManagerHelper;
 import fr.gouv.education.acrennes.alambic.utils.Functions;
 
@@ -59,11 +59,24 @@ public class XmlToEmail extends AbstractDestination {
 	protected static final Log log = LogFactory.getLog(XmlToEmail.class);
 
 	private final String DEFAULT_SMTP_PORT = "25";
+	private static final int DEFAULT_SENDERS = 1; // sequential sending
+	private static final int DEFAULT_MESSAGES_PER_CONNECTION = 100;
+	private static final int DEFAULT_AUDIT_BATCH_SIZE = 100;
+	public static final String METRIC_SENT = "mail.sent";
+	public static final String METRIC_FAILED = "mail.failed";
+	public static final String METRIC_CONNECTIONS = "mail.connections";
+	public static final String METRIC_LATENCY = "mail.latency";
 	// private final String DEFAULT_SMTP_CHARSET = Charsets.UTF_8.toString();
 	private final Session session;
-	private final Element pivot;
+	private final String pivot;
+	private final int messagesCount;
+	private final int senders;
+	private final int messagesPerConnection;
+	private final int auditBatchSize;
+	private final List<AuditEntity> audits = new ArrayList<>();
+	private final LatencyHistogram latencies = new LatencyHistogram();
 	private List<Element> attachments;
-	private int count;
+	private final AtomicInteger count = new AtomicInteger();
 	private EntityManager em;
 
 	public XmlToEmail(final CallableContext context, final Element job, final ActivityMBean jobActivity) throws AlambicException {
@@ -90,12 +103,9 @@ public class XmlToEmail extends AbstractDestination {
 			pivot = context.resolvePath(pivot);
 		}
 
-		InputSource fPivot = new InputSource(pivot);
-		try {
-			this.pivot = (new SAXBuilder()).build(fPivot).getRootElement();
-		} catch (JDOMException | IOException e) {
-			throw new AlambicException(e.getMessage());
-		}
+		// The messages are read one at a time from the pivot at execution, its syntax is checked beforehand
+		this.pivot = pivot;
+		this.messagesCount = PivotReader.outline(pivot, "messages").getCount();
 
 		attachments = null;
 		Element attmts = job.getChild("attachments");
@@ -107,102 +117,202 @@ public class XmlToEmail extends AbstractDestination {
 			}
 		}
 
-		count = 0;
+		// Get the sending configuration: number of messages sent concurrently (one SMTP connection each), messages per connection and audit logs per transaction
+		senders = getIntAttribute(job, "senders", DEFAULT_SENDERS, 1);
+		messagesPerConnection = getIntAttribute(job, "messagesPerConnection", DEFAULT_MESSAGES_PER_CONNECTION, 0);
+		auditBatchSize = getIntAttribute(job, "auditBatchSize", DEFAULT_AUDIT_BATCH_SIZE, 1);
+
 		em = EntityManagerHelper.getEntityManager();
 
-		Properties properties = System.getProperties();
+		// The session is specific to this destination (the default session would keep the first server settings for the whole JVM)
+		Properties properties = new Properties(System.getProperties());
 		properties.setProperty("mail.smtp.host", host);
 		properties.setProperty("mail.smtp.port", (StringUtils.isNotBlank(port)) ? port : DEFAULT_SMTP_PORT);
 		// properties.setProperty("mail.mime.charset", DEFAULT_SMTP_CHARSET);
-		session = Session.getDefaultInstance(properties);
+		session = Session.getInstance(properties);
 	}
 
 	public int getCount() {
-		return count;
+		return count.get();
 	}
 
 	public void setCount(final int count) {
-		this.count = count;
+		this.count.set(count);
 	}
 
 	@Override
 	public void execute() {
-		List<Element> messagesNode = pivot.getChild("messages").getChildren();
-		for (Element messageNode : messagesNode) {
-			// activity monitoring
-			jobActivity.setProgress(((count + 1) * 100) / messagesNode.size());
-			jobActivity.setProcessing("processing entry " + (count + 1) + "/" + messagesNode.size());
-			
-			String notificationlog = messageNode.getChild("log").getChildText("value");
-			MimeMessage message = new MimeMessage(session);
+		try (PivotReader messagesNode = new PivotReader(pivot, "messages")) {
+			sendMessages(() -> messagesNode);
+		} catch (AlambicException e) {
+			jobActivity.setTrafficLight(ActivityTrafficLight.RED);
+			log.error("Notification has failed (pivot error), error: " + e.getMessage());
+		}
+	}
 
-			try {
-				// from
-				String from = messageNode.getChild("from").getChildText("value");
-				message.setFrom(new InternetAddress(from));
-
-				// multiple recipients with different types (TO, CC, BCC)
-				Element recipientsNode = messageNode.getChild("recipients");
-				for (Element itemNode : (List<Element>) recipientsNode.getChildren("item")) {
-					message.addRecipient(getRecipientType(itemNode), new InternetAddress(itemNode.getChildText("value")));
+	private void sendMessages(final Iterable<Element> messagesNode) throws AlambicException {
+		ExecutorService executor = null;
+		Semaphore inFlight = null;
+		if (1 < senders) {
+			final AtomicInteger threadCount = new AtomicInteger();
+			executor = Executors.newFixedThreadPool(senders, runnable -> {
+				Thread thread = new Thread(runnable, "mail-sender-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+			inFlight = new Semaphore(senders);
+		}
+
+		SmtpTransportPool transports = new SmtpTransportPool(session, senders, messagesPerConnection);
+		try {
+			int index = 0;
+			for (Element messageNode : messagesNode) {
+				// activity monitoring
+				index++;
+				jobActivity.setProgress((index * 100) / messagesCount);
+				jobActivity.setProcessing("processing entry " + index + "/" + messagesCount);
+
+				// The messages are built by the current thread since the context is not meant to be shared
+				MimeMessage message = buildMessage(messageNode);
+				if (null == message) {
+					break;
 				}
 
-				// subject
-				String subject = messageNode.getChild("subject").getChildText("value");
-				message.setSubject(subject);
+				final String notificationlog = messageNode.getChild("log").getChildText("value");
+				if (null == executor) {
+					send(transports, message, notificationlog);
+				} else {
+					// Bound the number of messages in flight (sent or waiting for a connection)
+					inFlight.acquire();
+					final Semaphore permits = inFlight;
+					try {
+						executor.execute(() -> {
+							try {
+								send(transports, message, notificationlog);
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+							} catch (RuntimeException e) {
+								// the executor would swallow the error
+								jobActivity.setTrafficLight(ActivityTrafficLight.RED);
+								log.error("Notification has failed (unexpected error), error: " + e.getMessage() + ", purpose: " + notificationlog, e);
+							} finally {
+								permits.release();
+							}
+						});
+					} catch (RuntimeException e) {
+						permits.release();
+						throw e;
+					}
+				}
+			}
 
-				// content
-				Element content = messageNode.getChild("content");
-				if (null != attachments && 0 < attachments.size()) {
-					MimeMultipart multipart = new MimeMultipart("related");
+			if (null != executor) {
+				// Wait for the last messages
+				inFlight.acquire(senders);
+				inFlight.release(senders);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			jobActivity.setTrafficLight(ActivityTrafficLight.RED);
+			log.error("Notification has been interrupted, " + count.get() + "/" + messagesCount + " messages processed");
+		} finally {
+			if (null != executor) {
+				executor.shutdownNow();
+			}
+			transports.close();
+			synchronized (audits) {
+				persistAudits();
+			}
+			jobActivity.setMetric(METRIC_CONNECTIONS, transports.getConnectionsCount());
+			latencies.report(jobActivity, METRIC_LATENCY);
+		}
+	}
 
-					// Add the email content
-					BodyPart messageBodyPart = new MimeBodyPart();
-					String contentvalue = Functions.getInstance().executeAllFunctions(context.resolveString(content.getChildText("value")));
-					if (StringUtils.isBlank(contentvalue)) {
-						throw new AlambicException("Message content cannot be empty");
-					}
-					messageBodyPart.setContent(contentvalue, content.getAttributeValue("type"));
-					multipart.addBodyPart(messageBodyPart);
+	private MimeMessage buildMessage(final Element messageNode) {
+		String notificationlog = messageNode.getChild("log").getChildText("value");
+		MimeMessage message = new MimeMessage(session);
 
-					// Add attachements
-					for (Element attachement : attachments) {
-						messageBodyPart = new MimeBodyPart();
-						DataSource fds = new FileDataSource(attachement.getTextTrim());
-						messageBodyPart.setDataHandler(new DataHandler(fds));
-						messageBodyPart.setHeader("Content-ID", attachement.getAttributeValue("id"));
-						multipart.addBodyPart(messageBodyPart);
-					}
+		try {
+			// from
+			String from = messageNode.getChild("from").getChildText("value");
+			message.setFrom(new InternetAddress(from));
+
+			// multiple recipients with different types (TO, CC, BCC)
+			Element recipientsNode = messageNode.getChild("recipients");
+			for (Element itemNode : (List<Element>) recipientsNode.getChildren("item")) {
+				message.addRecipient(getRecipientType(itemNode), new InternetAddress(itemNode.getChildText("value")));
+			}
 
-					// put everything together
-					message.setContent(multipart);
-				} else {
-					// content with type
-					String contentvalue = Functions.getInstance().executeAllFunctions(context.resolveString(content.getChildText("value")));
-					if (StringUtils.isBlank(contentvalue)) {
-						throw new AlambicException("Message content cannot be empty");
-					}
-					message.setContent(contentvalue, content.getAttributeValue("type"));
+			// subject
+			String subject = messageNode.getChild("subject").getChildText("value");
+			message.setSubject(subject);
+
+			// content
+			Element content = messageNode.getChild("content");
+			if (null != attachments && 0 < attachments.size()) {
+				MimeMultipart multipart = new MimeMultipart("related");
+
+				// Add the email content
+				BodyPart messageBodyPart = new MimeBodyPart();
+				String contentvalue = Functions.getInstance().executeAllFunctions(context.resolveString(content.getChildText("value")));
+				if (StringUtils.isBlank(contentvalue)) {
+					throw new AlambicException("Message content cannot be empty");
+				}
+				messageBodyPart.setContent(contentvalue, content.getAttributeValue("type"));
+				multipart.addBodyPart(messageBodyPart);
+
+				// Add attachements
+				for (Element attachement : attachments) {
+					messageBodyPart = new MimeBodyPart();
+					DataSource fds = new FileDataSource(attachement.getTextTrim());
+					messageBodyPart.setDataHandler(new DataHandler(fds));
+					messageBodyPart.setHeader("Content-ID", attachement.getAttributeValue("id"));
+					multipart.addBodyPart(messageBodyPart);
+				}
+
+				// put everything together
+				message.setContent(multipart);
+			} else {
+				// content with type
+				String contentvalue = Functions.getInstance().executeAllFunctions(context.resolveString(content.getChildText("value")));
+				if (StringUtils.isBlank(contentvalue)) {
+					throw new AlambicException("Message content cannot be empty");
 				}
-			} catch (Exception e) {
-				jobActivity.setTrafficLight(ActivityTrafficLight.RED);
-				log.error("Notification has failed (build error), error: " + e.getMessage() + ", purpose: " + notificationlog);
-				break;
+				message.setContent(contentvalue, content.getAttributeValue("type"));
 			}
+		} catch (Exception e) {
+			jobActivity.setTrafficLight(ActivityTrafficLight.RED);
+			log.error("Notification has failed (build error), error: " + e.getMessage() + ", purpose: " + notificationlog);
+			return null;
+		}
+
+		return message;
+	}
+
+	private void send(final SmtpTransportPool transports, final MimeMessage message, final String notificationlog) throws InterruptedException {
+		boolean isSent = false;
+		long start = System.nanoTime();
+		try {
+			transports.send(message);
+			latencies.record(System.nanoTime() - start);
+			jobActivity.addMetric(METRIC_SENT, 1);
+			isSent = true;
+		} catch (MessagingException e) {
+			jobActivity.addMetric(METRIC_FAILED, 1);
+			jobActivity.setTrafficLight(ActivityTrafficLight.RED);
+			log.error("Notification has failed (send error), error: " + e.getMessage() + ", purpose: " + notificationlog);
+		} finally {
+			count.incrementAndGet();
+		}
 
-			// send
+		if (isSent) {
+			// persist sending operation into audit logs
 			try {
-				Transport.send(message);
 				log.info("Notification was sent successfully, recipients : " + getRecipients(message) + ", purpose : " + notificationlog);
-
-				// persist sending operation into audit logs
 				audit(message);
 			} catch (MessagingException e) {
-				jobActivity.setTrafficLight(ActivityTrafficLight.RED);
-				log.error("Notification has failed (send error), error: " + e.getMessage() + ", purpose: " + notificationlog);
+				log.error("Notification was sent but could not be audited, error: " + e.getMessage() + ", purpose: " + notificationlog);
 			}
-
-			setCount(count + 1);
 		}
 	}
 
@@ -211,11 +321,38 @@ public class XmlToEmail extends AbstractDestination {
 		String fulltext = getRecipients(message);
 		fulltext = fulltext.concat(",\"Subject\":\"" + message.getSubject() + "\"");
 
-		/* persist */
+		/* persist by batches, the entity manager being used by one sender at a time */
+		AuditEntity audit = new AuditEntity(getType(), "{" + fulltext.replaceFirst("^,", "") + "}", job);
+		synchronized (audits) {
+			audits.add(audit);
+			if (auditBatchSize <= audits.size()) {
+				persistAudits();
+			}
+		}
+	}
+
+	private void persistAudits() {
+		if (audits.isEmpty()) {
+			return;
+		}
+
 		EntityTransaction transac = em.getTransaction();
-		transac.begin();
-		em.persist(new AuditEntity(getType(), "{" + fulltext.replaceFirst("^,", "") + "}", job));
-		transac.commit();
+		try {
+			transac.begin();
+			for (AuditEntity audit : audits) {
+				em.persist(audit);
+			}
+			transac.commit();
+			em.clear();
+		} catch (RuntimeException e) {
+			if (transac.isActive()) {
+				transac.rollback();
+			}
+			jobActivity.setTrafficLight(ActivityTrafficLight.RED);
+			log.error("Failed to persist " + audits.size() + " notification audit logs, error: " + e.getMessage());
+		} finally {
+			audits.clear();
+		}
 	}
 
 	private Message.RecipientType getRecipientType(final Element item) {
@@ -77,6 +77,10 @@ public abstract class GAR1DBuilder implements GARTypeBuilder {
 
         } catch (JAXBException | SAXException | FileNotFoundException | XPathExpressionException e) {
             failGARExecution(e);
+        } finally {
+            if (null != writer) {
+                writer.close();
+            }
         }
     }
 
@@ -19,26 +19,18 @@ package fr.gouv.education.acrennes.alambic.jobs.load.gar.builder;
 import fr.gouv.education.acrennes.alambic.jobs.load.gar.binding1d.ObjectFactory;
 import org.xml.sax.SAXException;
 
-import javax.xml.XMLConstants;
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
-import javax.xml.transform.stream.StreamSource;
-import javax.xml.validation.Schema;
-import javax.xml.validation.SchemaFactory;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 
-public abstract class GAR1DENTWriter {
+public abstract class GAR1DENTWriter implements AutoCloseable {
     protected final ObjectFactory factory;
     protected final String version;
     private final int page;
     private final int maxNodesCount;
     private final String output;
-    private int nodeCount;
 
-    private Marshaller marshaller;
+    private GARStreamWriter<?> writer;
 
     protected GAR1DENTWriter(ObjectFactory factory, String version, int page, int maxNodesCount, String output) {
         this.factory = factory;
@@ -46,35 +38,24 @@ public abstract class GAR1DENTWriter {
         this.page = page;
         this.maxNodesCount = maxNodesCount;
         this.output = output;
-        nodeCount = 0;
     }
 
-    protected void setMarshallerFrom(JAXBContext context, String xsdFile) throws JAXBException, SAXException {
-        marshaller = context.createMarshaller();
-        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-        marshaller.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
-        SchemaFactory schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-        Schema schema = schemaFactory.newSchema(new StreamSource(xsdFile));
-        marshaller.setSchema(schema);
+    protected <T> void setStreamWriterFrom(JAXBElement<T> root, String xsdFile) throws JAXBException, SAXException {
+        writer = new GARStreamWriter<>(root, xsdFile, output, page, maxNodesCount);
     }
 
-    protected abstract void add(Object item) throws FileNotFoundException, JAXBException;
-
-    protected void checkNodeCount() throws FileNotFoundException, JAXBException {
-        nodeCount++;
-        if (0 == nodeCount % maxNodesCount) {
-            marshal(nodeCount / maxNodesCount);
-        }
+    protected void add(Object item) throws FileNotFoundException, JAXBException {
+        writer.add(item);
     }
 
     protected void flush() throws FileNotFoundException, JAXBException {
-        marshal((nodeCount / maxNodesCount) + 1);
+        writer.flush();
     }
 
-    protected abstract void marshal(final int increment) throws FileNotFoundException, JAXBException;
-
-    protected void marshal(final int increment, final JAXBElement<?> jaxbElement) throws FileNotFoundException, JAXBException {
-        String outputFileName = GARHelper.getInstance().getOutputFileName(output, page, increment);
-        marshaller.marshal(jaxbElement, new FileOutputStream(outputFileName));
+    @Override
+    public void close() {
+        if (null != writer) {
+            writer.close();
+        }
     }
 }
@@ -29,8 +29,6 @@ import org.w3c.dom.Element;
 import org.xml.sax.SAXException;
 
 import javax.persistence.EntityTransaction;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
 import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.xpath.XPath;
@@ -208,31 +206,11 @@ public class GAR1DEleveBuilder extends GAR1DIdentiteBuilder {
 
     private static class GARENTEleveWriter extends GAR1DENTWriter {
 
-        private GARENTEleve container;
-
         protected GARENTEleveWriter(final ObjectFactory factory, final String version, final int page, final int maxNodesCount, String output, String xsdFile) throws JAXBException, SAXException {
             super(factory, version, page, maxNodesCount, output);
-            container = factory.createGARENTEleve();
-            container.setVersion(version);
-            setMarshallerFrom(JAXBContext.newInstance(GARENTEleve.class), xsdFile);
-        }
-
-        @Override
-        protected void add(Object item) throws FileNotFoundException, JAXBException {
-            if (item instanceof GAREleve) {
-                container.getGAREleve().add((GAREleve) item);
-            } else if (item instanceof GARPersonMEFSTAT4) {
-                container.getGARPersonMEFSTAT4().add((GARPersonMEFSTAT4) item);
-            }
-            checkNodeCount();
-        }
-
-        @Override
-        protected void marshal(int increment) throws FileNotFoundException, JAXBException {
-            JAXBElement<GARENTEleve> jaxbElement = factory.createGARENTEleve(container);
-            marshal(increment, jaxbElement);
-            container = factory.createGARENTEleve();
+            GARENTEleve container = factory.createGARENTEleve();
             container.setVersion(version);
+            setStreamWriterFrom(factory.createGARENTEleve(container), xsdFile);
         }
     }
 }
@@ -27,8 +27,6 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.xml.sax.SAXException;
 
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
 import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.xpath.XPath;
@@ -231,31 +229,12 @@ public class GAR1DEnseignantBuilder extends GAR1DIdentiteBuilder {
     }
 
     private static class GARENTEnseignantWriter extends GAR1DENTWriter {
-        private GARENTEnseignant container;
 
         protected GARENTEnseignantWriter(ObjectFactory factory, String version, int page, int maxNodesCount, String output, String xsdFile) throws JAXBException, SAXException {
             super(factory, version, page, maxNodesCount, output);
-            container = factory.createGARENTEnseignant();
-            container.setVersion(version);
-            setMarshallerFrom(JAXBContext.newInstance(GARENTEnseignant.class), xsdFile);
-        }
-
-        @Override
-        protected void add(Object item) throws FileNotFoundException, JAXBException {
-            if (item instanceof GAREnseignant) {
-                container.getGAREnseignant().add((GAREnseignant) item);
-            } else if (item instanceof GARPersonMEFSTAT4) {
-                container.getGARPersonMEFSTAT4().add((GARPersonMEFSTAT4) item);
-            }
-            checkNodeCount();
-        }
-
-        @Override
-        protected void marshal(int increment) throws FileNotFoundException, JAXBException {
-            JAXBElement<GARENTEnseignant> jaxbElement = factory.createGARENTEnseignant(container);
-            marshal(increment, jaxbElement);
-            container = factory.createGARENTEnseignant();
+            GARENTEnseignant container = factory.createGARENTEnseignant();
             container.setVersion(version);
+            setStreamWriterFrom(factory.createGARENTEnseignant(container), xsdFile);
         }
     }
 }
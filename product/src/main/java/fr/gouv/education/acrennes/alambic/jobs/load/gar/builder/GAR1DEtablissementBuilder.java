@@ -22,8 +22,6 @@ import fr.gouv.education.acrennes.alambic.jobs.load.gar.binding1d.ObjectFactory;
 import fr.gouv.education.acrennes.alambic.jobs.load.gar.builder.exception.MissingAttributeException;
 import org.xml.sax.SAXException;
 
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
 import java.io.FileNotFoundException;
 import java.util.List;
@@ -72,29 +70,11 @@ public class GAR1DEtablissementBuilder extends GAR1DBuilder {
 
     private static class GARENTEtabWriter extends GAR1DENTWriter {
 
-        private GARENTEtab container;
-
         protected GARENTEtabWriter(ObjectFactory factory, String version, int page, int maxNodesCount, String output, String xsdFile) throws JAXBException, SAXException {
             super(factory, version, page, maxNodesCount, output);
-            container = factory.createGARENTEtab();
-            container.setVersion(version);
-            setMarshallerFrom(JAXBContext.newInstance(GARENTEtab.class), xsdFile);
-        }
-
-        @Override
-        protected void add(Object item) throws FileNotFoundException, JAXBException {
-            if (item instanceof GAREtab) {
-                container.getGAREtab().add((GAREtab) item);
-            }
-            checkNodeCount();
-        }
-
-        @Override
-        protected void marshal(int increment) throws FileNotFoundException, JAXBException {
-            JAXBElement<GARENTEtab> jaxbElement = factory.createGARENTEtab(container);
-            marshal(increment, jaxbElement);
-            container = factory.createGARENTEtab();
+            GARENTEtab container = factory.createGARENTEtab();
             container.setVersion(version);
+            setStreamWriterFrom(factory.createGARENTEtab(container), xsdFile);
         }
     }
 }
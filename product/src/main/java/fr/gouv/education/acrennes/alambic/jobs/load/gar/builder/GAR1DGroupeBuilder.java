@@ -29,8 +29,6 @@ import org.xml.sax.SAXException;
 
 import javax.persistence.EntityTransaction;
 import javax.persistence.Query;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
@@ -131,31 +129,11 @@ public class GAR1DGroupeBuilder extends GAR1DBuilder {
 
     private static class GARENTGroupeWriter extends GAR1DENTWriter {
 
-        private GARENTGroupe container;
-
         protected GARENTGroupeWriter(ObjectFactory factory, String version, int page, int maxNodesCount, String output, String xsdFile) throws JAXBException, SAXException {
             super(factory, version, page, maxNodesCount, output);
-            container = factory.createGARENTGroupe();
-            container.setVersion(version);
-            setMarshallerFrom(JAXBContext.newInstance(GARENTGroupe.class), xsdFile);
-        }
-
-        @Override
-        protected void add(Object item) throws FileNotFoundException, JAXBException {
-            if (item instanceof GARGroupe) {
-                container.getGARGroupe().add((GARGroupe) item);
-            } else if (item instanceof GARPersonGroupe) {
-                container.getGARPersonGroupe().add((GARPersonGroupe) item);
-            }
-            checkNodeCount();
-        }
-
-        @Override
-        protected void marshal(int increment) throws FileNotFoundException, JAXBException {
-            JAXBElement<GARENTGroupe> jaxbElement = factory.createGARENTGroupe(container);
-            marshal(increment, jaxbElement);
-            container = factory.createGARENTGroupe();
+            GARENTGroupe container = factory.createGARENTGroupe();
             container.setVersion(version);
+            setStreamWriterFrom(factory.createGARENTGroupe(container), xsdFile);
         }
     }
 }
@@ -27,8 +27,6 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.xml.sax.SAXException;
 
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
@@ -132,29 +130,11 @@ public class GAR1DRespAffBuilder extends GAR1DBuilder {
 
     private static class GARENTRespAffWriter extends GAR1DENTWriter {
 
-        private GARENTRespAff container;
-
         protected GARENTRespAffWriter(ObjectFactory factory, String version, int page, int maxNodesCount, String output, String xsdFile) throws JAXBException, SAXException {
             super(factory, version, page, maxNodesCount, output);
-            container = factory.createGARENTRespAff();
-            container.setVersion(version);
-            setMarshallerFrom(JAXBContext.newInstance(GARENTRespAff.class), xsdFile);
-        }
-
-        @Override
-        protected void add(Object item) throws FileNotFoundException, JAXBException {
-            if (item instanceof GARRespAff) {
-                container.getGARRespAff().add((GARRespAff) item);
-            }
-            checkNodeCount();
-        }
-
-        @Override
-        protected void marshal(int increment) throws FileNotFoundException, JAXBException {
-            JAXBElement<GARENTRespAff> jaxbElement = factory.createGARENTRespAff(container);
-            marshal(increment, jaxbElement);
-            container = factory.createGARENTRespAff();
+            GARENTRespAff container = factory.createGARENTRespAff();
             container.setVersion(version);
+            setStreamWriterFrom(factory.createGARENTRespAff(container), xsdFile);
         }
     }
 }
@@ -36,8 +36,13 @@ public class GARBuilderParameters {
     private final String xsdFile;
     private final EntityManager em;
     private final Map<String, Document> exportFiles;
+    private final boolean preloadCodes;
 
     public GARBuilderParameters(CallableContext context, Map<String, Source> resources, int page, ActivityMBean jobActivity, int maxNodesCount, String version, String territoryCode, String output, String xsdFile, EntityManager em, Map<String, Document> exportFiles) {
+        this(context, resources, page, jobActivity, maxNodesCount, version, territoryCode, output, xsdFile, em, exportFiles, false);
+    }
+
+    public GARBuilderParameters(CallableContext context, Map<String, Source> resources, int page, ActivityMBean jobActivity, int maxNodesCount, String version, String territoryCode, String output, String xsdFile, EntityManager em, Map<String, Document> exportFiles, boolean preloadCodes) {
         this.context = context;
         this.resources = resources;
         this.page = page;
@@ -49,6 +54,7 @@ public class GARBuilderParameters {
         this.xsdFile = xsdFile;
         this.em = em;
         this.exportFiles = exportFiles;
+        this.preloadCodes = preloadCodes;
     }
 
     public CallableContext getContext() {
@@ -94,4 +100,8 @@ public class GARBuilderParameters {
     public Map<String, Document> getExportFiles() {
         return exportFiles;
     }
+
+    public boolean isPreloadCodes() {
+        return preloadCodes;
+    }
 }
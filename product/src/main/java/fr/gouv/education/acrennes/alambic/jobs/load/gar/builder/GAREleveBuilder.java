@@ -17,7 +17,6 @@
 package fr.gouv.education.acrennes.alambic.jobs.load.gar.builder;
 
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -31,16 +30,9 @@ import java.util.regex.Pattern;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityTransaction;
-import javax.xml.XMLConstants;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.XMLGregorianCalendar;
-import javax.xml.transform.stream.StreamSource;
-import javax.xml.validation.Schema;
-import javax.xml.validation.SchemaFactory;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
@@ -84,6 +76,7 @@ public class GAREleveBuilder implements GARTypeBuilder {
 	private final List<Map<String, List<String>>> students;
 	private final List<String> memberStructuresList;
 	private final Source aafSource;	
+	private final boolean preloadCodes;
 
 	public GAREleveBuilder(GARBuilderParameters parameters) {
 		this.page = parameters.getPage();
@@ -100,6 +93,7 @@ public class GAREleveBuilder implements GARTypeBuilder {
 		this.students = parameters.getResources().get("Entries").getEntries(); // Get the list of involved students
 		Source structuresSource = parameters.getResources().get("Structures"); // Get the list of involved structures
 		this.aafSource = parameters.getResources().get("AAF");
+		this.preloadCodes = parameters.isPreloadCodes();
 		this.memberStructuresList = new ArrayList<String>();
 		List<Map<String, List<String>>> structures = structuresSource.getEntries();
 		structures.forEach(structure -> { 
@@ -111,10 +105,9 @@ public class GAREleveBuilder implements GARTypeBuilder {
 
 	@Override
 	public void execute() throws AlambicException {
-		try {
+		ObjectFactory factory = new ObjectFactory();
+		try (GARStreamWriter<GARENTEleve> writer = newWriter(factory)) {
 			List<String> attribute;
-			ObjectFactory factory = new ObjectFactory();
-			GAREleveWriter writer = new GAREleveWriter(factory, version, page, maxNodesCount);
 			List<String> codes = new ArrayList<String>();
 			List<String> functionsCodes = new ArrayList<String>();
 			List<String> divsNGrps = new ArrayList<String>();
@@ -386,7 +379,7 @@ public class GAREleveBuilder implements GARTypeBuilder {
 							/* Control the code is valid indeed
 							 * (Since it has been observed teachers' Toutatice accounts referencing invalid codes (AAF meaning) ) 
 							 */
-							if (GARHelper.getInstance().isCodeValid(this.aafSource, ENTPersonSourceSI, this.territoryCode, GARHelper.INDEXATION_OBJECT_TYPE.MEF, value)) {
+							if (GARHelper.getInstance().isCodeValid(this.aafSource, ENTPersonSourceSI, this.territoryCode, GARHelper.INDEXATION_OBJECT_TYPE.MEF, value, this.preloadCodes)) {
 								GARPersonMEF pmef = factory.createGARPersonMEF();
 								pmef.setGARStructureUAI(ENTPersonStructRattach);
 								pmef.setGARMEFCode(value);
@@ -427,7 +420,7 @@ public class GAREleveBuilder implements GARTypeBuilder {
 							/* Control the code is valid indeed
 							 * (Since it has been observed teachers' Toutatice accounts referencing invalid codes (AAF meaning) ) 
 							 */
-							if (GARHelper.getInstance().isCodeValid(this.aafSource, ENTPersonSourceSI, this.territoryCode, GARHelper.INDEXATION_OBJECT_TYPE.Matiere, value)) {
+							if (GARHelper.getInstance().isCodeValid(this.aafSource, ENTPersonSourceSI, this.territoryCode, GARHelper.INDEXATION_OBJECT_TYPE.Matiere, value, this.preloadCodes)) {
 								GAREleveEnseignement eens = factory.createGAREleveEnseignement();
 								eens.setGARMatiereCode(value);
 								eens.setGARPersonIdentifiant(ENTPersonIdentifiant);
@@ -558,67 +551,12 @@ public class GAREleveBuilder implements GARTypeBuilder {
 		}
 
 	}
-	
-	private class GAREleveWriter {
-
-		private int nodeCount;
-		private final ObjectFactory factory;
-		private GARENTEleve container;
-		private final Marshaller marshaller;
-		private final int maxNodesCount;
-		private final String version;
-		private final int page;
-
-		protected GAREleveWriter(final ObjectFactory factory, final String version, final int page, final int maxNodesCount) throws JAXBException, SAXException {
-			this.factory = factory;
-			this.version = version;
-			this.page = page;
-			this.maxNodesCount = maxNodesCount;
-			nodeCount = 0;
-			container = factory.createGARENTEleve();
-			container.setVersion(version);
-			JAXBContext context = JAXBContext.newInstance(GARENTEleve.class);
-			marshaller = context.createMarshaller();
-			marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-			marshaller.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
-
-			// Install schema validation
-			SchemaFactory schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-			Schema schema = schemaFactory.newSchema(new StreamSource(xsdFile));
-			marshaller.setSchema(schema);
-		}
-
-		protected <T> GARENTEleve add(final T item) throws FileNotFoundException, JAXBException, SAXException {
-			if (item instanceof GAREleve) {
-				container.getGAREleve().add((GAREleve) item);
-			} else if (item instanceof GARPersonMEF) {
-				container.getGARPersonMEF().add((GARPersonMEF) item);
-			} else if (item instanceof GAREleveEnseignement) {
-				container.getGAREleveEnseignement().add((GAREleveEnseignement) item);
-			}
-
-			// Check the file size limit is reached
-			nodeCount++;
-			if (0 == (nodeCount % maxNodesCount)) {
-				marshal(nodeCount / maxNodesCount);
-			}
-
-			return container;
-		}
-
-		protected void flush() throws FileNotFoundException, JAXBException, SAXException {
-			marshal((nodeCount / maxNodesCount) + 1);
-		}
-
-		// Marshal the XML binding
-		private void marshal(final int increment) throws FileNotFoundException, JAXBException, SAXException {
-			String outputFileName = GARHelper.getInstance().getOutputFileName(output, page, increment);
-			JAXBElement<GARENTEleve> jaxbElt = factory.createGARENTEleve(container);
-			marshaller.marshal(jaxbElt, new FileOutputStream(outputFileName));
-			container = factory.createGARENTEleve();
-			container.setVersion(version);
-		}
 
+	// Streaming writer of the XML files (the container only carries the root attributes)
+	private GARStreamWriter<GARENTEleve> newWriter(final ObjectFactory factory) throws JAXBException, SAXException {
+		GARENTEleve container = factory.createGARENTEleve();
+		container.setVersion(version);
+		return new GARStreamWriter<>(factory.createGARENTEleve(container), xsdFile, output, page, maxNodesCount);
 	}
 
 }
@@ -17,7 +17,6 @@
 package fr.gouv.education.acrennes.alambic.jobs.load.gar.builder;
 
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -31,16 +30,9 @@ import java.util.regex.Pattern;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityTransaction;
-import javax.xml.XMLConstants;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.XMLGregorianCalendar;
-import javax.xml.transform.stream.StreamSource;
-import javax.xml.validation.Schema;
-import javax.xml.validation.SchemaFactory;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
@@ -86,6 +78,7 @@ public class GAREnseignantBuilder implements GARTypeBuilder {
 	private final List<Map<String, List<String>>> teachers;
 	private final List<String> memberStructuresList;
 	private final Source aafSource;
+	private final boolean preloadCodes;
 
 	public GAREnseignantBuilder(GARBuilderParameters parameters) {
 		this.page = parameters.getPage();
@@ -102,6 +95,7 @@ public class GAREnseignantBuilder implements GARTypeBuilder {
 		this.teachers = parameters.getResources().get("Entries").getEntries(); // Get the list of involved teachers
 		Source structuresSource = parameters.getResources().get("Structures"); // Get the list of involved structures
 		this.aafSource = parameters.getResources().get("AAF");
+		this.preloadCodes = parameters.isPreloadCodes();
 		this.memberStructuresList = new ArrayList<String>();
 		List<Map<String, List<String>>> structures = structuresSource.getEntries();
 		structures.forEach(structure -> { 
@@ -113,9 +107,8 @@ public class GAREnseignantBuilder implements GARTypeBuilder {
 
 	@Override
 	public void execute() throws AlambicException {
-		try {
-			ObjectFactory factory = new ObjectFactory();
-			GAREnseignantWriter writer = new GAREnseignantWriter(factory, version, page, maxNodesCount);
+		ObjectFactory factory = new ObjectFactory();
+		try (GARStreamWriter<GARENTEnseignant> writer = newWriter(factory)) {
 
 			// Iterates over teachers
 			for (int index = 0; index < this.teachers.size(); index++) {
@@ -137,7 +130,7 @@ public class GAREnseignantBuilder implements GARTypeBuilder {
 
 	}
 
-	private void handleTeacher(Map<String, List<String>> entity, ObjectFactory factory, GAREnseignantWriter writer)
+	private void handleTeacher(Map<String, List<String>> entity, ObjectFactory factory, GARStreamWriter<GARENTEnseignant> writer)
 			throws XPathExpressionException, FileNotFoundException, JAXBException, AlambicException {
 		List<String> attribute;
 		try {
@@ -197,7 +190,7 @@ public class GAREnseignantBuilder implements GARTypeBuilder {
 							 * (Since it has been observed teachers' Toutatice accounts referencing invalid codes (AAF meaning) )
 							 */
 							String code = GARHelper.getInstance().extractCodeGroup(value, 1);
-							if (GARHelper.getInstance().isCodeValid(this.aafSource, ENTPersonSourceSI, this.territoryCode, GARHelper.INDEXATION_OBJECT_TYPE.MEF, code)) {
+							if (GARHelper.getInstance().isCodeValid(this.aafSource, ENTPersonSourceSI, this.territoryCode, GARHelper.INDEXATION_OBJECT_TYPE.MEF, code, this.preloadCodes)) {
 								// register for persistence
 								if (!mapEnseignements.containsKey(uai)) {
 									mapEnseignements.put(uai, new ArrayList<>());
@@ -245,7 +238,7 @@ public class GAREnseignantBuilder implements GARTypeBuilder {
 							 * (Since it has been observed teachers' Toutatice accounts referencing invalid codes (AAF meaning) )
 							 */
 							String code = GARHelper.getInstance().extractCodeGroup(value, 2);
-							if (GARHelper.getInstance().isCodeValid(this.aafSource, ENTPersonSourceSI, this.territoryCode, GARHelper.INDEXATION_OBJECT_TYPE.Matiere, code)) {
+							if (GARHelper.getInstance().isCodeValid(this.aafSource, ENTPersonSourceSI, this.territoryCode, GARHelper.INDEXATION_OBJECT_TYPE.Matiere, code, this.preloadCodes)) {
 								// register for persistence
 								if (!mapEnseignements.containsKey(uai)) {
 									mapEnseignements.put(uai, new ArrayList<>());
@@ -288,7 +281,7 @@ public class GAREnseignantBuilder implements GARTypeBuilder {
 							 * (Since it has been observed teachers' Toutatice accounts referencing invalid codes (AAF meaning) )
 							 */
 							String code = GARHelper.getInstance().extractCodeGroup(value, 2);
-							if (GARHelper.getInstance().isCodeValid(this.aafSource, ENTPersonSourceSI, this.territoryCode, GARHelper.INDEXATION_OBJECT_TYPE.Matiere, code)) {
+							if (GARHelper.getInstance().isCodeValid(this.aafSource, ENTPersonSourceSI, this.territoryCode, GARHelper.INDEXATION_OBJECT_TYPE.Matiere, code, this.preloadCodes)) {
 								// register for persistence
 								if (!mapEnseignements.containsKey(uai)) {
 									mapEnseignements.put(uai, new ArrayList<>());
@@ -582,64 +575,11 @@ public class GAREnseignantBuilder implements GARTypeBuilder {
 		}
 	}
 
-	private class GAREnseignantWriter {
-
-		private int nodeCount;
-		private final ObjectFactory factory;
-		private GARENTEnseignant container;
-		private final Marshaller marshaller;
-		private final int maxNodesCount;
-		private final String version;
-		private final int page;
-
-		protected GAREnseignantWriter(final ObjectFactory factory, final String version, final int page, final int maxNodesCount) throws JAXBException, SAXException {
-			this.factory = factory;
-			this.version = version;
-			this.page = page;
-			this.maxNodesCount = maxNodesCount;
-			nodeCount = 0;
-			container = factory.createGARENTEnseignant();
-			container.setVersion(version);
-			JAXBContext context = JAXBContext.newInstance(GARENTEnseignant.class);
-			marshaller = context.createMarshaller();
-			marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-			marshaller.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
-
-			// Install schema validation
-			SchemaFactory schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-			Schema schema = schemaFactory.newSchema(new StreamSource(xsdFile));
-			marshaller.setSchema(schema);
-		}
-
-		protected <T> GARENTEnseignant add(final T item) throws FileNotFoundException, JAXBException {
-			if (item instanceof GAREnseignant) {
-				container.getGAREnseignant().add((GAREnseignant) item);
-			} else if (item instanceof GARPersonMEF) {
-				container.getGARPersonMEF().add((GARPersonMEF) item);
-			}
-
-			// Check the file limit size is reached
-			nodeCount++;
-			if (0 == (nodeCount % maxNodesCount)) {
-				marshal(nodeCount / maxNodesCount);
-			}
-
-			return container;
-		}
-
-		protected void flush() throws FileNotFoundException, JAXBException {
-			marshal((nodeCount / maxNodesCount) + 1);
-		}
-
-		// Marshal the XML binding
-		private void marshal(final int increment) throws FileNotFoundException, JAXBException {
-			String outputFileName = GARHelper.getInstance().getOutputFileName(output, page, increment);
-			JAXBElement<GARENTEnseignant> jaxbElt = factory.createGARENTEnseignant(container);
-			marshaller.marshal(jaxbElt, new FileOutputStream(outputFileName));
-			container = factory.createGARENTEnseignant();
-			container.setVersion(version);
-		}
-
+	// Streaming writer of the XML files (the container only carries the root attributes)
+	private GARStreamWriter<GARENTEnseignant> newWriter(final ObjectFactory factory) throws JAXBException, SAXException {
+		GARENTEnseignant container = factory.createGARENTEnseignant();
+		container.setVersion(version);
+		return new GARStreamWriter<>(factory.createGARENTEnseignant(container), xsdFile, output, page, maxNodesCount);
 	}
 
 }
@@ -17,7 +17,6 @@
 package fr.gouv.education.acrennes.alambic.jobs.load.gar.builder;
 
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -26,14 +25,7 @@ import java.util.Map;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityTransaction;
 import javax.persistence.Query;
-import javax.xml.XMLConstants;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
-import javax.xml.transform.stream.StreamSource;
-import javax.xml.validation.Schema;
-import javax.xml.validation.SchemaFactory;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
@@ -82,9 +74,8 @@ public class GAREtablissementBuilder implements GARTypeBuilder {
 
 	@Override
 	public void execute() throws AlambicException {
-		try {
-			ObjectFactory factory = new ObjectFactory();
-			GAREtablissementWriter writer = new GAREtablissementWriter(factory, version, page, maxNodesCount);
+		ObjectFactory factory = new ObjectFactory();
+		try (GARStreamWriter<GARENTEtab> writer = newWriter(factory)) {
 
 			// Iterates over structures
 			for (int index = 0; index < this.structures.size(); index++) {
@@ -281,66 +272,11 @@ public class GAREtablissementBuilder implements GARTypeBuilder {
 		return info;
 	}
 
-	private class GAREtablissementWriter {
-
-		private int nodeCount;
-		private final ObjectFactory factory;
-		private GARENTEtab container;
-		private final Marshaller marshaller;
-		private final int maxNodesCount;
-		private final String version;
-		private final int page;
-
-		protected GAREtablissementWriter(final ObjectFactory factory, final String version, final int page, final int maxNodesCount) throws JAXBException, SAXException {
-			this.factory = factory;
-			this.version = version;
-			this.page = page;
-			this.maxNodesCount = maxNodesCount;
-			nodeCount = 0;
-			container = factory.createGARENTEtab();
-			container.setVersion(version);
-			JAXBContext context = JAXBContext.newInstance(GARENTEtab.class);
-			marshaller = context.createMarshaller();
-			marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-			marshaller.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
-
-			// Install schema validation
-			SchemaFactory schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-			Schema schema = schemaFactory.newSchema(new StreamSource(xsdFile));
-			marshaller.setSchema(schema);
-		}
-
-		protected <T> GARENTEtab add(final T item) throws FileNotFoundException, JAXBException {
-			if (item instanceof GAREtab) {
-				container.getGAREtab().add((GAREtab) item);
-			} else if (item instanceof GARMEF) {
-				container.getGARMEF().add((GARMEF) item);
-			} else if (item instanceof GARMatiere) {
-				container.getGARMatiere().add((GARMatiere) item);
-			}
-
-			// Check the file limit size is reached
-			nodeCount++;
-			if (0 == (nodeCount % maxNodesCount)) {
-				marshal(nodeCount / maxNodesCount);
-			}
-
-			return container;
-		}
-
-		protected void flush() throws FileNotFoundException, JAXBException {
-			marshal((nodeCount / maxNodesCount) + 1);
-		}
-
-		// Marshal the XML binding
-		private void marshal(final int increment) throws FileNotFoundException, JAXBException {
-			String outputFileName = GARHelper.getInstance().getOutputFileName(output, page, increment);
-			JAXBElement<GARENTEtab> jaxbElt = factory.createGARENTEtab(container);
-			marshaller.marshal(jaxbElt, new FileOutputStream(outputFileName));
-			container = factory.createGARENTEtab();
-			container.setVersion(version);
-		}
-
+	// Streaming writer of the XML files (the container only carries the root attributes)
+	private GARStreamWriter<GARENTEtab> newWriter(final ObjectFactory factory) throws JAXBException, SAXException {
+		GARENTEtab container = factory.createGARENTEtab();
+		container.setVersion(version);
+		return new GARStreamWriter<>(factory.createGARENTEtab(container), xsdFile, output, page, maxNodesCount);
 	}
 
 }
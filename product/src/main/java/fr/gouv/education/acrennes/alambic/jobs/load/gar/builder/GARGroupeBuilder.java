@@ -17,7 +17,6 @@
 package fr.gouv.education.acrennes.alambic.jobs.load.gar.builder;
 
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -29,14 +28,7 @@ import java.util.stream.Collectors;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityTransaction;
 import javax.persistence.Query;
-import javax.xml.XMLConstants;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
-import javax.xml.transform.stream.StreamSource;
-import javax.xml.validation.Schema;
-import javax.xml.validation.SchemaFactory;
 
 import fr.gouv.education.acrennes.alambic.jobs.load.gar.persistence.EnseignementEntity;
 import fr.gouv.education.acrennes.alambic.jobs.load.gar.persistence.StaffEntity;
@@ -81,9 +73,8 @@ public class GARGroupeBuilder implements GARTypeBuilder {
 
 	@Override
 	public void execute() throws AlambicException {
-		try {
-			ObjectFactory factory = new ObjectFactory();
-			GARGroupWriter writer = new GARGroupWriter(factory, version, page, maxNodesCount);
+		ObjectFactory factory = new ObjectFactory();
+		try (GARStreamWriter<GARENTGroupe> writer = newWriter(factory)) {
 
 			// Iterates over structures
 			for (int index = 0; index < this.structures.size(); index++) {
@@ -404,68 +395,11 @@ public class GARGroupeBuilder implements GARTypeBuilder {
 
 	}
 
-	private class GARGroupWriter {
-
-		private int nodeCount;
-		private final ObjectFactory factory;
-		private GARENTGroupe container;
-		private final Marshaller marshaller;
-		private final int maxNodesCount;
-		private final String version;
-		private final int page;
-
-		protected GARGroupWriter(final ObjectFactory factory, final String version, final int page, final int maxNodesCount) throws JAXBException, SAXException {
-			this.factory = factory;
-			this.version = version;
-			this.page = page;
-			this.maxNodesCount = maxNodesCount;
-			nodeCount = 0;
-			container = factory.createGARENTGroupe();
-			container.setVersion(version);
-			JAXBContext context = JAXBContext.newInstance(GARENTGroupe.class);
-			marshaller = context.createMarshaller();
-			marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-			marshaller.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
-
-			// Install schema validation
-			SchemaFactory schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-			Schema schema = schemaFactory.newSchema(new StreamSource(xsdFile));
-			marshaller.setSchema(schema);
-		}
-	
-		protected <T> GARENTGroupe add(final T item) throws FileNotFoundException, JAXBException {
-			if (item instanceof GARGroupe) {
-				container.getGARGroupe().add((GARGroupe) item);
-			} else if (item instanceof GARPersonGroupe) {
-				container.getGARPersonGroupe().add((GARPersonGroupe) item);
-			} else if (item instanceof GAREnsGroupeMatiere) {
-				container.getGAREnsGroupeMatiere().add((GAREnsGroupeMatiere) item);
-			} else if (item instanceof GAREnsClasseMatiere) {
-				container.getGAREnsClasseMatiere().add((GAREnsClasseMatiere) item);
-			}
-
-			// Check the file limit size is reached
-			nodeCount++;
-			if (0 == (nodeCount % maxNodesCount)) {
-				marshal(nodeCount / maxNodesCount);
-			}
-
-			return container;
-		}
-
-		protected void flush() throws FileNotFoundException, JAXBException {
-			marshal((nodeCount / maxNodesCount) + 1);
-		}
-
-		// Marshal the XML binding
-		private void marshal(final int increment) throws FileNotFoundException, JAXBException {
-			String outputFileName = GARHelper.getInstance().getOutputFileName(output, page, increment);
-			JAXBElement<GARENTGroupe> jaxbElt = factory.createGARENTGroupe(container);
-			marshaller.marshal(jaxbElt, new FileOutputStream(outputFileName));
-			container = factory.createGARENTGroupe();
-			container.setVersion(version);
-		}
-
+	// Streaming writer of the XML files (the container only carries the root attributes)
+	private GARStreamWriter<GARENTGroupe> newWriter(final ObjectFactory factory) throws JAXBException, SAXException {
+		GARENTGroupe container = factory.createGARENTGroupe();
+		container.setVersion(version);
+		return new GARStreamWriter<>(factory.createGARENTGroupe(container), xsdFile, output, page, maxNodesCount);
 	}
 
 }
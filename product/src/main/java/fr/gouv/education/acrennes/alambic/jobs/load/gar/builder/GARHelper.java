@@ -16,19 +16,23 @@
  ******************************************************************************/
 package fr.gouv.education.acrennes.alambic.jobs.load.gar.builder;
 
-import java.text.DateFormat;
 import java.text.Normalizer;
 import java.text.Normalizer.Form;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 import fr.gouv.education.acrennes.alambic.exception.AlambicException;
@@ -37,17 +41,25 @@ import fr.gouv.education.acrennes.alambic.jobs.extract.sources.Source;
 public class GARHelper {
 
 	private static final Log log = LogFactory.getLog(GARHelper.class);
+	private static final String PRELOAD_SCROLL = "1m";
+	private static final int PRELOAD_PAGE_SIZE = 1000;
+	/* Codes whose analyzed form is a single token (ASCII letters and digits only) */
+	private static final Pattern PRELOADABLE_CODE = Pattern.compile("[0-9A-Za-z]+");
+	private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^0-9A-Za-z]+");
+	private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
 	private static GARHelper instance;
-	private DateFormat dateFormatter;
 	private Map<String, String> cacheSourceSI;
+	private Map<String, Boolean> cacheCodeValidity;
+	private Set<String> preloadedAliases;
 	
 	// Singleton
 	private GARHelper() {
-		this.dateFormatter = new SimpleDateFormat("yyyyMMdd_HHmmss");
-		this.cacheSourceSI = new HashMap<String, String>();
+		this.cacheSourceSI = new ConcurrentHashMap<String, String>();
+		this.cacheCodeValidity = new ConcurrentHashMap<String, Boolean>();
+		this.preloadedAliases = ConcurrentHashMap.newKeySet();
 	}
 	
-	public static GARHelper getInstance() {
+	public static synchronized GARHelper getInstance() {
 		if (null == instance) {
 			instance = new GARHelper();
 		}
@@ -121,7 +133,7 @@ public class GARHelper {
 	}
 
 	public String getOutputFileName(final String fileTemplate, final int page, final int increment) {
-		final String now = this.dateFormatter.format(new Date());
+		final String now = LocalDateTime.now().format(DATE_FORMATTER);
 		return String.format(fileTemplate, now, page, increment);
 	}
 
@@ -153,20 +165,62 @@ public class GARHelper {
 	}
 
 	public boolean isCodeValid(final Source dataSource, final String sourceSI, final String territoryCode, final INDEXATION_OBJECT_TYPE objectType, final String code) throws AlambicException {
-		boolean isValid = false;
+		return isCodeValid(dataSource, sourceSI, territoryCode, objectType, code, false);
+	}
+
+	/**
+	 * Contrôler qu'un code (MEF, matière...) est bien référencé par l'index AAF de la nomenclature.
+	 * 
+	 * Le résultat est conservé pendant toute l'exécution (clé : alias d'index + code) de sorte que chaque code
+	 * distinct n'est interrogé qu'une seule fois, quels que soient le nombre d'entités et de pages qui le référencent.
+	 * 
+	 * @param preload si vrai, l'ensemble des identifiants de l'index est chargé (par scroll) lors du premier contrôle
+	 * portant sur cet index. Seuls les codes que la requête unitaire accepterait à coup sûr (identifiant unique, dont aucun
+	 * autre identifiant ne contient le terme une fois analysé) sont validés par le chargement, les autres restent contrôlés
+	 * par une requête unitaire.
+	 */
+	public boolean isCodeValid(final Source dataSource, final String sourceSI, final String territoryCode, final INDEXATION_OBJECT_TYPE objectType, final String code, final boolean preload) throws AlambicException {
+		String alias = this.getIndexationAlias(sourceSI, territoryCode, objectType);
+		if (preload && this.preloadedAliases.add(alias)) {
+			preloadCodes(dataSource, alias);
+		}
+
+		String key = alias.concat("|").concat(code);
+		Boolean isValid = this.cacheCodeValidity.get(key);
+		if (null == isValid) {
+			isValid = queryCodeValidity(dataSource, alias, code);
+			if (null != isValid) {
+				this.cacheCodeValidity.putIfAbsent(key, isValid);
+			} else {
+				// no answer from the index (transient failure) : not cached so that the code is controlled again later
+				isValid = false;
+			}
+		}
+
+		return isValid;
+	}
+
+	/**
+	 * Vider le cache des contrôles de codes (à appeler en fin d'exécution).
+	 */
+	public void clearCodeValidityCache() {
+		this.cacheCodeValidity.clear();
+		this.preloadedAliases.clear();
+	}
+
+	private Boolean queryCodeValidity(final Source dataSource, final String alias, final String code) throws AlambicException {
+		Boolean isValid = null;
 		
 		try {
 			// query AAF's index
-			String query = String.format("{\"api\":\"/%s/_search\",\"parameters\":\"q=identifiant:%s\"}", this.getIndexationAlias(sourceSI, territoryCode, objectType), code);
+			String query = String.format("{\"api\":\"/%s/_search\",\"parameters\":\"q=identifiant:%s\"}", alias, code);
 			List<Map<String, List<String>>> resultSet = dataSource.query(query);
 			
 			// perform controls
 			if (CollectionUtils.isNotEmpty(resultSet)) {
 				Map<String, List<String>> item = resultSet.get(0); // a single item is expected
 				JSONObject jsonResultSet = new JSONObject(item.get("item").get(0));
-				if (1 == jsonResultSet.getJSONObject("hits").getInt("total")) {
-					isValid = true;
-				}
+				isValid = (1 == jsonResultSet.getJSONObject("hits").getInt("total"));
 			}
 		} catch (Exception e) {
 			throw new AlambicException(e.getMessage());
@@ -175,6 +229,66 @@ public class GARHelper {
 		return isValid;
 	}
 
+	private void preloadCodes(final Source dataSource, final String alias) {
+		Map<String, Integer> occurrences = new HashMap<>();
+		// count of identifiants per term, the terms being over-approximated (any ASCII letters and digits sequence, lower-cased)
+		Map<String, Integer> termOccurrences = new HashMap<>();
+		String scrollId = null;
+		
+		try {
+			String query = String.format("{\"api\":\"/%s/_search\",\"parameters\":\"scroll=%s&size=%d&_source=identifiant\"}", alias, PRELOAD_SCROLL, PRELOAD_PAGE_SIZE);
+			while (null != query) {
+				List<Map<String, List<String>>> resultSet = dataSource.query(query);
+				query = null;
+				if (CollectionUtils.isNotEmpty(resultSet)) {
+					JSONObject jsonResultSet = new JSONObject(resultSet.get(0).get("item").get(0));
+					JSONArray hits = jsonResultSet.getJSONObject("hits").getJSONArray("hits");
+					for (int i = 0; i < hits.length(); i++) {
+						JSONObject source = hits.getJSONObject(i).optJSONObject("_source");
+						if (null != source && source.has("identifiant")) {
+							String identifiant = source.get("identifiant").toString();
+							occurrences.merge(identifiant, 1, Integer::sum);
+							Set<String> terms = new HashSet<>();
+							for (String term : TOKEN_SEPARATOR.split(identifiant)) {
+								if (!term.isEmpty() && terms.add(term.toLowerCase())) {
+									termOccurrences.merge(term.toLowerCase(), 1, Integer::sum);
+								}
+							}
+						}
+					}
+					if (jsonResultSet.has("_scroll_id")) {
+						scrollId = jsonResultSet.getString("_scroll_id");
+						if (0 < hits.length()) {
+							query = String.format("{\"api\":\"/_search/scroll\",\"parameters\":\"scroll=%s&scroll_id=%s\"}", PRELOAD_SCROLL, scrollId);
+						}
+					}
+				}
+			}
+		} catch (Exception e) {
+			// a partial preload can't tell whether a code is referenced once : every code is left to the unitary control
+			occurrences.clear();
+			log.warn("Failed to preload the codes from the index '" + alias + "', error : " + e.getMessage());
+		} finally {
+			// release the search context straight away rather than waiting for its expiry
+			if (null != scrollId) {
+				try {
+					dataSource.query(String.format("{\"api\":\"/_search/scroll\",\"method\":\"DELETE\",\"payload\":{\"scroll_id\":\"%s\"}}", scrollId));
+				} catch (Exception e) {
+					log.warn("Failed to release the scroll context of the index '" + alias + "', error : " + e.getMessage());
+				}
+			}
+		}
+
+		// The unitary control is an analyzed query ('q=identifiant:<code>'), which must match a single document :
+		// only the codes referenced once, whose single term is not found in any other identifiant, are known to be valid
+		occurrences.forEach((code, count) -> {
+			if (1 == count && PRELOADABLE_CODE.matcher(code).matches() && 1 == termOccurrences.getOrDefault(code.toLowerCase(), 0)) {
+				this.cacheCodeValidity.putIfAbsent(alias.concat("|").concat(code), Boolean.TRUE);
+			}
+		});
+		log.debug("Preloaded " + occurrences.size() + " codes from the index '" + alias + "'");
+	}
+
 	public String getIndexationAlias(String sourceSI, String territoryCode, INDEXATION_OBJECT_TYPE objectType) {
 		// Build the cache entry key
 		String key = Normalizer.normalize(sourceSI.concat(objectType.toString()).concat(territoryCode), Form.NFD).replaceAll("[^\\p{ASCII}]", "")
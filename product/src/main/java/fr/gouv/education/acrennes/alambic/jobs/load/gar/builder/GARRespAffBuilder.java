@@ -17,21 +17,13 @@
 package fr.gouv.education.acrennes.alambic.jobs.load.gar.builder;
 
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.xml.XMLConstants;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
-import javax.xml.transform.stream.StreamSource;
-import javax.xml.validation.Schema;
-import javax.xml.validation.SchemaFactory;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
@@ -92,10 +84,9 @@ public class GARRespAffBuilder implements GARTypeBuilder {
 
 	@Override
 	public void execute() {
-		try {
+		ObjectFactory factory = new ObjectFactory();
+		try (GARStreamWriter<GARENTRespAff> writer = newWriter(factory)) {
 			List<String> attribute;			
-			ObjectFactory factory = new ObjectFactory();
-			GARRespAffWriter writer = new GARRespAffWriter(factory, version, page, maxNodesCount);
 
 			for (int index = 0; index < this.responsables.size(); index++) {
 				// activity monitoring
@@ -233,62 +224,11 @@ public class GARRespAffBuilder implements GARTypeBuilder {
 
 	}
 
-	private class GARRespAffWriter {
-
-		private int nodeCount;
-		private final ObjectFactory factory;
-		private GARENTRespAff container;
-		private final Marshaller marshaller;
-		private final int maxNodesCount;
-		private final String version;
-		private final int page;
-
-		protected GARRespAffWriter(final ObjectFactory factory, final String version, final int page, final int maxNodesCount) throws JAXBException, SAXException {
-			this.factory = factory;
-			this.version = version;
-			this.page = page;
-			this.maxNodesCount = maxNodesCount;
-			nodeCount = 0;
-			container = factory.createGARENTRespAff();
-			container.setVersion(version);
-			JAXBContext context = JAXBContext.newInstance(GARENTRespAff.class);
-			marshaller = context.createMarshaller();
-			marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-			marshaller.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
-
-			// Install schema validation
-			SchemaFactory schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-			Schema schema = schemaFactory.newSchema(new StreamSource(xsdFile));
-			marshaller.setSchema(schema);
-		}
-
-		protected <T> GARENTRespAff add(final T item) throws FileNotFoundException, JAXBException {
-			if (item instanceof GARRespAff) {
-				container.getGARRespAff().add((GARRespAff) item);
-			}
-
-			// Check the file limit size is reached
-			nodeCount++;
-			if (0 == (nodeCount % maxNodesCount)) {
-				marshal(nodeCount / maxNodesCount);
-			}
-
-			return container;
-		}
-
-		protected void flush() throws FileNotFoundException, JAXBException {
-			marshal((nodeCount / maxNodesCount) + 1);
-		}
-
-		// Marshal the XML binding
-		private void marshal(final int increment) throws FileNotFoundException, JAXBException {
-			String outputFileName = GARHelper.getInstance().getOutputFileName(output, page, increment);
-			JAXBElement<GARENTRespAff> jaxbElt = factory.createGARENTRespAff(container);
-			marshaller.marshal(jaxbElt, new FileOutputStream(outputFileName));
-			container = factory.createGARENTRespAff();
-			container.setVersion(version);
-		}
-
+	// Streaming writer of the XML files (the container only carries the root attributes)
+	private GARStreamWriter<GARENTRespAff> newWriter(final ObjectFactory factory) throws JAXBException, SAXException {
+		GARENTRespAff container = factory.createGARENTRespAff();
+		container.setVersion(version);
+		return new GARStreamWriter<>(factory.createGARENTRespAff(container), xsdFile, output, page, maxNodesCount);
 	}
 
 }
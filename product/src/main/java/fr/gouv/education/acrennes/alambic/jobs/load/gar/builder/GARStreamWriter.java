@@ -0,0 +1,485 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.jobs.load.gar.builder;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.XMLConstants;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.MarshalException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlType;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.xml.sax.SAXException;
+
+/**
+ * Écriture en flux (StAX) des fichiers XML GAR.
+ * 
+ * Chaque élément ajouté est immédiatement sérialisé : les éléments du premier type de la séquence du conteneur
+ * (GAREleve, GAREnseignant...) directement dans le fichier produit, ceux des types suivants dans des fichiers
+ * temporaires recopiés, dans l'ordre du schéma, à la clôture du fichier. Un nouveau fichier est commencé tous les
+ * <code>maxNodesCount</code> éléments.
+ * 
+ * La clôture et la validation (schéma XSD) d'un fichier sont réalisées en tâche de fond, pendant la production des
+ * fichiers suivants : au plus <code>parallelism</code> fichiers sont en cours de clôture simultanément. Les erreurs de
+ * validation sont remontées par {@link #flush()} et les fichiers invalides supprimés. La fermeture de l'écrivain
+ * abandonne les clôtures non commencées et attend la fin de celles en cours.
+ * 
+ * @param <T> le type du conteneur (GARENTEleve, GARENTEnseignant...)
+ */
+public class GARStreamWriter<T> implements AutoCloseable {
+
+	private static final Log log = LogFactory.getLog(GARStreamWriter.class);
+
+	public static final int DEFAULT_PARALLELISM = 2;
+	private static final String ENCODING = "UTF-8";
+	private static final String DEFAULT_ANNOTATION_VALUE = "##default";
+	private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+	private static final Map<Class<?>, JAXBContext> CONTEXTS = new ConcurrentHashMap<>();
+	private static final Map<String, Schema> SCHEMAS = new ConcurrentHashMap<>();
+	private static final long CLOSE_TIMEOUT = 60;
+	private static final AtomicInteger threadCount = new AtomicInteger();
+
+	private final QName rootName;
+	private final Map<String, String> rootAttributes = new LinkedHashMap<>();
+	/* the element names of the items, in the order of the container sequence */
+	private final Map<Class<?>, QName> elementNames = new LinkedHashMap<>();
+	private final QName streamedElementName;
+	private final Marshaller marshaller;
+	private final Schema schema;
+	private final String output;
+	private final int page;
+	private final int maxNodesCount;
+	private final Semaphore pendingFiles;
+	private final ExecutorService executor;
+	private final List<PendingFile> tasks = new ArrayList<>();
+	private int nodeCount;
+	private OutputFile current;
+
+	public GARStreamWriter(final JAXBElement<T> root, final String xsdFile, final String output, final int page, final int maxNodesCount) throws JAXBException, SAXException {
+		this(root, xsdFile, output, page, maxNodesCount, DEFAULT_PARALLELISM);
+	}
+
+	public GARStreamWriter(final JAXBElement<T> root, final String xsdFile, final String output, final int page, final int maxNodesCount, final int parallelism) throws JAXBException, SAXException {
+		this.rootName = root.getName();
+		this.output = output;
+		this.page = page;
+		this.maxNodesCount = maxNodesCount;
+		this.pendingFiles = new Semaphore(Math.max(1, parallelism));
+		this.executor = Executors.newFixedThreadPool(Math.max(1, parallelism), runnable -> {
+			final Thread thread = new Thread(runnable, "gar-writer-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.nodeCount = 0;
+		this.current = null;
+
+		final Class<T> containerClass = root.getDeclaredType();
+		try {
+			final XmlType xmlType = containerClass.getAnnotation(XmlType.class);
+			for (final String property : xmlType.propOrder()) {
+				final Field field = containerClass.getDeclaredField(property);
+				final XmlElement xmlElement = field.getAnnotation(XmlElement.class);
+				final Class<?> itemClass = (Class<?>) ((ParameterizedType) field.getGenericType()).getActualTypeArguments()[0];
+				elementNames.put(itemClass, new QName(rootName.getNamespaceURI(), xmlElement.name()));
+			}
+			for (final Field field : containerClass.getDeclaredFields()) {
+				final XmlAttribute xmlAttribute = field.getAnnotation(XmlAttribute.class);
+				if (null != xmlAttribute) {
+					field.setAccessible(true);
+					final Object value = field.get(root.getValue());
+					if (null != value) {
+						rootAttributes.put(DEFAULT_ANNOTATION_VALUE.equals(xmlAttribute.name()) ? field.getName() : xmlAttribute.name(), value.toString());
+					}
+				}
+			}
+		} catch (NoSuchFieldException | IllegalAccessException | RuntimeException e) {
+			executor.shutdown();
+			throw new JAXBException("Not supported GAR container type '" + containerClass.getName() + "'", e);
+		}
+		this.streamedElementName = elementNames.values().iterator().next();
+
+		try {
+			JAXBContext context = CONTEXTS.get(containerClass);
+			if (null == context) {
+				context = JAXBContext.newInstance(containerClass);
+				CONTEXTS.put(containerClass, context);
+			}
+			this.marshaller = context.createMarshaller();
+			this.marshaller.setProperty(Marshaller.JAXB_ENCODING, ENCODING);
+			this.marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+			this.schema = getSchema(xsdFile);
+		} catch (JAXBException | SAXException | RuntimeException e) {
+			executor.shutdown();
+			throw e;
+		}
+	}
+
+	private static Schema getSchema(final String xsdFile) throws SAXException {
+		Schema schema = SCHEMAS.get(xsdFile);
+		if (null == schema) {
+			final SchemaFactory schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+			schema = schemaFactory.newSchema(new StreamSource(xsdFile));
+			SCHEMAS.put(xsdFile, schema);
+		}
+		return schema;
+	}
+
+	/**
+	 * Ajout d'un élément au fichier courant.
+	 * 
+	 * @param item : l'élément (d'un des types de la séquence du conteneur)
+	 * @throws FileNotFoundException si le fichier produit ne peut être créé
+	 * @throws JAXBException si l'élément ne peut être sérialisé ou si la clôture d'un fichier précédent a échoué
+	 */
+	public void add(final Object item) throws FileNotFoundException, JAXBException {
+		final QName elementName = getElementName(item);
+		if (null == current) {
+			checkPendingFiles();
+			current = new OutputFile((nodeCount / maxNodesCount) + 1);
+		}
+		current.add(elementName, item);
+
+		// Check the file size limit is reached
+		nodeCount++;
+		if (0 == (nodeCount % maxNodesCount)) {
+			complete();
+		}
+	}
+
+	/**
+	 * Clôture du fichier courant (produit, même vide, comme dernier fichier de la série) et attente de la clôture et de
+	 * la validation de tous les fichiers.
+	 * 
+	 * @throws FileNotFoundException si le fichier produit ne peut être créé
+	 * @throws JAXBException si la clôture ou la validation d'un fichier a échoué
+	 */
+	public void flush() throws FileNotFoundException, JAXBException {
+		if (null == current) {
+			current = new OutputFile((nodeCount / maxNodesCount) + 1);
+		}
+		complete();
+
+		JAXBException error = null;
+		for (final PendingFile task : tasks) {
+			try {
+				log.debug("GAR file '" + task.future.get() + "' is complete");
+			} catch (final ExecutionException e) {
+				if (null == error) {
+					error = new MarshalException(e.getCause());
+				}
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				error = new MarshalException(e);
+				break;
+			}
+		}
+		tasks.clear();
+		if (null != error) {
+			throw error;
+		}
+	}
+
+	/**
+	 * Abandon du fichier courant s'il n'a pas été clôturé et des fichiers dont la clôture n'a pas commencé (fichiers
+	 * produits et fichiers temporaires supprimés), puis attente de la fin des clôtures en cours.
+	 */
+	@Override
+	public void close() {
+		if (null != current) {
+			log.warn("Discarding the incomplete GAR file '" + current.file + "'");
+			current.discard();
+			current = null;
+		}
+		for (final PendingFile task : tasks) {
+			if (task.claim()) {
+				log.warn("Discarding the incomplete GAR file '" + task.file.file + "'");
+				task.future.cancel(false);
+				task.file.discard();
+			}
+		}
+		tasks.clear();
+
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(CLOSE_TIMEOUT, TimeUnit.SECONDS)) {
+				log.error("The GAR file completions did not end within " + CLOSE_TIMEOUT + " seconds");
+				executor.shutdownNow();
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			executor.shutdownNow();
+		}
+	}
+
+	private QName getElementName(final Object item) throws JAXBException {
+		QName elementName = elementNames.get(item.getClass());
+		if (null == elementName) {
+			for (final Map.Entry<Class<?>, QName> entry : elementNames.entrySet()) {
+				if (entry.getKey().isInstance(item)) {
+					elementName = entry.getValue();
+					break;
+				}
+			}
+			if (null == elementName) {
+				throw new JAXBException("Not supported GAR element type '" + item.getClass().getName() + "' for the container '" + rootName.getLocalPart() + "'");
+			}
+		}
+		return elementName;
+	}
+
+	/* hand the current file over to a background completion, waiting while too many files are pending */
+	private void complete() throws JAXBException {
+		final OutputFile file = current;
+		current = null;
+		try {
+			pendingFiles.acquire();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			file.discard();
+			throw new MarshalException(e);
+		}
+		final PendingFile task = new PendingFile(file);
+		try {
+			task.future = executor.submit(() -> {
+				try {
+					if (!task.claim()) {
+						// the writer was closed before the completion started
+						return null;
+					}
+					try {
+						file.complete();
+						schema.newValidator().validate(new StreamSource(file.file));
+					} catch (final Exception e) {
+						file.discard();
+						throw e;
+					}
+					return file.file.getPath();
+				} finally {
+					pendingFiles.release();
+				}
+			});
+			tasks.add(task);
+		} catch (final RuntimeException e) {
+			pendingFiles.release();
+			file.discard();
+			throw new MarshalException(e);
+		}
+	}
+
+	/* fail fast when a previous file could not be completed */
+	private void checkPendingFiles() throws JAXBException {
+		for (final Iterator<PendingFile> it = tasks.iterator(); it.hasNext();) {
+			final Future<String> task = it.next().future;
+			if (task.isDone()) {
+				try {
+					task.get();
+					it.remove();
+				} catch (final ExecutionException e) {
+					throw new MarshalException(e.getCause());
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new MarshalException(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fichier remis à la clôture en tâche de fond : la clôture et la fermeture de l'écrivain se le disputent, seul le
+	 * premier à le réclamer le prend en charge.
+	 */
+	private class PendingFile {
+
+		private final OutputFile file;
+		private final AtomicBoolean claimed = new AtomicBoolean();
+		private Future<String> future;
+
+		PendingFile(final OutputFile file) {
+			this.file = file;
+		}
+
+		boolean claim() {
+			return claimed.compareAndSet(false, true);
+		}
+	}
+
+	/**
+	 * Fichier produit : les éléments diffusés au fil de l'eau et, par type d'élément suivant, un fichier temporaire.
+	 */
+	private class OutputFile {
+
+		private final File file;
+		private final OutputStream out;
+		private final XMLStreamWriter writer;
+		private final Map<QName, Fragments> fragments = new LinkedHashMap<>();
+
+		OutputFile(final int increment) throws FileNotFoundException, JAXBException {
+			file = new File(GARHelper.getInstance().getOutputFileName(output, page, increment));
+			out = new BufferedOutputStream(new FileOutputStream(file));
+			try {
+				writer = OUTPUT_FACTORY.createXMLStreamWriter(out, ENCODING);
+				writer.writeStartDocument(ENCODING, "1.0");
+				writer.writeStartElement(XMLConstants.DEFAULT_NS_PREFIX, rootName.getLocalPart(), rootName.getNamespaceURI());
+				writer.writeDefaultNamespace(rootName.getNamespaceURI());
+				for (final Map.Entry<String, String> attribute : rootAttributes.entrySet()) {
+					writer.writeAttribute(attribute.getKey(), attribute.getValue());
+				}
+				// keep the later element types in the order of the container sequence
+				for (final QName elementName : elementNames.values()) {
+					if (!streamedElementName.equals(elementName)) {
+						fragments.put(elementName, null);
+					}
+				}
+			} catch (final XMLStreamException e) {
+				discard();
+				throw new MarshalException(e);
+			}
+		}
+
+		void add(final QName elementName, final Object item) throws JAXBException {
+			try {
+				if (streamedElementName.equals(elementName)) {
+					marshal(elementName, item, writer);
+				} else {
+					Fragments itemFragments = fragments.get(elementName);
+					if (null == itemFragments) {
+						itemFragments = new Fragments(file.getAbsoluteFile().getParentFile());
+						fragments.put(elementName, itemFragments);
+					}
+					marshal(elementName, item, itemFragments.writer);
+				}
+			} catch (final IOException | XMLStreamException e) {
+				throw new MarshalException(e);
+			}
+		}
+
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		private void marshal(final QName elementName, final Object item, final XMLStreamWriter target) throws JAXBException {
+			marshaller.marshal(new JAXBElement(elementName, item.getClass(), item), target);
+		}
+
+		void complete() throws IOException, XMLStreamException {
+			try {
+				// close the root start tag before appending the fragments
+				writer.writeCharacters("");
+				writer.flush();
+				for (final Fragments itemFragments : fragments.values()) {
+					if (null != itemFragments) {
+						itemFragments.close();
+						Files.copy(itemFragments.file.toPath(), out);
+					}
+				}
+				writer.writeEndElement();
+				writer.writeEndDocument();
+				writer.flush();
+				writer.close();
+			} finally {
+				release();
+			}
+		}
+
+		void discard() {
+			release();
+			if (!file.delete()) {
+				log.debug("Failed to delete the file '" + file + "'");
+			}
+		}
+
+		private void release() {
+			for (final Fragments itemFragments : fragments.values()) {
+				if (null != itemFragments) {
+					itemFragments.delete();
+				}
+			}
+			try {
+				out.close();
+			} catch (final IOException e) {
+				log.error("Failed to close the GAR file '" + file + "', error: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Fichier temporaire des éléments d'un même type.
+	 */
+	private static class Fragments {
+
+		private final File file;
+		private final OutputStream out;
+		private final XMLStreamWriter writer;
+
+		Fragments(final File directory) throws IOException, XMLStreamException {
+			file = File.createTempFile("gar-", ".xml", directory);
+			out = new BufferedOutputStream(new FileOutputStream(file));
+			writer = OUTPUT_FACTORY.createXMLStreamWriter(out, ENCODING);
+		}
+
+		void close() throws IOException, XMLStreamException {
+			writer.flush();
+			writer.close();
+			out.close();
+		}
+
+		void delete() {
+			try {
+				out.close();
+			} catch (final IOException e) {
+				log.debug("Failed to close the temporary file '" + file + "', error: " + e.getMessage());
+			}
+			if (!file.delete()) {
+				log.debug("Failed to delete the temporary file '" + file + "'");
+			}
+		}
+	}
+
+}
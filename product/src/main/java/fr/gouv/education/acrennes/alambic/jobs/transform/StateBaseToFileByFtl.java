@@ -29,10 +29,9 @@ import java.util.Map;
 
 import javax.xml.parsers.ParserConfigurationException;
 
-import fr.gouv.education.acrennes.alambic.Constants;
 import fr.gouv.education.acrennes.alambic.exception.AlambicException;
-import fr.gouv.education.acrennes.alambic.freemarker.AlambicObjectWrapper;
 import fr.gouv.education.acrennes.alambic.freemarker.FMFunctions;
+import fr.gouv.education.acrennes.alambic.freemarker.TemplateCache;
 import fr.gouv.education.acrennes.alambic.jobs.CallableContext;
 import fr.gouv.education.acrennes.alambic.jobs.load.AbstractDestination;
 import fr.gouv.education.acrennes.alambic.monitoring.ActivityMBean;
@@ -80,9 +79,16 @@ public class StateBaseToFileByFtl extends AbstractDestination {
 			outputEncoding = Charset.defaultCharset().toString();
 		}
 
+		// Initialization of FreeMarker (configuration shared by the destinations using the same templates and settings)
+		try {
+			cfg = TemplateCache.getConfiguration(tplDir, outputEncoding, classicMode);
+		} catch (final IOException e) {
+			throw new AlambicException(e);
+		}
+
 		// Add wrapping of the Activity traffic light enumeration so that it can be accessed in template
 		TemplateHashModel activityEnums;
-		final BeansWrapper dataloaderObjectWrapper = new AlambicObjectWrapper();
+		final BeansWrapper dataloaderObjectWrapper = (BeansWrapper) cfg.getObjectWrapper();
 		final TemplateHashModel enumModels = dataloaderObjectWrapper.getEnumModels();
 		try {
 			activityEnums = (TemplateHashModel) enumModels.get("fr.gouv.education.acrennes.alambic.monitoring.ActivityTrafficLight");
@@ -121,17 +127,10 @@ public class StateBaseToFileByFtl extends AbstractDestination {
 			if (xmlFiles != null) {
 				for (final Element xmlFile : xmlFiles) {
 					if (StringUtils.isNotBlank(xmlFile.getText())) {
-						root.put(xmlFile.getAttributeValue("name"), freemarker.ext.dom.NodeModel.parse(new File(context.resolvePath(xmlFile.getText())), false, true));
+						root.put(xmlFile.getAttributeValue("name"), TemplateCache.getXmlFileModel(new File(context.resolvePath(xmlFile.getText())), false, true));
 					}
 				}
 			}
-
-			// Initialization of FreeMarker
-			cfg = new Configuration(Constants.FREEMARKER_VERSION);
-			cfg.setDirectoryForTemplateLoading(new File(tplDir));
-			cfg.setObjectWrapper(dataloaderObjectWrapper);
-			cfg.setOutputEncoding(outputEncoding);
-			cfg.setClassicCompatible(classicMode);
 		} catch (SAXException | IOException | ParserConfigurationException | TemplateModelException e) {
 			throw new AlambicException(e);
 		}
@@ -26,10 +26,9 @@ import java.util.Map;
 
 import javax.xml.parsers.ParserConfigurationException;
 
-import fr.gouv.education.acrennes.alambic.Constants;
 import fr.gouv.education.acrennes.alambic.exception.AlambicException;
-import fr.gouv.education.acrennes.alambic.freemarker.AlambicObjectWrapper;
 import fr.gouv.education.acrennes.alambic.freemarker.FMFunctions;
+import fr.gouv.education.acrennes.alambic.freemarker.TemplateCache;
 import fr.gouv.education.acrennes.alambic.jobs.CallableContext;
 import fr.gouv.education.acrennes.alambic.jobs.load.AbstractDestination;
 import fr.gouv.education.acrennes.alambic.monitoring.ActivityMBean;
@@ -71,9 +70,16 @@ public class StateBaseToStringByFtl extends AbstractDestination {
 			outputEncoding = Charset.defaultCharset().toString();
 		}
 
+		// Initialization of FreeMarker (configuration shared by the destinations using the same templates and settings)
+		try {
+			cfg = TemplateCache.getConfiguration(tplDir, outputEncoding, false);
+		} catch (final IOException e) {
+			throw new AlambicException(e);
+		}
+
 		// Add wrapping of the Activity traffic light enumeration so that it can be accessed in template
 		TemplateHashModel activityEnums;
-		BeansWrapper aow = new AlambicObjectWrapper();
+		BeansWrapper aow = (BeansWrapper) cfg.getObjectWrapper();
 		TemplateHashModel enumModels = aow.getEnumModels();
 		try {
 			activityEnums = (TemplateHashModel) enumModels.get("fr.gouv.education.acrennes.alambic.monitoring.ActivityTrafficLight");
@@ -111,15 +117,9 @@ public class StateBaseToStringByFtl extends AbstractDestination {
 			final List<Element> xmlFiles = job.getChildren("xmlfile");
 			if (xmlFiles != null) {
 				for (Element xmlFile : xmlFiles) {
-					root.put(xmlFile.getAttributeValue("name"), freemarker.ext.dom.NodeModel.parse(new File(context.resolvePath(xmlFile.getText()))));
+					root.put(xmlFile.getAttributeValue("name"), TemplateCache.getXmlFileModel(new File(context.resolvePath(xmlFile.getText())), true, true));
 				}
 			}
-			
-			// Initialization of FreeMarker
-			cfg = new Configuration(Constants.FREEMARKER_VERSION);
-			cfg.setDirectoryForTemplateLoading(new File(tplDir));
-			cfg.setObjectWrapper(aow);
-			cfg.setOutputEncoding(outputEncoding);
 		} catch (SAXException | IOException | ParserConfigurationException | TemplateModelException e) {
 			throw new AlambicException(e);
 		}
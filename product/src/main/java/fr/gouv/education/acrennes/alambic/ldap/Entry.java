@@ -18,6 +18,7 @@ package fr.gouv.education.acrennes.alambic.ldap;
 
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -39,6 +40,7 @@ import fr.gouv.education.acrennes.alambic.utils.Functions;
 import fr.gouv.education.acrennes.alambic.utils.LdapUtils;
 import fr.gouv.education.acrennes.alambic.utils.UniqueName;
 import fr.gouv.education.acrennes.alambic.utils.Variables;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -46,6 +48,21 @@ import org.jdom2.Element;
 
 public class Entry {
 
+	/**
+	 * Résultat de la mise à jour d'une entrée.
+	 */
+	public enum Status {
+		/** Entrée identique à la précédente synchronisation, non comparée avec l'annuaire (mode incrémental) */
+		SKIPPED,
+		CREATED,
+		UPDATED,
+		/** Entrée comparée avec l'annuaire, sans modification à effectuer */
+		UNCHANGED,
+		DELETED,
+		/** Opération non applicable (création d'une entrée existante, mise à jour ou suppression d'une entrée absente) */
+		IGNORED
+	}
+
 	private final class ModifyMode {
 		/**
 		 * Ignore les valeurs existantes et les remplace par les valeurs fournies.
@@ -96,6 +113,14 @@ public class Entry {
 
 	private final Datasources datasources;
 	private final Map<String, List<String>> cr;
+	private final EntryBatch batch;
+	private String subContext;
+	private String pivotDn;
+	private String pivotHash;
+	/* true as soon as an immediate relation of the entry failed */
+	private boolean isRelationFailed = false;
+	private final Map<Element, Attribute> pivotAttributes = new HashMap<>();
+	private Status status;
 
 	private final static int UPDATE = 0;
 	private final static int IGNORE = 3;
@@ -106,12 +131,23 @@ public class Entry {
 	public Entry(final Element entry, final DirContext ctx, final SearchControls contraintes,
 			final Variables variables, final Map<String, List<String>> cr,
 			final Datasources datasources) throws NamingException, AlambicException {
+		this(entry, ctx, contraintes, variables, cr, datasources, null);
+	}
+
+	/**
+	 * @param batch le lot auquel appartient l'entrée : ses contextes de travail et ses entrées pré-chargées sont
+	 *            utilisés, et l'entrée existante est modifiée sans être relue (null pour une entrée isolée)
+	 */
+	public Entry(final Element entry, final DirContext ctx, final SearchControls contraintes,
+			final Variables variables, final Map<String, List<String>> cr,
+			final Datasources datasources, final EntryBatch batch) throws NamingException, AlambicException {
 		this.entry = entry;
 		rootCtx = ctx;
 		this.contraintes = contraintes;
 		parentVariables = variables;
 		this.datasources = datasources;
 		this.cr = cr;
+		this.batch = batch;
 		init();
 	}
 
@@ -130,12 +166,12 @@ public class Entry {
 		entry.getChild(ATTRIBUTES);
 		// Remplacement des variables
 		dn = Functions.getInstance().executeAllFunctions(variables.resolvString(entry.getChildText("dn"))).toLowerCase();
+		pivotDn = dn;
 		// Déduction du RDN de l'entrée estimé
 		rdn = dn.substring(0, dn.indexOf(","));
 		// Déduction du contexte de l'entrée à traiter
 		context = dn.substring(dn.indexOf(",") + 1);
 		final String nameInNamespace = rootCtx.getNameInNamespace().toLowerCase();
-		String subContext;
 		if (context.indexOf(nameInNamespace) > 0) {
 			subContext = context.substring(0, context.indexOf(nameInNamespace) - 1);
 		} else {
@@ -149,7 +185,7 @@ public class Entry {
 		}
 
 		// ouverture du contexte de travail
-		workCtx = (DirContext) rootCtx.lookup(subContext);
+		workCtx = (null != batch) ? batch.getWorkContext(subContext) : (DirContext) rootCtx.lookup(subContext);
 	}
 
 	private void loadVariablesList() throws AlambicException {
@@ -187,7 +223,35 @@ public class Entry {
 
 	private DirContext getLdapEntry() throws NamingException {
 		// Récupération du rdn de l'ou "personnes"
-		DirContext ldapEntry = null;
+		final SearchResult res = searchLdapEntry();
+		return (null != res) ? (DirContext) workCtx.lookup(rdn) : null;
+	}
+
+	/*
+	 * Recherche de l'entrée existante (avec ses attributs) parmi les entrées pré-chargées du lot, sinon dans l'annuaire
+	 */
+	private SearchResult findLdapEntry() throws NamingException {
+		SearchResult ldapEntry = null;
+		final List<SearchResult> prefetched = batch.find(subContext, filtre);
+		if (null != prefetched) {
+			final SearchResult res = prefetched.get(0);
+			final String resDn = res.getNameInNamespace();
+			final String rdnAttr = resDn.substring(0, resDn.indexOf("="));
+			// Le cas d'un RDN multivalué est traité par la recherche dans l'annuaire
+			if (res.getAttributes().get(rdnAttr).size() <= 1) {
+				dn = resDn;
+				updateRdn(res.getName());
+				ldapEntry = res;
+				if (prefetched.size() > 1) {
+					LOG.info("[" + rdn + "] plusieurs entrées ont la même valeur de rdn pour le filte '" + filtre + "'");
+				}
+			}
+		}
+		return (null != ldapEntry) ? ldapEntry : searchLdapEntry();
+	}
+
+	private SearchResult searchLdapEntry() throws NamingException {
+		SearchResult ldapEntry = null;
 		// Vérification de l'existence de l'entrée à créer
 		final NamingEnumeration<SearchResult> searchRes = workCtx.search("", filtre, contraintes);
 		try {
@@ -201,11 +265,12 @@ public class Entry {
 				if (res.getAttributes().get(rdnAttr).size() > 1) {
 					LOG.info("[" + rdn + "] valeur de rnd multiple pour l'entree '" + dn + "'");
 					workCtx.unbind(res.getName());
-					ldapEntry = getLdapEntry();
+					invalidate(dn);
+					ldapEntry = searchLdapEntry();
 
 				} else {
 					updateRdn(res.getName());
-					ldapEntry = (DirContext) workCtx.lookup(rdn);
+					ldapEntry = res;
 				}
 
 				if (searchRes.hasMore()) {
@@ -242,11 +307,54 @@ public class Entry {
 		return rdn;
 	}
 
-	private void removeEntry(final DirContext ldapEntry) throws NamingException {
+	private void removeEntry() throws NamingException {
 		workCtx.unbind(rdn);
+		invalidate(dn);
+		status = Status.DELETED;
 		LOG.info("Effacement de l'entree [" + rdn + "]");
 	}
 
+	/*
+	 * Signale au lot la modification d'une entrée de l'annuaire
+	 */
+	private void invalidate(final String modifiedDn) {
+		if (null != batch) {
+			batch.invalidate(modifiedDn);
+		}
+	}
+
+	private void invalidate(final List<String> modifiedDns) {
+		for (final String modifiedDn : modifiedDns) {
+			invalidate(modifiedDn);
+		}
+	}
+
+	/*
+	 * MAJ des attributs des entrées en relation, immédiate ou différée lorsque le lot regroupe les mises en relation
+	 */
+	private void executeRelation(final List<String> relatedDns, final int updateMode, final String relation) throws AlambicException {
+		final LdapRelation ldapRelation = new LdapRelation(rootCtx, relatedDns, updateMode, relation, dn);
+		final LdapRelationBuffer relations = (null != batch) ? batch.getRelations() : null;
+		if (null != relations) {
+			relations.add(rootCtx, ldapRelation, pivotDn);
+		} else if (!ldapRelation.execute()) {
+			isRelationFailed = true;
+		}
+		invalidate(relatedDns);
+	}
+
+	/*
+	 * Modification de l'entrée existante, depuis son propre contexte s'il a été ouvert, sinon depuis le contexte de travail
+	 */
+	private void modifyEntry(final DirContext ldapEntry, final int operation, final Attributes attrs) throws NamingException {
+		if (null != ldapEntry) {
+			ldapEntry.modifyAttributes("", operation, attrs);
+		} else {
+			workCtx.modifyAttributes(rdn, operation, attrs);
+		}
+		invalidate(dn);
+	}
+
 	/**
 	 * Parcours les attributs listés dans la description des opérations à effectuer et prépare les modifications à
 	 * effectuer avant de les appliquer.
@@ -256,10 +364,17 @@ public class Entry {
 	 * @throws AlambicException
 	 */
 	private void updateEntry(final DirContext ldapEntry) throws NamingException, AlambicException {
-		// Mise à jour de la variable %LOGIN%
-		dn = ldapEntry.getNameInNamespace();
-		// Récupération de la liste des attributs
-		final Attributes ldapAttrs = ldapEntry.getAttributes("");
+		// Mise à jour de la variable %LOGIN% et récupération de la liste des attributs
+		updateEntry(ldapEntry.getNameInNamespace(), ldapEntry.getAttributes(""), ldapEntry);
+	}
+
+	/**
+	 * @param entryDn le DN de l'entrée existante
+	 * @param ldapAttrs les attributs de l'entrée existante
+	 * @param ldapEntry le contexte de l'entrée existante, ou null pour la modifier depuis le contexte de travail
+	 */
+	private void updateEntry(final String entryDn, final Attributes ldapAttrs, final DirContext ldapEntry) throws NamingException, AlambicException {
+		dn = entryDn;
 		// Initialisation des attributs en création, modification et suppression (des valeurs uniquement)
 		final Attributes attrsToMod = new BasicAttributes();
 		// Initialisation des attributs en suppression
@@ -352,13 +467,11 @@ public class Entry {
 							majAction = UPDATE;
 							if (!deltaToAdd.isEmpty()) {
 								// MAJ des attributs des entrées en relation
-								final LdapRelation relationsToAdd = new LdapRelation(rootCtx, deltaToAdd, LdapRelation.ADD, relation, dn);
-								relationsToAdd.execute();
+								executeRelation(deltaToAdd, LdapRelation.ADD, relation);
 							}
 							if (!deltaToDel.isEmpty()) {
 								// MAJ des attributs des entrées en relation
-								final LdapRelation relationsToDel = new LdapRelation(rootCtx, deltaToDel, LdapRelation.DELETE, relation, dn);
-								relationsToDel.execute();
+								executeRelation(deltaToDel, LdapRelation.DELETE, relation);
 							}
 						}
 					}
@@ -396,16 +509,18 @@ public class Entry {
 			}
 		}
 
+		status = (attrsToMod.size() > 0 || attrsToDelete.size() > 0) ? Status.UPDATED : Status.UNCHANGED;
+
 		// modification des attributs
 		if (attrsToMod.size() > 0) {
 			LOG.info("Modification entree [" + rdn + "] | " + attrsToMod.toString());
-			ldapEntry.modifyAttributes("", DirContext.REPLACE_ATTRIBUTE, attrsToMod);
+			modifyEntry(ldapEntry, DirContext.REPLACE_ATTRIBUTE, attrsToMod);
 		}
 
 		// removal of attributes
 		if (attrsToDelete.size() > 0) {
 			LOG.info("Modification entree [" + rdn + "] | suppression des attributs " + attrsToDelete.toString());
-			ldapEntry.modifyAttributes("", DirContext.REMOVE_ATTRIBUTE, attrsToDelete);
+			modifyEntry(ldapEntry, DirContext.REMOVE_ATTRIBUTE, attrsToDelete);
 		}
 
 	}
@@ -476,6 +591,11 @@ public class Entry {
 	}
 
 	public void update() throws NamingException, AlambicException {
+		if (null != batch) {
+			updateInBatch();
+			return;
+		}
+
 		// Récupération de l'entrée si elle existe
 		final DirContext ldapEntry = getLdapEntry();
 		if (ldapEntry != null) {
@@ -483,6 +603,7 @@ public class Entry {
 				// Elle existe => MAJ de l'entrée
 				if (createOnly) {
 					LOG.warn("Create only entry requested; ignore the found LDAP entry: '" + ldapEntry.getNameInNamespace() + "'");
+					status = Status.IGNORED;
 				} else {
 					dn = ldapEntry.getNameInNamespace();
 					final String rdnAttr = dn.substring(0, dn.indexOf("="));
@@ -492,7 +613,7 @@ public class Entry {
 						update();
 					} else {
 						if (deleteOnly) {
-							removeEntry(ldapEntry);
+							removeEntry();
 						} else {
 							updateEntry(ldapEntry);
 						}
@@ -505,16 +626,120 @@ public class Entry {
 			// Elle n'existe pas => Création de l'entrée
 			if (updateOnly | deleteOnly) {
 				LOG.warn("Either 'update only' or 'delete only' entry requested but the LDAP entry doesn't exist (filter is '" + filtre + "'); ignore the request");
+				status = Status.IGNORED;
+			} else {
+				LOG.info("Création de l'entrée dans le LDAP");
+				createEntry();
+			}
+		}
+	}
+
+	/*
+	 * Mise à jour d'une entrée d'un lot : l'entrée existante est connue par le résultat de la recherche d'existence
+	 * (éventuellement pré-chargé), et modifiée depuis le contexte de travail
+	 */
+	private void updateInBatch() throws NamingException, AlambicException {
+		// Synchronisation incrémentale : l'entrée identique à celle de la précédente synchronisation n'est pas relue
+		if (isUnchanged()) {
+			LOG.debug("Entrée [" + pivotDn + "] identique à la précédente synchronisation");
+			status = Status.SKIPPED;
+			return;
+		}
+
+		final SearchResult ldapEntry = findLdapEntry();
+		if (ldapEntry != null) {
+			if (createOnly) {
+				LOG.warn("Create only entry requested; ignore the found LDAP entry: '" + ldapEntry.getNameInNamespace() + "'");
+				status = Status.IGNORED;
+			} else if (deleteOnly) {
+				removeEntry();
+			} else {
+				updateEntry(ldapEntry.getNameInNamespace(), ldapEntry.getAttributes(), null);
+			}
+		} else {
+			if (updateOnly | deleteOnly) {
+				LOG.warn("Either 'update only' or 'delete only' entry requested but the LDAP entry doesn't exist (filter is '" + filtre + "'); ignore the request");
+				status = Status.IGNORED;
 			} else {
 				LOG.info("Création de l'entrée dans le LDAP");
 				createEntry();
 			}
 		}
+
+		// Enregistrement de l'empreinte de l'entrée écrite (l'entrée dont une mise en relation a échoué sera de nouveau
+		// comparée à l'annuaire par la prochaine synchronisation)
+		final EntrySnapshots snapshots = getSnapshots();
+		if (null != snapshots) {
+			if (deleteOnly || isRelationFailed) {
+				snapshots.remove(pivotDn);
+			} else if (Status.IGNORED != status) {
+				snapshots.put(pivotDn, getPivotHash());
+			}
+		}
+	}
+
+	private EntrySnapshots getSnapshots() {
+		return (null != batch) ? batch.getSnapshots() : null;
+	}
+
+	/**
+	 * @return vrai si l'entrée est identique à celle de la précédente synchronisation incrémentale (toujours faux hors
+	 *         synchronisation incrémentale et pour une suppression)
+	 */
+	public boolean isUnchanged() throws AlambicException {
+		final EntrySnapshots snapshots = getSnapshots();
+		return null != snapshots && !deleteOnly && snapshots.isUnchanged(pivotDn, getPivotHash());
+	}
+
+	/*
+	 * Empreinte de l'état attendu de l'entrée : opération, DN, filtre d'existence, et pour chaque attribut ses options
+	 * et ses valeurs calculées
+	 */
+	private String getPivotHash() throws AlambicException {
+		if (null == pivotHash) {
+			final StringBuilder state = new StringBuilder();
+			state.append(entry.getAttributeValue("operation")).append('\n')
+				.append(pivotDn).append('\n')
+				.append(filtre).append('\n')
+				.append(caseSensitiveEntry);
+			for (final Element pAttr : entry.getChild(ATTRIBUTES).getChildren()) {
+				state.append('\n').append(pAttr.getAttributeValue("name"))
+					.append('|').append(pAttr.getAttributeValue(MODIFY_MODE))
+					.append('|').append(pAttr.getAttributeValue(RELATION))
+					.append('|').append(pAttr.getAttributeValue(EXPLICIT))
+					.append('|').append(pAttr.getAttributeValue(CASE_SENSITIVE));
+				final List<String> values = new ArrayList<>();
+				try {
+					final NamingEnumeration<?> pivotValues = getAttributeFromPivot(pAttr).getAll();
+					while (pivotValues.hasMore()) {
+						values.add(Functions.getInstance().valueToString(pivotValues.next()));
+					}
+				} catch (final NamingException | UnsupportedEncodingException e) {
+					throw new AlambicException(e);
+				}
+				// the order of the values doesn't matter
+				Collections.sort(values);
+				for (final String value : values) {
+					state.append('|').append(value);
+				}
+			}
+			pivotHash = DigestUtils.sha256Hex(state.toString());
+		}
+		return pivotHash;
+	}
+
+	/**
+	 * @return le résultat de la dernière mise à jour de l'entrée (null si elle n'a pas abouti)
+	 */
+	public Status getStatus() {
+		return status;
 	}
 
 	public void close() throws NamingException {
-		// Fermeture du contexte de travail
-		workCtx.close();
+		// Fermeture du contexte de travail (sauf s'il est partagé par les entrées du lot)
+		if (null == batch) {
+			workCtx.close();
+		}
 	}
 
 	private void createEntry() throws NamingException, AlambicException {
@@ -524,6 +749,7 @@ public class Entry {
 		final Attributes ldapAttrs = getAttributesFromPivot();
 		LOG.info("Creation entree [" + rdn + "]");
 		workCtx.createSubcontext(rdn, ldapAttrs);
+		status = Status.CREATED;
 
 		// Traitement des attributs en relation4
 		for (final Element pAttr : entry.getChild(ATTRIBUTES).getChildren()) {
@@ -547,8 +773,7 @@ public class Entry {
 				}
 				if (!deltaToAdd.isEmpty()) {
 					// MAJ des attributs des entrées en relation
-					final LdapRelation relationsToAdd = new LdapRelation(rootCtx, deltaToAdd, LdapRelation.ADD, relation, dn);
-					relationsToAdd.execute();
+					executeRelation(deltaToAdd, LdapRelation.ADD, relation);
 				}
 			}
 		}
@@ -574,6 +799,20 @@ public class Entry {
 	 * Méthode préparant le contenu d'un attribut en fonction des données du pivot
 	 */
 	private Attribute getAttributeFromPivot(final Element attrPivot) throws AlambicException {
+		if (null == getSnapshots()) {
+			return computeAttributeFromPivot(attrPivot);
+		}
+
+		// Synchronisation incrémentale : les valeurs calculées pour l'empreinte de l'entrée sont réutilisées
+		Attribute attrLdap = pivotAttributes.get(attrPivot);
+		if (null == attrLdap) {
+			attrLdap = computeAttributeFromPivot(attrPivot);
+			pivotAttributes.put(attrPivot, attrLdap);
+		}
+		return (Attribute) attrLdap.clone();
+	}
+
+	private Attribute computeAttributeFromPivot(final Element attrPivot) throws AlambicException {
 		// Création d'une entrée LDAP temporaire
 
 		Attribute attrLdap = new BasicAttribute(attrPivot.getAttributeValue("name"));
@@ -693,6 +932,27 @@ public class Entry {
 		}
 	}
 
+	/**
+	 * @return le DN estimé de l'entrée (ou le DN de l'entrée existante une fois la mise à jour effectuée)
+	 */
+	public String getDn() {
+		return dn;
+	}
+
+	/**
+	 * @return le conteneur de l'entrée, relatif au contexte racine
+	 */
+	public String getSubContext() {
+		return subContext;
+	}
+
+	/**
+	 * @return le filtre de recherche de l'entrée existante
+	 */
+	public String getFilter() {
+		return filtre;
+	}
+
 	public Variables getVariables() {
 		return variables;
 	}
@@ -0,0 +1,268 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.ldap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+
+import fr.gouv.education.acrennes.alambic.exception.AlambicException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Lot d'entrées du pivot mises à jour sur une même connexion à l'annuaire.
+ * 
+ * Les contextes de travail (un par conteneur des entrées) sont ouverts une seule fois pour tout le lot, et les entrées
+ * existantes d'une page d'entrées du pivot sont pré-chargées par une seule recherche par conteneur (filtre OU des
+ * filtres d'existence des entrées). Chaque entrée retrouve ensuite l'entrée existante en évaluant localement son filtre
+ * d'existence, sans aller-retour vers l'annuaire. Seuls les filtres évalués localement comme par le serveur (égalités
+ * et présences, combinées par ET et OU, comparées à l'identique) sont pré-chargés : les autres entrées sont recherchées
+ * dans l'annuaire.
+ * 
+ * Une entrée pré-chargée modifiée depuis le pré-chargement, par ce lot ou par un autre lot du même chargement (voir
+ * {@link EntryModifications}), n'est plus utilisée : elle est relue dans l'annuaire. Une entrée non trouvée parmi les
+ * entrées pré-chargées est toujours recherchée dans l'annuaire avant sa création. Un lot n'est pas partagé entre
+ * plusieurs threads.
+ */
+public class EntryBatch {
+
+	private static final Log log = LogFactory.getLog(EntryBatch.class);
+
+	/* Maximal count of existence filters per prefetch search */
+	private static final int MAX_PREFETCH_FILTERS = 500;
+
+	private final DirContext rootCtx;
+	private final SearchControls contraintes;
+	private final Map<String, DirContext> workContexts = new HashMap<>();
+	private final Map<String, List<SearchResult>> prefetchedEntries = new HashMap<>();
+	private final EntryModifications modifications;
+	private long prefetchMark;
+	private EntrySnapshots snapshots;
+	private LdapRelationBuffer relations;
+	private long prefetchCount;
+	private long prefetchedCount;
+	private long hitCount;
+	private long missCount;
+
+	public EntryBatch(final DirContext rootCtx, final SearchControls contraintes) {
+		this(rootCtx, contraintes, new EntryModifications());
+	}
+
+	/**
+	 * @param modifications les entrées modifiées au cours du chargement, partagées par les lots chargés en parallèle
+	 */
+	public EntryBatch(final DirContext rootCtx, final SearchControls contraintes, final EntryModifications modifications) {
+		this.rootCtx = rootCtx;
+		this.contraintes = contraintes;
+		this.modifications = modifications;
+		modifications.register(this);
+	}
+
+	/**
+	 * @return les empreintes de la synchronisation incrémentale (null hors synchronisation incrémentale)
+	 */
+	public EntrySnapshots getSnapshots() {
+		return snapshots;
+	}
+
+	/**
+	 * Active la synchronisation incrémentale des entrées du lot : une entrée identique à celle de la précédente
+	 * synchronisation n'est ni pré-chargée ni relue dans l'annuaire.
+	 */
+	public void setSnapshots(final EntrySnapshots snapshots) {
+		this.snapshots = snapshots;
+	}
+
+	/**
+	 * @return les mises en relation différées (null si les mises en relation sont immédiates)
+	 */
+	public LdapRelationBuffer getRelations() {
+		return relations;
+	}
+
+	/**
+	 * Les mises en relation des entrées du lot sont différées et regroupées par entrée cible.
+	 */
+	public void setRelations(final LdapRelationBuffer relations) {
+		this.relations = relations;
+	}
+
+	/**
+	 * @param subContext le nom du conteneur des entrées, relatif au contexte racine
+	 * @return le contexte de travail (ouvert au premier appel, puis réutilisé jusqu'à la fermeture du lot)
+	 */
+	public DirContext getWorkContext(final String subContext) throws NamingException {
+		DirContext workCtx = workContexts.get(subContext);
+		if (null == workCtx) {
+			workCtx = (DirContext) rootCtx.lookup(subContext);
+			workContexts.put(subContext, workCtx);
+		}
+		return workCtx;
+	}
+
+	/**
+	 * Pré-chargement des entrées existantes correspondant aux filtres d'existence des entrées du pivot d'une page.
+	 * Les entrées pré-chargées de la page précédente sont oubliées.
+	 * 
+	 * @param entries les entrées du pivot de la page
+	 */
+	public void prefetch(final List<Entry> entries) {
+		prefetchedEntries.clear();
+		prefetchMark = modifications.mark(this);
+
+		// existence filters grouped by container
+		final Map<String, Set<String>> filters = new LinkedHashMap<>();
+		for (final Entry entry : entries) {
+			try {
+				if (entry.isUnchanged()) {
+					continue;
+				}
+				final LdapFilter filter = LdapFilter.parse(entry.getFilter());
+				if (!filter.isExact()) {
+					log.debug("The existence of the entry '" + entry.getDn() + "' can't be prefetched : the filter '" + filter + "' is not a plain equality");
+					continue;
+				}
+				filters.computeIfAbsent(entry.getSubContext(), k -> new LinkedHashSet<>()).add(filter.getFilter());
+			} catch (AlambicException e) {
+				// the entry will be searched on its own
+				log.debug("The existence of the entry '" + entry.getDn() + "' can't be prefetched : " + e.getMessage());
+			}
+		}
+
+		for (final Map.Entry<String, Set<String>> containerFilters : filters.entrySet()) {
+			final String subContext = containerFilters.getKey();
+			final List<String> filterList = new ArrayList<>(containerFilters.getValue());
+			final List<SearchResult> results = new ArrayList<>();
+			try {
+				for (int i = 0; i < filterList.size(); i += MAX_PREFETCH_FILTERS) {
+					final StringBuilder anyOf = new StringBuilder("(|");
+					for (final String filter : filterList.subList(i, Math.min(i + MAX_PREFETCH_FILTERS, filterList.size()))) {
+						anyOf.append(filter);
+					}
+					anyOf.append(')');
+
+					final NamingEnumeration<SearchResult> searchRes = getWorkContext(subContext).search("", anyOf.toString(), contraintes);
+					try {
+						while (searchRes.hasMore()) {
+							results.add(searchRes.next());
+						}
+					} finally {
+						searchRes.close();
+					}
+					prefetchCount++;
+				}
+				prefetchedEntries.put(subContext, results);
+				prefetchedCount += results.size();
+			} catch (NamingException e) {
+				// e.g. a size limit exceeded: the entries of this container will be searched one by one
+				log.warn("Failed to prefetch the existing entries of the container '" + subContext + "', error : " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Recherche d'une entrée existante parmi les entrées pré-chargées.
+	 * 
+	 * @param subContext le conteneur de l'entrée
+	 * @param filter le filtre d'existence de l'entrée
+	 * @return les entrées pré-chargées correspondant au filtre, ou null si l'entrée doit être recherchée dans l'annuaire
+	 *         (conteneur non pré-chargé, filtre non évaluable à l'identique, aucune entrée trouvée, ou entrée trouvée
+	 *         modifiée depuis le pré-chargement)
+	 */
+	public List<SearchResult> find(final String subContext, final String filter) {
+		List<SearchResult> matches = null;
+
+		final List<SearchResult> results = prefetchedEntries.get(subContext);
+		if (null != results) {
+			try {
+				final LdapFilter ldapFilter = LdapFilter.parse(filter);
+				if (ldapFilter.isExact()) {
+					matches = new ArrayList<>();
+					for (final SearchResult result : results) {
+						if (ldapFilter.matchesExactly(result.getAttributes())) {
+							if (modifications.isModifiedSince(result.getNameInNamespace(), prefetchMark)) {
+								matches = null;
+								break;
+							}
+							matches.add(result);
+						}
+					}
+				}
+			} catch (AlambicException | NamingException e) {
+				matches = null;
+			}
+		}
+
+		if (null == matches || matches.isEmpty()) {
+			missCount++;
+			return null;
+		}
+		hitCount++;
+		return Collections.unmodifiableList(matches);
+	}
+
+	/**
+	 * Signale la modification (ou la suppression) d'une entrée de l'annuaire : son éventuel pré-chargement, par ce lot
+	 * ou par un autre lot du chargement, n'est plus à jour.
+	 * 
+	 * @param dn le DN complet de l'entrée
+	 */
+	public void invalidate(final String dn) {
+		if (null != dn) {
+			modifications.modified(dn);
+		}
+	}
+
+	/**
+	 * @return les compteurs du lot : recherches de pré-chargement, entrées pré-chargées, entrées trouvées parmi les
+	 *         entrées pré-chargées et entrées recherchées dans l'annuaire
+	 */
+	public Map<String, Long> getMetrics() {
+		final Map<String, Long> metrics = new LinkedHashMap<>();
+		metrics.put("searches", prefetchCount);
+		metrics.put("entries", prefetchedCount);
+		metrics.put("hits", hitCount);
+		metrics.put("misses", missCount);
+		return metrics;
+	}
+
+	public void close() {
+		for (final DirContext workCtx : workContexts.values()) {
+			try {
+				workCtx.close();
+			} catch (NamingException e) {
+				log.error("Failed to close the LDAP work context, error : " + e.getMessage(), e);
+			}
+		}
+		workContexts.clear();
+		prefetchedEntries.clear();
+		modifications.unregister(this);
+	}
+
+}
@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.ldap;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Entrées de l'annuaire modifiées au cours d'un chargement, partagées par les lots chargés en parallèle.
+ * 
+ * Chaque modification reçoit un numéro d'ordre, et chaque lot retient le numéro courant au début de son
+ * pré-chargement : une entrée pré-chargée modifiée ensuite (par ce lot ou par un autre) n'est plus utilisée. Les
+ * modifications antérieures aux pré-chargements en cours de tous les lots sont oubliées.
+ */
+public class EntryModifications {
+
+	private final AtomicLong sequence = new AtomicLong();
+	/* last modification number by entry (normalized DN) */
+	private final Map<String, Long> modifiedEntries = new ConcurrentHashMap<>();
+	/* modification number read at the beginning of the current prefetch, by batch */
+	private final Map<EntryBatch, Long> marks = new ConcurrentHashMap<>();
+
+	/**
+	 * Enregistrement d'un lot : ses entrées pré-chargées sont comparées aux modifications suivantes.
+	 */
+	void register(final EntryBatch batch) {
+		marks.put(batch, sequence.get());
+	}
+
+	/**
+	 * Début d'un pré-chargement par un lot enregistré.
+	 * 
+	 * @return le numéro de la dernière modification antérieure au pré-chargement
+	 */
+	long mark(final EntryBatch batch) {
+		final long mark = sequence.get();
+		marks.put(batch, mark);
+		final long oldest = Collections.min(marks.values());
+		modifiedEntries.values().removeIf(modification -> modification <= oldest);
+		return mark;
+	}
+
+	void unregister(final EntryBatch batch) {
+		marks.remove(batch);
+	}
+
+	/**
+	 * Signale la modification (ou la suppression) d'une entrée, après son écriture dans l'annuaire.
+	 * 
+	 * @param dn le DN complet de l'entrée
+	 */
+	public void modified(final String dn) {
+		modifiedEntries.put(normalize(dn), sequence.incrementAndGet());
+	}
+
+	/**
+	 * @return vrai si l'entrée a été modifiée après le pré-chargement marqué
+	 */
+	boolean isModifiedSince(final String dn, final long mark) {
+		final Long modification = modifiedEntries.get(normalize(dn));
+		return null != modification && modification > mark;
+	}
+
+	private static String normalize(final String dn) {
+		return dn.replaceAll("\\s*,\\s*", ",").toLowerCase(Locale.ROOT);
+	}
+
+}
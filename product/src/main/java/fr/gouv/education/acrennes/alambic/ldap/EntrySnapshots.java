@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.ldap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.persistence.TypedQuery;
+
+import fr.gouv.education.acrennes.alambic.exception.AlambicException;
+import fr.gouv.education.acrennes.alambic.ldap.persistence.LdapSnapshotEntity;
+import fr.gouv.education.acrennes.alambic.persistence.EntityManagerHelper;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Empreintes des entrées du pivot écrites dans l'annuaire par les précédentes exécutions d'une synchronisation
+ * incrémentale, persistées dans la base de l'ETL.
+ * 
+ * Les empreintes sont chargées en une seule requête à l'ouverture, et les empreintes modifiées sont enregistrées par
+ * lots (à la fermeture ou dès que le lot atteint sa taille maximale). Une seule instance par synchronisation est
+ * partagée par toutes les destinations d'une exécution (cf. {@link EntrySnapshotsRegistry}) : une même empreinte n'est
+ * donc jamais insérée deux fois.
+ * 
+ * L'empreinte d'une entrée dont des mises en relation différées sont en attente (cf. {@link LdapRelationBuffer}) n'est
+ * enregistrée qu'une fois ces mises en relation écrites, et elle est supprimée si leur écriture échoue : l'entrée est
+ * alors de nouveau comparée à l'annuaire par l'exécution suivante.
+ */
+public class EntrySnapshots {
+
+	private static final Log log = LogFactory.getLog(EntrySnapshots.class);
+
+	/* Count of modified snapshots triggering their persistence */
+	private static final int FLUSH_THRESHOLD = 1000;
+
+	private final String name;
+	private final EntityManager em;
+	private final Map<String, LdapSnapshotEntity> snapshots = new HashMap<>();
+	/* modified snapshots (null hash for a removed snapshot) */
+	private final Map<String, String> pendingHashes = new LinkedHashMap<>();
+	/* entries whose deferred relations are not written yet */
+	private final Set<String> heldKeys = new HashSet<>();
+	/* entries whose deferred relations failed during this run */
+	private final Set<String> droppedKeys = new HashSet<>();
+
+	/**
+	 * @param name le nom de la synchronisation (les empreintes de deux synchronisations sont indépendantes)
+	 */
+	public EntrySnapshots(final String name) throws AlambicException {
+		this.name = name;
+		em = EntityManagerHelper.getEntityManager();
+		load();
+		log.info("Synchronisation incrémentale '" + name + "' : " + snapshots.size() + " empreintes d'entrées chargées");
+	}
+
+	private void load() {
+		snapshots.clear();
+		final TypedQuery<LdapSnapshotEntity> query = em.createQuery("SELECT lse FROM LdapSnapshotEntity lse WHERE lse.snapshot = :snapshot", LdapSnapshotEntity.class);
+		query.setParameter("snapshot", name);
+		final List<LdapSnapshotEntity> resultSet = query.getResultList();
+		for (final LdapSnapshotEntity snapshot : resultSet) {
+			snapshots.put(snapshot.getDn(), snapshot);
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @param dn le DN de l'entrée du pivot
+	 * @param hash l'empreinte de l'entrée du pivot
+	 * @return vrai si l'empreinte est celle enregistrée lors de la dernière écriture de l'entrée
+	 */
+	public synchronized boolean isUnchanged(final String dn, final String hash) {
+		final String key = dn.toLowerCase();
+		final String lastHash;
+		if (pendingHashes.containsKey(key)) {
+			lastHash = pendingHashes.get(key);
+		} else {
+			final LdapSnapshotEntity snapshot = snapshots.get(key);
+			lastHash = (null != snapshot) ? snapshot.getHash() : null;
+		}
+		return null != hash && hash.equals(lastHash);
+	}
+
+	/**
+	 * Enregistrement de l'empreinte d'une entrée écrite dans l'annuaire
+	 */
+	public synchronized void put(final String dn, final String hash) {
+		final String key = dn.toLowerCase();
+		pendingHashes.put(key, droppedKeys.contains(key) ? null : hash);
+		// the held snapshots stay pending
+		if (FLUSH_THRESHOLD <= pendingHashes.size() - heldKeys.size()) {
+			flush();
+		}
+	}
+
+	/**
+	 * Suppression de l'empreinte d'une entrée supprimée de l'annuaire
+	 */
+	public synchronized void remove(final String dn) {
+		final String key = dn.toLowerCase();
+		if (snapshots.containsKey(key) || pendingHashes.containsKey(key)) {
+			put(key, null);
+		}
+	}
+
+	/**
+	 * Report de l'enregistrement de l'empreinte d'une entrée jusqu'à l'écriture de ses mises en relation différées
+	 */
+	public synchronized void hold(final String dn) {
+		heldKeys.add(dn.toLowerCase());
+	}
+
+	/**
+	 * Fin du report de l'enregistrement de l'empreinte d'une entrée, ses mises en relation différées étant écrites
+	 */
+	public synchronized void release(final String dn) {
+		heldKeys.remove(dn.toLowerCase());
+	}
+
+	/**
+	 * Suppression de l'empreinte d'une entrée dont des mises en relation différées ont échoué : l'empreinte n'est plus
+	 * enregistrée jusqu'à la fin de l'exécution.
+	 */
+	public synchronized void drop(final String dn) {
+		final String key = dn.toLowerCase();
+		heldKeys.remove(key);
+		droppedKeys.add(key);
+		if (snapshots.containsKey(key) || pendingHashes.containsKey(key)) {
+			pendingHashes.put(key, null);
+		}
+	}
+
+	/**
+	 * Persistance des empreintes modifiées (hormis celles dont l'enregistrement est reporté)
+	 */
+	public synchronized void flush() {
+		final List<String> keys = new ArrayList<>();
+		for (final String key : pendingHashes.keySet()) {
+			if (!heldKeys.contains(key)) {
+				keys.add(key);
+			}
+		}
+		if (keys.isEmpty()) {
+			return;
+		}
+
+		final EntityTransaction transac = em.getTransaction();
+		try {
+			transac.begin();
+			for (final String key : keys) {
+				final String hash = pendingHashes.get(key);
+				final LdapSnapshotEntity snapshot = snapshots.get(key);
+				if (null == hash) {
+					if (null != snapshot) {
+						em.remove(snapshot);
+						snapshots.remove(key);
+					}
+				} else if (null == snapshot) {
+					final LdapSnapshotEntity newSnapshot = new LdapSnapshotEntity(name, key, hash);
+					em.persist(newSnapshot);
+					snapshots.put(key, newSnapshot);
+				} else {
+					snapshot.setHash(hash);
+				}
+			}
+			transac.commit();
+		} catch (final RuntimeException e) {
+			// the entries will be compared with the directory again by the next synchronization
+			log.error("Failed to persist the snapshots of the synchronization '" + name + "', error : " + e.getMessage(), e);
+			if (transac.isActive()) {
+				transac.rollback();
+			}
+			em.clear();
+			try {
+				load();
+			} catch (final RuntimeException le) {
+				log.error("Failed to reload the snapshots of the synchronization '" + name + "', error : " + le.getMessage(), le);
+				snapshots.clear();
+			}
+		} finally {
+			pendingHashes.keySet().removeAll(keys);
+		}
+	}
+
+	public synchronized void close() {
+		flush();
+		if (!pendingHashes.isEmpty()) {
+			// the deferred relations of these entries were never written
+			log.warn("Synchronization '" + name + "' : " + pendingHashes.size() + " snapshots are not persisted since the relations of their entries are still pending");
+			pendingHashes.clear();
+		}
+		heldKeys.clear();
+		droppedKeys.clear();
+		em.close();
+	}
+
+}
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.ldap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import fr.gouv.education.acrennes.alambic.exception.AlambicException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Registre des empreintes des synchronisations incrémentales d'une exécution : une seule instance par nom de
+ * synchronisation, chargée à sa première utilisation puis partagée par toutes les destinations (et toutes les pages)
+ * qui l'utilisent. Les empreintes en attente sont enregistrées à la fermeture de l'exécution.
+ */
+public class EntrySnapshotsRegistry {
+
+	private static final Log log = LogFactory.getLog(EntrySnapshotsRegistry.class);
+
+	private static final Map<String, EntrySnapshots> snapshots = new HashMap<>();
+
+	private EntrySnapshotsRegistry() {
+		// pas besoin d'instancier cette classe qui ne contient que des méthodes statiques
+	}
+
+	/**
+	 * Empreintes d'une synchronisation (chargées au premier appel).
+	 * 
+	 * @param name le nom de la synchronisation
+	 */
+	public static synchronized EntrySnapshots getSnapshots(final String name) throws AlambicException {
+		EntrySnapshots entrySnapshots = snapshots.get(name);
+		if (null == entrySnapshots) {
+			entrySnapshots = new EntrySnapshots(name);
+			snapshots.put(name, entrySnapshots);
+		}
+		return entrySnapshots;
+	}
+
+	/**
+	 * Enregistrement des empreintes en attente et fermeture de toutes les synchronisations de l'exécution.
+	 */
+	public static synchronized void close() {
+		for (final EntrySnapshots entrySnapshots : new ArrayList<>(snapshots.values())) {
+			try {
+				entrySnapshots.close();
+			} catch (final RuntimeException e) {
+				log.error("Failed to close the snapshots of the synchronization '" + entrySnapshots.getName() + "', error : " + e.getMessage(), e);
+			}
+		}
+		snapshots.clear();
+	}
+
+}
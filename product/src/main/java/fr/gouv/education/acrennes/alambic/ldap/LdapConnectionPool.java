@@ -0,0 +1,358 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.ldap;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.naming.Context;
+import javax.naming.InterruptedNamingException;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import fr.gouv.education.acrennes.alambic.jobs.ExecutorFactory;
+import fr.gouv.education.acrennes.alambic.monitoring.ActivityMBean;
+
+/**
+ * Pool borné de connexions (contextes) à un annuaire LDAP, partagé par les sources et destinations d'une exécution qui
+ * accèdent à cet annuaire avec la même configuration (cf. {@link LdapConnectionPools}).
+ * <p>
+ * Une connexion empruntée doit être restituée ({@link #release(LdapContext)}), ou invalidée si elle est en erreur
+ * ({@link #invalidate(LdapContext)}), et non fermée. Une connexion inutilisée depuis plus longtemps que l'intervalle de
+ * validation est vérifiée avant d'être prêtée ; au-delà du délai d'inactivité, elle est fermée.
+ * </p>
+ */
+public class LdapConnectionPool {
+
+	private static final Log log = LogFactory.getLog(LdapConnectionPool.class);
+
+	/* JNDI native pooling is disabled for the contexts of this pool */
+	private static final String JNDI_POOLING = "com.sun.jndi.ldap.connect.pool";
+	private static final String METRIC_PREFIX = "ldap.pool.";
+
+	private final String name;
+	private final Properties environment;
+	private final int maxSize;
+	private final long maxWait;
+	private final long idleTimeout;
+	private final long validationInterval;
+	private final Semaphore permits;
+	private final ConcurrentLinkedDeque<IdleContext> idleContexts;
+	private final Set<LdapContext> borrowedContexts;
+	private final AtomicInteger peakActive;
+	private final AtomicLong created;
+	private final AtomicLong destroyed;
+	private final AtomicLong borrowed;
+	private final AtomicLong validationFailures;
+	private final AtomicLong waitTime;
+	private volatile boolean isClosed;
+
+	/**
+	 * @param name               le nom du pool (pour le suivi)
+	 * @param environment        la configuration de connexion à l'annuaire
+	 * @param maxSize            le nombre maximal de connexions ouvertes simultanément (pas de limite si nul)
+	 * @param maxWait            le délai d'attente maximal d'une connexion disponible (ms)
+	 * @param idleTimeout        le délai d'inactivité au-delà duquel une connexion est fermée (ms)
+	 * @param validationInterval le délai d'inactivité au-delà duquel une connexion est vérifiée avant d'être prêtée (ms)
+	 */
+	public LdapConnectionPool(final String name, final Properties environment, final int maxSize, final long maxWait, final long idleTimeout, final long validationInterval) {
+		this.name = name;
+		this.environment = new Properties();
+		this.environment.putAll(environment);
+		this.environment.remove(JNDI_POOLING);
+		this.maxSize = maxSize;
+		this.maxWait = maxWait;
+		this.idleTimeout = idleTimeout;
+		this.validationInterval = validationInterval;
+		this.permits = (0 < maxSize) ? new Semaphore(maxSize, true) : null;
+		this.idleContexts = new ConcurrentLinkedDeque<>();
+		this.borrowedContexts = Collections.newSetFromMap(new ConcurrentHashMap<LdapContext, Boolean>());
+		this.peakActive = new AtomicInteger();
+		this.created = new AtomicLong();
+		this.destroyed = new AtomicLong();
+		this.borrowed = new AtomicLong();
+		this.validationFailures = new AtomicLong();
+		this.waitTime = new AtomicLong();
+		this.isClosed = false;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public int getActiveCount() {
+		return borrowedContexts.size();
+	}
+
+	public int getIdleCount() {
+		return idleContexts.size();
+	}
+
+	public long getCreatedCount() {
+		return created.get();
+	}
+
+	public long getWaitTime() {
+		return TimeUnit.NANOSECONDS.toMillis(waitTime.get());
+	}
+
+	/**
+	 * Emprunt d'une connexion : une connexion inactive est réutilisée si possible, une nouvelle connexion est ouverte
+	 * sinon, dans la limite de la taille du pool.
+	 *
+	 * @throws NamingException si aucune connexion n'est disponible dans le délai imparti ou si l'ouverture échoue
+	 */
+	public LdapContext borrow() throws NamingException {
+		if (isClosed) {
+			throw new ServiceUnavailableException("The LDAP connection pool '" + name + "' is closed");
+		}
+
+		acquire();
+		return take();
+	}
+
+	/**
+	 * Emprunt d'une connexion sans attente : aucune connexion n'est prêtée (null) si la taille maximale du pool est
+	 * atteinte.
+	 *
+	 * @throws NamingException si le pool est fermé ou si l'ouverture échoue
+	 */
+	public LdapContext tryBorrow() throws NamingException {
+		if (isClosed) {
+			throw new ServiceUnavailableException("The LDAP connection pool '" + name + "' is closed");
+		}
+
+		LdapContext ctx = null;
+		if (null == permits || permits.tryAcquire()) {
+			ctx = take();
+		}
+		return ctx;
+	}
+
+	/*
+	 * Prêt d'une connexion inactive ou nouvelle, une fois la place réservée dans le pool
+	 */
+	private LdapContext take() throws NamingException {
+		try {
+			evictIdleContexts();
+			LdapContext ctx = null;
+			IdleContext idle;
+			while (null == ctx && null != (idle = idleContexts.pollFirst())) {
+				if (isValid(idle)) {
+					ctx = idle.ctx;
+				} else {
+					destroy(idle.ctx);
+				}
+			}
+			if (null == ctx) {
+				ctx = new InitialLdapContext(environment, null);
+				created.incrementAndGet();
+			}
+			borrowedContexts.add(ctx);
+			borrowed.incrementAndGet();
+			peakActive.accumulateAndGet(borrowedContexts.size(), Math::max);
+			return ctx;
+		} catch (NamingException | RuntimeException e) {
+			releasePermit();
+			throw e;
+		}
+	}
+
+	/**
+	 * Restitution d'une connexion empruntée. Les contrôles de requête positionnés par l'emprunteur sont retirés.
+	 */
+	public void release(final LdapContext ctx) {
+		if (null != ctx && borrowedContexts.remove(ctx)) {
+			try {
+				ctx.setRequestControls(null);
+				if (isClosed) {
+					destroy(ctx);
+				} else {
+					idleContexts.offerFirst(new IdleContext(ctx));
+				}
+			} catch (NamingException e) {
+				log.warn("Failed to reset the LDAP connection of the pool '" + name + "', it is closed, error : " + e.getMessage());
+				destroy(ctx);
+			} finally {
+				releasePermit();
+			}
+		}
+	}
+
+	/**
+	 * Restitution d'une connexion empruntée en erreur : elle est fermée et non réutilisée.
+	 */
+	public void invalidate(final LdapContext ctx) {
+		if (null != ctx && borrowedContexts.remove(ctx)) {
+			destroy(ctx);
+			releasePermit();
+		}
+	}
+
+	/**
+	 * Fermeture des connexions inactives. Les connexions empruntées seront fermées à leur restitution.
+	 */
+	public void close() {
+		isClosed = true;
+		for (IdleContext idle = idleContexts.pollFirst(); null != idle; idle = idleContexts.pollFirst()) {
+			destroy(idle.ctx);
+		}
+		if (!borrowedContexts.isEmpty()) {
+			log.warn("The LDAP connection pool '" + name + "' is closed while " + borrowedContexts.size() + " connections are still borrowed");
+		}
+	}
+
+	public Map<String, Long> getMetrics() {
+		Map<String, Long> metrics = new LinkedHashMap<>();
+		metrics.put("created", created.get());
+		metrics.put("destroyed", destroyed.get());
+		metrics.put("borrowed", borrowed.get());
+		metrics.put("active", (long) getActiveCount());
+		metrics.put("active.max", (long) peakActive.get());
+		metrics.put("idle", (long) getIdleCount());
+		metrics.put("validation.failures", validationFailures.get());
+		metrics.put("wait.ms", getWaitTime());
+		return metrics;
+	}
+
+	public void report(final ActivityMBean activity) {
+		for (Map.Entry<String, Long> metric : getMetrics().entrySet()) {
+			activity.setMetric(METRIC_PREFIX + name + "." + metric.getKey(), metric.getValue());
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("{\"name\":\"").append(name).append("\", \"max_size\":").append(maxSize);
+		for (Map.Entry<String, Long> metric : getMetrics().entrySet()) {
+			sb.append(", \"").append(metric.getKey().replace('.', '_')).append("\":").append(metric.getValue());
+		}
+		return sb.append("}").toString();
+	}
+
+	private void acquire() throws NamingException {
+		if (null != permits && !permits.tryAcquire()) {
+			long start = System.nanoTime();
+			final boolean[] acquired = { false };
+			try {
+				ExecutorFactory.block(new ForkJoinPool.ManagedBlocker() {
+					@Override
+					public boolean block() throws InterruptedException {
+						if (!acquired[0]) {
+							acquired[0] = permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS);
+						}
+						return true;
+					}
+
+					@Override
+					public boolean isReleasable() {
+						return acquired[0] || (acquired[0] = permits.tryAcquire());
+					}
+				});
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedNamingException("Interrupted while waiting for a connection of the LDAP pool '" + name + "'");
+			} finally {
+				waitTime.addAndGet(System.nanoTime() - start);
+			}
+
+			if (!acquired[0]) {
+				throw new ServiceUnavailableException("No connection of the LDAP pool '" + name + "' got available within " + maxWait + " ms (max size is " + maxSize + ")");
+			}
+		}
+	}
+
+	private void releasePermit() {
+		if (null != permits) {
+			permits.release();
+		}
+	}
+
+	private boolean isValid(final IdleContext idle) {
+		boolean isValid = true;
+
+		if (validationInterval < (System.currentTimeMillis() - idle.since)) {
+			try {
+				// reads no attribute of the base entry
+				idle.ctx.getAttributes("", new String[0]);
+			} catch (NamingException e) {
+				log.debug("An idle connection of the LDAP pool '" + name + "' is no longer valid, error : " + e.getMessage());
+				validationFailures.incrementAndGet();
+				isValid = false;
+			}
+		}
+
+		return isValid;
+	}
+
+	private void evictIdleContexts() {
+		long now = System.currentTimeMillis();
+		Iterator<IdleContext> itr = idleContexts.descendingIterator();
+		while (itr.hasNext()) {
+			IdleContext idle = itr.next();
+			if (idleTimeout < (now - idle.since) && idleContexts.removeFirstOccurrence(idle)) {
+				destroy(idle.ctx);
+			}
+		}
+	}
+
+	private void destroy(final LdapContext ctx) {
+		destroyed.incrementAndGet();
+		try {
+			ctx.close();
+		} catch (NamingException e) {
+			log.debug("Failed to close a connection of the LDAP pool '" + name + "', error : " + e.getMessage());
+		}
+	}
+
+	public static String getName(final Properties environment) {
+		return environment.getProperty(Context.SECURITY_PRINCIPAL, "anonymous") + "@" + environment.getProperty(Context.PROVIDER_URL);
+	}
+
+	private static class IdleContext {
+
+		private final LdapContext ctx;
+		private final long since;
+
+		IdleContext(final LdapContext ctx) {
+			this.ctx = ctx;
+			this.since = System.currentTimeMillis();
+		}
+
+	}
+
+}
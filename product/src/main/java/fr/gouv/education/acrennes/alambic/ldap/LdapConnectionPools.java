@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.ldap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.naming.Context;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import fr.gouv.education.acrennes.alambic.utils.Config;
+
+/**
+ * Registre des pools de connexions LDAP d'une exécution : un pool par configuration de connexion (fabrique, URL, compte,
+ * mot de passe et délais), partagé par toutes les sources et destinations LDAP qui l'utilisent.
+ * Les pools sont paramétrés par les propriétés du fichier 'config.properties' ({@value #POOL_MAX_SIZE},
+ * {@value #POOL_MAX_WAIT}, {@value #POOL_IDLE_TIMEOUT} et {@value #POOL_VALIDATION_INTERVAL}).
+ */
+public class LdapConnectionPools {
+
+	private static final Log log = LogFactory.getLog(LdapConnectionPools.class);
+
+	public static final String POOL_MAX_SIZE = "ldap.pool.max.size";
+	public static final String POOL_MAX_WAIT = "ldap.pool.max.wait";
+	public static final String POOL_IDLE_TIMEOUT = "ldap.pool.idle.timeout";
+	public static final String POOL_VALIDATION_INTERVAL = "ldap.pool.validation.interval";
+	private static final int DEFAULT_POOL_MAX_SIZE = 20;
+	private static final long DEFAULT_POOL_MAX_WAIT = 60000;
+	private static final long DEFAULT_POOL_IDLE_TIMEOUT = 300000;
+	private static final long DEFAULT_POOL_VALIDATION_INTERVAL = 30000;
+
+	/* Connection properties identifying a pool */
+	private static final String[] KEY_PROPERTIES = {
+			Context.INITIAL_CONTEXT_FACTORY,
+			Context.PROVIDER_URL,
+			Context.SECURITY_AUTHENTICATION,
+			Context.SECURITY_PRINCIPAL,
+			Context.SECURITY_CREDENTIALS,
+			"com.sun.jndi.ldap.connect.timeout",
+			"com.sun.jndi.ldap.read.timeout"
+	};
+
+	private static final ConcurrentMap<String, LdapConnectionPool> pools = new ConcurrentHashMap<>();
+
+	private LdapConnectionPools() {
+		// pas besoin d'instancier cette classe qui ne contient que des méthodes statiques
+	}
+
+	/**
+	 * Pool de connexions associé à une configuration de connexion (créé au premier appel).
+	 */
+	public static LdapConnectionPool getPool(final Properties environment) {
+		return pools.computeIfAbsent(getKey(environment), key -> {
+			LdapConnectionPool pool = new LdapConnectionPool(LdapConnectionPool.getName(environment), environment,
+					(int) getSetting(POOL_MAX_SIZE, DEFAULT_POOL_MAX_SIZE),
+					getSetting(POOL_MAX_WAIT, DEFAULT_POOL_MAX_WAIT),
+					getSetting(POOL_IDLE_TIMEOUT, DEFAULT_POOL_IDLE_TIMEOUT),
+					getSetting(POOL_VALIDATION_INTERVAL, DEFAULT_POOL_VALIDATION_INTERVAL));
+			log.info("LDAP connection pool '" + pool.getName() + "' created (max size " + pool.getMaxSize() + ")");
+			return pool;
+		});
+	}
+
+	public static List<LdapConnectionPool> getPools() {
+		return new ArrayList<>(pools.values());
+	}
+
+	/**
+	 * Fermeture de tous les pools de l'exécution.
+	 */
+	public static void close() {
+		for (LdapConnectionPool pool : getPools()) {
+			log.info("Closing the LDAP connection pool : " + pool);
+			pool.close();
+		}
+		pools.clear();
+	}
+
+	private static String getKey(final Properties environment) {
+		StringBuilder key = new StringBuilder();
+		for (String property : KEY_PROPERTIES) {
+			key.append(environment.getProperty(property, "")).append('\u0000');
+		}
+		return key.toString();
+	}
+
+	private static long getSetting(final String property, final long defaultValue) {
+		long value = defaultValue;
+
+		Properties properties = Config.getProperties();
+		String setting = (null != properties) ? properties.getProperty(property) : null;
+		if (StringUtils.isNotBlank(setting)) {
+			try {
+				value = Long.parseLong(setting.trim());
+			} catch (NumberFormatException e) {
+				log.error("Invalid value '" + setting + "' of the property '" + property + "', the default value " + defaultValue + " is used");
+			}
+		}
+
+		return value;
+	}
+
+}
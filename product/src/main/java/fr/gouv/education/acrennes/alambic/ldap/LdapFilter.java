@@ -0,0 +1,270 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.ldap;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+
+import fr.gouv.education.acrennes.alambic.exception.AlambicException;
+
+/**
+ * Filtre de recherche LDAP (RFC 4515) évalué localement sur les attributs d'une entrée déjà lue.
+ * 
+ * Seuls les filtres composés d'égalités et de présences, combinées par ET et OU, sont évalués
+ * ({@link #matchesExactly(Attributes)}), en comparant les valeurs à l'identique : une entrée retenue l'est alors aussi
+ * par le serveur, quelle que soit la règle de comparaison des attributs. C'est la seule évaluation qui permet de
+ * retrouver, parmi des entrées pré-chargées, celles qu'une recherche aurait retournées.
+ * 
+ * Les filtres NON, de sous-chaîne, d'ordre et d'approximation sont analysés mais ne sont pas évaluables (cf.
+ * {@link #isExact()}) : ils sont recherchés par le serveur.
+ */
+public class LdapFilter {
+
+	private interface Node {
+		boolean matches(final Attributes attributes) throws NamingException;
+	}
+
+	private final String filter;
+	private final Node root;
+	private int position;
+	/* false as soon as the filter holds an item whose exact evaluation could differ from the server's one (its nodes are then not built) */
+	private boolean exact = true;
+
+	private LdapFilter(final String filter) throws AlambicException {
+		this.filter = filter.trim().startsWith("(") ? filter.trim() : "(" + filter.trim() + ")";
+		position = 0;
+		root = parseFilter();
+		if (position != this.filter.length()) {
+			throw new AlambicException("Filtre LDAP invalide '" + filter + "' (caractères inattendus en position " + position + ")");
+		}
+	}
+
+	/**
+	 * Analyse un filtre de recherche LDAP.
+	 * 
+	 * @param filter le filtre, avec ou sans parenthèses englobantes
+	 * @return le filtre compilé
+	 * @throws AlambicException si le filtre est invalide ou utilise une syntaxe non supportée (filtre extensible)
+	 */
+	public static LdapFilter parse(final String filter) throws AlambicException {
+		if (null == filter || filter.trim().isEmpty()) {
+			throw new AlambicException("Filtre LDAP vide");
+		}
+		return new LdapFilter(filter);
+	}
+
+	/**
+	 * @return le filtre sous sa forme textuelle, entre parenthèses
+	 */
+	public String getFilter() {
+		return filter;
+	}
+
+	/**
+	 * @return vrai si le filtre n'est composé que d'égalités (sans caractère générique) et de présences, combinées par
+	 *         ET et OU
+	 */
+	public boolean isExact() {
+		return exact;
+	}
+
+	/**
+	 * Évaluation à l'identique (valeurs comparées sans normalisation) d'un filtre {@link #isExact() exact}.
+	 * 
+	 * @throws IllegalStateException si le filtre n'est pas exact
+	 */
+	public boolean matchesExactly(final Attributes attributes) throws NamingException {
+		if (!exact) {
+			throw new IllegalStateException("The LDAP filter '" + filter + "' can't be evaluated exactly");
+		}
+		return root.matches(attributes);
+	}
+
+	@Override
+	public String toString() {
+		return filter;
+	}
+
+	private Node parseFilter() throws AlambicException {
+		expect('(');
+		final Node node;
+		switch (current()) {
+		case '&':
+			position++;
+			final List<Node> allOf = parseFilterList();
+			node = attributes -> {
+				for (final Node child : allOf) {
+					if (!child.matches(attributes)) {
+						return false;
+					}
+				}
+				return true;
+			};
+			break;
+		case '|':
+			position++;
+			final List<Node> anyOf = parseFilterList();
+			node = attributes -> {
+				for (final Node child : anyOf) {
+					if (child.matches(attributes)) {
+						return true;
+					}
+				}
+				return false;
+			};
+			break;
+		case '!':
+			position++;
+			parseFilter();
+			// a negation turns any difference with the server's evaluation into a false match
+			exact = false;
+			node = null;
+			break;
+		default:
+			node = parseItem();
+			break;
+		}
+		expect(')');
+		return node;
+	}
+
+	private List<Node> parseFilterList() throws AlambicException {
+		final List<Node> nodes = new ArrayList<>();
+		while (position < filter.length() && '(' == current()) {
+			nodes.add(parseFilter());
+		}
+		return nodes;
+	}
+
+	private Node parseItem() throws AlambicException {
+		final int start = position;
+		while (position < filter.length() && "=~<>:()".indexOf(current()) < 0) {
+			position++;
+		}
+		final String attributeName = filter.substring(start, position).trim();
+		if (attributeName.isEmpty() || position >= filter.length()) {
+			throw new AlambicException("Filtre LDAP invalide '" + filter + "' (attribut attendu en position " + start + ")");
+		}
+
+		final char operator = current();
+		if (':' == operator) {
+			throw new AlambicException("Filtre LDAP non supporté '" + filter + "' (filtre extensible)");
+		}
+		if ('=' != operator) {
+			position++;
+		}
+		expect('=');
+
+		final int valueStart = position;
+		while (position < filter.length() && ')' != current()) {
+			position++;
+		}
+		final String rawValue = filter.substring(valueStart, position);
+
+		if ('=' != operator || (rawValue.contains("*") && !"*".equals(rawValue))) {
+			// ordering, approximate and substrings items depend on the matching rules of the server
+			for (final String part : rawValue.split("\\*", -1)) {
+				unescape(part);
+			}
+			exact = false;
+			return null;
+		} else if ("*".equals(rawValue)) {
+			return attributes -> {
+				final Attribute attribute = attributes.get(attributeName);
+				return null != attribute && 0 < attribute.size();
+			};
+		} else {
+			final String value = unescape(rawValue);
+			return attributes -> anyValue(attributes, attributeName, value);
+		}
+	}
+
+	private static boolean anyValue(final Attributes attributes, final String attributeName, final String assertion) throws NamingException {
+		final Attribute attribute = attributes.get(attributeName);
+		if (null != attribute) {
+			final NamingEnumeration<?> values = attribute.getAll();
+			try {
+				while (values.hasMore()) {
+					if (assertion.equals(valueToString(values.next()))) {
+						return true;
+					}
+				}
+			} finally {
+				values.close();
+			}
+		}
+		return false;
+	}
+
+	private static String valueToString(final Object value) {
+		if (value instanceof byte[]) {
+			return new String((byte[]) value, StandardCharsets.UTF_8);
+		}
+		return (null != value) ? value.toString() : "";
+	}
+
+	private String unescape(final String value) throws AlambicException {
+		if (value.indexOf('\\') < 0) {
+			return value;
+		}
+		// escaped values are UTF-8 octets ('\c3\a9' is 'é')
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		int i = 0;
+		while (i < value.length()) {
+			final int escape = value.indexOf('\\', i);
+			final int end = (escape < 0) ? value.length() : escape;
+			final byte[] literal = value.substring(i, end).getBytes(StandardCharsets.UTF_8);
+			bytes.write(literal, 0, literal.length);
+			if (escape >= 0) {
+				if (escape + 2 >= value.length()) {
+					throw new AlambicException("Filtre LDAP invalide '" + filter + "' (séquence d'échappement incomplète)");
+				}
+				try {
+					bytes.write(Integer.parseInt(value.substring(escape + 1, escape + 3), 16));
+				} catch (NumberFormatException e) {
+					throw new AlambicException("Filtre LDAP invalide '" + filter + "' (séquence d'échappement '" + value.substring(escape, escape + 3) + "')");
+				}
+				i = escape + 3;
+			} else {
+				i = end;
+			}
+		}
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private char current() throws AlambicException {
+		if (position >= filter.length()) {
+			throw new AlambicException("Filtre LDAP invalide '" + filter + "' (fin inattendue)");
+		}
+		return filter.charAt(position);
+	}
+
+	private void expect(final char expected) throws AlambicException {
+		if (expected != current()) {
+			throw new AlambicException("Filtre LDAP invalide '" + filter + "' ('" + expected + "' attendu en position " + position + ")");
+		}
+		position++;
+	}
+
+}
@@ -87,6 +87,22 @@ public class LdapRelation {
 		this.value = value;
 	}
 
+	public List<String> getDnList() {
+		return listDn;
+	}
+
+	public String getAttribute() {
+		return attribute;
+	}
+
+	public int getUpdateMode() {
+		return updateMode;
+	}
+
+	public String getValue() {
+		return value;
+	}
+
 	private Attribute deleteValue(final Attribute attr) throws NamingException, UnsupportedEncodingException {
 		NamingEnumeration<?> values = attr.getAll();
 		try {
@@ -114,8 +130,13 @@ public class LdapRelation {
 		return attr;
 	}
 
+	/**
+	 * MAJ immédiate de l'attribut de chacune des entrées cibles.
+	 * 
+	 * @return faux si la MAJ d'au moins une des entrées cibles a échoué
+	 */
 	public boolean execute() {
-		boolean test = false;
+		boolean test = true;
 		SearchControls contraintes = new SearchControls();
 		contraintes.setSearchScope(SearchControls.ONELEVEL_SCOPE);
 		contraintes.setReturningAttributes(new String[] { attribute });
@@ -144,10 +165,12 @@ public class LdapRelation {
 				attrsToMod.put(newAttr);
 				entry.modifyAttributes("", DirContext.REPLACE_ATTRIBUTE, attrsToMod);
 			} catch (NamingException e) {
+				test = false;
 				log.error("MAJ de la valeur (" + value + ") de l'attribut(" + attribute + ")de l'entrée(" + dn + ") : ");
 				log.error("   -> JAVA ERROR = " + e.getMessage());
 			} catch (UnsupportedEncodingException e) {
 				// TODO Auto-generated catch block
+				test = false;
 				log.error("Effacement de la valeur (" + value + ") de l'attribut(" + attribute + ")de l'entrée(" + dn + ") : ");
 				log.error("   -> JAVA ERROR = " + e.getMessage());
 			}
@@ -0,0 +1,296 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.ldap;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.AttributeInUseException;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.ModificationItem;
+import javax.naming.directory.NoSuchAttributeException;
+
+import fr.gouv.education.acrennes.alambic.utils.Functions;
+import fr.gouv.education.acrennes.alambic.utils.LdapUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Mises en relation d'entrées (attributs member / memberOf...) accumulées sur toute la durée d'un job.
+ * 
+ * Les valeurs à ajouter et à supprimer sont regroupées par entrée cible : une seule modification (ajouts et
+ * suppressions de valeurs, sans lecture préalable de l'entrée) est envoyée par entrée cible lors de l'écriture, à la
+ * fin du job ou dès que le nombre d'entrées cibles en attente atteint le seuil. Si l'annuaire rejette la modification
+ * (valeur déjà présente ou absente), l'entrée cible est relue et ses valeurs remplacées, comme pour une mise en relation
+ * immédiate. Partagé par les threads et les pages d'une même destination (cf. {@link LdapRelationBuffers}).
+ * 
+ * En synchronisation incrémentale, l'empreinte d'une entrée source n'est enregistrée qu'après l'écriture de ses mises en
+ * relation, et elle est supprimée si l'une d'elles échoue.
+ */
+public class LdapRelationBuffer {
+
+	private static final Log log = LogFactory.getLog(LdapRelationBuffer.class);
+
+	/*
+	 * Pending values of an attribute of a target entry (keyed by their lower case representation)
+	 */
+	private static class Delta {
+		private final Map<String, String> valuesToAdd = new LinkedHashMap<>();
+		private final Map<String, String> valuesToDelete = new LinkedHashMap<>();
+	}
+
+	private final int threshold;
+	private final EntrySnapshots snapshots;
+	/* pending deltas by target entry (normalized DN) then by attribute */
+	private final Map<String, Map<String, Delta>> pendingDeltas = new LinkedHashMap<>();
+	private final Map<String, String> targetDns = new LinkedHashMap<>();
+	/* pivot DNs of the source entries by target entry (normalized DN) */
+	private final Map<String, Set<String>> sourceDns = new LinkedHashMap<>();
+	private long requestedCount;
+	private long modificationCount;
+	private long fallbackCount;
+	private long failureCount;
+
+	/**
+	 * @param threshold le nombre d'entrées cibles en attente déclenchant l'écriture des mises en relation
+	 */
+	public LdapRelationBuffer(final int threshold) {
+		this(threshold, null);
+	}
+
+	/**
+	 * @param threshold le nombre d'entrées cibles en attente déclenchant l'écriture des mises en relation
+	 * @param snapshots les empreintes de la synchronisation incrémentale (null si aucune)
+	 */
+	public LdapRelationBuffer(final int threshold, final EntrySnapshots snapshots) {
+		this.threshold = threshold;
+		this.snapshots = snapshots;
+	}
+
+	/**
+	 * Ajout d'une mise en relation : la valeur est ajoutée à (ou supprimée de) l'attribut de chacune des entrées cibles.
+	 * Une mise en relation annule la mise en relation inverse en attente pour la même valeur.
+	 * 
+	 * @param ctx le contexte racine, utilisé si le seuil d'écriture est atteint
+	 * @param relation la mise en relation
+	 */
+	public void add(final DirContext ctx, final LdapRelation relation) {
+		add(ctx, relation, null);
+	}
+
+	/**
+	 * Ajout d'une mise en relation demandée par une entrée du pivot : l'enregistrement de l'empreinte de l'entrée est
+	 * reporté jusqu'à l'écriture de la mise en relation.
+	 * 
+	 * @param ctx le contexte racine, utilisé si le seuil d'écriture est atteint
+	 * @param relation la mise en relation
+	 * @param source le DN de l'entrée du pivot (null si inconnu)
+	 */
+	public synchronized void add(final DirContext ctx, final LdapRelation relation, final String source) {
+		for (final String dn : relation.getDnList()) {
+			final String key = normalize(dn);
+			targetDns.putIfAbsent(key, dn);
+			if (null != snapshots && null != source) {
+				snapshots.hold(source);
+				sourceDns.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(source);
+			}
+			final Delta delta = pendingDeltas.computeIfAbsent(key, k -> new LinkedHashMap<>())
+					.computeIfAbsent(relation.getAttribute().toLowerCase(Locale.ROOT), k -> new Delta());
+			final String valueKey = relation.getValue().toLowerCase(Locale.ROOT);
+			if (LdapRelation.ADD == relation.getUpdateMode()) {
+				delta.valuesToDelete.remove(valueKey);
+				delta.valuesToAdd.put(valueKey, relation.getValue());
+			} else if (LdapRelation.DELETE == relation.getUpdateMode()) {
+				delta.valuesToAdd.remove(valueKey);
+				delta.valuesToDelete.put(valueKey, relation.getValue());
+			}
+			requestedCount++;
+		}
+
+		if (threshold <= pendingDeltas.size()) {
+			flush(ctx);
+		}
+	}
+
+	/**
+	 * Ecriture des mises en relation en attente, une modification par entrée cible.
+	 * 
+	 * @param ctx le contexte racine
+	 */
+	public synchronized void flush(final DirContext ctx) {
+		if (pendingDeltas.isEmpty()) {
+			return;
+		}
+
+		log.debug("Ecriture des mises en relation de " + pendingDeltas.size() + " entrées");
+		final Set<String> failedSources = new HashSet<>();
+		for (final Map.Entry<String, Map<String, Delta>> targetDeltas : pendingDeltas.entrySet()) {
+			final String dn = targetDns.get(targetDeltas.getKey());
+			final List<ModificationItem> items = new ArrayList<>();
+			for (final Map.Entry<String, Delta> attributeDelta : targetDeltas.getValue().entrySet()) {
+				final Delta delta = attributeDelta.getValue();
+				if (!delta.valuesToAdd.isEmpty()) {
+					items.add(new ModificationItem(DirContext.ADD_ATTRIBUTE, toAttribute(attributeDelta.getKey(), delta.valuesToAdd)));
+				}
+				if (!delta.valuesToDelete.isEmpty()) {
+					items.add(new ModificationItem(DirContext.REMOVE_ATTRIBUTE, toAttribute(attributeDelta.getKey(), delta.valuesToDelete)));
+				}
+			}
+			if (items.isEmpty()) {
+				continue;
+			}
+
+			try {
+				final String name = getName(ctx, dn);
+				try {
+					ctx.modifyAttributes(name, items.toArray(new ModificationItem[0]));
+				} catch (final AttributeInUseException | NoSuchAttributeException e) {
+					// some values are already added (or already deleted): the values are merged with the existing ones
+					fallbackCount++;
+					replaceValues(ctx, name, targetDeltas.getValue());
+				}
+				modificationCount++;
+			} catch (final NamingException | UnsupportedEncodingException e) {
+				failureCount++;
+				log.error("MAJ des mises en relation " + targetDeltas.getValue().keySet() + " de l'entrée(" + dn + ") : " + e.getMessage());
+				final Set<String> sources = sourceDns.get(targetDeltas.getKey());
+				if (null != sources) {
+					failedSources.addAll(sources);
+				}
+			}
+		}
+
+		// the snapshots of the source entries are persisted only if all their relations are written
+		if (null != snapshots) {
+			final Set<String> sources = new LinkedHashSet<>();
+			sourceDns.values().forEach(sources::addAll);
+			for (final String source : sources) {
+				if (failedSources.contains(source)) {
+					snapshots.drop(source);
+				} else {
+					snapshots.release(source);
+				}
+			}
+		}
+		pendingDeltas.clear();
+		targetDns.clear();
+		sourceDns.clear();
+	}
+
+	/**
+	 * Abandon des mises en relation en attente, qui n'ont pu être écrites : elles sont comptées en échec et les
+	 * empreintes de leurs entrées sources sont supprimées.
+	 */
+	public synchronized void discard() {
+		if (pendingDeltas.isEmpty()) {
+			return;
+		}
+
+		log.error("Abandon des mises en relation de " + pendingDeltas.size() + " entrées");
+		failureCount += pendingDeltas.size();
+		if (null != snapshots) {
+			final Set<String> sources = new LinkedHashSet<>();
+			sourceDns.values().forEach(sources::addAll);
+			sources.forEach(snapshots::drop);
+		}
+		pendingDeltas.clear();
+		targetDns.clear();
+		sourceDns.clear();
+	}
+
+	/*
+	 * Lecture des attributs de l'entrée cible et remplacement de leurs valeurs
+	 */
+	private void replaceValues(final DirContext ctx, final String name, final Map<String, Delta> deltas) throws NamingException, UnsupportedEncodingException {
+		final Attributes existingAttrs = ctx.getAttributes(name, deltas.keySet().toArray(new String[0]));
+		final List<ModificationItem> items = new ArrayList<>();
+		for (final Map.Entry<String, Delta> attributeDelta : deltas.entrySet()) {
+			final Delta delta = attributeDelta.getValue();
+			final Attribute existingAttr = existingAttrs.get(attributeDelta.getKey());
+			final Attribute newAttr = new BasicAttribute(attributeDelta.getKey());
+			if (null != existingAttr) {
+				final NamingEnumeration<?> values = existingAttr.getAll();
+				try {
+					while (values.hasMore()) {
+						final String existingValue = Functions.getInstance().valueToString(values.next());
+						if (!delta.valuesToDelete.containsKey(existingValue.toLowerCase(Locale.ROOT))) {
+							newAttr.add(existingValue);
+						}
+					}
+				} finally {
+					values.close();
+				}
+			}
+			for (final String value : delta.valuesToAdd.values()) {
+				if (!LdapUtils.attributeContainsValue(newAttr, value)) {
+					newAttr.add(value);
+				}
+			}
+			items.add(new ModificationItem(DirContext.REPLACE_ATTRIBUTE, newAttr));
+		}
+		ctx.modifyAttributes(name, items.toArray(new ModificationItem[0]));
+	}
+
+	/**
+	 * @return les compteurs des mises en relation : mises en relation demandées (une par entrée cible et par valeur),
+	 *         modifications envoyées, modifications rejouées après relecture, échecs, et taux de regroupement (mises en
+	 *         relation demandées par modification envoyée)
+	 */
+	public synchronized Map<String, Long> getMetrics() {
+		final Map<String, Long> metrics = new LinkedHashMap<>();
+		metrics.put("requested", requestedCount);
+		metrics.put("modifications", modificationCount);
+		metrics.put("fallbacks", fallbackCount);
+		metrics.put("failures", failureCount);
+		metrics.put("coalescing.ratio", (0 < modificationCount) ? Math.round((double) requestedCount / modificationCount) : 0);
+		return metrics;
+	}
+
+	private static Attribute toAttribute(final String attributeName, final Map<String, String> values) {
+		final Attribute attribute = new BasicAttribute(attributeName);
+		for (final String value : values.values()) {
+			attribute.add(value);
+		}
+		return attribute;
+	}
+
+	/*
+	 * Nom de l'entrée cible relatif au contexte racine
+	 */
+	private static String getName(final DirContext ctx, final String dn) throws NamingException {
+		final String base = ctx.getNameInNamespace().toLowerCase(Locale.ROOT);
+		final int index = dn.toLowerCase(Locale.ROOT).lastIndexOf(base);
+		return (0 < base.length() && 0 < index) ? dn.substring(0, index - 1) : dn;
+	}
+
+	private static String normalize(final String dn) {
+		return dn.replaceAll("\\s*,\\s*", ",").toLowerCase(Locale.ROOT);
+	}
+
+}
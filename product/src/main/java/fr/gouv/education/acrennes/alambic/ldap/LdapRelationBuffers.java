@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.ldap;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+import javax.naming.ldap.LdapContext;
+
+import fr.gouv.education.acrennes.alambic.monitoring.ActivityMBean;
+import fr.gouv.education.acrennes.alambic.monitoring.ActivityTrafficLight;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jdom2.Element;
+
+/**
+ * Registre des mises en relation différées d'une exécution : une seule instance par destination, partagée par toutes
+ * les pages d'un job paginé. Les mises en relation restantes sont écrites à la libération de la dernière référence à la
+ * destination, puis les empreintes des entrées sources sont enregistrées (hormis celles des entrées dont une mise en
+ * relation a échoué).
+ */
+public class LdapRelationBuffers {
+
+	private static final Log log = LogFactory.getLog(LdapRelationBuffers.class);
+
+	/*
+	 * Deferred relations of a destination and their users
+	 */
+	private static class Scope {
+		private LdapRelationBuffer buffer;
+		private LdapConnectionPool pool;
+		private EntrySnapshots snapshots;
+		private int references;
+	}
+
+	/* scopes by destination node (a paged job shares its destination node between all its pages) */
+	private static final Map<Element, Scope> scopes = new IdentityHashMap<>();
+
+	private LdapRelationBuffers() {
+		// pas besoin d'instancier cette classe qui ne contient que des méthodes statiques
+	}
+
+	/**
+	 * Ouverture de la portée des mises en relation d'une destination, avant le chargement de ses pages.
+	 * 
+	 * @param destinationNode le noeud de la destination
+	 */
+	public static synchronized void open(final Element destinationNode) {
+		scopes.computeIfAbsent(destinationNode, k -> new Scope()).references++;
+	}
+
+	/**
+	 * Mises en relation différées d'une destination (créées au premier appel).
+	 * 
+	 * @param destinationNode le noeud de la destination
+	 * @param threshold le nombre d'entrées cibles en attente déclenchant l'écriture des mises en relation
+	 * @param pool le pool de connexions de la destination
+	 * @param snapshots les empreintes de la synchronisation incrémentale (null si aucune)
+	 */
+	public static synchronized LdapRelationBuffer acquire(final Element destinationNode, final int threshold, final LdapConnectionPool pool, final EntrySnapshots snapshots) {
+		final Scope scope = scopes.computeIfAbsent(destinationNode, k -> new Scope());
+		if (null == scope.buffer) {
+			scope.buffer = new LdapRelationBuffer(threshold, snapshots);
+			scope.pool = pool;
+			scope.snapshots = snapshots;
+		}
+		scope.references++;
+		return scope.buffer;
+	}
+
+	/**
+	 * Libération d'une référence aux mises en relation d'une destination : la dernière référence écrit les mises en
+	 * relation restantes.
+	 * 
+	 * @param destinationNode le noeud de la destination
+	 * @param ctx le contexte racine (null pour emprunter une connexion au pool de la destination)
+	 * @param jobActivity l'activité renseignée par les compteurs des mises en relation (en erreur si l'une d'elles a échoué)
+	 */
+	public static void release(final Element destinationNode, final DirContext ctx, final ActivityMBean jobActivity) {
+		final Scope scope;
+		synchronized (LdapRelationBuffers.class) {
+			scope = scopes.get(destinationNode);
+			if (null == scope || 0 < --scope.references) {
+				return;
+			}
+			scopes.remove(destinationNode);
+		}
+
+		if (null != scope.buffer) {
+			write(scope, ctx);
+			if (null != jobActivity) {
+				final Map<String, Long> metrics = scope.buffer.getMetrics();
+				for (final Map.Entry<String, Long> metric : metrics.entrySet()) {
+					jobActivity.setMetric("ldap.relations." + metric.getKey(), metric.getValue());
+				}
+				if (0 < metrics.get("failures")) {
+					jobActivity.setTrafficLight(ActivityTrafficLight.RED);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Ecriture des mises en relation restantes de toutes les destinations de l'exécution.
+	 */
+	public static synchronized void close() {
+		for (final Scope scope : new ArrayList<>(scopes.values())) {
+			if (null != scope.buffer) {
+				write(scope, null);
+			}
+		}
+		scopes.clear();
+	}
+
+	/*
+	 * Ecriture des mises en relation restantes puis enregistrement des empreintes de leurs entrées sources
+	 */
+	private static void write(final Scope scope, final DirContext ctx) {
+		LdapContext borrowedCtx = null;
+		try {
+			if (null == ctx) {
+				borrowedCtx = scope.pool.borrow();
+			}
+			scope.buffer.flush((null != ctx) ? ctx : borrowedCtx);
+		} catch (final NamingException e) {
+			log.error("Failed to write the pending relations, error : " + e.getMessage(), e);
+			// the snapshots of their source entries are not persisted
+			scope.buffer.discard();
+		} finally {
+			if (null != borrowedCtx) {
+				scope.pool.release(borrowedCtx);
+			}
+		}
+
+		if (null != scope.snapshots) {
+			scope.snapshots.flush();
+		}
+	}
+
+}
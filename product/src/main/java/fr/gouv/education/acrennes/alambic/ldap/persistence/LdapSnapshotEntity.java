@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.ldap.persistence;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import org.eclipse.persistence.annotations.Index;
+import org.eclipse.persistence.annotations.Indexes;
+
+/**
+ * Empreinte de l'état d'une entrée du pivot lors de sa dernière écriture dans l'annuaire (synchronisation incrémentale).
+ */
+@Entity
+@Indexes({
+		@Index(name = "ldapsnapshotentity_pk_idx", unique = true, columnNames = { "id" }),
+		@Index(name = "ldapsnapshotentity_dn_idx", unique = true, columnNames = { "snapshot", "dn" })
+})
+public class LdapSnapshotEntity implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.SEQUENCE)
+	@Column(name = "id")
+	private Long id;
+
+	@Column(name = "snapshot")
+	private String snapshot;
+
+	@Column(name = "dn", length = 1024)
+	private String dn;
+
+	@Column(name = "hash")
+	private String hash;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "date")
+	private Date date;
+
+	public LdapSnapshotEntity() {
+	}
+
+	public LdapSnapshotEntity(final String snapshot, final String dn, final String hash) {
+		this.snapshot = snapshot;
+		this.dn = dn;
+		setHash(hash);
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public void setId(final Long id) {
+		this.id = id;
+	}
+
+	public String getSnapshot() {
+		return snapshot;
+	}
+
+	public void setSnapshot(final String snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	public String getDn() {
+		return dn;
+	}
+
+	public void setDn(final String dn) {
+		this.dn = dn;
+	}
+
+	public String getHash() {
+		return hash;
+	}
+
+	/**
+	 * Mise à jour de l'empreinte (et de sa date)
+	 */
+	public void setHash(final String hash) {
+		this.hash = hash;
+		date = new Date();
+	}
+
+	public Date getDate() {
+		return date;
+	}
+
+	public void setDate(final Date date) {
+		this.date = date;
+	}
+
+	@Override
+	public String toString() {
+		return "{\"id\":" + id + ", \"snapshot\":\"" + snapshot + "\", \"dn\":\"" + dn + "\", \"hash\":\"" + hash + "\"}";
+	}
+
+}
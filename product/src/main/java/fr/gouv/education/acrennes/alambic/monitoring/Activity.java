@@ -20,6 +20,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import javax.management.ObjectName;
@@ -53,6 +56,7 @@ public class Activity implements ActivityMBean {
 	private ObjectName objectName;
 	private List<Exception> errors;
 	private ActivityCache cache;
+	private final Map<String, Long> metrics;
 	
 	public Activity(final String name, final ObjectName objectName, final String threadName) {
 		this.jobName = name;
@@ -69,6 +73,7 @@ public class Activity implements ActivityMBean {
 		this.parentActivity = null;
 		this.innerActivitiesList = Collections.emptyList();
 		this.errors = Collections.emptyList();
+		this.metrics = new ConcurrentHashMap<>();
 	}
 
 	@Override
@@ -310,4 +315,19 @@ public class Activity implements ActivityMBean {
 		}
 		return this.cache;
 	}
-}
\ No newline at end of file
+
+	@Override
+	public Map<String, Long> getMetrics() {
+		return new TreeMap<>(this.metrics);
+	}
+
+	@Override
+	public void setMetric(final String name, final long value) {
+		this.metrics.put(name, value);
+	}
+
+	@Override
+	public void addMetric(final String name, final long delta) {
+		this.metrics.merge(name, delta, Long::sum);
+	}
+}
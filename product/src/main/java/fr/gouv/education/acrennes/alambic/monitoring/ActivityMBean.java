@@ -17,6 +17,7 @@
 package fr.gouv.education.acrennes.alambic.monitoring;
 
 import java.util.List;
+import java.util.Map;
 
 import javax.management.ObjectName;
 
@@ -95,5 +96,11 @@ public interface ActivityMBean {
 	
 	public Report getReport();
 
+	public Map<String, Long> getMetrics();
+
+	public void setMetric(String name, long value);
+
+	public void addMetric(String name, long delta);
+
 	ActivityCache getCache();
 }
\ No newline at end of file
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.monitoring;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogramme de latences à buckets fixes (en millisecondes), alimenté sans verrou
+ * par plusieurs threads et restitué sous forme de métriques d'une activité.
+ * Les percentiles sont estimés par la borne supérieure du bucket qui les contient.
+ */
+public class LatencyHistogram {
+
+	private static final long[] BOUNDS_MS = { 1, 2, 5, 10, 25, 50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000 };
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS_MS.length + 1);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(final long durationNanos) {
+		long millis = TimeUnit.NANOSECONDS.toMillis(Math.max(0, durationNanos));
+		int index = 0;
+		while (index < BOUNDS_MS.length && millis > BOUNDS_MS[index]) {
+			index++;
+		}
+		buckets.incrementAndGet(index);
+		count.incrementAndGet();
+		sum.addAndGet(millis);
+		max.accumulateAndGet(millis, Math::max);
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public long getMean() {
+		long total = count.get();
+		return (0 == total) ? 0 : sum.get() / total;
+	}
+
+	/**
+	 * @param percentile le percentile souhaité, entre 0 et 100
+	 * @return la borne supérieure (en millisecondes) du bucket contenant le percentile, bornée par la latence maximale observée
+	 */
+	public long getPercentile(final double percentile) {
+		long total = count.get();
+		if (0 == total) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long cumulated = 0;
+		for (int index = 0; index < BOUNDS_MS.length; index++) {
+			cumulated += buckets.get(index);
+			if (cumulated >= rank) {
+				return Math.min(BOUNDS_MS[index], max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Publie l'histogramme dans les métriques de l'activité : nombre de mesures, moyenne, percentiles 50/95/99, maximum
+	 * et effectif de chaque bucket (ex. 'prefix.le.250ms').
+	 */
+	public void report(final ActivityMBean activity, final String prefix) {
+		activity.setMetric(prefix + ".count", getCount());
+		activity.setMetric(prefix + ".mean.ms", getMean());
+		activity.setMetric(prefix + ".p50.ms", getPercentile(50));
+		activity.setMetric(prefix + ".p95.ms", getPercentile(95));
+		activity.setMetric(prefix + ".p99.ms", getPercentile(99));
+		activity.setMetric(prefix + ".max.ms", getMax());
+		for (int index = 0; index < BOUNDS_MS.length; index++) {
+			activity.setMetric(prefix + ".le." + BOUNDS_MS[index] + "ms", buckets.get(index));
+		}
+		activity.setMetric(prefix + ".gt." + BOUNDS_MS[BOUNDS_MS.length - 1] + "ms", buckets.get(BOUNDS_MS.length));
+	}
+
+}
@@ -16,6 +16,7 @@
  ******************************************************************************/
 package fr.gouv.education.acrennes.alambic.nuxeo;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -23,6 +24,7 @@ import java.util.Map;
 import fr.gouv.education.acrennes.alambic.exception.AlambicException;
 import fr.gouv.education.acrennes.alambic.jobs.CallableContext;
 import fr.gouv.education.acrennes.alambic.jobs.load.AbstractDestination;
+import fr.gouv.education.acrennes.alambic.jobs.load.PivotReader;
 import fr.gouv.education.acrennes.alambic.monitoring.ActivityMBean;
 import fr.gouv.education.acrennes.alambic.monitoring.ActivityTrafficLight;
 import fr.gouv.education.acrennes.alambic.nuxeo.marshaller.EsMarshaller;
@@ -31,7 +33,6 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jdom2.Element;
-import org.jdom2.input.SAXBuilder;
 import org.nuxeo.ecm.automation.client.OperationRequest;
 import org.nuxeo.ecm.automation.client.Session;
 import org.nuxeo.ecm.automation.client.jaxrs.impl.HttpAutomationClient;
@@ -39,7 +40,6 @@ import org.nuxeo.ecm.automation.client.jaxrs.spi.JsonMarshalling;
 import org.nuxeo.ecm.automation.client.model.IdRef;
 import org.nuxeo.ecm.automation.client.model.OperationDocumentation;
 import org.nuxeo.ecm.automation.client.model.OperationRegistry;
-import org.xml.sax.InputSource;
 
 public class AutomationChainRunner extends AbstractDestination {
 
@@ -48,7 +48,8 @@ public class AutomationChainRunner extends AbstractDestination {
 	private final HttpAutomationClient client;
 	private final Session session;
 	private int count;
-	private final Element pivot;
+	private final String pivot;
+	private final int chainsCount;
 	private OperationRegistry registry = null;
 
 	public AutomationChainRunner(final CallableContext context, final Element destinationNode, final ActivityMBean jobActivity) throws AlambicException {
@@ -87,8 +88,9 @@ public class AutomationChainRunner extends AbstractDestination {
 		try {
 			client = new HttpAutomationClient(uri);
 			session = client.getSession(login, pwd);
-			final InputSource fPivot = new InputSource(pivotFichier);
-			pivot = (new SAXBuilder()).build(fPivot).getRootElement();
+			// The chains are read from the pivot at execution, its syntax is checked beforehand
+			pivot = pivotFichier;
+			chainsCount = PivotReader.outline(pivotFichier, "chains").getCount();
 			count = 0;
 
 			registry = JsonMarshalling.readRegistry("{\"operations\":[" + OperationPersistFile.getJSONDescription() + "," + OperationGetLocalFile.getJSONDescription() + "," + OperationSetVar.getJSONDescription() + "," + OperationSetInputVar.getJSONDescription() + "," + OperationRestoreDocumentInput.getJSONDescription() + "]}");
@@ -111,20 +113,16 @@ public class AutomationChainRunner extends AbstractDestination {
 	@Override
 	public void execute() {
 		try {
-			for (final Map<String, List<String>> currentResult : source.getEntries()) {
-				// Itération sur la liste des entrées du pivot
-				int index = 1;
-				List<Element> chains = (List<Element>) pivot.getChild("chains").getChildren();
-				for (final Element chain : chains) {
-					// activity monitoring
-					jobActivity.setProgress((index * 100) / chains.size());
-					jobActivity.setProcessing("processing entry " + index++ + "/" + chains.size());
-					
-					final String documentId = ((null != currentResult.get("id")) && (0 < currentResult.get("id").size())) ? currentResult.get("id").get(0) : null;
-					runChain(documentId, chain);
+			final List<Map<String, List<String>>> entries = source.getEntries();
+			// The chains are streamed when they are run once only (a single source entry), else they are loaded once for all the entries
+			try (PivotReader reader = new PivotReader(pivot, "chains")) {
+				if (1 < entries.size()) {
+					final List<Element> chains = new ArrayList<>(chainsCount);
+					reader.forEachRemaining(chains::add);
+					runChains(entries, chains);
+				} else {
+					runChains(entries, () -> reader);
 				}
-
-				count++;
 			}
 		} catch (final Exception e) {
 			jobActivity.setTrafficLight(ActivityTrafficLight.RED);
@@ -132,6 +130,23 @@ public class AutomationChainRunner extends AbstractDestination {
 		}
 	}
 
+	private void runChains(final List<Map<String, List<String>>> entries, final Iterable<Element> chains) {
+		for (final Map<String, List<String>> currentResult : entries) {
+			// Itération sur la liste des entrées du pivot
+			int index = 1;
+			for (final Element chain : chains) {
+				// activity monitoring
+				jobActivity.setProgress((index * 100) / chainsCount);
+				jobActivity.setProcessing("processing entry " + index++ + "/" + chainsCount);
+
+				final String documentId = ((null != currentResult.get("id")) && (0 < currentResult.get("id").size())) ? currentResult.get("id").get(0) : null;
+				runChain(documentId, chain);
+			}
+
+			count++;
+		}
+	}
+
 	@Override
 	public void close() {
 		if (client != null) {
@@ -0,0 +1,380 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.persistence;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import fr.gouv.education.acrennes.alambic.jobs.ExecutorFactory;
+import fr.gouv.education.acrennes.alambic.monitoring.ActivityMBean;
+
+/**
+ * Pool borné de connexions JDBC à une base de données, partagé par les sources et destinations SQL d'une exécution qui
+ * accèdent à cette base avec le même compte (cf. {@link JdbcConnectionPools}).
+ * <p>
+ * Les connexions prêtées sont des mandataires : leur fermeture ({@link Connection#close()}) restitue la connexion au pool
+ * après annulation de la transaction en cours et rétablissement du mode auto-commit. Une connexion inutilisée depuis plus
+ * longtemps que l'intervalle de validation est vérifiée avant d'être prêtée ; au-delà du délai d'inactivité, elle est fermée.
+ * </p>
+ */
+public class JdbcConnectionPool {
+
+	private static final Log log = LogFactory.getLog(JdbcConnectionPool.class);
+
+	private static final String METRIC_PREFIX = "jdbc.pool.";
+	private static final int VALIDATION_TIMEOUT = 5; // seconds
+
+	private final String name;
+	private final String uri;
+	private final String user;
+	private final String password;
+	private final int maxSize;
+	private final long maxWait;
+	private final long idleTimeout;
+	private final long validationInterval;
+	private final Semaphore permits;
+	private final ConcurrentLinkedDeque<IdleConnection> idleConnections;
+	private final AtomicInteger active;
+	private final AtomicInteger peakActive;
+	private final AtomicLong created;
+	private final AtomicLong destroyed;
+	private final AtomicLong borrowed;
+	private final AtomicLong validationFailures;
+	private final AtomicLong waitTime;
+	private final AtomicLong maxWaitTime;
+	private volatile boolean isClosed;
+
+	/**
+	 * @param name               le nom du pool (pour le suivi)
+	 * @param uri                l'URL JDBC de la base de données
+	 * @param user               le compte de connexion (null si l'URL porte l'authentification)
+	 * @param password           le mot de passe du compte
+	 * @param maxSize            le nombre maximal de connexions ouvertes simultanément (pas de limite si nul)
+	 * @param maxWait            le délai d'attente maximal d'une connexion disponible (ms)
+	 * @param idleTimeout        le délai d'inactivité au-delà duquel une connexion est fermée (ms)
+	 * @param validationInterval le délai d'inactivité au-delà duquel une connexion est vérifiée avant d'être prêtée (ms)
+	 */
+	public JdbcConnectionPool(final String name, final String uri, final String user, final String password, final int maxSize, final long maxWait, final long idleTimeout,
+			final long validationInterval) {
+		this.name = name;
+		this.uri = uri;
+		this.user = user;
+		this.password = password;
+		this.maxSize = maxSize;
+		this.maxWait = maxWait;
+		this.idleTimeout = idleTimeout;
+		this.validationInterval = validationInterval;
+		this.permits = (0 < maxSize) ? new Semaphore(maxSize, true) : null;
+		this.idleConnections = new ConcurrentLinkedDeque<>();
+		this.active = new AtomicInteger();
+		this.peakActive = new AtomicInteger();
+		this.created = new AtomicLong();
+		this.destroyed = new AtomicLong();
+		this.borrowed = new AtomicLong();
+		this.validationFailures = new AtomicLong();
+		this.waitTime = new AtomicLong();
+		this.maxWaitTime = new AtomicLong();
+		this.isClosed = false;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public int getActiveCount() {
+		return active.get();
+	}
+
+	public int getIdleCount() {
+		return idleConnections.size();
+	}
+
+	public long getCreatedCount() {
+		return created.get();
+	}
+
+	public long getWaitTime() {
+		return TimeUnit.NANOSECONDS.toMillis(waitTime.get());
+	}
+
+	/**
+	 * Emprunt d'une connexion, à restituer par sa fermeture.
+	 *
+	 * @throws SQLException si aucune connexion n'est disponible dans le délai imparti ou si l'ouverture échoue
+	 */
+	public Connection borrow() throws SQLException {
+		if (isClosed) {
+			throw new SQLException("The JDBC connection pool '" + name + "' is closed");
+		}
+
+		acquire();
+		try {
+			evictIdleConnections();
+			Connection connection = null;
+			IdleConnection idle;
+			while (null == connection && null != (idle = idleConnections.pollFirst())) {
+				if (isValid(idle)) {
+					connection = idle.connection;
+				} else {
+					destroy(idle.connection);
+				}
+			}
+			if (null == connection) {
+				connection = (null != user) ? DriverManager.getConnection(uri, user, password) : DriverManager.getConnection(uri);
+				created.incrementAndGet();
+			}
+			borrowed.incrementAndGet();
+			peakActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+			return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, new PooledConnection(connection));
+		} catch (SQLException | RuntimeException e) {
+			releasePermit();
+			throw e;
+		}
+	}
+
+	/**
+	 * Fermeture des connexions inactives. Les connexions empruntées seront fermées à leur restitution.
+	 */
+	public void close() {
+		isClosed = true;
+		for (IdleConnection idle = idleConnections.pollFirst(); null != idle; idle = idleConnections.pollFirst()) {
+			destroy(idle.connection);
+		}
+		if (0 < active.get()) {
+			log.warn("The JDBC connection pool '" + name + "' is closed while " + active.get() + " connections are still borrowed");
+		}
+	}
+
+	public Map<String, Long> getMetrics() {
+		Map<String, Long> metrics = new LinkedHashMap<>();
+		metrics.put("created", created.get());
+		metrics.put("destroyed", destroyed.get());
+		metrics.put("borrowed", borrowed.get());
+		metrics.put("active", (long) getActiveCount());
+		metrics.put("active.max", (long) peakActive.get());
+		metrics.put("idle", (long) getIdleCount());
+		metrics.put("validation.failures", validationFailures.get());
+		metrics.put("wait.ms", getWaitTime());
+		metrics.put("wait.max.ms", TimeUnit.NANOSECONDS.toMillis(maxWaitTime.get()));
+		return metrics;
+	}
+
+	public void report(final ActivityMBean activity) {
+		for (Map.Entry<String, Long> metric : getMetrics().entrySet()) {
+			activity.setMetric(METRIC_PREFIX + name + "." + metric.getKey(), metric.getValue());
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("{\"name\":\"").append(name).append("\", \"max_size\":").append(maxSize);
+		for (Map.Entry<String, Long> metric : getMetrics().entrySet()) {
+			sb.append(", \"").append(metric.getKey().replace('.', '_')).append("\":").append(metric.getValue());
+		}
+		return sb.append("}").toString();
+	}
+
+	private void release(final Connection connection) {
+		try {
+			if (!connection.getAutoCommit()) {
+				connection.rollback();
+				connection.setAutoCommit(true);
+			}
+			connection.clearWarnings();
+			if (isClosed || connection.isClosed()) {
+				destroy(connection);
+			} else {
+				idleConnections.offerFirst(new IdleConnection(connection));
+			}
+		} catch (SQLException e) {
+			log.warn("Failed to reset the JDBC connection of the pool '" + name + "', it is closed, error : " + e.getMessage());
+			destroy(connection);
+		} finally {
+			active.decrementAndGet();
+			releasePermit();
+		}
+	}
+
+	private void acquire() throws SQLException {
+		if (null != permits && !permits.tryAcquire()) {
+			long start = System.nanoTime();
+			final boolean[] acquired = { false };
+			try {
+				ExecutorFactory.block(new ForkJoinPool.ManagedBlocker() {
+					@Override
+					public boolean block() throws InterruptedException {
+						if (!acquired[0]) {
+							acquired[0] = permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS);
+						}
+						return true;
+					}
+
+					@Override
+					public boolean isReleasable() {
+						return acquired[0] || (acquired[0] = permits.tryAcquire());
+					}
+				});
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted while waiting for a connection of the JDBC pool '" + name + "'", e);
+			} finally {
+				long wait = System.nanoTime() - start;
+				waitTime.addAndGet(wait);
+				maxWaitTime.accumulateAndGet(wait, Math::max);
+			}
+
+			if (!acquired[0]) {
+				throw new SQLException("No connection of the JDBC pool '" + name + "' got available within " + maxWait + " ms (max size is " + maxSize + ")");
+			}
+		}
+	}
+
+	private void releasePermit() {
+		if (null != permits) {
+			permits.release();
+		}
+	}
+
+	private boolean isValid(final IdleConnection idle) {
+		boolean isValid = true;
+
+		if (validationInterval < (System.currentTimeMillis() - idle.since)) {
+			try {
+				isValid = idle.connection.isValid(VALIDATION_TIMEOUT);
+			} catch (SQLException | AbstractMethodError e) {
+				// drivers prior to JDBC 4 don't support the validation
+				isValid = true;
+			}
+			if (!isValid) {
+				log.debug("An idle connection of the JDBC pool '" + name + "' is no longer valid");
+				validationFailures.incrementAndGet();
+			}
+		}
+
+		return isValid;
+	}
+
+	private void evictIdleConnections() {
+		long now = System.currentTimeMillis();
+		Iterator<IdleConnection> itr = idleConnections.descendingIterator();
+		while (itr.hasNext()) {
+			IdleConnection idle = itr.next();
+			if (idleTimeout < (now - idle.since) && idleConnections.removeFirstOccurrence(idle)) {
+				destroy(idle.connection);
+			}
+		}
+	}
+
+	private void destroy(final Connection connection) {
+		destroyed.incrementAndGet();
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			log.debug("Failed to close a connection of the JDBC pool '" + name + "', error : " + e.getMessage());
+		}
+	}
+
+	private static class IdleConnection {
+
+		private final Connection connection;
+		private final long since;
+
+		IdleConnection(final Connection connection) {
+			this.connection = connection;
+			this.since = System.currentTimeMillis();
+		}
+
+	}
+
+	/**
+	 * Connexion prêtée : sa fermeture la restitue au pool, elle n'est plus utilisable ensuite.
+	 */
+	private class PooledConnection implements InvocationHandler {
+
+		private Connection connection;
+
+		PooledConnection(final Connection connection) {
+			this.connection = connection;
+		}
+
+		@Override
+		public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+			Object result;
+
+			switch (method.getName()) {
+			case "close":
+				Connection returned;
+				synchronized (this) {
+					returned = connection;
+					connection = null;
+				}
+				if (null != returned) {
+					release(returned);
+				}
+				result = null;
+				break;
+			case "isClosed":
+				result = (null == connection) || connection.isClosed();
+				break;
+			case "equals":
+				result = (proxy == args[0]);
+				break;
+			case "hashCode":
+				result = System.identityHashCode(proxy);
+				break;
+			case "toString":
+				result = "Pooled connection of '" + name + "' (" + connection + ")";
+				break;
+			default:
+				Connection target = connection;
+				if (null == target) {
+					throw new SQLException("The connection is returned to the JDBC pool '" + name + "'");
+				}
+				try {
+					result = method.invoke(target, args);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+			}
+
+			return result;
+		}
+
+	}
+
+}
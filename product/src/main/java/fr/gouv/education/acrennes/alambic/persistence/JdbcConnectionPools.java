@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.persistence;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import fr.gouv.education.acrennes.alambic.monitoring.ActivityMBean;
+import fr.gouv.education.acrennes.alambic.utils.Config;
+
+/**
+ * Registre des pools de connexions JDBC d'une exécution : un pool par base de données et compte (URL, utilisateur et mot
+ * de passe résolus), partagé par toutes les sources et destinations SQL qui l'utilisent.
+ * Les pools sont paramétrés par les propriétés du fichier 'config.properties' ({@value #POOL_MAX_SIZE},
+ * {@value #POOL_MAX_WAIT}, {@value #POOL_IDLE_TIMEOUT} et {@value #POOL_VALIDATION_INTERVAL}).
+ */
+public class JdbcConnectionPools {
+
+	private static final Log log = LogFactory.getLog(JdbcConnectionPools.class);
+
+	public static final String POOL_MAX_SIZE = "jdbc.pool.max.size";
+	public static final String POOL_MAX_WAIT = "jdbc.pool.max.wait";
+	public static final String POOL_IDLE_TIMEOUT = "jdbc.pool.idle.timeout";
+	public static final String POOL_VALIDATION_INTERVAL = "jdbc.pool.validation.interval";
+	private static final int DEFAULT_POOL_MAX_SIZE = 20;
+	private static final long DEFAULT_POOL_MAX_WAIT = 60000;
+	private static final long DEFAULT_POOL_IDLE_TIMEOUT = 300000;
+	private static final long DEFAULT_POOL_VALIDATION_INTERVAL = 30000;
+
+	private static final ConcurrentMap<String, JdbcConnectionPool> pools = new ConcurrentHashMap<>();
+
+	private JdbcConnectionPools() {
+		// pas besoin d'instancier cette classe qui ne contient que des méthodes statiques
+	}
+
+	/**
+	 * Emprunt d'une connexion au pool associé à la base de données et au compte (créé au premier appel).
+	 * La connexion est restituée au pool par sa fermeture.
+	 *
+	 * @param driver   la classe du pilote JDBC
+	 * @param uri      l'URL JDBC de la base de données
+	 * @param user     le compte de connexion (null si l'URL porte l'authentification)
+	 * @param password le mot de passe du compte
+	 */
+	public static Connection getConnection(final String driver, final String uri, final String user, final String password) throws SQLException, ClassNotFoundException {
+		return getPool(driver, uri, user, password).borrow();
+	}
+
+	public static JdbcConnectionPool getPool(final String driver, final String uri, final String user, final String password) throws ClassNotFoundException {
+		Class.forName(driver);
+		String key = uri + '\u0000' + StringUtils.defaultString(user) + '\u0000' + StringUtils.defaultString(password);
+		return pools.computeIfAbsent(key, k -> {
+			JdbcConnectionPool pool = new JdbcConnectionPool(getName(uri, user), uri, user, password,
+					(int) getSetting(POOL_MAX_SIZE, DEFAULT_POOL_MAX_SIZE),
+					getSetting(POOL_MAX_WAIT, DEFAULT_POOL_MAX_WAIT),
+					getSetting(POOL_IDLE_TIMEOUT, DEFAULT_POOL_IDLE_TIMEOUT),
+					getSetting(POOL_VALIDATION_INTERVAL, DEFAULT_POOL_VALIDATION_INTERVAL));
+			log.info("JDBC connection pool '" + pool.getName() + "' created (max size " + pool.getMaxSize() + ")");
+			return pool;
+		});
+	}
+
+	public static List<JdbcConnectionPool> getPools() {
+		return new ArrayList<>(pools.values());
+	}
+
+	/**
+	 * Exposition des jauges de tous les pools (connexions actives, temps d'attente...) dans le suivi d'activité d'un job.
+	 */
+	public static void report(final ActivityMBean activity) {
+		for (JdbcConnectionPool pool : getPools()) {
+			pool.report(activity);
+		}
+	}
+
+	/**
+	 * Fermeture de tous les pools de l'exécution.
+	 */
+	public static void close() {
+		for (JdbcConnectionPool pool : getPools()) {
+			log.info("Closing the JDBC connection pool : " + pool);
+			pool.close();
+		}
+		pools.clear();
+	}
+
+	private static String getName(final String uri, final String user) {
+		// the URL parameters might hold credentials
+		String name = uri.replaceAll("[;?].*$", "");
+		return (null != user) ? user + "@" + name : name;
+	}
+
+	private static long getSetting(final String property, final long defaultValue) {
+		long value = defaultValue;
+
+		Properties properties = Config.getProperties();
+		String setting = (null != properties) ? properties.getProperty(property) : null;
+		if (StringUtils.isNotBlank(setting)) {
+			try {
+				value = Long.parseLong(setting.trim());
+			} catch (NumberFormatException e) {
+				log.error("Invalid value '" + setting + "' of the property '" + property + "', the default value " + defaultValue + " is used");
+			}
+		}
+
+		return value;
+	}
+
+}
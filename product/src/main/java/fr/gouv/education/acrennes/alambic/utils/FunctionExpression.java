@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Expression analysée : texte dans lequel sont imbriqués des appels de fonctions suivant le motif
+ * (NOMFONCTION mem='VARIABLE')PARAM(/NOMFONCTION).
+ * 
+ * L'expression est découpée en une seule passe en fragments de texte et en appels, le paramètre de chaque appel étant
+ * lui-même une expression. Les expressions ne sont pas conservées en cache : les textes reçus sont déjà résolus avec
+ * les valeurs des entrées et ne se répètent donc pas d'une entrée à l'autre.
+ */
+public final class FunctionExpression {
+
+	private static final Pattern FUNCTION_PATTERN = Pattern.compile("\\(([a-zA-Z\\.0-9 ]+)([ ]*mem='([^\\ ']*)?'[ ]*)?\\)(.+?)\\(/\\1\\)");
+	private static final String FUNCTION_END_MARKER = "(/";
+
+	/**
+	 * Appel de fonction d'une expression
+	 */
+	public static final class Call {
+		private final String name;
+		private final boolean memorized;
+		private final String memory;
+		private final String fulltext;
+		private final FunctionExpression param;
+
+		private Call(final String name, final boolean memorized, final String memory, final String fulltext, final FunctionExpression param) {
+			this.name = name;
+			this.memorized = memorized;
+			this.memory = memory;
+			this.fulltext = fulltext;
+			this.param = param;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return vrai si le résultat de l'appel est mémorisé dans une variable (mem='VARIABLE')
+		 */
+		public boolean isMemorized() {
+			return memorized;
+		}
+
+		public String getMemory() {
+			return memory;
+		}
+
+		public String getFulltext() {
+			return fulltext;
+		}
+
+		public FunctionExpression getParam() {
+			return param;
+		}
+	}
+
+	private final String text;
+	/* the texts surrounding the calls: texts.size() == calls.size() + 1 */
+	private final List<String> texts;
+	private final List<Call> calls;
+
+	private FunctionExpression(final String text, final List<String> texts, final List<Call> calls) {
+		this.text = text;
+		this.texts = texts;
+		this.calls = calls;
+	}
+
+	/**
+	 * Analyse d'une expression.
+	 * 
+	 * @param text le texte de l'expression
+	 * @return l'expression analysée
+	 */
+	public static FunctionExpression compile(final String text) {
+		if (!text.contains(FUNCTION_END_MARKER)) {
+			// no function call: no need to run the pattern
+			return new FunctionExpression(text, Collections.singletonList(text), Collections.emptyList());
+		}
+		return parse(text);
+	}
+
+	private static FunctionExpression parse(final String text) {
+		final List<String> texts = new ArrayList<>();
+		final List<Call> calls = new ArrayList<>();
+		final Matcher m = FUNCTION_PATTERN.matcher(text);
+		int start = 0;
+		while (m.find()) {
+			texts.add(text.substring(start, m.start()));
+			final String param = m.group(4);
+			calls.add(new Call(m.group(1), null != m.group(2), m.group(3), m.group(0),
+					param.contains(FUNCTION_END_MARKER) ? parse(param) : new FunctionExpression(param, Collections.singletonList(param), Collections.emptyList())));
+			start = m.end();
+		}
+		texts.add(text.substring(start));
+		return new FunctionExpression(text, Collections.unmodifiableList(texts), Collections.unmodifiableList(calls));
+	}
+
+	/**
+	 * @return le texte source de l'expression
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * @return vrai si l'expression ne contient aucun appel de fonction
+	 */
+	public boolean isLiteral() {
+		return calls.isEmpty();
+	}
+
+	/**
+	 * @return les fragments de texte entourant les appels (un de plus que d'appels)
+	 */
+	public List<String> getTexts() {
+		return texts;
+	}
+
+	/**
+	 * @return les appels de fonctions, dans leur ordre d'apparition
+	 */
+	public List<Call> getCalls() {
+		return calls;
+	}
+
+}
@@ -37,16 +37,18 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Hashtable;
-import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.naming.CommunicationException;
 import javax.naming.Context;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
@@ -93,6 +95,7 @@ public class Functions {
 
     private static final Log LOG = LogFactory.getLog(Functions.class);
     private static final String UNICITY_PATTERN_COMPLIANCY = "(candidate=\"([^\"\\|]+)\"(,login=\"([^\"\\|]+)\")?(,password=\"([^\"\\|]+)\")?\\|search=)?((ldaps?:\\/\\/.+)\\?\\?sub\\?.*\\([^=\\(\\)]+=[^=\\(\\)]*\\*[^=\\(\\)]*\\).*)";
+    private static final String UNICITY_SEARCH_SCOPE = "??sub?";
     private static final String UNICITY_PATTERN_TOKEN = "(\\(([^=\\(\\)]+)=([^=\\(\\)]*\\*[^=\\(\\)]*)\\))";
     private static final String CIPHER_PATTERN = "([^,=]+)=([^,]+)";
     private static final String STRING_FORMAT_PATTERN = "([^;=]+)=([^;]+)";
@@ -127,14 +130,14 @@ public class Functions {
 
     }
 
-    private final Pattern functionPattern;
+    private static final Pattern MEMORIZED_VARIABLE_PATTERN = Pattern.compile("%([^%]+)%");
     private final CallableContext context;
 
     private Functions() {
         cfg = new Configuration(Constants.FREEMARKER_VERSION);
         cfg.setURLEscapingCharset(Charsets.UTF_8.toString()); // to allow URL escaping
         cfg.setObjectWrapper(new AlambicObjectWrapper());
-        functionPattern = Pattern.compile("\\(([a-zA-Z\\.0-9 ]+)([ ]*mem='([^\\ ']*)?'[ ]*)?\\)(.+?)\\(/\\1\\)");
+        registerFunctions();
 
         // Init a context without document to read config.properties values and use them in this Functions singleton
         context = new JobContext("./", null, APIAlambic.getFileStaticVariables(), Config.getProperties());
@@ -149,162 +152,135 @@ public class Functions {
     }
 
 
-    private String executeFuntion(final String fonction, final String param, final CallStack callStack) throws AlambicException {
-        if ("PRENOM".equals(fonction)) {
-            return fonctionPrenom(param);
-        }
-        if ("NOM".equals(fonction)) {
-            return fonctionNom(param);
-        }
-        if ("SqlDate".equals(fonction)) {
-            return fonctionSqlDate();
-        }
-        if ("LOGIN".equals(fonction)) {
-            return fonctionLogin(param);
-        }
-        if ("B64SHA1".equals(fonction)) {
+    /*
+     * Fonction appelable depuis une expression : (NOMFONCTION)PARAM(/NOMFONCTION)
+     */
+    @FunctionalInterface
+    private interface FunctionHandler {
+        String apply(String param, CallStack callStack) throws AlambicException;
+    }
+
+    @FunctionalInterface
+    private interface GeoFunctionHandler {
+        String apply(String param) throws Exception;
+    }
+
+    /*
+     * Functions whose names are case sensitive, then functions whose names are not (keyed by their lower case name)
+     */
+    private final Map<String, FunctionHandler> functions = new HashMap<>();
+    private final Map<String, FunctionHandler> functionsIgnoringCase = new HashMap<>();
+
+    private void registerFunctions() {
+        functions.put("PRENOM", (param, callStack) -> fonctionPrenom(param));
+        functions.put("NOM", (param, callStack) -> fonctionNom(param));
+        functions.put("SqlDate", (param, callStack) -> fonctionSqlDate());
+        functions.put("LOGIN", (param, callStack) -> fonctionLogin(param));
+        functions.put("B64SHA1", (param, callStack) -> {
             try {
                 return HashString.base64Sha(String.format("plaintext=%s,algorithm=SHA", param));
             } catch (final AlambicException e) {
                 LOG.error("Fonction B64SHA1 : " + e.getMessage(), e);
+                return null;
             }
-        }
-        if ("B64SHAx".equals(fonction)) {
+        });
+        functions.put("B64SHAx", (param, callStack) -> {
             try {
                 return HashString.base64Sha(param);
             } catch (final AlambicException e) {
                 LOG.error("Fonction B64SHAx : " + e.getMessage(), e);
+                return null;
             }
-        }
-        if ("UUID".equals(fonction)) {
-            return UUID.randomUUID().toString();
-        }
-        if ("2DIGIT".equals(fonction)) {
-            return fonction2digit(param);
-        }
-        if ("NOW".equals(fonction)) {
-            return fonctionNow(param);
-        }
-        if ("FORMAT".equals(fonction)) {
-            return fonctionFormat(param);
-        }
-        if ("STRINGFORMAT".equals(fonction)) {
-            return stringFormat(param);
-        }
-        if ("COPY".equals(fonction)) {
-            return fonctionCopy(param);
-        }
-        if ("FORMATSQLIN".equals(fonction)) {
-            return fonctionFormatSqlIn(param);
-        }
-        if ("LDAPSEARCH".equalsIgnoreCase(fonction)) {
+        });
+        functions.put("UUID", (param, callStack) -> UUID.randomUUID().toString());
+        functions.put("2DIGIT", (param, callStack) -> fonction2digit(param));
+        functions.put("NOW", (param, callStack) -> fonctionNow(param));
+        functions.put("FORMAT", (param, callStack) -> fonctionFormat(param));
+        functions.put("STRINGFORMAT", (param, callStack) -> stringFormat(param));
+        functions.put("COPY", (param, callStack) -> fonctionCopy(param));
+        functions.put("FORMATSQLIN", (param, callStack) -> fonctionFormatSqlIn(param));
+        functionsIgnoringCase.put("ldapsearch", (param, callStack) -> {
             fonctionLdapSearch(param);
-        }
-
-        if ("FrEduRne.Extract.Rne".equalsIgnoreCase(fonction)) {
-            return fonctionFrEduRneExtractRne(param);
-        }
-        if ("FrEduRne.Extract.Fonction".equalsIgnoreCase(fonction)) {
-            return fonctionFrEduRneExtractFonction(param);
-        }
-        if ("sql.count".equalsIgnoreCase(fonction)) {
+            return null;
+        });
+        functionsIgnoringCase.put("fredurne.extract.rne", (param, callStack) -> fonctionFrEduRneExtractRne(param));
+        functionsIgnoringCase.put("fredurne.extract.fonction", (param, callStack) -> fonctionFrEduRneExtractFonction(param));
+        functionsIgnoringCase.put("sql.count", (param, callStack) -> {
             try {
                 return fonctionSqlCount(param);
-            } catch (final SQLException e) {
-                LOG.error("Fonction fonctionSqlCount : ", e);
-            } catch (final ClassNotFoundException e) {
+            } catch (final SQLException | ClassNotFoundException e) {
                 LOG.error("Fonction fonctionSqlCount : ", e);
+                return null;
             }
-        }
-
-        if ("lambert.to.gps.n".equalsIgnoreCase(fonction)) {
-            return fonctionLambertGpsN(param);
-        }
-
-        try {
-            // Référentiel géographique à déterminer avec le code du département :
-            if ("coordos.to.gps".equalsIgnoreCase(fonction)) {
-                return toWgs84String(param);
-            }
-
-            // La Réunion
-            if ("utm40s.to.gps".equalsIgnoreCase(fonction)) {
-                return toWgs84String(param, getGeoConvert().getRgr92ToWgs84());
-            }
-            // Guadeloupe
-            if ("utm20n.to.gps".equalsIgnoreCase(fonction)) {
-                return toWgs84String(param, getGeoConvert().getGuadeloupeToWgs84());
-            }
-            // Guyane - RGFG95 - UTM Nord fuseau 22, aussi référencé sous EPSG:2972
-            if ("utm22n.to.gps".equalsIgnoreCase(fonction)) {
-                return toWgs84String(param, getGeoConvert().getGuyaneToWgs84());
-            }
-            // Mayotte - UTM Sud fuseau 38
-            if ("utm38s.to.gps".equalsIgnoreCase(fonction)) {
-                return toWgs84String(param, getGeoConvert().getMayotteToWgs84());
-            }
-            // Saint Pierre et Miquelon - UTM Nord fuseau 21
-            if ("utm21n.to.gps".equalsIgnoreCase(fonction)) {
-                return toWgs84String(param, getGeoConvert().getStPierreEtMiquelonToWgs84());
-            }
-            // France métropolitaine
-            if ("lambert93.to.gps".equalsIgnoreCase(fonction)) {
-                return toWgs84String(param, getGeoConvert().getLambert93ToWgs84());
-            }
-        } catch (final Exception ex) {
-            throw new GeoConvertException("erreur à la conversion des coordonnées géographiques=" + param, ex);
-        }
-        if ("attr.count".equalsIgnoreCase(fonction)) {
+        });
+        functionsIgnoringCase.put("lambert.to.gps.n", (param, callStack) -> fonctionLambertGpsN(param));
+
+        // Référentiel géographique à déterminer avec le code du département :
+        registerGeoFunction("coordos.to.gps", param -> toWgs84String(param));
+        // La Réunion
+        registerGeoFunction("utm40s.to.gps", param -> toWgs84String(param, getGeoConvert().getRgr92ToWgs84()));
+        // Guadeloupe
+        registerGeoFunction("utm20n.to.gps", param -> toWgs84String(param, getGeoConvert().getGuadeloupeToWgs84()));
+        // Guyane - RGFG95 - UTM Nord fuseau 22, aussi référencé sous EPSG:2972
+        registerGeoFunction("utm22n.to.gps", param -> toWgs84String(param, getGeoConvert().getGuyaneToWgs84()));
+        // Mayotte - UTM Sud fuseau 38
+        registerGeoFunction("utm38s.to.gps", param -> toWgs84String(param, getGeoConvert().getMayotteToWgs84()));
+        // Saint Pierre et Miquelon - UTM Nord fuseau 21
+        registerGeoFunction("utm21n.to.gps", param -> toWgs84String(param, getGeoConvert().getStPierreEtMiquelonToWgs84()));
+        // France métropolitaine
+        registerGeoFunction("lambert93.to.gps", param -> toWgs84String(param, getGeoConvert().getLambert93ToWgs84()));
+
+        functionsIgnoringCase.put("attr.count", (param, callStack) -> {
             try {
                 return fonctionLdapAttrCount(param);
             } catch (final NamingException e) {
                 LOG.error("Fonction fonctionLdapAttrCount : ", e);
+                return null;
             }
-        }
-        if ("property".equalsIgnoreCase(fonction)) {
+        });
+        functionsIgnoringCase.put("property", (param, callStack) -> {
             try {
                 return fonctionProperty(param);
             } catch (final FileNotFoundException e) {
                 LOG.error("Fonction property, fichier non trouvé : ", e);
-
             } catch (final IOException e) {
                 LOG.error("Fonction property, acces fichier : ", e);
             }
+            return null;
+        });
+        functions.put("PART", (param, callStack) -> fonctionPart(param));
+        functions.put("RDN", (param, callStack) -> rdn(param));
+        functions.put("UNICITY", this::unicity);
+        functions.put("CIPHER", (param, callStack) -> cipher(param));
+        functions.put("TEMPLATE", (param, callStack) -> template(param));
+        functions.put("INCREMENT", this::increment);
+        functions.put("DECREMENT", this::decrement);
+        functions.put("PASSWORD", this::password);
+        functions.put("ADD", (param, callStack) -> addNumbers(param));
+        functions.put("COMPUTEDATE", (param, callStack) -> computeDate(param));
+        functions.put("SALT", (param, callStack) -> generateSalt(param));
+    }
+
+    private void registerGeoFunction(final String name, final GeoFunctionHandler handler) {
+        functionsIgnoringCase.put(name, (param, callStack) -> {
+            try {
+                return handler.apply(param);
+            } catch (final Exception ex) {
+                throw new GeoConvertException("erreur à la conversion des coordonnées géographiques=" + param, ex);
+            }
+        });
+    }
+
+    String executeFunction(final String fonction, final String param, final CallStack callStack) throws AlambicException {
+        FunctionHandler handler = functions.get(fonction);
+        if (null == handler) {
+            handler = functionsIgnoringCase.get(fonction.toLowerCase());
         }
-        if ("PART".equals(fonction)) {
-            return fonctionPart(param);
-        }
-        if ("RDN".equals(fonction)) {
-            return rdn(param);
-        }
-        if ("UNICITY".equals(fonction)) {
-            return unicity(param, callStack);
-        }
-        if ("CIPHER".equals(fonction)) {
-            return cipher(param);
-        }
-        if ("TEMPLATE".equals(fonction)) {
-            return template(param);
-        }
-        if ("INCREMENT".equals(fonction)) {
-            return increment(param, callStack);
-        }
-        if ("DECREMENT".equals(fonction)) {
-            return decrement(param, callStack);
-        }
-        if ("PASSWORD".equals(fonction)) {
-            return password(param, callStack);
-        }
-        if ("ADD".equals(fonction)) {
-            return addNumbers(param);
-        }
-        if ("COMPUTEDATE".equals(fonction)) {
-            return computeDate(param);
-        }
-        if ("SALT".equals(fonction)) {
-            return generateSalt(param);
+        if (null == handler) {
+            return null; // Aucune fonction exécutée, rien à retourner
         }
-        return null; // Aucune fonction exécutée, rien à retourner
+
+        return handler.apply(param, callStack);
     }
 
     private String toWgs84String(final String param, final CoordinateOperation op) throws TransformException {
@@ -374,7 +350,6 @@ public class Functions {
     private String unicity(final String searchString, final CallStack callStack) throws AlambicException {
         String uniqueValue = "";
         String shortestCommonValuePattern = "";
-        NamingEnumeration<SearchResult> resultSet = null;
 
         try {
             // Verify the LDAP search string fits the URL format
@@ -412,33 +387,43 @@ public class Functions {
                     final SearchControls searchControls = new SearchControls();
                     searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
                     final Properties environment = new Properties(); // using Properties allows to ensure the configuration values are typed as String & removes warning java:S1149
+                    // The connection is bound to the search base so that it can be reused by the next searches
+                    final String searchBase = unicityMatcher.group(8);
+                    environment.setProperty(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
+                    environment.setProperty(Context.PROVIDER_URL, searchBase);
                     if (StringUtils.isNotBlank(unicityMatcher.group(5)) && StringUtils.isNotBlank(unicityMatcher.group(6))) {
                         LOG.debug("Using principal " + unicityMatcher.group(4));
-                        environment.setProperty(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
-                        environment.setProperty(Context.PROVIDER_URL, unicityMatcher.group(8));
                         environment.setProperty(Context.SECURITY_PRINCIPAL, unicityMatcher.group(4));
                         environment.setProperty(Context.SECURITY_CREDENTIALS, unicityMatcher.group(6));
-                        LdapUtils.setEnvironmentConfigTimeouts(context, environment);
                     } else {
                         LOG.debug("No credential or password provided");
                     }
+                    LdapUtils.setEnvironmentConfigTimeouts(context, environment);
+                    final String filter = decodeUrlPart(unicityMatcher.group(7).substring(searchBase.length() + UNICITY_SEARCH_SCOPE.length()));
                     LOG.debug("LDAP search query: " + unicityMatcher.group(7));
-                    resultSet = getDirContext(environment).search(unicityMatcher.group(7), "", searchControls);
-
-                    if ((null != resultSet) && resultSet.hasMore()) {
+                    final List<SearchResult> results = searchUnicity(environment, filter, searchControls, true);
+
+                    // The values already given during the run (possibly by other threads) are considered as existing ones
+                    // (only those sharing the fixed root of the pattern, as all the candidate values do)
+                    final int starIndex = shortestCommonValuePattern.indexOf('*');
+                    final String rootInLowerCase = ((0 <= starIndex) ? shortestCommonValuePattern.substring(0, starIndex) : shortestCommonValuePattern).toLowerCase();
+                    final NavigableSet<String> reservedValuesInLowerCase = UnicityRegistry.getReservedValues(searchBase, rootInLowerCase);
+                    final String candidateInLowerCase = uniqueValue.toLowerCase();
+                    boolean isReserved = false;
+                    if (!results.isEmpty() || UnicityRegistry.containsPrefix(reservedValuesInLowerCase, candidateInLowerCase)) {
                         // Check whether an inner function was used to build the candidate value
                         final CallStack ifc = (!callStack.getStack().isEmpty()) ? callStack.getStack().get(0) : null;
                         if ((null != ifc) && StringUtils.isBlank(unicityMatcher.group(1))) {
                             // Ask the inner function to give a new candidate value
                             final String newCandidate = searchFunctions(ifc.getFulltext(), new HashMap<>(), callStack);
                             uniqueValue = unicity(searchString.replace(uniqueValue, newCandidate), callStack);
+                            isReserved = true; // by the inner call
                         } else {
                             // No inner function was used to build the candidate value: compute the new unique value via an
                             // incremental suffix and based on the previous search result
                             // First retrieve all the already existing values in "reqAttributes" fields of the LDAP resultSet, including the multi-values ones
-                            final Set<String> existingValuesInLowerCase = new HashSet<>(); // use a Set to avoid duplicated values
-                            while (resultSet.hasMore()) {
-                                final SearchResult result = resultSet.next();
+                            final NavigableSet<String> existingValuesInLowerCase = new TreeSet<>(reservedValuesInLowerCase); // use a sorted Set to avoid duplicated values and to look for prefixes
+                            for (final SearchResult result : results) {
                                 LOG.debug("The following LDAP entity matches the search string '" + searchString + "', entity: " + result.getName());
                                 final Attributes attributes = result.getAttributes();
                                 for (final String attribute : reqAttributes) {
@@ -456,10 +441,8 @@ public class Functions {
 
                             // Compute the unique value, loop at most "existingValuesInLowerCase.size()" times, as the worst case occurs when all candidate values already exist
                             for (int i = 1; i <= existingValuesInLowerCase.size(); i++) {
-                                // finalUniqueValue is a local constant copy of uniqueValue to allow its use in the following lambda expression
-                                final String finalUniqueValue = uniqueValue;
                                 // If there is not a value in "existingValuesInLowerCase" that starts with candidate "uniqueValue", so we can use the latter as result
-                                if (existingValuesInLowerCase.stream().noneMatch(existingValue -> existingValue.startsWith(finalUniqueValue.toLowerCase()))) {
+                                if (!UnicityRegistry.containsPrefix(existingValuesInLowerCase, uniqueValue.toLowerCase())) {
                                     // Found the unique value
                                     LOG.debug("Found the unique value '" + uniqueValue + "'");
                                     break;
@@ -476,6 +459,12 @@ public class Functions {
                             }
                         }
                     }
+
+                    if (!isReserved && StringUtils.isNotBlank(uniqueValue) && !UnicityRegistry.reserve(searchBase, uniqueValue)) {
+                        // The value was just given by another thread: look for the next one
+                        LOG.debug("The unique value '" + uniqueValue + "' was given by another thread");
+                        uniqueValue = unicity(searchString, callStack);
+                    }
                 } else {
                     LOG.error("Empty unicity pattern ('*') might be present in the request '" + searchString + "'");
                 }
@@ -485,6 +474,36 @@ public class Functions {
         } catch (final NamingException e) {
             LOG.error("Failed to execute the LDAP search, error: " + e.getMessage(), e);
             throw new AlambicException(e);
+        }
+
+        return uniqueValue;
+    }
+
+    /*
+     * Recherche des valeurs existantes via une connexion réutilisée (ou ouverte à défaut). Une connexion réutilisée
+     * devenue inutilisable est remplacée par une nouvelle connexion.
+     */
+    private List<SearchResult> searchUnicity(final Properties environment, final String filter, final SearchControls searchControls, final boolean canReuse) throws NamingException {
+        final String key = environment.getProperty(Context.SECURITY_PRINCIPAL, "") + '\u0000' + environment.getProperty(Context.PROVIDER_URL) + '\u0000' + environment.getProperty(Context.SECURITY_CREDENTIALS, "");
+        final DirContext reusedCtx = canReuse ? UnicityRegistry.borrow(key) : null;
+        final DirContext ctx = (null != reusedCtx) ? reusedCtx : getDirContext(environment);
+        final List<SearchResult> results = new ArrayList<>();
+        NamingEnumeration<SearchResult> resultSet = null;
+        try {
+            resultSet = ctx.search("", filter, searchControls);
+            while ((null != resultSet) && resultSet.hasMore()) {
+                results.add(resultSet.next());
+            }
+        } catch (final CommunicationException e) {
+            UnicityRegistry.destroy(ctx);
+            if (null != reusedCtx) {
+                LOG.debug("The reused LDAP connection is lost, a new one is opened, error: " + e.getMessage());
+                return searchUnicity(environment, filter, searchControls, false);
+            }
+            throw e;
+        } catch (final NamingException | RuntimeException e) {
+            UnicityRegistry.destroy(ctx);
+            throw e;
         } finally {
             if (null != resultSet) {
                 try {
@@ -494,8 +513,42 @@ public class Functions {
                 }
             }
         }
+        UnicityRegistry.release(key, ctx);
+        return results;
+    }
 
-        return uniqueValue;
+    /*
+     * Décodage des caractères échappés (%XX, UTF-8) d'une URL LDAP
+     */
+    private static String decodeUrlPart(final String part) {
+        if (-1 == part.indexOf('%')) {
+            return part;
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final StringBuilder sb = new StringBuilder();
+        int i = 0;
+        while (i < part.length()) {
+            final char c = part.charAt(i);
+            if ('%' == c && i + 2 < part.length() && isHexDigit(part.charAt(i + 1)) && isHexDigit(part.charAt(i + 2))) {
+                bytes.write(Integer.parseInt(part.substring(i + 1, i + 3), 16));
+                i += 3;
+            } else {
+                if (0 < bytes.size()) {
+                    sb.append(new String(bytes.toByteArray(), Charsets.UTF_8));
+                    bytes.reset();
+                }
+                sb.append(c);
+                i++;
+            }
+        }
+        if (0 < bytes.size()) {
+            sb.append(new String(bytes.toByteArray(), Charsets.UTF_8));
+        }
+        return sb.toString();
+    }
+
+    private static boolean isHexDigit(final char c) {
+        return Character.digit(c, 16) != -1;
     }
 
     private String cipher(final String params) {
@@ -1004,31 +1057,42 @@ public class Functions {
         return dateSQL.toString();
     }
 
-    private String searchFunctions(String s, final Map<String, String> mapTable, final CallStack parentCallStack) throws AlambicException {
-        // execution récursive des fonctions suivant le pattern (NOMFONCTION mem='VARIABLE')PARAM(/NOMFONCTION)
-        final Matcher m = functionPattern.matcher(s);
-        while (m.find()) {
-            if (m.groupCount() == 4) {
-                final String chaine = m.group(0);
-                final String fonction = m.group(1);
-                final String param = m.group(4);
-                CallStack callStack = parentCallStack.getInner(chaine);
-                if (null == callStack) {
-                    callStack = new CallStack(fonction);
-                    callStack.setFulltext(chaine);
-                    callStack.setParam(param);
-                    parentCallStack.add(callStack);
-                }
-                final String resultat = executeFuntion(fonction, searchFunctions(param, mapTable, callStack), callStack);
-                if (resultat != null) {
-                    s = s.replace(chaine, resultat);
-                }
-                if (m.group(2) != null) {
-                    mapTable.put(m.group(3), resultat);
-                }
+    private String searchFunctions(final String s, final Map<String, String> mapTable, final CallStack parentCallStack) throws AlambicException {
+        return evaluate(FunctionExpression.compile(s), mapTable, parentCallStack);
+    }
+
+    private String evaluate(final FunctionExpression expression, final Map<String, String> mapTable, final CallStack parentCallStack) throws AlambicException {
+        // exécution récursive des fonctions suivant le pattern (NOMFONCTION mem='VARIABLE')PARAM(/NOMFONCTION)
+        if (expression.isLiteral()) {
+            return expression.getText();
+        }
+
+        // identical calls share the first result computed (but are all executed)
+        final Map<String, String> resultats = new HashMap<>();
+        for (final FunctionExpression.Call call : expression.getCalls()) {
+            CallStack callStack = parentCallStack.getInner(call.getFulltext());
+            if (null == callStack) {
+                callStack = new CallStack(call.getName());
+                callStack.setFulltext(call.getFulltext());
+                callStack.setParam(call.getParam().getText());
+                parentCallStack.add(callStack);
+            }
+            final String resultat = executeFunction(call.getName(), evaluate(call.getParam(), mapTable, callStack), callStack);
+            if (resultat != null) {
+                resultats.putIfAbsent(call.getFulltext(), resultat);
+            }
+            if (call.isMemorized()) {
+                mapTable.put(call.getMemory(), resultat);
             }
         }
-        return s;
+
+        final StringBuilder sb = new StringBuilder(expression.getText().length());
+        sb.append(expression.getTexts().get(0));
+        for (int i = 0; i < expression.getCalls().size(); i++) {
+            final String fulltext = expression.getCalls().get(i).getFulltext();
+            sb.append(resultats.getOrDefault(fulltext, fulltext)).append(expression.getTexts().get(i + 1));
+        }
+        return sb.toString();
     }
 
     public String generateSalt(final String params) {
@@ -1039,22 +1103,37 @@ public class Functions {
     	return Base64.encodeBase64String(salt).substring(0, saltLength);
     }
 
-    public String replaceVarsFromMap(final String patternString, String s, final Map<String, String> mapTable) {
-        final Matcher m = Pattern.compile(patternString).matcher(s);
+    public String replaceVarsFromMap(final String patternString, final String s, final Map<String, String> mapTable) {
+        return replaceVarsFromMap(Pattern.compile(patternString), s, mapTable);
+    }
+
+    private String replaceVarsFromMap(final Pattern pattern, String s, final Map<String, String> mapTable) {
+        final Matcher m = pattern.matcher(s);
         while (m.find()) {
-            if (mapTable.containsKey(m.group(1))) {
+            if (null != mapTable.get(m.group(1))) {
                 s = s.replace(m.group(0), mapTable.get(m.group(1)));
             }
         }
         return s;
     }
 
-    public String executeAllFunctions(String s) throws AlambicException {
+    /**
+     * Exécution des fonctions d'une expression, puis substitution des variables mémorisées (%VARIABLE%).
+     * Une expression sans appel de fonction est retournée sans analyse.
+     */
+    public String executeAllFunctions(final String s) throws AlambicException {
+        if (null == s) {
+            return null;
+        }
+
+        final FunctionExpression expression = FunctionExpression.compile(s);
+        if (expression.isLiteral()) {
+            return s;
+        }
+
         final Map<String, String> mapTable = new HashMap<>();
-        s = searchFunctions(s, mapTable, new CallStack("Root"));
-        s = replaceVarsFromMap("%([^%]+)%", s, mapTable);
-        mapTable.clear();
-        return s;
+        final String result = evaluate(expression, mapTable, new CallStack("Root"));
+        return mapTable.isEmpty() ? result : replaceVarsFromMap(MEMORIZED_VARIABLE_PATTERN, result, mapTable);
     }
 
     public String valueToString(final Object value) throws UnsupportedEncodingException {
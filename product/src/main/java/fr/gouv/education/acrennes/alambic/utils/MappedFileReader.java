@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Lecture séquentielle d'un fichier texte via des projections mémoire (memory-mapped) successives du fichier.
+ * <p>
+ * Le fichier est parcouru par fenêtres de taille fixe, de sorte que la mémoire utilisée ne dépend pas de la taille du
+ * fichier (y compris au-delà de 2 Go). Les caractères sont décodés selon le jeu de caractères fourni.
+ * </p>
+ */
+public class MappedFileReader extends Reader {
+
+	public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+	private final FileChannel channel;
+	private final CharsetDecoder decoder;
+	private final long fileSize;
+	private final int windowSize;
+	private ByteBuffer window;
+	private long windowPosition;
+	private boolean isFlushed;
+
+	public MappedFileReader(final Path path, final Charset charset) throws IOException {
+		this(path, charset, DEFAULT_WINDOW_SIZE);
+	}
+
+	public MappedFileReader(final Path path, final Charset charset, final int windowSize) throws IOException {
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		this.decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.fileSize = channel.size();
+		this.windowSize = windowSize;
+		this.windowPosition = 0;
+		this.isFlushed = false;
+		map(0);
+	}
+
+	private void map(final long position) throws IOException {
+		windowPosition = position;
+		long size = Math.min(windowSize, fileSize - position);
+		window = (0 < size) ? channel.map(FileChannel.MapMode.READ_ONLY, position, size) : ByteBuffer.allocate(0);
+	}
+
+	private boolean isLastWindow() {
+		return windowPosition + window.limit() >= fileSize;
+	}
+
+	@Override
+	public int read(final char[] cbuf, final int off, final int len) throws IOException {
+		if (0 == len) {
+			return 0;
+		}
+
+		CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+		while (out.hasRemaining() && !isFlushed) {
+			boolean endOfInput = isLastWindow();
+			CoderResult result = decoder.decode(window, out, endOfInput);
+			if (result.isError()) {
+				result.throwException();
+			} else if (result.isOverflow()) {
+				break;
+			} else if (endOfInput) {
+				decoder.flush(out);
+				isFlushed = true;
+			} else {
+				// the bytes of a character might overlap two windows : the next window starts from the first undecoded byte
+				map(windowPosition + window.position());
+			}
+
+			if (out.position() > off) {
+				break;
+			}
+		}
+
+		int count = out.position() - off;
+		return (0 == count && isFlushed) ? -1 : count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+	}
+
+}
@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.utils;
+
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Ressources partagées par les appels de la fonction UNICITY :
+ * <ul>
+ * <li>les connexions LDAP inactives, réutilisées par les recherches suivantes sur le même annuaire avec le même compte ;</li>
+ * <li>les valeurs attribuées au cours de l'exécution, par annuaire et base de recherche, considérées comme existantes
+ * par les appels suivants (y compris ceux des autres threads) tant qu'elles ne sont pas encore écrites dans l'annuaire.</li>
+ * </ul>
+ * Les connexions ne sont réutilisées, et les valeurs réservées, qu'entre l'ouverture ({@link #open()}) et la fermeture
+ * ({@link #close()}) d'une exécution : hors exécution, chaque recherche utilise sa propre connexion.
+ */
+public class UnicityRegistry {
+
+	private static final Log log = LogFactory.getLog(UnicityRegistry.class);
+
+	private static final int MAX_IDLE_CONTEXTS = 8;
+
+	private static final ConcurrentMap<String, Deque<DirContext>> idleContexts = new ConcurrentHashMap<>();
+	/* reserved values (lower case, sorted so that the values sharing a prefix are found without a full scan) by search base, null outside of a run */
+	private static volatile ConcurrentMap<String, NavigableSet<String>> reservations = null;
+
+	private UnicityRegistry() {
+		// pas besoin d'instancier cette classe qui ne contient que des méthodes statiques
+	}
+
+	/**
+	 * Ouverture d'une exécution : les connexions sont désormais réutilisées et les valeurs attribuées réservées.
+	 */
+	public static void open() {
+		reservations = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Fermeture d'une exécution : oubli des valeurs réservées et fermeture des connexions inactives.
+	 */
+	public static void close() {
+		reservations = null;
+		for (final Deque<DirContext> contexts : idleContexts.values()) {
+			for (DirContext ctx = contexts.pollFirst(); null != ctx; ctx = contexts.pollFirst()) {
+				destroy(ctx);
+			}
+		}
+		idleContexts.clear();
+	}
+
+	/**
+	 * @return une connexion inactive vers l'annuaire, ou null si aucune n'est disponible
+	 */
+	static DirContext borrow(final String key) {
+		if (null == reservations) {
+			return null;
+		}
+		final Deque<DirContext> contexts = idleContexts.get(key);
+		return (null != contexts) ? contexts.pollFirst() : null;
+	}
+
+	/**
+	 * Restitution d'une connexion après une recherche réussie : elle est conservée pour les recherches suivantes.
+	 */
+	static void release(final String key, final DirContext ctx) {
+		if (null == reservations) {
+			destroy(ctx);
+			return;
+		}
+		final Deque<DirContext> contexts = idleContexts.computeIfAbsent(key, k -> new ConcurrentLinkedDeque<>());
+		if (MAX_IDLE_CONTEXTS > contexts.size()) {
+			contexts.offerFirst(ctx);
+		} else {
+			destroy(ctx);
+		}
+	}
+
+	static void destroy(final DirContext ctx) {
+		try {
+			ctx.close();
+		} catch (final NamingException e) {
+			log.debug("Failed to close a LDAP connection of the unicity function, error : " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @param base l'annuaire et la base de recherche
+	 * @param prefix le préfixe (en minuscules) des valeurs
+	 * @return les valeurs réservées (en minuscules) débutant par le préfixe (vue triée, sans copie)
+	 */
+	static NavigableSet<String> getReservedValues(final String base, final String prefix) {
+		final ConcurrentMap<String, NavigableSet<String>> current = reservations;
+		final NavigableSet<String> values = (null != current) ? current.get(base.toLowerCase(Locale.ROOT)) : null;
+		if (null == values) {
+			return Collections.emptyNavigableSet();
+		}
+		return values.subSet(prefix, true, prefix + Character.MAX_VALUE, false);
+	}
+
+	/**
+	 * @param values des valeurs triées
+	 * @param prefix le préfixe recherché
+	 * @return vrai si l'une des valeurs débute par le préfixe
+	 */
+	static boolean containsPrefix(final NavigableSet<String> values, final String prefix) {
+		final String ceiling = values.ceiling(prefix);
+		return null != ceiling && ceiling.startsWith(prefix);
+	}
+
+	/**
+	 * Réservation d'une valeur attribuée.
+	 * 
+	 * @return faux si la valeur est déjà réservée
+	 */
+	static boolean reserve(final String base, final String value) {
+		final ConcurrentMap<String, NavigableSet<String>> current = reservations;
+		if (null == current) {
+			return true;
+		}
+		return current.computeIfAbsent(base.toLowerCase(Locale.ROOT), k -> new ConcurrentSkipListSet<>()).add(value.toLowerCase(Locale.ROOT));
+	}
+
+}
@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Découpage, calculé une seule fois par texte, d'une chaîne contenant des variables (%VARIABLE%) en fragments de texte
+ * et en noms de variables.
+ * 
+ * Les textes découpés sont les modèles non résolus (une chaîne résolue ne contient plus de délimiteur et n'est pas
+ * conservée). Le cache est borné : une fois plein, les nouveaux textes sont découpés sans y être ajoutés, les modèles
+ * déjà présents restant disponibles.
+ * 
+ * Seules les chaînes dont les délimiteurs forment des paires de noms simples (lettres, chiffres, '_' et '-'), séparées
+ * par des textes qui ne peuvent pas être pris pour des noms, sont découpées : les autres (variables imbriquées ou
+ * accolées, délimiteur isolé...) sont résolues par substitutions successives.
+ */
+final class VariableTemplate {
+
+	private static final char VARIABLE_DELIMITER = '%';
+	private static final Pattern SIMPLE_NAME_PATTERN = Pattern.compile("[a-zA-Z0-9_\\-]+");
+	private static final Pattern SEPARATOR_PATTERN = Pattern.compile(".*[^a-zA-Z0-9_\\-].*", Pattern.DOTALL);
+	private static final int MAX_CACHE_SIZE = 10000;
+	private static final Map<String, VariableTemplate> CACHE = new ConcurrentHashMap<>();
+	private static final VariableTemplate LITERAL = new VariableTemplate(Collections.emptyList(), Collections.emptyList(), true);
+	private static final VariableTemplate COMPLEX = new VariableTemplate(Collections.emptyList(), Collections.emptyList(), false);
+
+	/* the texts surrounding the variables: texts.size() == names.size() + 1 */
+	private final List<String> texts;
+	private final List<String> names;
+	private final boolean simple;
+
+	private VariableTemplate(final List<String> texts, final List<String> names, final boolean simple) {
+		this.texts = texts;
+		this.names = names;
+		this.simple = simple;
+	}
+
+	static VariableTemplate compile(final String text) {
+		if (-1 == text.indexOf(VARIABLE_DELIMITER)) {
+			return LITERAL;
+		}
+
+		VariableTemplate template = CACHE.get(text);
+		if (null == template) {
+			template = parse(text);
+			if (MAX_CACHE_SIZE > CACHE.size()) {
+				CACHE.putIfAbsent(text, template);
+			}
+		}
+		return template;
+	}
+
+	private static VariableTemplate parse(final String text) {
+		final List<String> texts = new ArrayList<>();
+		final List<String> names = new ArrayList<>();
+		int start = 0;
+		int open = text.indexOf(VARIABLE_DELIMITER);
+		while (-1 != open) {
+			final int close = text.indexOf(VARIABLE_DELIMITER, open + 1);
+			if (-1 == close) {
+				return COMPLEX;
+			}
+			final String name = text.substring(open + 1, close);
+			if (!SIMPLE_NAME_PATTERN.matcher(name).matches()) {
+				return COMPLEX;
+			}
+			final String separator = text.substring(start, open);
+			if (!names.isEmpty() && !SEPARATOR_PATTERN.matcher(separator).matches()) {
+				// the text between two variables could be taken for a variable name
+				return COMPLEX;
+			}
+			texts.add(separator);
+			names.add(name);
+			start = close + 1;
+			open = text.indexOf(VARIABLE_DELIMITER, start);
+		}
+		texts.add(text.substring(start));
+		return new VariableTemplate(Collections.unmodifiableList(texts), Collections.unmodifiableList(names), true);
+	}
+
+	/**
+	 * @return vrai si la chaîne ne contient aucun délimiteur de variable
+	 */
+	boolean isLiteral() {
+		return this == LITERAL;
+	}
+
+	/**
+	 * @return vrai si la chaîne est découpée en fragments de texte et en noms de variables
+	 */
+	boolean isSimple() {
+		return simple;
+	}
+
+	List<String> getTexts() {
+		return texts;
+	}
+
+	List<String> getNames() {
+		return names;
+	}
+
+	static boolean isSimpleName(final String name) {
+		return SIMPLE_NAME_PATTERN.matcher(name).matches();
+	}
+
+}
@@ -44,9 +44,14 @@ public class Variables {
 	protected static final Log log = LogFactory.getLog(Variables.class);
 
 	private static final String VARIABLE_DELIMITER = "%";
-	private static final String VARIABLE_PATTERN = "(?=" + VARIABLE_DELIMITER + "([^%]+)" + VARIABLE_DELIMITER + ")";
+	private static final Pattern VARIABLE_PATTERN = Pattern.compile("(?=" + VARIABLE_DELIMITER + "([^%]+)" + VARIABLE_DELIMITER + ")");
+	private static final String UNVALUED_PARAMETER = VARIABLE_DELIMITER + "[pic](\\d)*" + VARIABLE_DELIMITER;
+	private static final Pattern UNVALUED_PARAMETER_PATTERN = Pattern.compile(UNVALUED_PARAMETER);
+	private static final Pattern UNVALUED_PARAMETER_LINE_PATTERN = Pattern.compile(".*" + UNVALUED_PARAMETER + ".*");
 	private static final String SECURITY_PROPERTY_NAME = "repository.security.properties";
 	private Map<String, String> tableVars = new HashMap<>();
+	// Variables d'environnement lues une seule fois
+	private final Map<String, String> environment = System.getenv();
 
 	public void loadFromXmlNode(final List<Element> listeVars) {
 		Properties keystoreProperties = getKeystoreProperties();
@@ -146,25 +151,60 @@ public class Variables {
 	}
 
 	public String resolvString(String sR) throws AlambicException {
+		if (StringUtils.isBlank(sR)) {
+			return "";
+		}
+
+		final VariableTemplate template = VariableTemplate.compile(sR);
+		if (template.isLiteral()) {
+			return sR.trim();
+		}
+		if (template.isSimple()) {
+			final String resolved = resolvTemplate(template);
+			if (null != resolved) {
+				return resolved;
+			}
+		}
+
 		List<String> history = new ArrayList<String>();
 		history.add(sR);
 		return resolvString(sR, history);
 	}
 
+	/*
+	 * Single pass resolution of a template whose variables are all valued, with values without any delimiter (the
+	 * successive substitutions would give the same result). Returns null otherwise.
+	 */
+	private String resolvTemplate(final VariableTemplate template) {
+		final List<String> names = template.getNames();
+		final List<String> texts = template.getTexts();
+		final StringBuilder sb = new StringBuilder();
+		sb.append(texts.get(0));
+		for (int i = 0; i < names.size(); i++) {
+			final String name = names.get(i);
+			final String value = tableVars.containsKey(name) ? tableVars.get(name) : environment.get(name);
+			if ((null == value) || value.contains(VARIABLE_DELIMITER)) {
+				return null;
+			}
+			sb.append(value).append(texts.get(i + 1));
+		}
+		return sb.toString().trim();
+	}
+
 	public String resolvString(String sR, List<String> history) throws AlambicException {
 		if (StringUtils.isNotBlank(sR)) {
 			List<String> matches = allMatches(sR);
 			for (String match : matches) {
 				if (tableVars.containsKey(match)) {
 					return replaceVar(sR, history, match, tableVars.get(match));
-				} else if (System.getenv().containsKey(match)) {
-					return replaceVar(sR, history, match, System.getenv(match));
+				} else if (environment.containsKey(match)) {
+					return replaceVar(sR, history, match, environment.get(match));
 				}
 			}
 
 			// Effacement des paramètres non valorisés
-			if (sR.matches(".*" + VARIABLE_DELIMITER + "[pic](\\d)*" + VARIABLE_DELIMITER + ".*")) {
-				sR = sR.replaceAll(VARIABLE_DELIMITER + "[pic](\\d)*" + VARIABLE_DELIMITER, "");
+			if (UNVALUED_PARAMETER_LINE_PATTERN.matcher(sR).matches()) {
+				sR = UNVALUED_PARAMETER_PATTERN.matcher(sR).replaceAll("");
 			}
 		} else {
 			sR = "";
@@ -175,7 +215,9 @@ public class Variables {
 
 	private String replaceVar(String sR, List<String> history, String varToReplace, String varValue)
 			throws AlambicException {
-		String replaced = sR.replaceAll(VARIABLE_DELIMITER + varToReplace + VARIABLE_DELIMITER, Matcher.quoteReplacement(varValue));
+		String replaced = VariableTemplate.isSimpleName(varToReplace)
+				? sR.replace(VARIABLE_DELIMITER + varToReplace + VARIABLE_DELIMITER, varValue)
+				: sR.replaceAll(VARIABLE_DELIMITER + varToReplace + VARIABLE_DELIMITER, Matcher.quoteReplacement(varValue));
 		if (!history.contains(replaced)) {
 			history.add(replaced);
 			return resolvString(replaced, history);
@@ -187,7 +229,7 @@ public class Variables {
 	// Finds all potential variables from a String
 	private List<String> allMatches(String input) {
 		List<String> result = new ArrayList<>();
-		Matcher variableMatcher = Pattern.compile(VARIABLE_PATTERN).matcher(input);
+		Matcher variableMatcher = VARIABLE_PATTERN.matcher(input);
 		while (variableMatcher.find()) {
 			result.add(variableMatcher.group(1));
 		}
@@ -304,4 +304,28 @@ public class FMFunctionsTest {
 		});
 	}
 
+	/**
+	 * Normalisation par les chaînes de règles précompilées (résultats mémorisés lors des appels répétés)
+	 */
+	@Test
+	public void test15() {
+		for (int i = 0; i < 2; i++) {
+			Assert.assertEquals("l-avion", Fn.normalize("l ' ' avion", NormalizationPolicy.UID));
+			Assert.assertEquals("lavion", Fn.normalize("l ' ' avion", NormalizationPolicy.EMAIL));
+			Assert.assertEquals("Anne MARIE-Louise", Fn.normalize("Anne MARIE  - Louise", (NormalizationPolicy) null));
+			Assert.assertEquals("Ca-va-bien", Fn.normalize("Ça  (va)  bien", NormalizationPolicy.NOM));
+			Assert.assertEquals("uvredart", Fn.normalize("Œuvre d'art", NormalizationPolicy.UNIK));
+			Assert.assertEquals("Mme", Fn.normalize("Mademoiselle", NormalizationPolicy.CIVILITE));
+			Assert.assertEquals("Saint-Brieuc-22", Fn.normalize("Saint-Brieuc  (22)", NormalizationPolicy.NUXEO_ECM_NAME));
+			Assert.assertEquals("Eleve 'studieux'", Fn.normalize("Élève ''studieux''", NormalizationPolicy.JSON));
+			Assert.assertEquals("Élève 'studieux'", Fn.normalize("Élève ''studieux''", NormalizationPolicy.JSON, false));
+			Assert.assertEquals("Cotes-d-Armor", Fn.normalize("Côtes d'Armor", NormalizationPolicy.VOCABULARY));
+			Assert.assertEquals("lecolen5", Fn.normalize("l'école n°5", NormalizationPolicy.WORD_ONLY));
+		}
+
+		Assert.assertEquals("Le Goff", NormalizationPipeline.discardAccents("Le Goff"));
+		Assert.assertEquals("Eleonore", NormalizationPipeline.discardAccents("Éléonore"));
+		Assert.assertEquals("A", NormalizationPipeline.discardAccents("A\uD835\uDD38"));
+	}
+
 }
@@ -17,6 +17,7 @@
 package fr.gouv.education.acrennes.alambic.freemarker;
 
 import java.util.ArrayList;
+import java.util.Hashtable;
 import java.util.List;
 import java.util.UUID;
 
@@ -36,6 +37,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Matchers;
+import org.mockito.Mockito;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
@@ -43,6 +45,7 @@ import org.powermock.modules.junit4.PowerMockRunner;
 
 import fr.gouv.education.acrennes.alambic.exception.AlambicException;
 import fr.gouv.education.acrennes.alambic.utils.Functions;
+import fr.gouv.education.acrennes.alambic.utils.UnicityRegistry;
 
 @RunWith(PowerMockRunner.class)
 @PrepareForTest({ Functions.class, UUID.class })
@@ -977,4 +980,23 @@ public class FunctionsTest {
 			Assert.fail();
 		}
 	}
-}
\ No newline at end of file
+
+	/*  test use case: during a run, the connection is reused and the given values are reserved */
+	@Test
+	public void test44() throws Exception {
+		UnicityRegistry.open();
+		try {
+			PowerMockito.when(mockedDirContext.search(Matchers.anyString(), Matchers.anyString(), Matchers.any(SearchControls.class))).
+					thenAnswer(invocation -> getResultSet(new String[] { "mail=gabriel.faure@ac-rennes.fr" }));
+
+			final String unicity = "(UNICITY)ldap://ldap-pp.in.ac-rennes.fr:389/ou=personnes,dc=ent-bretagne,dc=fr??sub?(mail=gabriel.faure*@ac-rennes.fr)(/UNICITY)";
+			Assert.assertEquals("gabriel.faure1@ac-rennes.fr", Functions.getInstance().executeAllFunctions(unicity));
+			Assert.assertEquals("gabriel.faure2@ac-rennes.fr", Functions.getInstance().executeAllFunctions(unicity));
+
+			Mockito.verify(mockedDirContext, Mockito.times(2)).search(Matchers.eq(""), Matchers.eq("(mail=gabriel.faure*@ac-rennes.fr)"), Matchers.any(SearchControls.class));
+			PowerMockito.verifyNew(InitialDirContext.class, Mockito.times(1)).withArguments(Matchers.any(Hashtable.class));
+		} finally {
+			UnicityRegistry.close();
+		}
+	}
+}
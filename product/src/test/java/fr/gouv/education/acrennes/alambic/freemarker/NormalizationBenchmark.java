@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.freemarker;
+
+import java.text.Normalizer;
+import java.text.Normalizer.Form;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Comparaison, pour chaque politique de normalisation, du débit de la normalisation historique (règles compilées à
+ * chaque appel) et de {@link FMFunctions#normalize(String, NormalizationPolicy, boolean)} (règles précompilées et
+ * résultats mémorisés).
+ * <p>
+ * Deux jeux de valeurs sont mesurés : des valeurs toutes distinctes (coût de la chaîne de règles seule) et des valeurs
+ * répétées, comme les noms et prénoms d'un annuaire (coût avec les résultats mémorisés).
+ * </p>
+ * <p>
+ * Exécution : {@code java -cp <classpath de test> fr.gouv.education.acrennes.alambic.freemarker.NormalizationBenchmark [nombre de valeurs]}
+ * </p>
+ */
+public class NormalizationBenchmark {
+
+	private static final String[] VALUES = {
+			"Le Goff", "  Jean-Pierre ", "Anne MARIE  - Louise D 'Orleans", "Guyomarc'h", "Léonor", "DUPUIS (ex DULONG)",
+			"Jacques  Le créac  ' h", "L'opération 3*5+4,2/3=?", "un text avec \"guillemets gênants\"", "Mademoiselle", "Monsieur",
+			"Côtes d'Armor", "Saint-Brieuc  (22)", "Chaïma", "Œuvre d'art"
+	};
+
+	public static void main(final String[] args) {
+		final int count = (0 < args.length) ? Integer.parseInt(args[0]) : 200000;
+		final FMFunctions functions = new FMFunctions();
+
+		for (final NormalizationPolicy policy : NormalizationPolicy.values()) {
+			// warm-up
+			run(functions, policy, count / 10, true, false);
+			run(functions, policy, count / 10, false, false);
+
+			final long legacy = run(functions, policy, count, true, false);
+			final long compiled = run(functions, policy, count, false, false);
+			final long memorized = run(functions, policy, count, false, true);
+			System.out.println(String.format("%-15s %d values : legacy=%d ms, compiled=%d ms (speedup=%.2f), compiled with repeated values=%d ms (speedup=%.2f)",
+					policy.name(), count,
+					legacy / 1000000,
+					compiled / 1000000, (double) legacy / compiled,
+					memorized / 1000000, (double) legacy / memorized));
+		}
+	}
+
+	private static long run(final FMFunctions functions, final NormalizationPolicy policy, final int count, final boolean legacy, final boolean repeated) {
+		long checksum = 0;
+		final long start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			// distinct values bypass the memorized results
+			final String value = VALUES[i % VALUES.length] + (repeated ? "" : " " + i);
+			final String normalized = legacy ? normalizeLegacy(value, policy, true) : functions.normalize(value, policy, true);
+			checksum += normalized.length();
+		}
+		final long duration = System.nanoTime() - start;
+		if (0 == checksum) {
+			throw new IllegalStateException();
+		}
+		return duration;
+	}
+
+	/*
+	 * Normalisation historique : compilation des règles à chaque appel
+	 */
+	private static String normalizeLegacy(final String rawStr, NormalizationPolicy policy, final boolean discardAccents) {
+		String str = rawStr.trim();
+
+		if (discardAccents) {
+			str = Normalizer.normalize(str, Form.NFD).replaceAll("[^\\p{ASCII}]", "");
+		}
+
+		policy = (null != policy) ? policy : NormalizationPolicy.DEFAULT;
+		for (final String rules : policy.getRules()) {
+			final String[] rule = rules.split("=");
+			final Pattern pattern = Pattern.compile(rule[0]);
+			final Matcher matcher = pattern.matcher(str);
+			while (matcher.find()) {
+				if (1 == rule.length) {
+					str = str.replaceAll(rule[0], "");
+				} else {
+					if (rule[1].contains("$")) {
+						String dst = rule[1];
+						final Matcher captureMatcher = Pattern.compile("\\$(\\d+)").matcher(rule[1]);
+						while (captureMatcher.find()) {
+							final Integer index = Integer.valueOf(captureMatcher.group(1));
+							dst = dst.replaceAll("\\" + captureMatcher.group(0), matcher.group(index));
+						}
+						str = str.replaceAll(matcher.group(0), dst);
+					} else {
+						str = str.replaceAll(rule[0], rule[1]);
+					}
+				}
+			}
+		}
+
+		return str;
+	}
+
+}
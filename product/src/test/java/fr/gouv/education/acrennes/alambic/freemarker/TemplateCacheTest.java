@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.freemarker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+import freemarker.ext.dom.NodeModel;
+import freemarker.template.Configuration;
+
+public class TemplateCacheTest {
+
+	private static final String TEMPLATE_DIRECTORY = "src/test/resources/data";
+
+	@After
+	public void tearDown() {
+		TemplateCache.clear();
+	}
+
+	/**
+	 * Partage des configurations par répertoire de templates et paramètres
+	 */
+	@Test
+	public void test1() throws IOException {
+		final Configuration cfg = TemplateCache.getConfiguration(TEMPLATE_DIRECTORY, "UTF-8", false);
+		Assert.assertSame(cfg, TemplateCache.getConfiguration(TEMPLATE_DIRECTORY + "/../data", "UTF-8", false));
+		Assert.assertTrue(cfg.getObjectWrapper() instanceof AlambicObjectWrapper);
+		Assert.assertEquals("UTF-8", cfg.getOutputEncoding());
+		Assert.assertFalse(cfg.isClassicCompatible());
+
+		final Configuration classicCfg = TemplateCache.getConfiguration(TEMPLATE_DIRECTORY, "UTF-8", true);
+		Assert.assertNotSame(cfg, classicCfg);
+		Assert.assertTrue(classicCfg.isClassicCompatible());
+		Assert.assertNotSame(cfg, TemplateCache.getConfiguration(TEMPLATE_DIRECTORY, "ISO-8859-1", false));
+	}
+
+	/**
+	 * Fichiers XML : copie du document analysé, nouvelle analyse lorsque le fichier est modifié
+	 */
+	@Test
+	public void test2() throws IOException, SAXException, ParserConfigurationException {
+		final File file = File.createTempFile("xmlfile", ".xml");
+		file.deleteOnExit();
+		Files.write(file.toPath(), "<root><!-- comment --><item>one</item></root>".getBytes(StandardCharsets.UTF_8));
+
+		final NodeModel model1 = TemplateCache.getXmlFileModel(file, true, true);
+		final NodeModel model2 = TemplateCache.getXmlFileModel(file, true, true);
+		Assert.assertNotSame(model1.getNode(), model2.getNode());
+		Assert.assertEquals("one", ((Document) model2.getNode()).getDocumentElement().getTextContent());
+		Assert.assertEquals(1, ((Document) model2.getNode()).getDocumentElement().getChildNodes().getLength());
+		Assert.assertEquals(2, ((Document) TemplateCache.getXmlFileModel(file, false, true).getNode()).getDocumentElement().getChildNodes().getLength());
+
+		Files.write(file.toPath(), "<root><item>one</item><item>two</item></root>".getBytes(StandardCharsets.UTF_8));
+		Assert.assertEquals("onetwo", ((Document) TemplateCache.getXmlFileModel(file, true, true).getNode()).getDocumentElement().getTextContent());
+	}
+
+}
@@ -16,6 +16,7 @@
  ******************************************************************************/
 package fr.gouv.education.acrennes.alambic.jobs.extract.clients;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -24,6 +25,7 @@ import fr.gouv.education.acrennes.alambic.exception.AlambicException;
 import org.junit.Assert;
 import org.junit.Test;
 
+import au.com.bytecode.opencsv.CSVParser;
 import junit.framework.TestCase;
 
 public class CsvToStateBaseTest extends TestCase {
@@ -106,4 +108,28 @@ public class CsvToStateBaseTest extends TestCase {
 		}
 	}
 
-}
\ No newline at end of file
+	@Test
+	public void test4() {
+		try {
+			CsvToStateBase conn = new CsvToStateBase("src/test/resources/data/csvtest/test.csv", CsvToStateBase.DEFAULT_SEPARATOR, CSVParser.DEFAULT_QUOTE_CHARACTER,
+					CSVParser.DEFAULT_ESCAPE_CHARACTER, StandardCharsets.UTF_8, true);
+			Iterator<List<Map<String, List<String>>>> itr = conn.getPageIterator(null, null, 3, null, null);
+			Assert.assertTrue(itr.hasNext());
+			List<Map<String, List<String>>> list = itr.next();
+			Assert.assertEquals(3, list.size());
+			Assert.assertEquals("Hey Bob!", list.get(0).get("TITLE").get(0));
+
+			Assert.assertTrue(itr.hasNext());
+			list = itr.next();
+			Assert.assertEquals(2, list.size());
+			Assert.assertEquals("Hey Emilie", list.get(1).get("TITLE").get(0));
+			Assert.assertEquals("3", list.get(1).get("QUANTITY").get(0));
+
+			Assert.assertFalse(itr.hasNext());
+			conn.close();
+		} catch (AlambicException e) {
+			Assert.fail("Exception survenue pendant le test unitaire, erreur : " + e.getMessage());
+		}
+	}
+
+}
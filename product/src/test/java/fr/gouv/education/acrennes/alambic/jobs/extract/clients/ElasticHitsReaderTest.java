@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.jobs.extract.clients;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ElasticHitsReaderTest {
+
+	private ElasticHitsReader read(final String body) throws IOException {
+		return ElasticHitsReader.read(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	@Test
+	public void testScrollResponse() throws IOException {
+		ElasticHitsReader reader = read("{\"_scroll_id\":\"DXF1ZXJ5\",\"took\":3,\"timed_out\":false,\"_shards\":{\"total\":1,\"successful\":1},"
+				+ "\"hits\":{\"total\":12,\"max_score\":1.0,\"hits\":["
+				+ "{\"_index\":\"books\",\"_type\":\"_doc\",\"_id\":\"1\",\"_score\":1.0,\"_source\":{\"title\":\"Le Horla\",\"price\":12.5,\"available\":true,\"isbn\":null}},"
+				+ "{\"_index\":\"books\",\"_type\":\"_doc\",\"_id\":\"2\",\"_score\":1.0,\"_source\":{\"title\":\"Bel-Ami\",\"tags\":[\"roman\",\"XIXe\"],\"author\":{\"name\":\"Maupassant\",\"born\":{\"year\":1850}}}}"
+				+ "]}}");
+
+		Assert.assertEquals("DXF1ZXJ5", reader.getScrollId());
+		Assert.assertEquals(12, reader.getTotal());
+		List<Map<String, List<String>>> hits = reader.getHits();
+		Assert.assertEquals(2, hits.size());
+
+		Map<String, List<String>> hit = hits.get(0);
+		Assert.assertEquals(Collections.singletonList("1"), hit.get("_id"));
+		Assert.assertEquals(Collections.singletonList("Le Horla"), hit.get("title"));
+		Assert.assertEquals(Collections.singletonList("12.5"), hit.get("price"));
+		Assert.assertEquals(Collections.singletonList("true"), hit.get("available"));
+		Assert.assertFalse(hit.containsKey("isbn"));
+		Assert.assertFalse(hit.containsKey("_index"));
+		Assert.assertEquals(4, hit.size());
+
+		hit = hits.get(1);
+		Assert.assertEquals(Arrays.asList("roman", "XIXe"), hit.get("tags"));
+		Assert.assertEquals(Collections.singletonList("Maupassant"), hit.get("author.name"));
+		Assert.assertEquals(Collections.singletonList("1850"), hit.get("author.born.year"));
+	}
+
+	@Test
+	public void testTotalObject() throws IOException {
+		ElasticHitsReader reader = read("{\"hits\":{\"total\":{\"value\":10000,\"relation\":\"gte\"},\"hits\":[]}}");
+		Assert.assertNull(reader.getScrollId());
+		Assert.assertEquals(10000, reader.getTotal());
+		Assert.assertTrue(reader.getHits().isEmpty());
+	}
+
+	@Test
+	public void testArrayOfObjects() throws IOException {
+		ElasticHitsReader reader = read("{\"hits\":{\"hits\":[{\"_id\":\"a\",\"_source\":{\"classes\":[{\"code\":\"6A\"},{\"code\":\"6B\",\"level\":6}]}}]}}");
+		Assert.assertEquals(-1, reader.getTotal());
+		Map<String, List<String>> hit = reader.getHits().get(0);
+		Assert.assertEquals(Arrays.asList("6A", "6B"), hit.get("classes.code"));
+		Assert.assertEquals(Collections.singletonList("6"), hit.get("classes.level"));
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotAnObject() throws IOException {
+		read("[]");
+	}
+
+}
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.jobs.extract.clients;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import fr.gouv.education.acrennes.alambic.jobs.extract.clients.ElasticToStateBase.PaginationMethod;
+
+/**
+ * Mesure du débit et de la latence par page des méthodes de pagination Elastic (scroll, scroll découpé en slices,
+ * point-in-time + search_after) sur un serveur HTTP local simulant le cluster (latence fixe par requête).
+ * <p>
+ * Exécution : {@code java -cp <classpath de test> fr.gouv.education.acrennes.alambic.jobs.extract.clients.ElasticPaginationBenchmark [nombre de documents] [taille de page] [latence (ms)] [slices]}
+ * </p>
+ */
+public class ElasticPaginationBenchmark {
+
+	public static void main(final String[] args) throws Exception {
+		int count = (0 < args.length) ? Integer.parseInt(args[0]) : 50000;
+		int pageSize = (1 < args.length) ? Integer.parseInt(args[1]) : 500;
+		long latency = (2 < args.length) ? Long.parseLong(args[2]) : 20;
+		int slices = (3 < args.length) ? Integer.parseInt(args[3]) : 4;
+
+		ElasticStubServer server = new ElasticStubServer(count, latency);
+		server.start();
+		try {
+			for (String streamHits : new String[] { "false", "true" }) {
+				run(server, "SCROLL", PaginationMethod.SCROLL, 1, pageSize, Boolean.parseBoolean(streamHits));
+				run(server, "SCROLL x" + slices + " slices", PaginationMethod.SCROLL, slices, pageSize, Boolean.parseBoolean(streamHits));
+				run(server, "PIT", PaginationMethod.PIT, 1, pageSize, Boolean.parseBoolean(streamHits));
+			}
+		} finally {
+			server.stop();
+		}
+	}
+
+	private static void run(final ElasticStubServer server, final String name, final PaginationMethod method, final int slices, final int pageSize, final boolean streamHits) throws Exception {
+		ElasticToStateBase client = new ElasticToStateBase(server.getUri(), null, null, ElasticStubServer.INDEX, "1m", null, null, null, streamHits);
+		client.setPaginationMethod(method);
+		client.setSlices(slices);
+		int requests = server.getRequestCount();
+		try {
+			Iterator<List<Map<String, List<String>>>> itr = client.getPageIterator("{\"query\":{\"match_all\":{}}}", null, pageSize, null, null);
+			List<Long> latencies = new ArrayList<>();
+			long start = System.nanoTime();
+			while (itr.hasNext()) {
+				itr.next();
+				long end = System.nanoTime();
+				latencies.add(end - start);
+				start = end;
+			}
+			report(name + ((streamHits) ? " (streamHits)" : ""), latencies, server.getRequestCount() - requests);
+		} finally {
+			client.close();
+		}
+	}
+
+	private static void report(final String name, final List<Long> latencies, final int requests) {
+		long total = 0;
+		for (long latency : latencies) {
+			total += latency;
+		}
+		List<Long> sorted = new ArrayList<>(latencies);
+		Collections.sort(sorted);
+		System.out.println(String.format("%s : %d pages, %d requests, total=%d ms, mean=%.2f ms, p50=%.2f ms, p95=%.2f ms, max=%.2f ms",
+				name,
+				latencies.size(),
+				requests,
+				total / 1000000,
+				total / 1e6 / Math.max(1, latencies.size()),
+				sorted.isEmpty() ? 0 : sorted.get(sorted.size() / 2) / 1e6,
+				sorted.isEmpty() ? 0 : sorted.get((int) (sorted.size() * 0.95)) / 1e6,
+				sorted.isEmpty() ? 0 : sorted.get(sorted.size() - 1) / 1e6));
+	}
+
+}
@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.jobs.extract.clients;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serveur HTTP local (in-process) simulant les API de recherche d'un cluster Elastic sur un index de documents
+ * '{"uid":"user{n}","rank":n}' : '_count', scroll (éventuellement découpé en slices) et point-in-time + 'search_after'.
+ * Chaque requête est retardée d'une latence fixe, à l'image du parcours des shards par le cluster.
+ */
+public class ElasticStubServer {
+
+	public static final String INDEX = "people";
+
+	private final HttpServer server;
+	private final int documentCount;
+	private final long latency;
+	private final Map<String, ScrollContext> scrolls = new ConcurrentHashMap<>();
+	private final Map<String, Boolean> pits = new ConcurrentHashMap<>();
+	private final AtomicInteger contextCount = new AtomicInteger();
+	private final AtomicInteger requestCount = new AtomicInteger();
+	private volatile int failingSlice = -1;
+	private volatile int failingPitPage = -1;
+
+	/* The documents of a scroll (or of one of its slices) and the position of its cursor */
+	private static class ScrollContext {
+		private final List<Integer> documents = new ArrayList<>();
+		private final int size;
+		private int position;
+
+		private ScrollContext(final int size) {
+			this.size = size;
+		}
+	}
+
+	public ElasticStubServer(final int documentCount, final long latency) throws IOException {
+		this.documentCount = documentCount;
+		this.latency = latency;
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		this.server.setExecutor(Executors.newCachedThreadPool());
+		this.server.createContext("/", this::handle);
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+	}
+
+	public String getUri() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * Nombre de contextes de recherche (scroll et point-in-time) ouverts et non libérés.
+	 */
+	public int getOpenContexts() {
+		return scrolls.size() + pits.size();
+	}
+
+	public int getRequestCount() {
+		return requestCount.get();
+	}
+
+	/**
+	 * Fait échouer (code 500) l'ouverture du scroll de la slice indiquée.
+	 */
+	public void failSlice(final int sliceId) {
+		failingSlice = sliceId;
+	}
+
+	/**
+	 * Fait échouer (code 500) la lecture de la page indiquée (à partir de 0) des points-in-time.
+	 */
+	public void failPitPage(final int page) {
+		failingPitPage = page;
+	}
+
+	private void handle(final HttpExchange exchange) throws IOException {
+		requestCount.incrementAndGet();
+		try (InputStream content = exchange.getRequestBody()) {
+			String body = IOUtils.toString(content, StandardCharsets.UTF_8);
+			String path = exchange.getRequestURI().getPath();
+			String method = exchange.getRequestMethod();
+			Thread.sleep(latency);
+
+			if (path.equals("/" + INDEX + "/_count")) {
+				reply(exchange, 200, new JSONObject().put("count", documentCount));
+			} else if (path.equals("/" + INDEX + "/_search") && "POST".equals(method)) {
+				JSONObject query = new JSONObject(body);
+				ScrollContext scroll = new ScrollContext(query.getInt("size"));
+				JSONObject slice = query.optJSONObject("slice");
+				if (null != slice && failingSlice == slice.getInt("id")) {
+					reply(exchange, 500, new JSONObject().put("error", "slice failure"));
+					return;
+				}
+				for (int rank = 0; rank < documentCount; rank++) {
+					if (null == slice || slice.getInt("id") == rank % slice.getInt("max")) {
+						scroll.documents.add(rank);
+					}
+				}
+				String scrollId = "scroll-" + contextCount.incrementAndGet();
+				scrolls.put(scrollId, scroll);
+				reply(exchange, 200, nextScrollPage(scrollId));
+			} else if (path.equals("/_search/scroll") && "POST".equals(method)) {
+				reply(exchange, 200, nextScrollPage(new JSONObject(body).getString("scroll_id")));
+			} else if (path.equals("/_search/scroll") && "DELETE".equals(method)) {
+				scrolls.remove(new JSONObject(body).getString("scroll_id"));
+				reply(exchange, 200, new JSONObject().put("succeeded", true));
+			} else if (path.equals("/" + INDEX + "/_pit") && "POST".equals(method)) {
+				String pitId = "pit-" + contextCount.incrementAndGet();
+				pits.put(pitId, Boolean.TRUE);
+				reply(exchange, 200, new JSONObject().put("id", pitId));
+			} else if (path.equals("/_pit") && "DELETE".equals(method)) {
+				pits.remove(new JSONObject(body).getString("id"));
+				reply(exchange, 200, new JSONObject().put("succeeded", true));
+			} else if (path.equals("/_search") && "POST".equals(method)) {
+				JSONObject query = new JSONObject(body);
+				String pitId = query.getJSONObject("pit").getString("id");
+				if (!pits.containsKey(pitId)) {
+					reply(exchange, 404, new JSONObject().put("error", "unknown point in time"));
+				} else {
+					JSONArray searchAfter = query.optJSONArray("search_after");
+					int from = (null != searchAfter) ? searchAfter.getInt(0) + 1 : 0;
+					if (0 <= failingPitPage && failingPitPage == from / query.getInt("size")) {
+						reply(exchange, 500, new JSONObject().put("error", "point in time failure"));
+						return;
+					}
+					int to = Math.min(documentCount, from + query.getInt("size"));
+					JSONArray hits = new JSONArray();
+					for (int rank = from; rank < to; rank++) {
+						hits.put(hit(rank).put("sort", new JSONArray().put(rank)));
+					}
+					reply(exchange, 200, new JSONObject().put("pit_id", pitId).put("hits", new JSONObject().put("hits", hits)));
+				}
+			} else {
+				reply(exchange, 404, new JSONObject().put("error", "unsupported API " + method + " " + path));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException e) {
+			reply(exchange, 400, new JSONObject().put("error", String.valueOf(e.getMessage())));
+		}
+	}
+
+	private JSONObject nextScrollPage(final String scrollId) {
+		ScrollContext scroll = scrolls.get(scrollId);
+		JSONArray hits = new JSONArray();
+		int end = Math.min(scroll.documents.size(), scroll.position + scroll.size);
+		for (int i = scroll.position; i < end; i++) {
+			hits.put(hit(scroll.documents.get(i)));
+		}
+		scroll.position = end;
+		return new JSONObject().put("_scroll_id", scrollId).put("hits", new JSONObject().put("total", scroll.documents.size()).put("hits", hits));
+	}
+
+	private JSONObject hit(final int rank) {
+		return new JSONObject()
+				.put("_index", INDEX)
+				.put("_id", "doc" + rank)
+				.put("_source", new JSONObject().put("uid", "user" + rank).put("rank", rank));
+	}
+
+	private void reply(final HttpExchange exchange, final int status, final JSONObject payload) throws IOException {
+		byte[] bytes = payload.toString().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream output = exchange.getResponseBody()) {
+			output.write(bytes);
+		}
+	}
+
+}
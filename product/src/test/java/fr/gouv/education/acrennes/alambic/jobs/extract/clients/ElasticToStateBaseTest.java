@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.jobs.extract.clients;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.gouv.education.acrennes.alambic.exception.AlambicException;
+import fr.gouv.education.acrennes.alambic.jobs.extract.clients.ElasticToStateBase.PaginationMethod;
+
+public class ElasticToStateBaseTest {
+
+	private static final int DOCUMENT_COUNT = 1050;
+	private static final int PAGE_SIZE = 100;
+	private static final String QUERY = "{\"query\":{\"match_all\":{}}}";
+
+	private ElasticStubServer server;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new ElasticStubServer(DOCUMENT_COUNT, 0);
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+	}
+
+	private ElasticToStateBase newClient(final PaginationMethod method, final int slices, final boolean streamHits) {
+		ElasticToStateBase client = new ElasticToStateBase(server.getUri(), null, null, ElasticStubServer.INDEX, "1m", "5000", null, null, streamHits);
+		client.setPaginationMethod(method);
+		client.setSlices(slices);
+		return client;
+	}
+
+	/* Reads all the pages and returns the uid of the documents read */
+	private Set<String> readAll(final ElasticToStateBase client, final boolean streamHits) throws AlambicException {
+		Set<String> uids = new HashSet<>();
+		int count = 0;
+		try {
+			Iterator<List<Map<String, List<String>>>> itr = client.getPageIterator(QUERY, null, PAGE_SIZE, null, null);
+			while (itr.hasNext()) {
+				for (Map<String, List<String>> entry : itr.next()) {
+					if (streamHits) {
+						uids.add(entry.get("uid").get(0));
+						count++;
+					} else {
+						JSONArray hits = new JSONObject(entry.get("item").get(0)).getJSONObject("hits").getJSONArray("hits");
+						for (int i = 0; i < hits.length(); i++) {
+							uids.add(hits.getJSONObject(i).getJSONObject("_source").getString("uid"));
+							count++;
+						}
+					}
+				}
+			}
+		} finally {
+			client.close();
+		}
+		Assert.assertEquals("each document must be read once", uids.size(), count);
+		return uids;
+	}
+
+	@Test
+	public void testScroll() throws AlambicException {
+		Assert.assertEquals(DOCUMENT_COUNT, readAll(newClient(PaginationMethod.SCROLL, 1, false), false).size());
+		Assert.assertEquals(DOCUMENT_COUNT, readAll(newClient(PaginationMethod.SCROLL, 1, true), true).size());
+	}
+
+	@Test
+	public void testSlicedScroll() throws AlambicException {
+		Assert.assertEquals(DOCUMENT_COUNT, readAll(newClient(PaginationMethod.SCROLL, 4, false), false).size());
+		Assert.assertEquals(DOCUMENT_COUNT, readAll(newClient(PaginationMethod.SCROLL, 4, true), true).size());
+		Assert.assertEquals("the scroll contexts must be released", 0, server.getOpenContexts());
+	}
+
+	@Test
+	public void testSlicedScrollFailure() throws AlambicException {
+		server.failSlice(2);
+		try {
+			readAll(newClient(PaginationMethod.SCROLL, 4, true), true);
+			Assert.fail("The failure of a slice must be passed on to the consumer");
+		} catch (RuntimeException e) {
+			Assert.assertTrue(e.getMessage().contains("slice 2"));
+		}
+		Assert.assertEquals("the scroll contexts must be released", 0, server.getOpenContexts());
+	}
+
+	@Test
+	public void testPointInTime() throws AlambicException {
+		Assert.assertEquals(DOCUMENT_COUNT, readAll(newClient(PaginationMethod.PIT, 1, false), false).size());
+		Assert.assertEquals(DOCUMENT_COUNT, readAll(newClient(PaginationMethod.PIT, 1, true), true).size());
+		Assert.assertEquals("the point in time must be released", 0, server.getOpenContexts());
+	}
+
+	@Test
+	public void testPointInTimeFailure() throws AlambicException {
+		server.failPitPage(3);
+		try {
+			readAll(newClient(PaginationMethod.PIT, 1, true), true);
+			Assert.fail("The failure of a page must be passed on to the consumer");
+		} catch (RuntimeException e) {
+			Assert.assertTrue(e.getMessage().contains("point in time"));
+		}
+		Assert.assertEquals("the point in time must be released", 0, server.getOpenContexts());
+	}
+
+}
@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.jobs.extract.clients;
+
+import java.util.Properties;
+
+import javax.naming.Context;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.sdk.LDAPException;
+
+/**
+ * Annuaire LDAP en mémoire (in-process) peuplé de personnes 'uid=user{n},ou=people,dc=ac-rennes,dc=fr'.
+ */
+public class EmbeddedLdapServer {
+
+	public static final String BASE_DN = "dc=ac-rennes,dc=fr";
+	public static final String PEOPLE_DN = "ou=people," + BASE_DN;
+
+	private final InMemoryDirectoryServer server;
+
+	public EmbeddedLdapServer(final int peopleCount) throws LDAPException {
+		InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(BASE_DN);
+		config.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("default", 0));
+		config.setSchema(null);
+		server = new InMemoryDirectoryServer(config);
+		server.add("dn: " + BASE_DN, "objectClass: top", "objectClass: domain", "dc: ac-rennes");
+		server.add("dn: " + PEOPLE_DN, "objectClass: top", "objectClass: organizationalUnit", "ou: people");
+		for (int i = 0; i < peopleCount; i++) {
+			server.add("dn: uid=user" + i + "," + PEOPLE_DN,
+					"objectClass: top",
+					"objectClass: person",
+					"objectClass: inetOrgPerson",
+					"uid: user" + i,
+					"cn: User " + i,
+					"sn: User" + i,
+					"mail: user" + i + "@ac-rennes.fr");
+		}
+	}
+
+	public void start() throws LDAPException {
+		server.startListening();
+	}
+
+	public void stop() {
+		server.shutDown(true);
+	}
+
+	public Properties getEnvironment(final String baseDN) {
+		Properties environment = new Properties();
+		environment.setProperty(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
+		environment.setProperty(Context.PROVIDER_URL, "ldap://localhost:" + server.getListenPort() + "/" + baseDN);
+		return environment;
+	}
+
+}
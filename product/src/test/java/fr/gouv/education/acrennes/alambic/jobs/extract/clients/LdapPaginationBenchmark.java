@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.jobs.extract.clients;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import fr.gouv.education.acrennes.alambic.jobs.extract.clients.LdapToStateBase.PaginationMethod;
+
+/**
+ * Mesure de la latence par page des méthodes de pagination LDAP (VLV et Simple Paged Results) sur un annuaire en mémoire.
+ * <p>
+ * Exécution : {@code java -cp <classpath de test> fr.gouv.education.acrennes.alambic.jobs.extract.clients.LdapPaginationBenchmark [nombre d'entrées] [taille de page]}
+ * </p>
+ */
+public class LdapPaginationBenchmark {
+
+	public static void main(final String[] args) throws Exception {
+		int count = (0 < args.length) ? Integer.parseInt(args[0]) : 20000;
+		int pageSize = (1 < args.length) ? Integer.parseInt(args[1]) : 500;
+
+		EmbeddedLdapServer server = new EmbeddedLdapServer(count);
+		server.start();
+		try {
+			for (PaginationMethod method : new PaginationMethod[] { PaginationMethod.VLV, PaginationMethod.PAGED_RESULTS }) {
+				LdapToStateBase client = new LdapToStateBase(server.getEnvironment(EmbeddedLdapServer.PEOPLE_DN), new String[] { "uid", "cn", "mail" });
+				client.setPaginationMethod(method);
+				try {
+					report(method, run(client.getPageIterator("(objectClass=person)", "ONELEVEL_SCOPE", pageSize, "uid", null)));
+				} finally {
+					client.close();
+				}
+			}
+		} finally {
+			server.stop();
+		}
+	}
+
+	private static List<Long> run(final Iterator<List<Map<String, List<String>>>> itr) {
+		List<Long> latencies = new ArrayList<>();
+		long start = System.nanoTime();
+		while (itr.hasNext()) {
+			itr.next();
+			long end = System.nanoTime();
+			latencies.add(end - start);
+			start = end;
+		}
+		return latencies;
+	}
+
+	private static void report(final PaginationMethod method, final List<Long> latencies) {
+		if (latencies.isEmpty()) {
+			System.out.println(method + " : no page (the method might not be supported by the server)");
+			return;
+		}
+
+		long total = 0;
+		for (long latency : latencies) {
+			total += latency;
+		}
+		List<Long> sorted = new ArrayList<>(latencies);
+		Collections.sort(sorted);
+		System.out.println(String.format("%s : %d pages, total=%d ms, mean=%.2f ms, p50=%.2f ms, p95=%.2f ms, max=%.2f ms, last page=%.2f ms",
+				method,
+				latencies.size(),
+				total / 1000000,
+				total / 1e6 / latencies.size(),
+				sorted.get(sorted.size() / 2) / 1e6,
+				sorted.get((int) (sorted.size() * 0.95)) / 1e6,
+				sorted.get(sorted.size() - 1) / 1e6,
+				latencies.get(latencies.size() - 1) / 1e6));
+	}
+
+}
@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.jobs.extract.clients;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fr.gouv.education.acrennes.alambic.exception.AlambicException;
+
+public class LdapShardTest {
+
+	@Test
+	public void testByLeadingCharacters() throws AlambicException {
+		List<LdapShard> shards = LdapShard.byLeadingCharacters("uid", "a-c,x,0-1");
+		Assert.assertEquals(4, shards.size());
+		Assert.assertEquals("(|(uid=a*)(uid=b*)(uid=c*))", shards.get(0).getFilter());
+		Assert.assertEquals("(uid=x*)", shards.get(1).getFilter());
+		Assert.assertEquals("(|(uid=0*)(uid=1*))", shards.get(2).getFilter());
+		Assert.assertEquals("(!(|(|(uid=a*)(uid=b*)(uid=c*))(uid=x*)(|(uid=0*)(uid=1*))))", shards.get(3).getFilter());
+		Assert.assertEquals("", shards.get(0).getBaseName());
+	}
+
+	@Test
+	public void testQuery() throws AlambicException {
+		LdapShard shard = LdapShard.byLeadingCharacters("uid", "a").get(0);
+		Assert.assertEquals("(&(objectClass=person)(uid=a*))", shard.getQuery("(objectClass=person)"));
+		Assert.assertEquals("(&(objectClass=person)(uid=a*))", shard.getQuery("objectClass=person"));
+		Assert.assertEquals("(uid=a*)", shard.getQuery(null));
+
+		shard = LdapShard.byBaseNames(Arrays.asList(" ou=eleves ")).get(0);
+		Assert.assertEquals("ou=eleves", shard.getBaseName());
+		Assert.assertEquals("(objectClass=person)", shard.getQuery("(objectClass=person)"));
+	}
+
+	@Test(expected = AlambicException.class)
+	public void testNestedBaseNames() throws AlambicException {
+		LdapShard.byBaseNames(Arrays.asList("ou=eleves", "ou=college, OU=eleves"));
+	}
+
+	@Test(expected = AlambicException.class)
+	public void testInvalidRange() throws AlambicException {
+		LdapShard.byLeadingCharacters("uid", "a-*");
+	}
+
+	@Test(expected = AlambicException.class)
+	public void testReversedRange() throws AlambicException {
+		LdapShard.byLeadingCharacters("uid", "z-a");
+	}
+
+}
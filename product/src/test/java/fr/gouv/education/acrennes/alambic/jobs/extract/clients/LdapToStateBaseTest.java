@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.jobs.extract.clients;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.gouv.education.acrennes.alambic.exception.AlambicException;
+import fr.gouv.education.acrennes.alambic.jobs.extract.clients.LdapToStateBase.PaginationMethod;
+
+public class LdapToStateBaseTest {
+
+	private static final int PEOPLE_COUNT = 25;
+
+	private EmbeddedLdapServer server;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new EmbeddedLdapServer(PEOPLE_COUNT);
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+	}
+
+	@Test
+	public void testPagedResults() throws AlambicException {
+		LdapToStateBase client = new LdapToStateBase(server.getEnvironment(EmbeddedLdapServer.PEOPLE_DN), new String[] { "uid", "mail" });
+		client.setPaginationMethod(PaginationMethod.PAGED_RESULTS);
+		assertPages(client.getPageIterator("(objectClass=person)", "ONELEVEL_SCOPE", 10, null, null), 10, 10, 5);
+		client.close();
+	}
+
+	@Test
+	public void testAutomaticPaginationMethodWithoutSortCriteria() throws AlambicException {
+		LdapToStateBase client = new LdapToStateBase(server.getEnvironment(EmbeddedLdapServer.PEOPLE_DN), new String[] { "uid", "mail" });
+		assertPages(client.getPageIterator("(objectClass=person)", "ONELEVEL_SCOPE", 20, null, null), 20, 5);
+		client.close();
+	}
+
+	@Test
+	public void testPagedResultsWithSubtreeScope() throws AlambicException {
+		LdapToStateBase client = new LdapToStateBase(server.getEnvironment(EmbeddedLdapServer.BASE_DN), new String[] { "uid" });
+		client.setPaginationMethod(PaginationMethod.PAGED_RESULTS);
+		assertPages(client.getPageIterator("(objectClass=person)", "SUBTREE_SCOPE", 25, null, null), 25);
+		client.close();
+	}
+
+	@Test
+	public void testShardingByLeadingCharacters() throws AlambicException {
+		LdapToStateBase client = new LdapToStateBase(server.getEnvironment(EmbeddedLdapServer.PEOPLE_DN), new String[] { "uid" });
+		client.setPaginationMethod(PaginationMethod.PAGED_RESULTS);
+		client.setShards(LdapShard.byLeadingCharacters("uid", "a-m,n-t,u"), 2);
+		assertMergedPages(client.getPageIterator("(objectClass=person)", "ONELEVEL_SCOPE", 10, null, null));
+		client.close();
+	}
+
+	@Test
+	public void testShardingComplementaryShard() throws AlambicException {
+		LdapToStateBase client = new LdapToStateBase(server.getEnvironment(EmbeddedLdapServer.PEOPLE_DN), new String[] { "uid" });
+		client.setPaginationMethod(PaginationMethod.PAGED_RESULTS);
+		client.setShards(LdapShard.byLeadingCharacters("uid", "0-9"), 2);
+		assertMergedPages(client.getPageIterator("(objectClass=person)", "ONELEVEL_SCOPE", 10, null, null));
+		client.close();
+	}
+
+	@Test
+	public void testShardingByBaseNames() throws AlambicException {
+		LdapToStateBase client = new LdapToStateBase(server.getEnvironment(EmbeddedLdapServer.BASE_DN), new String[] { "uid" });
+		client.setPaginationMethod(PaginationMethod.PAGED_RESULTS);
+		client.setShards(LdapShard.byBaseNames(Arrays.asList("ou=people")), 4);
+		assertMergedPages(client.getPageIterator("(objectClass=person)", "SUBTREE_SCOPE", 10, null, null));
+		client.close();
+	}
+
+	@Test(expected = AlambicException.class)
+	public void testShardingByBaseNamesRequiresSubtreeScope() throws AlambicException {
+		LdapToStateBase client = new LdapToStateBase(server.getEnvironment(EmbeddedLdapServer.BASE_DN), new String[] { "uid" });
+		client.setPaginationMethod(PaginationMethod.PAGED_RESULTS);
+		client.setShards(LdapShard.byBaseNames(Arrays.asList("ou=people")), 4);
+		try {
+			client.getPageIterator("(objectClass=person)", "ONELEVEL_SCOPE", 10, null, null);
+		} finally {
+			client.close();
+		}
+	}
+
+	@Test
+	public void testShardingFailure() throws AlambicException {
+		LdapToStateBase client = new LdapToStateBase(server.getEnvironment(EmbeddedLdapServer.BASE_DN), new String[] { "uid" });
+		client.setPaginationMethod(PaginationMethod.PAGED_RESULTS);
+		client.setShards(LdapShard.byBaseNames(Arrays.asList("ou=people", "ou=missing")), 2);
+		Iterator<List<Map<String, List<String>>>> itr = client.getPageIterator("(objectClass=person)", "SUBTREE_SCOPE", 10, null, null);
+		try {
+			while (itr.hasNext()) {
+				itr.next();
+			}
+			Assert.fail("The failure of a shard must be passed on to the consumer");
+		} catch (RuntimeException e) {
+			Assert.assertTrue(e.getMessage().contains("ou=missing"));
+		} finally {
+			client.close();
+		}
+	}
+
+	private void assertMergedPages(final Iterator<List<Map<String, List<String>>>> itr) {
+		Set<String> uids = new HashSet<>();
+		int count = 0;
+		while (itr.hasNext()) {
+			for (Map<String, List<String>> entry : itr.next()) {
+				uids.add(entry.get("uid").get(0));
+				count++;
+			}
+		}
+		Assert.assertEquals(PEOPLE_COUNT, count);
+		Assert.assertEquals(PEOPLE_COUNT, uids.size());
+	}
+
+	private void assertPages(final Iterator<List<Map<String, List<String>>>> itr, final int... pageSizes) {
+		Set<String> uids = new HashSet<>();
+		for (int pageSize : pageSizes) {
+			Assert.assertTrue(itr.hasNext());
+			List<Map<String, List<String>>> page = itr.next();
+			Assert.assertEquals(pageSize, page.size());
+			for (Map<String, List<String>> entry : page) {
+				uids.add(entry.get("uid").get(0));
+			}
+		}
+		Assert.assertFalse(itr.hasNext());
+		Assert.assertEquals(PEOPLE_COUNT, uids.size());
+	}
+
+}
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.jobs.extract.clients;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.gouv.education.acrennes.alambic.exception.AlambicException;
+
+public class SqlToStateBaseTest {
+
+	private static final String DRIVER = "org.h2.Driver";
+	private static final String URI = "jdbc:h2:mem:sqltostatebasetest;DB_CLOSE_DELAY=-1";
+
+	private Connection setupConnection;
+
+	@Before
+	public void setUp() throws SQLException, ClassNotFoundException {
+		Class.forName(DRIVER);
+		setupConnection = DriverManager.getConnection(URI);
+		try (Statement stmt = setupConnection.createStatement()) {
+			stmt.execute("CREATE TABLE STUDENT (ID INT PRIMARY KEY, NAME VARCHAR(32))");
+			for (int i = 1; i <= 5; i++) {
+				stmt.execute("INSERT INTO STUDENT VALUES (" + i + ", 'student" + i + "')");
+			}
+		}
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		try (Statement stmt = setupConnection.createStatement()) {
+			stmt.execute("DROP TABLE STUDENT");
+		}
+		setupConnection.close();
+	}
+
+	@Test
+	public void testStreamPagination() throws SQLException, ClassNotFoundException, AlambicException {
+		SqlToStateBase client = new SqlToStateBase(DRIVER, URI, "STREAM");
+		client.setFetchSize(2);
+		Iterator<List<Map<String, List<String>>>> itr = client.getPageIterator("SELECT ID, NAME FROM STUDENT ORDER BY ID", null, 2, null, null);
+
+		Assert.assertTrue(itr.hasNext());
+		List<Map<String, List<String>>> page = itr.next();
+		Assert.assertEquals(2, page.size());
+		Assert.assertEquals("student1", page.get(0).get("NAME").get(0));
+
+		Assert.assertTrue(itr.hasNext());
+		page = itr.next();
+		Assert.assertEquals(2, page.size());
+		Assert.assertEquals("student3", page.get(0).get("NAME").get(0));
+
+		Assert.assertTrue(itr.hasNext());
+		page = itr.next();
+		Assert.assertEquals(1, page.size());
+		Assert.assertEquals("student5", page.get(0).get("NAME").get(0));
+
+		Assert.assertFalse(itr.hasNext());
+		client.close();
+	}
+
+	@Test
+	public void testKeysetPagination() throws SQLException, ClassNotFoundException, AlambicException {
+		SqlToStateBase client = new SqlToStateBase(DRIVER, URI, "KEYSET");
+		Iterator<List<Map<String, List<String>>>> itr = client.getPageIterator("SELECT ID, NAME FROM STUDENT", null, 2, "ID", null);
+
+		Assert.assertTrue(itr.hasNext());
+		List<Map<String, List<String>>> page = itr.next();
+		Assert.assertEquals(2, page.size());
+		Assert.assertEquals("1", page.get(0).get("ID").get(0));
+		Assert.assertEquals("2", page.get(1).get("ID").get(0));
+
+		Assert.assertTrue(itr.hasNext());
+		page = itr.next();
+		Assert.assertEquals(2, page.size());
+		Assert.assertEquals("3", page.get(0).get("ID").get(0));
+
+		Assert.assertTrue(itr.hasNext());
+		page = itr.next();
+		Assert.assertEquals(1, page.size());
+		Assert.assertEquals("5", page.get(0).get("ID").get(0));
+
+		Assert.assertFalse(itr.hasNext());
+		client.close();
+	}
+
+	@Test(expected = AlambicException.class)
+	public void testKeysetPaginationWithoutSortColumn() throws SQLException, ClassNotFoundException, AlambicException {
+		SqlToStateBase client = new SqlToStateBase(DRIVER, URI, "KEYSET");
+		try {
+			client.getPageIterator("SELECT ID, NAME FROM STUDENT", null, 2, null, null);
+		} finally {
+			client.close();
+		}
+	}
+
+}
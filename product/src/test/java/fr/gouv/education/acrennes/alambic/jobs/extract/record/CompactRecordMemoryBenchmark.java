@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.jobs.extract.record;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Comparaison de l'empreinte mémoire des représentations historique (HashMap + ArrayList par attribut) et compacte
+ * ({@link CompactRecord}) d'un jeu d'entrées similaire à une extraction LDAP.
+ * <p>
+ * Exécution : {@code java -Xmx4g -cp <classpath de test> fr.gouv.education.acrennes.alambic.jobs.extract.record.CompactRecordMemoryBenchmark [nombre d'entrées]}
+ * </p>
+ */
+public class CompactRecordMemoryBenchmark {
+
+	private static final String[] ATTRIBUTES = { "uid", "cn", "sn", "givenName", "mail", "ENTPersonJointure", "ENTEleveClasses", "objectClass" };
+
+	public static void main(final String[] args) {
+		int count = (0 < args.length) ? Integer.parseInt(args[0]) : 500000;
+
+		long legacy = measure(() -> buildLegacy(count));
+		long compact = measure(() -> buildCompact(count));
+
+		System.out.println(String.format("%d entries : legacy=%d MB (%d bytes/entry), compact=%d MB (%d bytes/entry), ratio=%.2f",
+				count,
+				legacy / (1024 * 1024), legacy / count,
+				compact / (1024 * 1024), compact / count,
+				(double) compact / legacy));
+	}
+
+	private static List<Map<String, List<String>>> buildLegacy(final int count) {
+		List<Map<String, List<String>>> entries = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			Map<String, List<String>> entry = new HashMap<>();
+			for (int a = 0; a < ATTRIBUTES.length; a++) {
+				List<String> values = new ArrayList<>();
+				values.add(value(i, a));
+				if ("objectClass".equals(ATTRIBUTES[a])) {
+					values.add("top");
+				}
+				entry.put(ATTRIBUTES[a], values);
+			}
+			entries.add(entry);
+		}
+		return entries;
+	}
+
+	private static List<Map<String, List<String>>> buildCompact(final int count) {
+		RecordSchema schema = new RecordSchema();
+		List<Map<String, List<String>>> entries = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			CompactRecord entry = schema.newRecord();
+			for (int a = 0; a < ATTRIBUTES.length; a++) {
+				if ("objectClass".equals(ATTRIBUTES[a])) {
+					entry.putValues(ATTRIBUTES[a], new String[] { value(i, a), "top" });
+				} else {
+					entry.putValue(ATTRIBUTES[a], value(i, a));
+				}
+			}
+			entries.add(entry);
+		}
+		return entries;
+	}
+
+	private static String value(final int entry, final int attribute) {
+		return ATTRIBUTES[attribute] + "-" + entry;
+	}
+
+	private interface Builder {
+		Object build();
+	}
+
+	private static long measure(final Builder builder) {
+		long before = usedMemory();
+		Object entries = builder.build();
+		long after = usedMemory();
+		if (null == entries) {
+			throw new IllegalStateException();
+		}
+		return after - before;
+	}
+
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.jobs.extract.record;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompactRecordTest {
+
+	@Test
+	public void testMapView() {
+		RecordSchema schema = new RecordSchema("uid", "cn");
+		CompactRecord record = schema.newRecord();
+		record.putValue("uid", "jdoe");
+		record.putValues("mail", new String[] { "jdoe@ac-rennes.fr", "john.doe@ac-rennes.fr" });
+
+		Assert.assertEquals(2, record.size());
+		Assert.assertEquals(Collections.singletonList("jdoe"), record.get("uid"));
+		Assert.assertEquals(Arrays.asList("jdoe@ac-rennes.fr", "john.doe@ac-rennes.fr"), record.get("mail"));
+		Assert.assertNull(record.get("cn"));
+		Assert.assertFalse(record.containsKey("cn"));
+		Assert.assertEquals("jdoe", record.getFirstValue("uid"));
+		Assert.assertEquals(3, schema.size());
+	}
+
+	@Test
+	public void testEqualsLegacyRepresentation() {
+		Map<String, List<String>> legacy = new HashMap<>();
+		legacy.put("uid", Collections.singletonList("jdoe"));
+		legacy.put("mail", Arrays.asList("jdoe@ac-rennes.fr", "john.doe@ac-rennes.fr"));
+		legacy.put("description", Collections.<String>emptyList());
+
+		CompactRecord record = new RecordSchema().newRecord();
+		record.putAll(legacy);
+
+		Assert.assertEquals(legacy, record);
+		Assert.assertEquals(record, legacy);
+		Assert.assertEquals(legacy.hashCode(), record.hashCode());
+		Assert.assertEquals(legacy.keySet(), record.keySet());
+	}
+
+	@Test
+	public void testSharedSchema() {
+		RecordSchema schema = new RecordSchema();
+		CompactRecord first = schema.newRecord();
+		first.putValue("uid", "jdoe");
+		CompactRecord second = schema.newRecord();
+		second.putValue("sn", "Doe");
+		second.putValue("uid", "jdoe2");
+
+		Assert.assertEquals(1, first.size());
+		Assert.assertNull(first.get("sn"));
+		Assert.assertEquals(2, second.size());
+		Assert.assertEquals(schema.indexOf("uid"), 0);
+		Assert.assertEquals(schema.indexOf("sn"), 1);
+	}
+
+	@Test
+	public void testRemove() {
+		CompactRecord record = new RecordSchema().newRecord();
+		record.putValue("uid", "jdoe");
+		record.putValue("sn", "Doe");
+
+		Assert.assertEquals(Collections.singletonList("jdoe"), record.remove("uid"));
+		Assert.assertEquals(1, record.size());
+		Assert.assertNull(record.remove("uid"));
+
+		record.entrySet().iterator().next();
+		record.keySet().remove("sn");
+		Assert.assertTrue(record.isEmpty());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testValuesAreReadOnly() {
+		CompactRecord record = new RecordSchema().newRecord();
+		record.putValue("uid", "jdoe");
+		record.get("uid").add("jdoe2");
+	}
+
+}
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.jobs.extract.sources;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AbstractSourceTest {
+
+	private FakeSource source;
+
+	@Before
+	public void setUp() {
+		List<Map<String, List<String>>> entries = new ArrayList<>();
+		entries.add(entry("uid", "u1", "division", "6A", "rank", "3"));
+		entries.add(entry("uid", "u2", "division", "6B", "rank", "1"));
+		entries.add(entry("uid", "u3", "division", "6A", "rank", "2"));
+		entries.add(entry("uid", "u1", "division", "6A", "rank", "3"));
+		entries.add(entry("uid", "u4", "division", "Élève", "rank", "10"));
+		entries.add(entry("uid", "u5", "rank", "4"));
+		Map<String, List<String>> multiValued = entry("uid", "u6", "rank", "5");
+		multiValued.put("division", Arrays.asList("6A", "6B"));
+		entries.add(multiValued);
+		Map<String, List<String>> noValue = entry("uid", "u7", "rank", "6");
+		noValue.put("division", Collections.<String> emptyList());
+		entries.add(noValue);
+		source = new FakeSource("test", 0, entries);
+	}
+
+	@Test
+	public void testLiteralFilter() {
+		// an entry without value of a filtered attribute is accepted by any filter
+		assertUids(source.getEntries(false, null, new SourceFilter("division=6A")), "u1", "u3", "u1", "u7");
+		assertUids(source.getEntries(false, null, new SourceFilter("division=Eleve")), "u4", "u7");
+		assertUids(source.getEntries(false, null, new SourceFilter("division=6A", "uid=u3")), "u3");
+		assertUids(source.getEntries(false, null, new SourceFilter("division=6C")), "u7");
+	}
+
+	@Test
+	public void testRegexFilter() {
+		assertUids(source.getEntries(false, null, new SourceFilter("division=6.*")), "u1", "u2", "u3", "u1", "u6", "u7");
+	}
+
+	@Test
+	public void testDistinctAndOrder() {
+		// with a filter, the entries are distinct according to the values of the filtered attributes
+		assertUids(source.getEntries(true, null, new SourceFilter("division=6A")), "u1", "u7");
+		assertUids(source.getEntries(true, "rank", new SourceFilter("division=6B")), "u2", "u7");
+		assertUids(source.getEntries(true, "rank", new SourceFilter("uid=u.*")), "u2", "u3", "u1", "u5", "u6", "u7", "u4");
+		assertUids(source.getEntries(true, null, null), "u1", "u2", "u3", "u4", "u5", "u6", "u7");
+		assertUids(source.getEntries(false, "rank", null), "u2", "u3", "u1", "u1", "u5", "u6", "u7", "u4");
+	}
+
+	@Test
+	public void testEntriesAreCopied() {
+		List<Map<String, List<String>>> selection = source.getEntries(false, null, new SourceFilter("uid=u2"));
+		selection.get(0).put("uid", Arrays.asList("changed"));
+		assertUids(source.getEntries(false, null, new SourceFilter("uid=u2")), "u2");
+	}
+
+	@Test
+	public void testReplacedEntries() {
+		assertUids(source.getEntries(false, null, new SourceFilter("division=6B")), "u2", "u7");
+		source.entries = new ArrayList<>(source.entries);
+		source.entries.add(entry("uid", "u8", "division", "6B", "rank", "7"));
+		assertUids(source.getEntries(false, null, new SourceFilter("division=6B")), "u2", "u7", "u8");
+	}
+
+	private static Map<String, List<String>> entry(final String... keyValues) {
+		Map<String, List<String>> entry = new HashMap<>();
+		for (int i = 0; i < keyValues.length; i += 2) {
+			entry.put(keyValues[i], Collections.singletonList(keyValues[i + 1]));
+		}
+		return entry;
+	}
+
+	private static void assertUids(final List<Map<String, List<String>>> entries, final String... uids) {
+		List<String> actual = new ArrayList<>();
+		for (Map<String, List<String>> entry : entries) {
+			actual.add(entry.get("uid").get(0));
+		}
+		Assert.assertEquals(Arrays.asList(uids), actual);
+	}
+
+}
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.jobs.load;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jdom2.Element;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import fr.gouv.education.acrennes.alambic.exception.AlambicException;
+
+public class PivotReaderTest {
+
+	private File pivot;
+
+	@After
+	public void tearDown() throws IOException {
+		if (null != pivot) {
+			Files.deleteIfExists(pivot.toPath());
+		}
+	}
+
+	private String getResource(final String name) {
+		return PivotReaderTest.class.getClassLoader().getResource("data/jobs/destination/" + name).getPath();
+	}
+
+	private String write(final String content) throws IOException {
+		pivot = File.createTempFile("pivot-", ".xml");
+		Files.write(pivot.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return pivot.getAbsolutePath();
+	}
+
+	private List<Element> readAll(final String file, final String container) throws AlambicException {
+		List<Element> elements = new ArrayList<>();
+		try (PivotReader reader = new PivotReader(file, container)) {
+			reader.forEachRemaining(elements::add);
+		}
+		return elements;
+	}
+
+	@Test
+	public void testHasElements() throws AlambicException {
+		Assert.assertFalse(PivotReader.hasElements(getResource("StateBaseToLdap-test1-input.xml"), "entries"));
+		Assert.assertTrue(PivotReader.hasElements(getResource("StateBaseToLdap-test2-input.xml"), "entries"));
+		Assert.assertFalse(PivotReader.hasElements(getResource("XmlToNuxeo-test1-input.xml"), "documents"));
+		Assert.assertTrue(PivotReader.hasElements(getResource("XmlToNuxeo-test3-input.xml"), "documents"));
+		Assert.assertFalse("the container is looked for among the root children only", PivotReader.hasElements(getResource("XmlToNuxeo-test2-input.xml"), "entries"));
+	}
+
+	@Test
+	public void testRead() throws Exception {
+		String file = write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<alambic>\n"
+				+ "  <variables><variable name=\"A\">1</variable></variables>\n"
+				+ "  <entries>\n"
+				+ "    <entry id=\"1\"><dn>cn=one</dn><attributes><attr name=\"sn\"><value>One</value></attr></attributes></entry>\n"
+				+ "    <!-- comment -->\n"
+				+ "    <entry id=\"2\"><dn>cn=two</dn></entry>\n"
+				+ "    <entry id=\"3\"><dn><![CDATA[cn=<three>]]></dn></entry>\n"
+				+ "  </entries>\n"
+				+ "  <datasources><datasource type=\"sql\" name=\"db\"/></datasources>\n"
+				+ "</alambic>\n");
+
+		List<Element> entries = readAll(file, "entries");
+		Assert.assertEquals(3, entries.size());
+		Assert.assertEquals("1", entries.get(0).getAttributeValue("id"));
+		Assert.assertEquals("cn=one", entries.get(0).getChildText("dn"));
+		Assert.assertEquals("One", entries.get(0).getChild("attributes").getChild("attr").getChildText("value"));
+		Assert.assertEquals("cn=<three>", entries.get(2).getChildText("dn"));
+
+		PivotReader.Outline outline = PivotReader.outline(file, "entries");
+		Assert.assertEquals(3, outline.getCount());
+		Assert.assertEquals("the entries must not be loaded", 0, outline.getRoot().getChild("entries").getChildren().size());
+		Assert.assertEquals("1", outline.getRoot().getChild("variables").getChild("variable").getText());
+		Assert.assertEquals("db", outline.getRoot().getChild("datasources").getChild("datasource").getAttributeValue("name"));
+	}
+
+	@Test
+	public void testRootChildren() throws Exception {
+		String file = write("<restConnector><api uri=\"http://a\" method=\"GET\"/><api uri=\"http://b\" method=\"PUT\"><payload>{}</payload></api></restConnector>");
+		List<Element> apis = readAll(file, null);
+		Assert.assertEquals(2, apis.size());
+		Assert.assertEquals("http://b", apis.get(1).getAttributeValue("uri"));
+		Assert.assertEquals("{}", apis.get(1).getChildText("payload"));
+		Assert.assertEquals(2, PivotReader.outline(file, null).getCount());
+	}
+
+	@Test
+	public void testMissingContainer() throws Exception {
+		String file = write("<alambic><variables/></alambic>");
+		Assert.assertTrue(readAll(file, "messages").isEmpty());
+		Assert.assertEquals(0, PivotReader.outline(file, "messages").getCount());
+	}
+
+	@Test(expected = AlambicException.class)
+	public void testMalformedPivot() throws Exception {
+		// the first entries are well-formed, the syntax error is only detected by a complete reading
+		PivotReader.outline(write("<alambic><entries><entry/><entry/></entries><variables></alambic>"), "entries");
+	}
+
+}
@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.jobs.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serveur HTTP local (in-process) simulant une API REST : chaque requête est retardée d'une latence fixe et reçoit
+ * le code 200, sauf pour les premiers appels de chaque ressource auxquels est répondu le code de refus configuré (429, 503...).
+ */
+public class RestStubServer {
+
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private final long latency;
+	private final int rejectionCode;
+	private final int rejectedAttempts;
+	private final Map<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+	private final AtomicInteger requestCount = new AtomicInteger();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger maxInFlight = new AtomicInteger();
+
+	/**
+	 * @param latency la latence de chaque réponse (en millisecondes)
+	 * @param rejectionCode le code de réponse des appels refusés
+	 * @param rejectedAttempts le nombre d'appels refusés par ressource avant de répondre 200 (-1 pour toujours refuser)
+	 */
+	public RestStubServer(final long latency, final int rejectionCode, final int rejectedAttempts) throws IOException {
+		this.latency = latency;
+		this.rejectionCode = rejectionCode;
+		this.rejectedAttempts = rejectedAttempts;
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		this.server.setExecutor(executor);
+		this.server.createContext("/", this::handle);
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	public String getUri() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	public int getRequestCount() {
+		return requestCount.get();
+	}
+
+	/**
+	 * Nombre de ressources distinctes appelées.
+	 */
+	public int getResourceCount() {
+		return attempts.size();
+	}
+
+	/**
+	 * Nombre maximal de requêtes traitées simultanément par le serveur.
+	 */
+	public int getMaxInFlight() {
+		return maxInFlight.get();
+	}
+
+	private void handle(final HttpExchange exchange) throws IOException {
+		requestCount.incrementAndGet();
+		maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+		int responseCode = 200;
+		try (InputStream content = exchange.getRequestBody()) {
+			IOUtils.toByteArray(content);
+			Thread.sleep(latency);
+			int attempt = attempts.computeIfAbsent(exchange.getRequestURI().getPath(), path -> new AtomicInteger()).incrementAndGet();
+			if (0 > rejectedAttempts || attempt <= rejectedAttempts) {
+				exchange.getResponseHeaders().add("Retry-After", "0");
+				responseCode = rejectionCode;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			responseCode = 500;
+		} finally {
+			// the request is over as soon as the client gets the response
+			inFlight.decrementAndGet();
+		}
+		exchange.sendResponseHeaders(responseCode, -1);
+		exchange.close();
+	}
+
+}
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.jobs.load;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serveur SMTP local (in-process) acceptant tous les messages, hormis les destinataires configurés comme refusés (code 550).
+ * Chaque réception de message est retardée d'une latence fixe ; les connexions et les messages reçus sont comptés.
+ */
+public class SmtpStubServer {
+
+	private final ServerSocket serverSocket;
+	private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "smtp-stub");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final long latency;
+	private final Set<String> rejectedRecipients = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger connectionCount = new AtomicInteger();
+	private final AtomicInteger messageCount = new AtomicInteger();
+	private final AtomicInteger openConnections = new AtomicInteger();
+	private final AtomicInteger maxOpenConnections = new AtomicInteger();
+
+	/**
+	 * @param latency la latence de réception de chaque message (en millisecondes)
+	 */
+	public SmtpStubServer(final long latency) throws IOException {
+		this.latency = latency;
+		this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+	}
+
+	public void start() {
+		executor.execute(() -> {
+			while (!serverSocket.isClosed()) {
+				try {
+					Socket socket = serverSocket.accept();
+					executor.execute(() -> handle(socket));
+				} catch (IOException e) {
+					// server stopped
+				}
+			}
+		});
+	}
+
+	public void stop() throws IOException {
+		serverSocket.close();
+		executor.shutdownNow();
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	public void reject(final String recipient) {
+		rejectedRecipients.add(recipient);
+	}
+
+	public int getConnectionCount() {
+		return connectionCount.get();
+	}
+
+	public int getMessageCount() {
+		return messageCount.get();
+	}
+
+	/**
+	 * Nombre maximal de connexions ouvertes simultanément.
+	 */
+	public int getMaxOpenConnections() {
+		return maxOpenConnections.get();
+	}
+
+	private void handle(final Socket socket) {
+		connectionCount.incrementAndGet();
+		maxOpenConnections.accumulateAndGet(openConnections.incrementAndGet(), Math::max);
+		try (Socket client = socket;
+				BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.US_ASCII));
+				PrintWriter out = new PrintWriter(client.getOutputStream(), true)) {
+			reply(out, "220 localhost SMTP stub");
+			String line;
+			while (null != (line = in.readLine())) {
+				String command = line.toUpperCase();
+				if (command.startsWith("EHLO") || command.startsWith("HELO")) {
+					reply(out, "250 localhost");
+				} else if (command.startsWith("RCPT TO:")) {
+					String recipient = line.substring("RCPT TO:".length()).trim().replaceAll("[<>]", "");
+					reply(out, rejectedRecipients.contains(recipient) ? "550 mailbox unavailable" : "250 OK");
+				} else if (command.startsWith("DATA")) {
+					reply(out, "354 end data with <CR><LF>.<CR><LF>");
+					while (null != (line = in.readLine()) && !".".equals(line)) {
+						// message content is ignored
+					}
+					Thread.sleep(latency);
+					messageCount.incrementAndGet();
+					reply(out, "250 OK queued");
+				} else if (command.startsWith("QUIT")) {
+					reply(out, "221 bye");
+					break;
+				} else {
+					// MAIL, RSET, NOOP...
+					reply(out, "250 OK");
+				}
+			}
+		} catch (SocketException e) {
+			// connection closed by the client
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			openConnections.decrementAndGet();
+		}
+	}
+
+	private void reply(final PrintWriter out, final String response) {
+		out.print(response + "\r\n");
+		out.flush();
+	}
+
+}
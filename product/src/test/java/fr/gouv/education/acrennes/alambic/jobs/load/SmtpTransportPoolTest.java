@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.jobs.load;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.mail.Message;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SmtpTransportPoolTest {
+
+	private SmtpStubServer server;
+	private Session session;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new SmtpStubServer(0);
+		server.start();
+		Properties properties = new Properties();
+		properties.setProperty("mail.smtp.host", "127.0.0.1");
+		properties.setProperty("mail.smtp.port", String.valueOf(server.getPort()));
+		session = Session.getInstance(properties);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		server.stop();
+	}
+
+	private MimeMessage newMessage(final String recipient) throws Exception {
+		MimeMessage message = new MimeMessage(session);
+		message.setFrom(new InternetAddress("noreply@ac-rennes.fr"));
+		message.addRecipient(Message.RecipientType.TO, new InternetAddress(recipient));
+		message.setSubject("Books availability");
+		message.setContent("The book is available", "text/plain; charset=utf-8");
+		return message;
+	}
+
+	@Test
+	public void testConnectionsAreReused() throws Exception {
+		try (SmtpTransportPool pool = new SmtpTransportPool(session, 1, 5)) {
+			for (int i = 0; i < 12; i++) {
+				pool.send(newMessage("user" + i + "@foo.com"));
+			}
+			Assert.assertEquals(3, pool.getConnectionsCount());
+		}
+		Assert.assertEquals(12, server.getMessageCount());
+		Assert.assertEquals(3, server.getConnectionCount());
+	}
+
+	@Test
+	public void testUnlimitedMessagesPerConnection() throws Exception {
+		try (SmtpTransportPool pool = new SmtpTransportPool(session, 1, 0)) {
+			for (int i = 0; i < 20; i++) {
+				pool.send(newMessage("user" + i + "@foo.com"));
+			}
+		}
+		Assert.assertEquals(20, server.getMessageCount());
+		Assert.assertEquals(1, server.getConnectionCount());
+	}
+
+	@Test
+	public void testConcurrentSenders() throws Exception {
+		server.stop();
+		server = new SmtpStubServer(20);
+		server.start();
+		Properties properties = new Properties();
+		properties.setProperty("mail.smtp.host", "127.0.0.1");
+		properties.setProperty("mail.smtp.port", String.valueOf(server.getPort()));
+		session = Session.getInstance(properties);
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try (SmtpTransportPool pool = new SmtpTransportPool(session, 4, 0)) {
+			List<Future<?>> sendings = new ArrayList<>();
+			for (int i = 0; i < 40; i++) {
+				final MimeMessage message = newMessage("user" + i + "@foo.com");
+				sendings.add(executor.submit(() -> {
+					pool.send(message);
+					return null;
+				}));
+			}
+			for (Future<?> sending : sendings) {
+				sending.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		Assert.assertEquals(40, server.getMessageCount());
+		Assert.assertEquals(4, server.getConnectionCount());
+		Assert.assertTrue(1 < server.getMaxOpenConnections());
+	}
+
+	@Test
+	public void testRejectedRecipient() throws Exception {
+		server.reject("unknown@foo.com");
+		try (SmtpTransportPool pool = new SmtpTransportPool(session, 1, 0)) {
+			pool.send(newMessage("user1@foo.com"));
+			try {
+				pool.send(newMessage("unknown@foo.com"));
+				Assert.fail("The rejected recipient should fail the sending");
+			} catch (SendFailedException e) {
+				// expected
+			}
+			pool.send(newMessage("user2@foo.com"));
+			Assert.assertEquals(2, pool.getConnectionsCount());
+		}
+		Assert.assertEquals(2, server.getMessageCount());
+	}
+
+}
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.jobs.load;
+
+import java.io.File;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Properties;
+
+import org.jdom2.Element;
+import org.jdom2.input.SAXBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+
+import fr.gouv.education.acrennes.alambic.jobs.CallableContext;
+import fr.gouv.education.acrennes.alambic.jobs.JobContext;
+import fr.gouv.education.acrennes.alambic.monitoring.ActivityHelper;
+import fr.gouv.education.acrennes.alambic.monitoring.ActivityMBean;
+import fr.gouv.education.acrennes.alambic.monitoring.ActivityMBean.ACTIVITY_TYPE;
+import fr.gouv.education.acrennes.alambic.monitoring.ActivityTrafficLight;
+import fr.gouv.education.acrennes.alambic.utils.Variables;
+
+public class StateBaseToWSTest {
+
+	private static final int REQUEST_COUNT = 200;
+
+	private RestStubServer server;
+	private File pivot;
+	private CallableContext context;
+	private ActivityMBean jobActivity;
+
+	@Before
+	public void setUp() throws Exception {
+		this.context = new JobContext(".", null, new Variables(), new Properties());
+		this.jobActivity = ActivityHelper.getMBean("testu", ACTIVITY_TYPE.INNER, "1");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (null != server) {
+			server.stop();
+		}
+		if (null != pivot) {
+			Files.deleteIfExists(pivot.toPath());
+		}
+		ActivityHelper.releaseMBean(jobActivity);
+	}
+
+	/* Starts the server then writes the pivot file requesting it once per account */
+	private void startServer(final long latency, final int rejectionCode, final int rejectedAttempts) throws Exception {
+		server = new RestStubServer(latency, rejectionCode, rejectedAttempts);
+		server.start();
+		StringBuilder content = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?><restConnector>");
+		for (int i = 0; i < REQUEST_COUNT; i++) {
+			content.append(String.format("<api uri=\"%s/accounts/user%d\" method=\"PUT\">", server.getUri(), i))
+					.append("<headers><header name=\"Content-Type\">application/json</header></headers>")
+					.append("<response_codes><code type=\"success\">200</code></response_codes>")
+					.append(String.format("<payload>{\"uid\":\"user%d\"}</payload></api>", i));
+		}
+		content.append("</restConnector>");
+		pivot = File.createTempFile("pivot-", ".xml");
+		Files.write(pivot.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private Map<String, Long> run(final String attributes) throws Exception {
+		String destination = String.format("<destination type=\"webService\" name=\"test\" %s><pivot>%s</pivot></destination>", attributes, pivot.getAbsolutePath());
+		Element destinationNode = new SAXBuilder().build(new InputSource(new StringReader(destination))).getRootElement();
+		StateBaseToWS target = new StateBaseToWS(context, destinationNode, jobActivity);
+		try {
+			target.execute();
+		} finally {
+			target.close();
+		}
+		return jobActivity.getMetrics();
+	}
+
+	@Test
+	public void testSequentialDispatch() throws Exception {
+		startServer(0, 503, 0);
+		Map<String, Long> metrics = run("");
+		Assert.assertEquals(REQUEST_COUNT, server.getResourceCount());
+		Assert.assertEquals("requests must be sent one at a time by default", 1, server.getMaxInFlight());
+		Assert.assertEquals(Long.valueOf(REQUEST_COUNT), metrics.get(StateBaseToWS.METRIC_REQUESTS));
+		Assert.assertEquals(Long.valueOf(REQUEST_COUNT), metrics.get(StateBaseToWS.METRIC_LATENCY + ".count"));
+		Assert.assertNull(metrics.get(StateBaseToWS.METRIC_REQUESTS_FAILED));
+		Assert.assertEquals(ActivityTrafficLight.GREEN, jobActivity.getTrafficLight());
+	}
+
+	@Test
+	public void testConcurrentDispatch() throws Exception {
+		startServer(10, 503, 0);
+		Map<String, Long> metrics = run("maxInFlight=\"8\" maxPerHost=\"4\"");
+		Assert.assertEquals(REQUEST_COUNT, server.getResourceCount());
+		Assert.assertEquals(REQUEST_COUNT, server.getRequestCount());
+		Assert.assertTrue("requests must be sent concurrently", 1 < server.getMaxInFlight());
+		Assert.assertTrue("the per host limit must be enforced", 4 >= server.getMaxInFlight());
+		Assert.assertEquals(Long.valueOf(REQUEST_COUNT), metrics.get(StateBaseToWS.METRIC_REQUESTS));
+		Assert.assertEquals(Long.valueOf(REQUEST_COUNT), metrics.get(StateBaseToWS.METRIC_LATENCY + ".count"));
+		Assert.assertTrue(10 <= metrics.get(StateBaseToWS.METRIC_LATENCY + ".p50.ms"));
+		Assert.assertEquals(100, jobActivity.getProgress());
+		Assert.assertEquals(ActivityTrafficLight.GREEN, jobActivity.getTrafficLight());
+	}
+
+	@Test
+	public void testRetryOnTooManyRequests() throws Exception {
+		startServer(0, 429, 2);
+		Map<String, Long> metrics = run("maxInFlight=\"8\" maxRetries=\"2\" retryDelay=\"1\"");
+		Assert.assertEquals(3 * REQUEST_COUNT, server.getRequestCount());
+		Assert.assertEquals(Long.valueOf(2 * REQUEST_COUNT), metrics.get(StateBaseToWS.METRIC_RETRIES));
+		Assert.assertEquals(Long.valueOf(3 * REQUEST_COUNT), metrics.get(StateBaseToWS.METRIC_LATENCY + ".count"));
+		Assert.assertNull(metrics.get(StateBaseToWS.METRIC_REQUESTS_FAILED));
+		Assert.assertEquals(ActivityTrafficLight.GREEN, jobActivity.getTrafficLight());
+	}
+
+	@Test
+	public void testRetriesExhausted() throws Exception {
+		startServer(0, 503, -1);
+		Map<String, Long> metrics = run("maxInFlight=\"4\" maxRetries=\"1\" retryDelay=\"1\"");
+		Assert.assertEquals(2 * REQUEST_COUNT, server.getRequestCount());
+		Assert.assertEquals(Long.valueOf(REQUEST_COUNT), metrics.get(StateBaseToWS.METRIC_RETRIES));
+		Assert.assertEquals(Long.valueOf(REQUEST_COUNT), metrics.get(StateBaseToWS.METRIC_REQUESTS_FAILED));
+		Assert.assertEquals(ActivityTrafficLight.RED, jobActivity.getTrafficLight());
+	}
+
+}
@@ -16,8 +16,18 @@
  ******************************************************************************/
 package fr.gouv.education.acrennes.alambic.jobs.load.gar.builder;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.Mockito;
+import org.powermock.api.mockito.PowerMockito;
+
+import fr.gouv.education.acrennes.alambic.exception.AlambicException;
+import fr.gouv.education.acrennes.alambic.jobs.extract.sources.Source;
+import fr.gouv.education.acrennes.alambic.jobs.extract.sources.WebServiceSource;
 
 public class GARHelperTest {
 
@@ -57,4 +67,94 @@ public class GARHelperTest {
 		Assert.assertEquals("LP", type);
 	}
 
-}
\ No newline at end of file
+	@Test
+	public void test5() throws AlambicException {
+		GARHelper.getInstance().clearCodeValidityCache();
+		Source aaf = PowerMockito.mock(WebServiceSource.class);
+		PowerMockito.when(aaf.query(Mockito.anyString())).thenAnswer(invocation -> {
+			String query = invocation.getArgumentAt(0, String.class);
+			return getResultSet(String.format("{\"hits\":{\"total\":%d,\"hits\":[]}}", query.endsWith("q=identifiant:11110010110\"}") ? 1 : 0));
+		});
+
+		// each distinct code is queried once whatever the count of controls
+		for (int i = 0; i < 3; i++) {
+			Assert.assertTrue(GARHelper.getInstance().isCodeValid(aaf, "AAF", "014", GARHelper.INDEXATION_OBJECT_TYPE.MEF, "11110010110"));
+			Assert.assertFalse(GARHelper.getInstance().isCodeValid(aaf, "AAF", "014", GARHelper.INDEXATION_OBJECT_TYPE.MEF, "99999999999"));
+		}
+		Mockito.verify(aaf, Mockito.times(2)).query(Mockito.anyString());
+
+		// the cache is keyed by index alias
+		Assert.assertFalse(GARHelper.getInstance().isCodeValid(aaf, "AAF", "014", GARHelper.INDEXATION_OBJECT_TYPE.Matiere, "11110010110"));
+		Mockito.verify(aaf, Mockito.times(3)).query(Mockito.anyString());
+		GARHelper.getInstance().clearCodeValidityCache();
+	}
+
+	@Test
+	public void test6() throws AlambicException {
+		GARHelper.getInstance().clearCodeValidityCache();
+		Source aaf = PowerMockito.mock(WebServiceSource.class);
+		PowerMockito.when(aaf.query(Mockito.anyString())).thenAnswer(invocation -> {
+			String query = invocation.getArgumentAt(0, String.class);
+			if (query.contains("/aaf_alias_mateducnat_014/_search") && query.contains("scroll=")) {
+				return getResultSet("{\"_scroll_id\":\"s1\",\"hits\":{\"total\":3,\"hits\":[{\"_source\":{\"identifiant\":\"030201\"}},{\"_source\":{\"identifiant\":\"030602\"}}]}}");
+			} else if (query.contains("scroll_id=s1")) {
+				return getResultSet("{\"_scroll_id\":\"s2\",\"hits\":{\"total\":3,\"hits\":[{\"_source\":{\"identifiant\":\"061300\"}}]}}");
+			} else if (query.contains("scroll_id=s2")) {
+				return getResultSet("{\"_scroll_id\":\"s3\",\"hits\":{\"total\":3,\"hits\":[]}}");
+			}
+			return getResultSet("{\"hits\":{\"total\":0,\"hits\":[]}}");
+		});
+
+		// the whole index is loaded by scroll (3 requests) whose context is then released, then only the unknown codes are queried
+		Assert.assertTrue(GARHelper.getInstance().isCodeValid(aaf, "AAF", "014", GARHelper.INDEXATION_OBJECT_TYPE.Matiere, "030201", true));
+		Assert.assertTrue(GARHelper.getInstance().isCodeValid(aaf, "AAF", "014", GARHelper.INDEXATION_OBJECT_TYPE.Matiere, "030602", true));
+		Assert.assertTrue(GARHelper.getInstance().isCodeValid(aaf, "AAF", "014", GARHelper.INDEXATION_OBJECT_TYPE.Matiere, "061300", true));
+		Mockito.verify(aaf, Mockito.times(4)).query(Mockito.anyString());
+		Mockito.verify(aaf).query("{\"api\":\"/_search/scroll\",\"method\":\"DELETE\",\"payload\":{\"scroll_id\":\"s3\"}}");
+		Assert.assertFalse(GARHelper.getInstance().isCodeValid(aaf, "AAF", "014", GARHelper.INDEXATION_OBJECT_TYPE.Matiere, "000000", true));
+		Assert.assertFalse(GARHelper.getInstance().isCodeValid(aaf, "AAF", "014", GARHelper.INDEXATION_OBJECT_TYPE.Matiere, "000000", true));
+		Mockito.verify(aaf, Mockito.times(5)).query(Mockito.anyString());
+		GARHelper.getInstance().clearCodeValidityCache();
+	}
+
+	@Test
+	public void test8() throws AlambicException {
+		GARHelper.getInstance().clearCodeValidityCache();
+		Source aaf = PowerMockito.mock(WebServiceSource.class);
+		PowerMockito.when(aaf.query(Mockito.anyString())).thenAnswer(invocation -> {
+			String query = invocation.getArgumentAt(0, String.class);
+			if (query.contains("/aaf_alias_mateducnat_014/_search") && query.contains("scroll=")) {
+				return getResultSet("{\"_scroll_id\":\"s1\",\"hits\":{\"total\":3,\"hits\":[{\"_source\":{\"identifiant\":\"030201\"}},{\"_source\":{\"identifiant\":\"030201-B\"}},{\"_source\":{\"identifiant\":\"030602\"}}]}}");
+			} else if (query.contains("scroll_id=s1")) {
+				return getResultSet("{\"_scroll_id\":\"s1\",\"hits\":{\"total\":3,\"hits\":[]}}");
+			}
+			// the analyzed unitary query of '030201' also matches '030201-B'
+			return getResultSet(String.format("{\"hits\":{\"total\":%d,\"hits\":[]}}", query.endsWith("q=identifiant:030201\"}") ? 2 : 0));
+		});
+
+		// a code whose term is found in another identifiant is left to the unitary control, whose result prevails
+		Assert.assertTrue(GARHelper.getInstance().isCodeValid(aaf, "AAF", "014", GARHelper.INDEXATION_OBJECT_TYPE.Matiere, "030602", true));
+		Mockito.verify(aaf, Mockito.times(3)).query(Mockito.anyString());
+		Assert.assertFalse(GARHelper.getInstance().isCodeValid(aaf, "AAF", "014", GARHelper.INDEXATION_OBJECT_TYPE.Matiere, "030201", true));
+		Mockito.verify(aaf, Mockito.times(4)).query(Mockito.anyString());
+		GARHelper.getInstance().clearCodeValidityCache();
+	}
+
+	@Test
+	public void test7() throws AlambicException {
+		GARHelper.getInstance().clearCodeValidityCache();
+		Source aaf = PowerMockito.mock(WebServiceSource.class);
+		PowerMockito.when(aaf.query(Mockito.anyString())).thenReturn(Collections.emptyList());
+
+		// no answer from the index : the code is controlled again
+		Assert.assertFalse(GARHelper.getInstance().isCodeValid(aaf, "AAF", "014", GARHelper.INDEXATION_OBJECT_TYPE.MEF, "11110010110"));
+		Assert.assertFalse(GARHelper.getInstance().isCodeValid(aaf, "AAF", "014", GARHelper.INDEXATION_OBJECT_TYPE.MEF, "11110010110"));
+		Mockito.verify(aaf, Mockito.times(2)).query(Mockito.anyString());
+		GARHelper.getInstance().clearCodeValidityCache();
+	}
+
+	private List<Map<String, List<String>>> getResultSet(final String body) {
+		return Collections.singletonList(Collections.singletonMap("item", Collections.singletonList(body)));
+	}
+
+}
@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.jobs.load.gar.builder;
+
+import fr.gouv.education.acrennes.alambic.jobs.load.gar.binding2d.GARENTEleve;
+import fr.gouv.education.acrennes.alambic.jobs.load.gar.binding2d.GAREleve;
+import fr.gouv.education.acrennes.alambic.jobs.load.gar.binding2d.GARPersonMEF;
+import fr.gouv.education.acrennes.alambic.jobs.load.gar.binding2d.ObjectFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import javax.xml.bind.JAXBException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class GARStreamWriterTest {
+
+    private static final String XSD = "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" targetNamespace=\"http://data.education.fr/ns/gar\""
+            + " xmlns=\"http://data.education.fr/ns/gar\" elementFormDefault=\"qualified\">"
+            + "<xs:complexType name=\"Any\"><xs:sequence><xs:any processContents=\"skip\" minOccurs=\"0\" maxOccurs=\"unbounded\"/></xs:sequence></xs:complexType>"
+            + "<xs:element name=\"GAR-ENT-Eleve\"><xs:complexType><xs:sequence>"
+            + "<xs:element name=\"GAREleve\" type=\"Any\" minOccurs=\"%d\" maxOccurs=\"unbounded\"/>"
+            + "<xs:element name=\"GARPersonMEF\" type=\"Any\" minOccurs=\"0\" maxOccurs=\"unbounded\"/>"
+            + "<xs:element name=\"GAREleveEnseignement\" type=\"Any\" minOccurs=\"0\" maxOccurs=\"unbounded\"/>"
+            + "</xs:sequence><xs:attribute name=\"Version\" type=\"xs:string\" use=\"required\"/></xs:complexType></xs:element>"
+            + "</xs:schema>";
+
+    private final ObjectFactory factory = new ObjectFactory();
+    private File directory;
+
+    @Before
+    public void init() throws IOException {
+        directory = Files.createTempDirectory("gar").toFile();
+    }
+
+    @After
+    public void clean() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testFilesFollowTheSchemaOrder() throws IOException, JAXBException, SAXException {
+        try (GARStreamWriter<GARENTEleve> writer = newWriter(0)) {
+            for (int i = 0; i < 3; i++) {
+                writer.add(newGAREleve("id" + i));
+                writer.add(newGARPersonMEF("id" + i));
+            }
+            writer.flush();
+        }
+
+        // 6 elements by files of 4 elements, the students being written before their MEF
+        List<String> files = getOutputFiles();
+        Assert.assertEquals(Arrays.asList("out-1.xml", "out-2.xml"), files);
+        String content = read("out-1.xml");
+        Assert.assertTrue(content.contains("Version=\"1.6\""));
+        Assert.assertTrue(content.indexOf("<GARPersonIdentifiant>id1</GARPersonIdentifiant>") < content.indexOf("GARPersonMEF"));
+        Assert.assertEquals(2, content.split("<GAREleve>", -1).length - 1);
+        Assert.assertEquals(2, content.split("<GARPersonMEF", -1).length - 1);
+        Assert.assertTrue(read("out-2.xml").contains("<GARPersonIdentifiant>id2</GARPersonIdentifiant>"));
+    }
+
+    @Test
+    public void testValidationErrorIsReportedOnFlush() throws IOException, JAXBException, SAXException {
+        try (GARStreamWriter<GARENTEleve> writer = newWriter(1)) {
+            for (int i = 0; i < 4; i++) {
+                writer.add(newGAREleve("id" + i));
+            }
+            // the trailing file is empty, so it has no student
+            writer.flush();
+            Assert.fail("The validation error should be reported");
+        } catch (JAXBException e) {
+            Assert.assertTrue(e.getCause() instanceof SAXParseException);
+        }
+        // the invalid file is deleted
+        Assert.assertEquals(Arrays.asList("out-1.xml"), getOutputFiles());
+    }
+
+    @Test
+    public void testIncompleteFileIsDiscarded() throws IOException, JAXBException, SAXException {
+        try (GARStreamWriter<GARENTEleve> writer = newWriter(0)) {
+            writer.add(newGAREleve("id0"));
+            writer.add(newGARPersonMEF("id0"));
+        }
+        Assert.assertTrue(getOutputFiles().isEmpty());
+    }
+
+    private GARStreamWriter<GARENTEleve> newWriter(int minStudents) throws IOException, JAXBException, SAXException {
+        File xsd = new File(directory, "GAR-ENT.xsd");
+        Files.write(xsd.toPath(), String.format(XSD, minStudents).getBytes(StandardCharsets.UTF_8));
+        GARENTEleve container = factory.createGARENTEleve();
+        container.setVersion("1.6");
+        return new GARStreamWriter<>(factory.createGARENTEleve(container), xsd.getPath(), new File(directory, "out-%3$d.xml").getPath(), 0, 4);
+    }
+
+    private GAREleve newGAREleve(String id) {
+        GAREleve garEleve = factory.createGAREleve();
+        garEleve.setGARPersonIdentifiant(id);
+        return garEleve;
+    }
+
+    private GARPersonMEF newGARPersonMEF(String id) {
+        GARPersonMEF garPersonMEF = factory.createGARPersonMEF();
+        garPersonMEF.setGARPersonIdentifiant(id);
+        garPersonMEF.setGARMEFCode("MEF");
+        return garPersonMEF;
+    }
+
+    private List<String> getOutputFiles() {
+        return Arrays.stream(directory.list()).filter(name -> name.startsWith("out")).sorted().collect(Collectors.toList());
+    }
+
+    private String read(String name) throws IOException {
+        return new String(Files.readAllBytes(new File(directory, name).toPath()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,288 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.ldap;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+
+import org.apache.directory.shared.ldap.message.ArrayNamingEnumeration;
+import org.jdom2.Element;
+import org.jdom2.input.SAXBuilder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import fr.gouv.education.acrennes.alambic.persistence.EntityManagerHelper;
+import fr.gouv.education.acrennes.alambic.utils.Variables;
+
+public class EntryBatchTest {
+
+	private static final String ROOT_DN = "dc=ac-rennes,dc=fr";
+	private static final String PEOPLE = "ou=people";
+
+	private DirContext rootCtx;
+	private DirContext workCtx;
+	private EntryBatch batch;
+
+	@Before
+	public void setUp() throws Exception {
+		rootCtx = Mockito.mock(DirContext.class);
+		workCtx = Mockito.mock(DirContext.class);
+		when(rootCtx.getNameInNamespace()).thenReturn(ROOT_DN);
+		when(rootCtx.lookup(PEOPLE)).thenReturn(workCtx);
+		batch = new EntryBatch(rootCtx, null);
+	}
+
+	private static SearchResult buildResult(final String uid, final String cn) {
+		final Attributes attributes = new BasicAttributes(true);
+		attributes.put(new BasicAttribute("uid", uid));
+		attributes.put(new BasicAttribute("cn", cn));
+		final SearchResult result = new SearchResult("uid=" + uid, null, attributes);
+		result.setNameInNamespace("uid=" + uid + "," + PEOPLE + "," + ROOT_DN);
+		return result;
+	}
+
+	private static NamingEnumeration<SearchResult> buildResultSet(final SearchResult... results) {
+		return new ArrayNamingEnumeration<>(results);
+	}
+
+	private Entry buildEntry(final String uid, final String cn) throws Exception {
+		return buildEntry(uid, cn, "(uid=" + uid + ")");
+	}
+
+	private Entry buildEntry(final String uid, final String cn, final String filter) throws Exception {
+		final String pivot = "<entry verifyIfExist=\"" + filter + "\">"
+				+ "<dn>uid=" + uid + "," + PEOPLE + "," + ROOT_DN + "</dn>"
+				+ "<attributes>"
+				+ "<attr name=\"uid\" modifyMode=\"ignore\"><value>" + uid + "</value></attr>"
+				+ "<attr name=\"cn\" modifyMode=\"replace\"><value>" + cn + "</value></attr>"
+				+ "</attributes>"
+				+ "</entry>";
+		final Element element = (new SAXBuilder()).build(new StringReader(pivot)).getRootElement();
+		return new Entry(element, rootCtx, null, new Variables(), null, null, batch);
+	}
+
+	private void update(final List<Entry> entries) throws Exception {
+		for (final Entry entry : entries) {
+			try {
+				entry.update();
+			} finally {
+				entry.close();
+			}
+		}
+	}
+
+	/* test use case :
+	 * - the existing entries of a page are read by a single search, then modified without being read again */
+	@Test
+	public void testPrefetchedEntries() throws Exception {
+		when(workCtx.search("", "(|(uid=epoe)(uid=jverne))", (SearchControls) null))
+			.thenReturn(buildResultSet(buildResult("jverne", "VERNE Jules"), buildResult("epoe", "POE Edgar")));
+
+		final List<Entry> entries = Arrays.asList(buildEntry("epoe", "POE Edgar Allan"), buildEntry("jverne", "VERNE Jules"));
+		batch.prefetch(entries);
+		update(entries);
+
+		final Attributes expected = new BasicAttributes();
+		expected.put(new BasicAttribute("cn", "POE Edgar Allan"));
+		verify(workCtx).modifyAttributes("uid=epoe", DirContext.REPLACE_ATTRIBUTE, expected);
+		verify(workCtx, never()).modifyAttributes(eq("uid=jverne"), anyInt(), any(Attributes.class));
+		// a single search, and the work context is opened once for the whole batch
+		verify(workCtx, times(1)).search(anyString(), anyString(), any(SearchControls.class));
+		verify(workCtx, never()).lookup(anyString());
+		verify(rootCtx, times(1)).lookup(PEOPLE);
+		verify(workCtx, never()).close();
+
+		Assert.assertEquals(Long.valueOf(1), batch.getMetrics().get("searches"));
+		Assert.assertEquals(Long.valueOf(2), batch.getMetrics().get("hits"));
+		Assert.assertEquals(Long.valueOf(0), batch.getMetrics().get("misses"));
+
+		batch.close();
+		verify(workCtx).close();
+	}
+
+	/* test use case :
+	 * - an entry not found among the prefetched entries is searched again before its creation */
+	@Test
+	public void testMissingEntryIsSearchedBeforeCreation() throws Exception {
+		when(workCtx.search("", "(|(uid=epoe))", (SearchControls) null)).thenReturn(buildResultSet());
+		when(workCtx.search("", "(uid=epoe)", (SearchControls) null)).thenReturn(buildResultSet());
+		when(workCtx.search("", "uid=epoe*", (SearchControls) null)).thenReturn(buildResultSet());
+
+		final List<Entry> entries = Arrays.asList(buildEntry("epoe", "POE Edgar"));
+		batch.prefetch(entries);
+		update(entries);
+
+		verify(workCtx).search("", "(uid=epoe)", (SearchControls) null);
+		verify(workCtx).createSubcontext(eq("uid=epoe"), any(Attributes.class));
+		Assert.assertEquals(Entry.Status.CREATED, entries.get(0).getStatus());
+		Assert.assertEquals(Long.valueOf(1), batch.getMetrics().get("misses"));
+	}
+
+	/* test use case :
+	 * - an entry modified by a previous entry of the page is read again */
+	@Test
+	public void testModifiedEntryIsReadAgain() throws Exception {
+		when(workCtx.search("", "(|(uid=epoe))", (SearchControls) null)).thenReturn(buildResultSet(buildResult("epoe", "POE Edgar")));
+		when(workCtx.search("", "(uid=epoe)", (SearchControls) null)).thenReturn(buildResultSet(buildResult("epoe", "POE Edgar Allan")));
+
+		final List<Entry> entries = new ArrayList<>(Arrays.asList(buildEntry("epoe", "POE Edgar Allan"), buildEntry("epoe", "POE Edgar Allan")));
+		batch.prefetch(entries);
+		update(entries);
+
+		// the second entry finds the first modification and has nothing to do
+		verify(workCtx, times(1)).modifyAttributes(eq("uid=epoe"), anyInt(), any(Attributes.class));
+		verify(workCtx).search("", "(uid=epoe)", (SearchControls) null);
+		Assert.assertEquals(Long.valueOf(1), batch.getMetrics().get("hits"));
+		Assert.assertEquals(Long.valueOf(1), batch.getMetrics().get("misses"));
+	}
+
+	/* test use case :
+	 * - incremental synchronization: an entry unchanged since the previous run is neither prefetched nor read again */
+	@Test
+	public void testUnchangedEntryIsSkipped() throws Exception {
+		EntityManagerHelper.getInstance("TEST_PERSISTENCE_UNIT", null);
+		final EntrySnapshots snapshots = new EntrySnapshots("test-batch");
+		batch.setSnapshots(snapshots);
+		when(workCtx.search("", "(|(uid=epoe))", (SearchControls) null)).thenReturn(buildResultSet(buildResult("epoe", "POE Edgar")));
+
+		// first run: the entry is compared with the directory and its snapshot is recorded
+		List<Entry> entries = Arrays.asList(buildEntry("epoe", "POE Edgar"));
+		batch.prefetch(entries);
+		update(entries);
+		Assert.assertEquals(Entry.Status.UNCHANGED, entries.get(0).getStatus());
+
+		// second run: the same entry is skipped, a modified one is read again
+		entries = Arrays.asList(buildEntry("epoe", "POE Edgar"));
+		batch.prefetch(entries);
+		update(entries);
+		Assert.assertEquals(Entry.Status.SKIPPED, entries.get(0).getStatus());
+		verify(workCtx, times(1)).search(anyString(), anyString(), any(SearchControls.class));
+
+		when(workCtx.search("", "(|(uid=epoe))", (SearchControls) null)).thenReturn(buildResultSet(buildResult("epoe", "POE Edgar")));
+		entries = Arrays.asList(buildEntry("epoe", "POE Edgar Allan"));
+		batch.prefetch(entries);
+		update(entries);
+		Assert.assertEquals(Entry.Status.UPDATED, entries.get(0).getStatus());
+		snapshots.close();
+	}
+
+	/* test use case :
+	 * - incremental synchronization: the snapshot of an entry whose immediate relation failed is not recorded */
+	@Test
+	public void testFailedRelationIsNotSnapshotted() throws Exception {
+		EntityManagerHelper.getInstance("TEST_PERSISTENCE_UNIT", null);
+		final EntrySnapshots snapshots = new EntrySnapshots("test-batch-relation");
+		batch.setSnapshots(snapshots);
+		when(rootCtx.lookup("cn=group1,ou=groups")).thenThrow(new NamingException("unavailable"));
+		final String pivot = "<entry verifyIfExist=\"(uid=epoe)\">"
+				+ "<dn>uid=epoe," + PEOPLE + "," + ROOT_DN + "</dn>"
+				+ "<attributes>"
+				+ "<attr name=\"uid\" modifyMode=\"ignore\"><value>epoe</value></attr>"
+				+ "<attr name=\"memberOf\" modifyMode=\"replace\" relation=\"member\"><value>cn=group1,ou=groups," + ROOT_DN + "</value></attr>"
+				+ "</attributes>"
+				+ "</entry>";
+
+		for (int run = 0; run < 2; run++) {
+			when(workCtx.search("", "(|(uid=epoe))", (SearchControls) null)).thenReturn(buildResultSet(buildResult("epoe", "POE Edgar")));
+			final Element element = (new SAXBuilder()).build(new StringReader(pivot)).getRootElement();
+			final List<Entry> entries = Arrays.asList(new Entry(element, rootCtx, null, new Variables(), null, null, batch));
+			batch.prefetch(entries);
+			update(entries);
+			// the entry is compared with the directory again, and the relation retried
+			Assert.assertNotEquals(Entry.Status.SKIPPED, entries.get(0).getStatus());
+		}
+		verify(rootCtx, times(2)).lookup("cn=group1,ou=groups");
+		snapshots.close();
+	}
+
+	/* test use case :
+	 * - the entries of a batch without prefetch are searched one by one */
+	@Test
+	public void testUnsupportedFilterIsNotPrefetched() throws Exception {
+		batch.prefetch(new ArrayList<Entry>());
+		Assert.assertNull(batch.find(PEOPLE, "(cn:caseExactMatch:=POE Edgar)"));
+		Assert.assertNull(batch.find(PEOPLE, "(uid=epoe)"));
+		verify(workCtx, never()).search(anyString(), anyString(), any(SearchControls.class));
+	}
+
+	/* test use case :
+	 * - an entry whose filter could be evaluated differently by the server (negation, substring...) is not prefetched */
+	@Test
+	public void testNotExactFilterIsNotPrefetched() throws Exception {
+		when(workCtx.search("", "(|(uid=epoe))", (SearchControls) null)).thenReturn(buildResultSet(buildResult("epoe", "POE Edgar")));
+		when(workCtx.search("", "(uid=jverne*)", (SearchControls) null)).thenReturn(buildResultSet(buildResult("jverne", "VERNE Jules")));
+
+		final List<Entry> entries = Arrays.asList(buildEntry("epoe", "POE Edgar"), buildEntry("jverne", "VERNE Jules", "(uid=jverne*)"));
+		batch.prefetch(entries);
+		update(entries);
+
+		verify(workCtx).search("", "(|(uid=epoe))", (SearchControls) null);
+		verify(workCtx).search("", "(uid=jverne*)", (SearchControls) null);
+		Assert.assertEquals(Long.valueOf(1), batch.getMetrics().get("hits"));
+		Assert.assertEquals(Long.valueOf(1), batch.getMetrics().get("misses"));
+	}
+
+	/* test use case :
+	 * - an entry modified by another batch of the load after the prefetch is read again */
+	@Test
+	public void testEntryModifiedByAnotherBatchIsReadAgain() throws Exception {
+		final EntryModifications modifications = new EntryModifications();
+		batch = new EntryBatch(rootCtx, null, modifications);
+		final EntryBatch otherBatch = new EntryBatch(rootCtx, null, modifications);
+		when(workCtx.search("", "(|(uid=epoe))", (SearchControls) null))
+			.thenReturn(buildResultSet(buildResult("epoe", "POE Edgar")), buildResultSet(buildResult("epoe", "POE Edgar Allan")));
+		when(workCtx.search("", "(uid=epoe)", (SearchControls) null)).thenReturn(buildResultSet(buildResult("epoe", "POE Edgar Allan")));
+
+		final List<Entry> entries = Arrays.asList(buildEntry("epoe", "POE Edgar Allan"));
+		batch.prefetch(entries);
+		otherBatch.invalidate("uid=epoe, ou=people, dc=ac-rennes, dc=fr");
+		update(entries);
+
+		// the prefetched state is stale: the entry is read again and has nothing to do
+		verify(workCtx).search("", "(uid=epoe)", (SearchControls) null);
+		verify(workCtx, never()).modifyAttributes(eq("uid=epoe"), anyInt(), any(Attributes.class));
+		Assert.assertEquals(Long.valueOf(1), batch.getMetrics().get("misses"));
+
+		// a modification prior to the next prefetch is seen by its search
+		batch.prefetch(entries);
+		Assert.assertNotNull(batch.find(PEOPLE, "(uid=epoe)"));
+		otherBatch.close();
+	}
+
+}
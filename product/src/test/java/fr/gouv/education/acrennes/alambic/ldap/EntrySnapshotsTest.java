@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.ldap;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.gouv.education.acrennes.alambic.persistence.EntityManagerHelper;
+
+public class EntrySnapshotsTest {
+
+	private static final String UNIT_TEST_PERSISTENCE_UNIT = "TEST_PERSISTENCE_UNIT";
+
+	@Before
+	public void setUp() {
+		// the embedded persistence unit (h2) is used
+		EntityManagerHelper.getInstance(UNIT_TEST_PERSISTENCE_UNIT, null);
+	}
+
+	@Test
+	public void testPersistedSnapshots() throws Exception {
+		final EntrySnapshots snapshots = new EntrySnapshots("test-persisted");
+		Assert.assertFalse(snapshots.isUnchanged("uid=epoe,ou=people,dc=ac-rennes,dc=fr", "h1"));
+		snapshots.put("uid=epoe,ou=people,dc=ac-rennes,dc=fr", "h1");
+		snapshots.put("uid=jverne,ou=people,dc=ac-rennes,dc=fr", "h2");
+		// the pending snapshots are visible before their persistence
+		Assert.assertTrue(snapshots.isUnchanged("UID=EPOE,ou=people,dc=ac-rennes,dc=fr", "h1"));
+		snapshots.close();
+
+		final EntrySnapshots reloaded = new EntrySnapshots("test-persisted");
+		Assert.assertTrue(reloaded.isUnchanged("uid=epoe,ou=people,dc=ac-rennes,dc=fr", "h1"));
+		Assert.assertTrue(reloaded.isUnchanged("uid=jverne,ou=people,dc=ac-rennes,dc=fr", "h2"));
+		Assert.assertFalse(reloaded.isUnchanged("uid=jverne,ou=people,dc=ac-rennes,dc=fr", "h3"));
+		reloaded.put("uid=jverne,ou=people,dc=ac-rennes,dc=fr", "h3");
+		reloaded.remove("uid=epoe,ou=people,dc=ac-rennes,dc=fr");
+		reloaded.close();
+
+		final EntrySnapshots updated = new EntrySnapshots("test-persisted");
+		Assert.assertFalse(updated.isUnchanged("uid=epoe,ou=people,dc=ac-rennes,dc=fr", "h1"));
+		Assert.assertTrue(updated.isUnchanged("uid=jverne,ou=people,dc=ac-rennes,dc=fr", "h3"));
+		updated.close();
+	}
+
+	@Test
+	public void testRegistry() throws Exception {
+		final EntrySnapshots snapshots = EntrySnapshotsRegistry.getSnapshots("test-registry");
+		Assert.assertSame(snapshots, EntrySnapshotsRegistry.getSnapshots("test-registry"));
+		snapshots.put("uid=epoe,ou=people,dc=ac-rennes,dc=fr", "h1");
+		EntrySnapshotsRegistry.close();
+
+		// the next run loads the snapshots persisted at the end of the previous one
+		final EntrySnapshots reloaded = EntrySnapshotsRegistry.getSnapshots("test-registry");
+		Assert.assertNotSame(snapshots, reloaded);
+		Assert.assertTrue(reloaded.isUnchanged("uid=epoe,ou=people,dc=ac-rennes,dc=fr", "h1"));
+		EntrySnapshotsRegistry.close();
+	}
+
+	@Test
+	public void testHeldAndDroppedSnapshots() throws Exception {
+		final EntrySnapshots snapshots = new EntrySnapshots("test-held");
+		snapshots.put("uid=epoe,ou=people,dc=ac-rennes,dc=fr", "h1");
+		snapshots.put("uid=jverne,ou=people,dc=ac-rennes,dc=fr", "h2");
+		snapshots.flush();
+
+		// the relations of both entries are pending: their new snapshots are not persisted
+		snapshots.hold("uid=epoe,ou=people,dc=ac-rennes,dc=fr");
+		snapshots.hold("uid=jverne,ou=people,dc=ac-rennes,dc=fr");
+		snapshots.put("uid=epoe,ou=people,dc=ac-rennes,dc=fr", "h3");
+		snapshots.put("uid=jverne,ou=people,dc=ac-rennes,dc=fr", "h4");
+		snapshots.flush();
+		final EntrySnapshots concurrent = new EntrySnapshots("test-held");
+		Assert.assertTrue(concurrent.isUnchanged("uid=epoe,ou=people,dc=ac-rennes,dc=fr", "h1"));
+		Assert.assertTrue(concurrent.isUnchanged("uid=jverne,ou=people,dc=ac-rennes,dc=fr", "h2"));
+		concurrent.close();
+
+		// the relations of the first entry are written, those of the second one failed
+		snapshots.release("uid=epoe,ou=people,dc=ac-rennes,dc=fr");
+		snapshots.drop("uid=jverne,ou=people,dc=ac-rennes,dc=fr");
+		snapshots.put("uid=jverne,ou=people,dc=ac-rennes,dc=fr", "h5");
+		snapshots.close();
+
+		final EntrySnapshots reloaded = new EntrySnapshots("test-held");
+		Assert.assertTrue(reloaded.isUnchanged("uid=epoe,ou=people,dc=ac-rennes,dc=fr", "h3"));
+		Assert.assertFalse(reloaded.isUnchanged("uid=jverne,ou=people,dc=ac-rennes,dc=fr", "h2"));
+		Assert.assertFalse(reloaded.isUnchanged("uid=jverne,ou=people,dc=ac-rennes,dc=fr", "h4"));
+		Assert.assertFalse(reloaded.isUnchanged("uid=jverne,ou=people,dc=ac-rennes,dc=fr", "h5"));
+		reloaded.close();
+	}
+
+	@Test
+	public void testIndependentSnapshots() throws Exception {
+		final EntrySnapshots snapshots = new EntrySnapshots("test-first");
+		snapshots.put("uid=epoe,ou=people,dc=ac-rennes,dc=fr", "h1");
+		snapshots.close();
+
+		final EntrySnapshots other = new EntrySnapshots("test-second");
+		Assert.assertFalse(other.isUnchanged("uid=epoe,ou=people,dc=ac-rennes,dc=fr", "h1"));
+		other.close();
+	}
+
+}
@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.ldap;
+
+import java.util.Properties;
+
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.ldap.LdapContext;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.gouv.education.acrennes.alambic.jobs.extract.clients.EmbeddedLdapServer;
+
+public class LdapConnectionPoolTest {
+
+	private EmbeddedLdapServer server;
+	private Properties environment;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new EmbeddedLdapServer(3);
+		server.start();
+		environment = server.getEnvironment(EmbeddedLdapServer.PEOPLE_DN);
+	}
+
+	@After
+	public void tearDown() {
+		LdapConnectionPools.close();
+		server.stop();
+	}
+
+	@Test
+	public void testReuse() throws NamingException {
+		LdapConnectionPool pool = new LdapConnectionPool("test", environment, 2, 1000, 60000, 60000);
+		LdapContext ctx = pool.borrow();
+		Assert.assertEquals(1, pool.getActiveCount());
+		pool.release(ctx);
+		Assert.assertEquals(0, pool.getActiveCount());
+		Assert.assertEquals(1, pool.getIdleCount());
+
+		Assert.assertSame(ctx, pool.borrow());
+		Assert.assertEquals(1, pool.getCreatedCount());
+		pool.release(ctx);
+		pool.close();
+		Assert.assertEquals(0, pool.getIdleCount());
+	}
+
+	@Test
+	public void testMaxSize() throws NamingException {
+		LdapConnectionPool pool = new LdapConnectionPool("test", environment, 1, 100, 60000, 60000);
+		LdapContext ctx = pool.borrow();
+		try {
+			pool.borrow();
+			Assert.fail("The pool should be exhausted");
+		} catch (ServiceUnavailableException e) {
+			Assert.assertTrue(100 <= pool.getWaitTime());
+		}
+
+		pool.invalidate(ctx);
+		Assert.assertEquals(0, pool.getIdleCount());
+		LdapContext other = pool.borrow();
+		Assert.assertNotSame(ctx, other);
+		Assert.assertEquals(2, pool.getCreatedCount());
+		pool.release(other);
+		pool.close();
+	}
+
+	@Test
+	public void testTryBorrow() throws NamingException {
+		LdapConnectionPool pool = new LdapConnectionPool("test", environment, 1, 1000, 60000, 60000);
+		LdapContext ctx = pool.tryBorrow();
+		Assert.assertNotNull(ctx);
+		Assert.assertNull(pool.tryBorrow());
+		Assert.assertEquals(0, pool.getWaitTime());
+
+		pool.release(ctx);
+		Assert.assertSame(ctx, pool.tryBorrow());
+		pool.release(ctx);
+		pool.close();
+	}
+
+	@Test
+	public void testIdleEviction() throws NamingException, InterruptedException {
+		LdapConnectionPool pool = new LdapConnectionPool("test", environment, 2, 1000, 50, 0);
+		LdapContext ctx = pool.borrow();
+		pool.release(ctx);
+		Thread.sleep(100);
+
+		LdapContext other = pool.borrow();
+		Assert.assertNotSame(ctx, other);
+		Assert.assertEquals(Long.valueOf(1), pool.getMetrics().get("destroyed"));
+		pool.release(other);
+		pool.close();
+	}
+
+	@Test
+	public void testValidation() throws NamingException {
+		LdapConnectionPool pool = new LdapConnectionPool("test", environment, 2, 1000, 60000, -1);
+		pool.release(pool.borrow());
+		server.stop();
+
+		// the idle connection fails the validation and no other one can be opened
+		try {
+			pool.borrow();
+			Assert.fail("The LDAP server is stopped");
+		} catch (NamingException e) {
+			Assert.assertEquals(Long.valueOf(1), pool.getMetrics().get("validation.failures"));
+			Assert.assertEquals(0, pool.getIdleCount());
+			Assert.assertEquals(0, pool.getActiveCount());
+		}
+		pool.close();
+	}
+
+	@Test
+	public void testSharedPools() {
+		Properties sameServer = new Properties();
+		sameServer.putAll(environment);
+		sameServer.setProperty("com.sun.jndi.ldap.connect.pool", "true");
+		Assert.assertSame(LdapConnectionPools.getPool(environment), LdapConnectionPools.getPool(sameServer));
+
+		Properties otherBase = server.getEnvironment(EmbeddedLdapServer.BASE_DN);
+		Assert.assertNotSame(LdapConnectionPools.getPool(environment), LdapConnectionPools.getPool(otherBase));
+	}
+
+}
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.ldap;
+
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fr.gouv.education.acrennes.alambic.exception.AlambicException;
+
+public class LdapFilterTest {
+
+	private static Attributes buildAttributes() {
+		final Attributes attributes = new BasicAttributes(true);
+		final Attribute objectClass = new BasicAttribute("objectClass");
+		objectClass.add("top");
+		objectClass.add("inetOrgPerson");
+		attributes.put(objectClass);
+		attributes.put(new BasicAttribute("uid", "epoe"));
+		attributes.put(new BasicAttribute("cn", "POE  Edgar"));
+		attributes.put(new BasicAttribute("mail", "edgar.poe@litterature.com"));
+		attributes.put(new BasicAttribute("uidNumber", "1200"));
+		attributes.put(new BasicAttribute("sn", "Poé".getBytes(java.nio.charset.StandardCharsets.UTF_8)));
+		return attributes;
+	}
+
+	private static boolean matches(final String filter) throws Exception {
+		return LdapFilter.parse(filter).matchesExactly(buildAttributes());
+	}
+
+	@Test
+	public void testEquality() throws Exception {
+		Assert.assertTrue(matches("(uid=epoe)"));
+		Assert.assertTrue(matches("uid=epoe"));
+		Assert.assertTrue(matches("(UID=epoe)"));
+		Assert.assertTrue(matches("(objectClass=inetOrgPerson)"));
+		Assert.assertFalse(matches("(uid=apoe)"));
+		Assert.assertFalse(matches("(givenName=Edgar)"));
+
+		// the case and the spaces of the values are significant
+		Assert.assertFalse(matches("(uid=EPoe)"));
+		Assert.assertFalse(matches("(cn=POE Edgar)"));
+	}
+
+	@Test
+	public void testEscapedValues() throws Exception {
+		Assert.assertTrue(matches("(sn=Poé)"));
+		Assert.assertTrue(matches("(sn=Po\\c3\\a9)"));
+		Assert.assertFalse(matches("(sn=Po\\2a)"));
+	}
+
+	@Test
+	public void testPresence() throws Exception {
+		Assert.assertTrue(matches("(mail=*)"));
+		Assert.assertFalse(matches("(telephoneNumber=*)"));
+	}
+
+	@Test
+	public void testComposites() throws Exception {
+		final LdapFilter filter = LdapFilter.parse("(&(objectClass=inetOrgPerson)(|(uid=apoe)(uid=epoe))(mail=*))");
+		Assert.assertTrue(filter.isExact());
+		Assert.assertTrue(filter.matchesExactly(buildAttributes()));
+		Assert.assertFalse(matches("(&(objectClass=inetOrgPerson)(|(uid=apoe)(uid=jverne)))"));
+	}
+
+	@Test
+	public void testNotExactFilters() throws Exception {
+		for (final String notExact : new String[] { "(!(uid=apoe))", "(mail=edgar*)", "(mail=*@litterature.com)", "(uidNumber>=900)", "(uid<=f)",
+				"(uid~=epoe)", "(&(uid=epoe)(!(objectClass=groupOfNames)))" }) {
+			Assert.assertFalse(notExact, LdapFilter.parse(notExact).isExact());
+			try {
+				LdapFilter.parse(notExact).matchesExactly(buildAttributes());
+				Assert.fail("The filter '" + notExact + "' should not be evaluated exactly");
+			} catch (IllegalStateException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testUnsupportedFilters() {
+		for (final String filter : new String[] { "", "(uid=epoe", "(uid=epoe))", "(=epoe)", "(cn:caseExactMatch:=Poe)", "(uid=\\zz)", "(mail=\\zz*)" }) {
+			try {
+				LdapFilter.parse(filter);
+				Assert.fail("The filter '" + filter + "' should be rejected");
+			} catch (AlambicException e) {
+				// expected
+			}
+		}
+	}
+
+}
@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.ldap;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.naming.NamingException;
+import javax.naming.directory.AttributeInUseException;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.ModificationItem;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+public class LdapRelationBufferTest {
+
+	private static final String ROOT_DN = "dc=ac-rennes,dc=fr";
+	private static final String GROUP1 = "cn=group1,ou=groups," + ROOT_DN;
+	private static final String GROUP2 = "cn=group2,ou=groups," + ROOT_DN;
+
+	private DirContext ctx;
+
+	@Before
+	public void setUp() throws Exception {
+		ctx = Mockito.mock(DirContext.class);
+		when(ctx.getNameInNamespace()).thenReturn(ROOT_DN);
+	}
+
+	@Test
+	public void testRelationsAreCoalescedByTarget() throws Exception {
+		final LdapRelationBuffer buffer = new LdapRelationBuffer(100);
+		buffer.add(ctx, new LdapRelation(ctx, Arrays.asList(GROUP1, GROUP2), LdapRelation.ADD, "member", "uid=user1,ou=people," + ROOT_DN));
+		buffer.add(ctx, new LdapRelation(ctx, Collections.singletonList(GROUP1), LdapRelation.ADD, "member", "uid=user2,ou=people," + ROOT_DN));
+		buffer.add(ctx, new LdapRelation(ctx, Collections.singletonList(GROUP1), LdapRelation.DELETE, "member", "uid=user3,ou=people," + ROOT_DN));
+		verify(ctx, never()).modifyAttributes(any(String.class), any(ModificationItem[].class));
+
+		buffer.flush(ctx);
+		final ArgumentCaptor<ModificationItem[]> captor = ArgumentCaptor.forClass(ModificationItem[].class);
+		verify(ctx).modifyAttributes(eq("cn=group1,ou=groups"), captor.capture());
+		final ModificationItem[] items = captor.getValue();
+		Assert.assertEquals(2, items.length);
+		Assert.assertEquals(DirContext.ADD_ATTRIBUTE, items[0].getModificationOp());
+		Assert.assertEquals(2, items[0].getAttribute().size());
+		Assert.assertEquals(DirContext.REMOVE_ATTRIBUTE, items[1].getModificationOp());
+		Assert.assertTrue(items[1].getAttribute().contains("uid=user3,ou=people," + ROOT_DN));
+		verify(ctx).modifyAttributes(eq("cn=group2,ou=groups"), any(ModificationItem[].class));
+
+		final Map<String, Long> metrics = buffer.getMetrics();
+		Assert.assertEquals(Long.valueOf(4), metrics.get("requested"));
+		Assert.assertEquals(Long.valueOf(2), metrics.get("modifications"));
+		Assert.assertEquals(Long.valueOf(2), metrics.get("coalescing.ratio"));
+	}
+
+	@Test
+	public void testOppositeRelationCancelsPendingOne() throws Exception {
+		final LdapRelationBuffer buffer = new LdapRelationBuffer(100);
+		buffer.add(ctx, new LdapRelation(ctx, Collections.singletonList(GROUP1), LdapRelation.ADD, "member", "uid=user1,ou=people," + ROOT_DN));
+		buffer.add(ctx, new LdapRelation(ctx, Collections.singletonList(GROUP1), LdapRelation.DELETE, "member", "UID=user1,ou=people," + ROOT_DN));
+		buffer.flush(ctx);
+
+		final ArgumentCaptor<ModificationItem[]> captor = ArgumentCaptor.forClass(ModificationItem[].class);
+		verify(ctx).modifyAttributes(eq("cn=group1,ou=groups"), captor.capture());
+		Assert.assertEquals(1, captor.getValue().length);
+		Assert.assertEquals(DirContext.REMOVE_ATTRIBUTE, captor.getValue()[0].getModificationOp());
+	}
+
+	@Test
+	public void testRejectedModificationIsReplayedWithExistingValues() throws Exception {
+		final Attributes existingAttrs = new BasicAttributes(true);
+		final BasicAttribute existingMember = new BasicAttribute("member");
+		existingMember.add("uid=user1,ou=people," + ROOT_DN);
+		existingMember.add("uid=user3,ou=people," + ROOT_DN);
+		existingAttrs.put(existingMember);
+		when(ctx.getAttributes(eq("cn=group1,ou=groups"), any(String[].class))).thenReturn(existingAttrs);
+		Mockito.doThrow(new AttributeInUseException("already exists")).doNothing()
+				.when(ctx).modifyAttributes(eq("cn=group1,ou=groups"), any(ModificationItem[].class));
+
+		final LdapRelationBuffer buffer = new LdapRelationBuffer(100);
+		buffer.add(ctx, new LdapRelation(ctx, Collections.singletonList(GROUP1), LdapRelation.ADD, "member", "uid=user1,ou=people," + ROOT_DN));
+		buffer.add(ctx, new LdapRelation(ctx, Collections.singletonList(GROUP1), LdapRelation.ADD, "member", "uid=user2,ou=people," + ROOT_DN));
+		buffer.add(ctx, new LdapRelation(ctx, Collections.singletonList(GROUP1), LdapRelation.DELETE, "member", "uid=user3,ou=people," + ROOT_DN));
+		buffer.flush(ctx);
+
+		final ArgumentCaptor<ModificationItem[]> captor = ArgumentCaptor.forClass(ModificationItem[].class);
+		verify(ctx, times(2)).modifyAttributes(eq("cn=group1,ou=groups"), captor.capture());
+		final ModificationItem[] items = captor.getAllValues().get(1);
+		Assert.assertEquals(1, items.length);
+		Assert.assertEquals(DirContext.REPLACE_ATTRIBUTE, items[0].getModificationOp());
+		Assert.assertEquals(2, items[0].getAttribute().size());
+		Assert.assertTrue(items[0].getAttribute().contains("uid=user1,ou=people," + ROOT_DN));
+		Assert.assertTrue(items[0].getAttribute().contains("uid=user2,ou=people," + ROOT_DN));
+		Assert.assertEquals(Long.valueOf(1), buffer.getMetrics().get("fallbacks"));
+		Assert.assertEquals(Long.valueOf(0), buffer.getMetrics().get("failures"));
+	}
+
+	@Test
+	public void testFailedRelationDropsSourceSnapshots() throws Exception {
+		Mockito.doThrow(new NamingException("unavailable")).when(ctx).modifyAttributes(eq("cn=group2,ou=groups"), any(ModificationItem[].class));
+		final EntrySnapshots snapshots = Mockito.mock(EntrySnapshots.class);
+
+		final LdapRelationBuffer buffer = new LdapRelationBuffer(100, snapshots);
+		buffer.add(ctx, new LdapRelation(ctx, Collections.singletonList(GROUP1), LdapRelation.ADD, "member", "uid=user1,ou=people," + ROOT_DN), "uid=user1,ou=people," + ROOT_DN);
+		buffer.add(ctx, new LdapRelation(ctx, Arrays.asList(GROUP1, GROUP2), LdapRelation.ADD, "member", "uid=user2,ou=people," + ROOT_DN), "uid=user2,ou=people," + ROOT_DN);
+		verify(snapshots).hold("uid=user1,ou=people," + ROOT_DN);
+		verify(snapshots, times(2)).hold("uid=user2,ou=people," + ROOT_DN);
+
+		buffer.flush(ctx);
+		verify(snapshots).release("uid=user1,ou=people," + ROOT_DN);
+		verify(snapshots, never()).drop("uid=user1,ou=people," + ROOT_DN);
+		verify(snapshots).drop("uid=user2,ou=people," + ROOT_DN);
+		verify(snapshots, never()).release("uid=user2,ou=people," + ROOT_DN);
+		Assert.assertEquals(Long.valueOf(1), buffer.getMetrics().get("failures"));
+	}
+
+	@Test
+	public void testDiscardedRelationsDropSourceSnapshots() throws Exception {
+		final EntrySnapshots snapshots = Mockito.mock(EntrySnapshots.class);
+
+		final LdapRelationBuffer buffer = new LdapRelationBuffer(100, snapshots);
+		buffer.add(ctx, new LdapRelation(ctx, Arrays.asList(GROUP1, GROUP2), LdapRelation.ADD, "member", "uid=user1,ou=people," + ROOT_DN), "uid=user1,ou=people," + ROOT_DN);
+		buffer.discard();
+		verify(snapshots).drop("uid=user1,ou=people," + ROOT_DN);
+		verify(snapshots, never()).release(any(String.class));
+		Assert.assertEquals(Long.valueOf(2), buffer.getMetrics().get("failures"));
+
+		// nothing left to write
+		buffer.flush(ctx);
+		verify(ctx, never()).modifyAttributes(any(String.class), any(ModificationItem[].class));
+	}
+
+	@Test
+	public void testThresholdTriggersFlush() throws Exception {
+		final LdapRelationBuffer buffer = new LdapRelationBuffer(2);
+		buffer.add(ctx, new LdapRelation(ctx, Collections.singletonList(GROUP1), LdapRelation.ADD, "member", "uid=user1,ou=people," + ROOT_DN));
+		verify(ctx, never()).modifyAttributes(any(String.class), any(ModificationItem[].class));
+		buffer.add(ctx, new LdapRelation(ctx, Collections.singletonList(GROUP2), LdapRelation.ADD, "member", "uid=user1,ou=people," + ROOT_DN));
+		verify(ctx, times(2)).modifyAttributes(any(String.class), any(ModificationItem[].class));
+
+		// nothing left to write
+		buffer.flush(ctx);
+		verify(ctx, times(2)).modifyAttributes(any(String.class), any(ModificationItem[].class));
+	}
+
+}
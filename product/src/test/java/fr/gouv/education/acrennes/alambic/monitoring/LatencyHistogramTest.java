@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.monitoring;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void testEmpty() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		Assert.assertEquals(0, histogram.getCount());
+		Assert.assertEquals(0, histogram.getMean());
+		Assert.assertEquals(0, histogram.getPercentile(99));
+	}
+
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+		}
+		Assert.assertEquals(100, histogram.getCount());
+		Assert.assertEquals(50, histogram.getMean());
+		Assert.assertEquals(100, histogram.getMax());
+		Assert.assertEquals(50, histogram.getPercentile(50));
+		Assert.assertEquals(100, histogram.getPercentile(95));
+		Assert.assertEquals(1, histogram.getPercentile(1));
+	}
+
+	@Test
+	public void testBeyondLastBucket() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+		histogram.record(TimeUnit.SECONDS.toNanos(42));
+		Assert.assertEquals(5, histogram.getPercentile(50));
+		Assert.assertEquals(42_000, histogram.getPercentile(99));
+	}
+
+	@Test
+	public void testReport() throws Exception {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(TimeUnit.MILLISECONDS.toNanos(7));
+		histogram.record(TimeUnit.MILLISECONDS.toNanos(8));
+		histogram.record(TimeUnit.SECONDS.toNanos(20));
+		ActivityMBean activity = ActivityHelper.getMBean("histogram", ActivityMBean.ACTIVITY_TYPE.INNER, "1");
+		histogram.report(activity, "test.latency");
+		Assert.assertEquals(Long.valueOf(3), activity.getMetrics().get("test.latency.count"));
+		Assert.assertEquals(Long.valueOf(2), activity.getMetrics().get("test.latency.le.10ms"));
+		Assert.assertEquals(Long.valueOf(1), activity.getMetrics().get("test.latency.gt.10000ms"));
+		Assert.assertEquals(Long.valueOf(20_000), activity.getMetrics().get("test.latency.max.ms"));
+	}
+
+}
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.persistence;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JdbcConnectionPoolTest {
+
+	private static final String DRIVER = "org.h2.Driver";
+	private static final String URI = "jdbc:h2:mem:jdbcconnectionpooltest;DB_CLOSE_DELAY=-1";
+
+	@Before
+	public void setUp() throws ClassNotFoundException {
+		Class.forName(DRIVER);
+	}
+
+	@After
+	public void tearDown() {
+		JdbcConnectionPools.close();
+	}
+
+	@Test
+	public void testReuse() throws SQLException {
+		JdbcConnectionPool pool = new JdbcConnectionPool("test", URI, null, null, 2, 1000, 60000, 60000);
+		Connection connection = pool.borrow();
+		Assert.assertEquals(1, pool.getActiveCount());
+		connection.close();
+		Assert.assertTrue(connection.isClosed());
+		Assert.assertEquals(0, pool.getActiveCount());
+		Assert.assertEquals(1, pool.getIdleCount());
+
+		// closing twice doesn't return the connection twice
+		connection.close();
+		Assert.assertEquals(1, pool.getIdleCount());
+
+		connection = pool.borrow();
+		Assert.assertEquals(1, pool.getCreatedCount());
+		connection.close();
+		pool.close();
+		Assert.assertEquals(0, pool.getIdleCount());
+	}
+
+	@Test(expected = SQLException.class)
+	public void testReturnedConnection() throws SQLException {
+		JdbcConnectionPool pool = new JdbcConnectionPool("test", URI, null, null, 2, 1000, 60000, 60000);
+		Connection connection = pool.borrow();
+		connection.close();
+		try {
+			connection.createStatement();
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testMaxSize() throws SQLException {
+		JdbcConnectionPool pool = new JdbcConnectionPool("test", URI, null, null, 1, 100, 60000, 60000);
+		Connection connection = pool.borrow();
+		try {
+			pool.borrow();
+			Assert.fail("The pool should be exhausted");
+		} catch (SQLException e) {
+			Assert.assertTrue(100 <= pool.getWaitTime());
+		}
+		connection.close();
+
+		connection = pool.borrow();
+		Assert.assertEquals(1, pool.getCreatedCount());
+		connection.close();
+		pool.close();
+	}
+
+	@Test
+	public void testTransactionReset() throws SQLException {
+		JdbcConnectionPool pool = new JdbcConnectionPool("test", URI, null, null, 1, 1000, 60000, 60000);
+		Connection connection = pool.borrow();
+		try (Statement stmt = connection.createStatement()) {
+			stmt.execute("CREATE TABLE POOLED (ID INT PRIMARY KEY)");
+		}
+		connection.setAutoCommit(false);
+		try (Statement stmt = connection.createStatement()) {
+			stmt.execute("INSERT INTO POOLED VALUES (1)");
+		}
+		connection.close();
+
+		// the pending transaction was rolled back and the auto-commit mode restored
+		connection = pool.borrow();
+		Assert.assertTrue(connection.getAutoCommit());
+		try (Statement stmt = connection.createStatement()) {
+			Assert.assertFalse(stmt.executeQuery("SELECT * FROM POOLED").next());
+			stmt.execute("DROP TABLE POOLED");
+		}
+		connection.close();
+		pool.close();
+	}
+
+	@Test
+	public void testSharedPools() throws ClassNotFoundException {
+		Assert.assertSame(JdbcConnectionPools.getPool(DRIVER, URI, "sa", ""), JdbcConnectionPools.getPool(DRIVER, URI, "sa", ""));
+		Assert.assertNotSame(JdbcConnectionPools.getPool(DRIVER, URI, "sa", ""), JdbcConnectionPools.getPool(DRIVER, URI, null, null));
+		Assert.assertEquals("sa@jdbc:h2:mem:jdbcconnectionpooltest", JdbcConnectionPools.getPool(DRIVER, URI, "sa", "").getName());
+	}
+
+}
@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FunctionExpressionTest {
+
+	@Test
+	public void testLiteral() {
+		final FunctionExpression expression = FunctionExpression.compile("uid=jdupont,ou=people (no function)");
+		Assert.assertTrue(expression.isLiteral());
+		Assert.assertEquals("uid=jdupont,ou=people (no function)", expression.getText());
+	}
+
+	@Test
+	public void testNestedCalls() {
+		final FunctionExpression expression = FunctionExpression.compile("a(NOM)(PART)jean-dupont;-;2(/PART)(/NOM)b(2DIGIT mem='d')3(/2DIGIT)c");
+		Assert.assertEquals(2, expression.getCalls().size());
+		Assert.assertEquals("a", expression.getTexts().get(0));
+		Assert.assertEquals("b", expression.getTexts().get(1));
+		Assert.assertEquals("c", expression.getTexts().get(2));
+
+		final FunctionExpression.Call nom = expression.getCalls().get(0);
+		Assert.assertEquals("NOM", nom.getName());
+		Assert.assertFalse(nom.isMemorized());
+		Assert.assertEquals("(NOM)(PART)jean-dupont;-;2(/PART)(/NOM)", nom.getFulltext());
+		Assert.assertEquals(1, nom.getParam().getCalls().size());
+		Assert.assertEquals("PART", nom.getParam().getCalls().get(0).getName());
+		Assert.assertTrue(nom.getParam().getCalls().get(0).getParam().isLiteral());
+
+		final FunctionExpression.Call digit = expression.getCalls().get(1);
+		Assert.assertTrue(digit.isMemorized());
+		Assert.assertEquals("d", digit.getMemory());
+		Assert.assertEquals("3", digit.getParam().getText());
+	}
+
+	@Test
+	public void testUnbalancedCall() {
+		final FunctionExpression expression = FunctionExpression.compile("(NOM)dupont(/PRENOM)");
+		Assert.assertTrue(expression.isLiteral());
+		Assert.assertEquals("(NOM)dupont(/PRENOM)", expression.getTexts().get(0));
+	}
+
+}
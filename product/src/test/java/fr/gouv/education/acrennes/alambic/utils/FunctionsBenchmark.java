@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import fr.gouv.education.acrennes.alambic.exception.AlambicException;
+
+/**
+ * Comparaison du débit de l'exécution des fonctions d'expressions par l'interpréteur historique (analyse par expression
+ * régulière par appel de fonction) et par {@link Functions#executeAllFunctions(String)} (expressions sans fonction non
+ * analysées, expressions analysées en une seule passe).
+ * <p>
+ * Les expressions sont représentatives des valeurs d'attributs d'une entrée LDAP : la plupart sans fonction, certaines
+ * constantes, d'autres résolues avec les valeurs de l'entrée.
+ * </p>
+ * <p>
+ * Exécution : {@code java -cp <classpath de test> fr.gouv.education.acrennes.alambic.utils.FunctionsBenchmark [nombre d'entrées]}
+ * </p>
+ */
+public class FunctionsBenchmark {
+
+	private static final Pattern FUNCTION_PATTERN = Pattern.compile("\\(([a-zA-Z\\.0-9 ]+)([ ]*mem='([^\\ ']*)?'[ ]*)?\\)(.+?)\\(/\\1\\)");
+
+	public static void main(final String[] args) throws AlambicException {
+		final int count = (0 < args.length) ? Integer.parseInt(args[0]) : 200000;
+		final Functions functions = Functions.getInstance();
+
+		// warm-up
+		run(functions, count / 10, true);
+		run(functions, count / 10, false);
+
+		final long legacy = run(functions, count, true);
+		final long compiled = run(functions, count, false);
+		System.out.println(String.format("%d entries : legacy=%d ms (%.0f entries/s), compiled=%d ms (%.0f entries/s), speedup=%.2f",
+				count,
+				legacy / 1000000, count * 1e9 / legacy,
+				compiled / 1000000, count * 1e9 / compiled,
+				(double) legacy / compiled));
+	}
+
+	private static long run(final Functions functions, final int count, final boolean legacy) throws AlambicException {
+		long checksum = 0;
+		final long start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			for (final String expression : expressions(i)) {
+				final String value = legacy ? executeAllFunctionsLegacy(functions, expression) : functions.executeAllFunctions(expression);
+				checksum += value.length();
+			}
+		}
+		final long duration = System.nanoTime() - start;
+		if (0 == checksum) {
+			throw new IllegalStateException();
+		}
+		return duration;
+	}
+
+	private static String[] expressions(final int entry) {
+		final String uid = "jdupont" + entry;
+		return new String[] {
+				"uid=" + uid + ",ou=people,dc=ac-rennes,dc=fr",
+				"Jean",
+				"DUPONT",
+				"jean.dupont" + entry + "@ac-rennes.fr",
+				"ENTPerson",
+				"(NOM)dupont-martin(/NOM)",
+				"(PRENOM)jean-pierre(/PRENOM)",
+				"(2DIGIT)" + (entry % 10) + "(/2DIGIT)",
+				"(PART)" + uid + "@ac-rennes.fr;@;1(/PART)",
+				"%id% - (STRINGFORMAT mem='id')pattern=%07d;values=" + entry + ";types=Integer(/STRINGFORMAT)"
+		};
+	}
+
+	/*
+	 * Interpréteur historique : analyse de l'expression à chaque appel
+	 */
+	private static String executeAllFunctionsLegacy(final Functions functions, String s) throws AlambicException {
+		final Map<String, String> mapTable = new HashMap<>();
+		s = searchFunctionsLegacy(functions, s, mapTable, new CallStack("Root"));
+		final Matcher m = Pattern.compile("%([^%]+)%").matcher(s);
+		while (m.find()) {
+			if (mapTable.containsKey(m.group(1))) {
+				s = s.replace(m.group(0), mapTable.get(m.group(1)));
+			}
+		}
+		return s;
+	}
+
+	private static String searchFunctionsLegacy(final Functions functions, String s, final Map<String, String> mapTable, final CallStack parentCallStack) throws AlambicException {
+		final Matcher m = FUNCTION_PATTERN.matcher(s);
+		while (m.find()) {
+			final String chaine = m.group(0);
+			CallStack callStack = parentCallStack.getInner(chaine);
+			if (null == callStack) {
+				callStack = new CallStack(m.group(1));
+				callStack.setFulltext(chaine);
+				callStack.setParam(m.group(4));
+				parentCallStack.add(callStack);
+			}
+			final String resultat = functions.executeFunction(m.group(1), searchFunctionsLegacy(functions, m.group(4), mapTable, callStack), callStack);
+			if (resultat != null) {
+				s = s.replace(chaine, resultat);
+			}
+			if (m.group(2) != null) {
+				mapTable.put(m.group(3), resultat);
+			}
+		}
+		return s;
+	}
+
+}
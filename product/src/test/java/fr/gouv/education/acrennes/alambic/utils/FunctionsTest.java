@@ -127,5 +127,31 @@ public class FunctionsTest {
 		Assert.assertEquals(20, actual2.length());
 		Assert.assertNotSame(actual, actual2);
 	}
-	
+
+	@Test
+	public void test19() throws AlambicException {
+		// nested calls, unknown function left as is, text without function
+		Assert.assertEquals("X-Dupont-03 (UNKNOWN)x(/UNKNOWN)", Functions.getInstance().executeAllFunctions("X-(NOM)(PART)jean-dupont;-;2(/PART)(/NOM)-(2DIGIT)3(/2DIGIT) (UNKNOWN)x(/UNKNOWN)"));
+		Assert.assertEquals("no function (here)", Functions.getInstance().executeAllFunctions("no function (here)"));
+	}
+
+	@Test
+	public void test20() throws AlambicException {
+		// identical calls share the same result, whatever the evaluation of the cached expression
+		for (int i = 0; i < 2; i++) {
+			final String actual = Functions.getInstance().executeAllFunctions("(UUID)x(/UUID)|(UUID)x(/UUID)|(UUID)y(/UUID)");
+			final String[] uuids = actual.split("\\|");
+			Assert.assertEquals(3, uuids.length);
+			Assert.assertEquals(uuids[0], uuids[1]);
+			Assert.assertNotEquals(uuids[0], uuids[2]);
+		}
+	}
+
+	@Test
+	public void test21() throws AlambicException {
+		// the memorized variables are evaluated again at each execution
+		Assert.assertEquals("3 = 3", Functions.getInstance().executeAllFunctions("%sum% = (ADD mem='sum')2;1(/ADD)"));
+		Assert.assertEquals("5 = 5", Functions.getInstance().executeAllFunctions("%sum% = (ADD mem='sum')4;1(/ADD)"));
+	}
+
 }
\ No newline at end of file
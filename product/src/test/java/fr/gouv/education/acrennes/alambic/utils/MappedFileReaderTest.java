@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MappedFileReaderTest {
+
+	private static final String CONTENT = "NOM;PRÉNOM;CLASSE\nLefèvre;Anaïs;6ème A\nDupré;Zoé;5ème B\n";
+
+	@Test
+	public void testReadAcrossWindows() throws IOException {
+		// windows of 3 bytes make some 2-bytes characters overlap two windows
+		Assert.assertEquals(CONTENT, readAll(StandardCharsets.UTF_8, 3));
+		Assert.assertEquals(CONTENT, readAll(StandardCharsets.UTF_8, MappedFileReader.DEFAULT_WINDOW_SIZE));
+		Assert.assertEquals(CONTENT, readAll(StandardCharsets.ISO_8859_1, 5));
+	}
+
+	@Test
+	public void testReadEmptyFile() throws IOException {
+		Path file = Files.createTempFile("alambic-mapped-", ".csv");
+		try (MappedFileReader reader = new MappedFileReader(file, StandardCharsets.UTF_8)) {
+			Assert.assertEquals(-1, reader.read());
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	private String readAll(final Charset charset, final int windowSize) throws IOException {
+		Path file = Files.createTempFile("alambic-mapped-", ".csv");
+		try {
+			Files.write(file, CONTENT.getBytes(charset));
+			StringBuilder sb = new StringBuilder();
+			try (BufferedReader reader = new BufferedReader(new MappedFileReader(file, charset, windowSize), 7)) {
+				String line;
+				while (null != (line = reader.readLine())) {
+					sb.append(line).append('\n');
+				}
+			}
+			return sb.toString();
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+}
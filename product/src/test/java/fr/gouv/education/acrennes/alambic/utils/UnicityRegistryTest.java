@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (C) 2019-2020 Rennes - Brittany Education Authority (<http://www.ac-rennes.fr>) and others.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package fr.gouv.education.acrennes.alambic.utils;
+
+import java.util.NavigableSet;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UnicityRegistryTest {
+
+	private static final String BASE = "ldap://localhost:389/ou=personnes,dc=ent-bretagne,dc=fr";
+
+	@Before
+	public void setUp() {
+		UnicityRegistry.open();
+	}
+
+	@After
+	public void tearDown() {
+		UnicityRegistry.close();
+	}
+
+	@Test
+	public void testReservedValuesByPrefix() {
+		Assert.assertTrue(UnicityRegistry.reserve(BASE, "gabriel.faure1@ac-rennes.fr"));
+		Assert.assertTrue(UnicityRegistry.reserve(BASE, "Gabriel.Faure2@ac-rennes.fr"));
+		Assert.assertTrue(UnicityRegistry.reserve(BASE, "claude.debussy@ac-rennes.fr"));
+		Assert.assertFalse(UnicityRegistry.reserve(BASE.toUpperCase(), "GABRIEL.FAURE1@ac-rennes.fr"));
+
+		final NavigableSet<String> values = UnicityRegistry.getReservedValues(BASE, "gabriel.faure");
+		Assert.assertEquals(2, values.size());
+		Assert.assertTrue(UnicityRegistry.containsPrefix(values, "gabriel.faure2"));
+		Assert.assertFalse(UnicityRegistry.containsPrefix(values, "gabriel.faure3"));
+		Assert.assertFalse(UnicityRegistry.containsPrefix(values, "claude"));
+
+		// the view follows the values reserved afterwards
+		UnicityRegistry.reserve(BASE, "gabriel.faure3@ac-rennes.fr");
+		Assert.assertTrue(UnicityRegistry.containsPrefix(values, "gabriel.faure3"));
+		Assert.assertTrue(UnicityRegistry.getReservedValues("ldap://localhost:389/ou=other", "gabriel").isEmpty());
+	}
+
+	@Test
+	public void testNoReservationOutsideOfARun() {
+		UnicityRegistry.close();
+		Assert.assertTrue(UnicityRegistry.reserve(BASE, "gabriel.faure1@ac-rennes.fr"));
+		Assert.assertTrue(UnicityRegistry.getReservedValues(BASE, "gabriel").isEmpty());
+	}
+
+}
@@ -65,6 +65,29 @@ public class VariablesTest {
 		Assert.assertEquals("BINGO!", resolvString);
 	}
 
+	@Test
+	public void testResolvStringTemplates() throws AlambicException {
+		final Variables variables = new Variables();
+		variables.put("UID", "jdupont");
+		variables.put("OU", "people");
+		variables.put("NESTED", "%OU%");
+		variables.put("A", "B");
+		variables.put("B", "val");
+
+		// same template resolved with different values
+		Assert.assertEquals("uid=jdupont,ou=people", variables.resolvString(" uid=%UID%,ou=%OU% "));
+		variables.put("UID", "jmartin");
+		Assert.assertEquals("uid=jmartin,ou=people", variables.resolvString(" uid=%UID%,ou=%OU% "));
+
+		// values holding variables, unknown variables and unvalued parameters
+		Assert.assertEquals("ou=people", variables.resolvString("ou=%NESTED%"));
+		Assert.assertEquals("%UNKNOWN%,jmartin", variables.resolvString("%UNKNOWN%,%UID%"));
+		Assert.assertEquals("jmartin", variables.resolvString("%UID%%p1%"));
+
+		// the text between two variables is a variable name: successive substitutions, as before
+		Assert.assertEquals("B%BBB%", variables.resolvString("%A%%B%A%B%"));
+	}
+
 	@Test
 	public void testResolvStringLoopCase1() throws AlambicException {
 		final Variables variables = new Variables();